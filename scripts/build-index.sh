@@ -40,6 +40,14 @@ ONTOLOGY="schemaDotOrg.owl"
 # Set to "-C" to exclude context from processing. 
 EXCLUDE_CONTEXTS=""
 
+# Block codec to also write the bySubject collection with. "lz4" documents are faster to retrieve but bigger.
+# bySubject.bz2 is always written as the index builds read it. Leave empty for just bzip2.
+COLLECTION_CODEC=""
+
+# Set to a number of records, for example 1000, to sample that many records from each of up to 100 input splits
+# and partition the index terms by range. Each sub index then has a contiguous range of terms. Leave empty to hash partition.
+RANGE_PARTITION_SAMPLES=""
+
 # Number of predicates to use when building vertical indexes.  
 # The occurrences of predicates found in the source tuples are counted and then sorted by occurrence count.
 # This limits the resulting list to the top N predicates.
@@ -177,6 +185,10 @@ function groupBySubject () {
 	if [ ! -z ${ONTOLOGY} ] ; then
 		ONTOLOGY_OPTION="-O ${ONTOLOGY}"
 	fi
+	COLLECTION_CODEC_OPTION=""
+	if [ ! -z ${COLLECTION_CODEC} ] ; then
+		COLLECTION_CODEC_OPTION="-c ${COLLECTION_CODEC}"
+	fi
 	
 	local CMD="${HADOOP_CMD} jar ${JAR_FOR_HADOOP} com.yahoo.glimmer.indexing.preprocessor.PrepTool \
 		-Dio.compression.codecs=${COMPRESSION_CODECS} \
@@ -189,6 +201,7 @@ function groupBySubject () {
 		-Dmapreduce.job.queuename=${QUEUE} \
 		${HADOOP_FILES} \
 		${ONTOLOGY_OPTION} \
+		${COLLECTION_CODEC_OPTION} \
 		${EXCLUDE_CONTEXTS} ${INPUT_FILE} ${PREP_DIR}"
 	echo ${CMD}
 	${CMD}
@@ -283,6 +296,11 @@ function generateIndex () {
 		HADOOP_FILES="-files ${ONTOLOGY}#Ontology"
 	fi
 	
+	RANGE_PARTITION_OPTIONS=""
+	if [ ! -z ${RANGE_PARTITION_SAMPLES} ] ; then
+		RANGE_PARTITION_OPTIONS="-s ${RANGE_PARTITION_SAMPLES}"
+	fi
+	
 	echo Generating index..
 	local CMD="${HADOOP_CMD} jar ${JAR_FOR_HADOOP} com.yahoo.glimmer.indexing.generator.TripleIndexGenerator \
 		-Dio.compression.codecs=${COMPRESSION_CODECS} \
@@ -296,7 +314,7 @@ function generateIndex () {
 		-Dmapreduce.job.queuename=${QUEUE} \
 		-Dmapreduce.job.user.classpath.first=true \
 		${HADOOP_FILES} \
-		-m ${METHOD} ${EXCLUDE_CONTEXTS} -p ${PREP_DIR}/topPredicates \
+		-m ${METHOD} ${EXCLUDE_CONTEXTS} ${RANGE_PARTITION_OPTIONS} -p ${PREP_DIR}/topPredicates \
 		${PREP_DIR}/bySubject.bz2 $NUMBER_OF_DOCS ${METHOD_DIR} ${PREP_DIR}/all.map"
 	echo ${CMD}
 	${CMD}
@@ -382,13 +400,18 @@ function mergeSubIndexes() {
 			SUB_INDEXES="${SUB_INDEXES} ${PART_DIR}/${INDEX_NAME}"
 		done
 		
-		# When merging the alignment index there are no counts.
-		NO_COUNTS_OPTIONS=""
-		if [ "${INDEX_NAME}" == "alignment" ] ; then
-			NO_COUNTS_OPTIONS="-cCOUNTS:NONE -cPOSITIONS:NONE"
+		if [ -n "${RANGE_PARTITION_SAMPLES}" ] ; then
+			# The sub indexes hold contiguous term ranges in part order so they only need concatenating.
+			CMD="java -Xmx2G -cp ${JAR_FOR_HADOOP} com.yahoo.glimmer.indexing.generator.TermRangeConcatenator ${INDEX_DIR}/${INDEX_NAME} ${SUB_INDEXES}"
+		else
+			# When merging the alignment index there are no counts.
+			NO_COUNTS_OPTIONS=""
+			if [ "${INDEX_NAME}" == "alignment" ] ; then
+				NO_COUNTS_OPTIONS="-cCOUNTS:NONE -cPOSITIONS:NONE"
+			fi
+			
+			CMD="java -Xmx2G -cp ${JAR_FOR_HADOOP} it.unimi.di.big.mg4j.tool.Merge ${NO_COUNTS_OPTIONS} ${INDEX_DIR}/${INDEX_NAME} ${SUB_INDEXES}"
 		fi
-		
-		CMD="java -Xmx2G -cp ${JAR_FOR_HADOOP} it.unimi.di.big.mg4j.tool.Merge ${NO_COUNTS_OPTIONS} ${INDEX_DIR}/${INDEX_NAME} ${SUB_INDEXES}"
 		echo ${CMD}
 		${CMD}
 		
@@ -435,10 +458,16 @@ getSubIndexes vertical
 mergeSubIndexes vertical
 
 ${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/all" "${LOCAL_BUILD_DIR}/all.txt"
+java -cp ${JAR_FOR_HADOOP} com.yahoo.glimmer.util.FrontCodedStringStore "${LOCAL_BUILD_DIR}/all.txt" "${LOCAL_BUILD_DIR}/all.fcs"
 ${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/all.map" "${LOCAL_BUILD_DIR}"
 ${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/all.smap" "${LOCAL_BUILD_DIR}"
 ${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/bySubject.bz2" "${LOCAL_BUILD_DIR}"
 ${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/bySubject.blockOffsets" "${LOCAL_BUILD_DIR}"
+${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/subjects.bitmap" "${LOCAL_BUILD_DIR}"
+${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/labels.lz4" "${LOCAL_BUILD_DIR}"
+if [ ! -z ${COLLECTION_CODEC} ] ; then
+	${HADOOP_CMD} fs -copyToLocal "${DFS_BUILD_DIR}/prep/bySubject.${COLLECTION_CODEC}" "${LOCAL_BUILD_DIR}"
+fi
 
 echo Done. Index files are here ${LOCAL_BUILD_DIR}
 
@@ -0,0 +1,268 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.big.util.LongBigListSignedStringMap;
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter;
+import com.yahoo.glimmer.indexing.preprocessor.ResourcesReducer;
+import com.yahoo.glimmer.indexing.preprocessor.TupleFilterSerializer;
+import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper;
+import com.yahoo.glimmer.util.BZip2BlockCodec;
+import com.yahoo.glimmer.util.BlockCodecs;
+import com.yahoo.glimmer.util.ComputeHashTool;
+import com.yahoo.glimmer.util.DeltaStringMap;
+import com.yahoo.glimmer.util.FrontCodedStringStore;
+import com.yahoo.glimmer.util.LabelStore;
+import com.yahoo.glimmer.util.SubjectBitmap;
+
+/**
+ * Builds a small side index of the subjects that changed since a main index
+ * was built by {@link LocalIndexBuilder} or scripts/build-index.sh.
+ *
+ * The input is all the tuples of the changed subjects, not only the changed
+ * tuples, as each subject's bySubject record is replaced whole. The records
+ * and postings of subjects in the main index are given its doc ids, so that
+ * RDFIndex can merge the results of both and read a doc from whichever has it.
+ * Resources that aren't in the main index are given ids from the main index's
+ * doc count on, in the delta's own resources hash. Each delta is against the
+ * main index, not the previous delta, so the input should be everything that
+ * changed since the main index was built.
+ *
+ * The delta dir gets a bySubject collection, labels, a subjects bitmap, the
+ * vertical and horizontal indexes, the hash, signatures and store of the new
+ * resources like a main index's and {@link #DELETED_DOCS}, a bitmap of the
+ * main doc ids that the delta replaces or deletes. RDFIndex loads it from the
+ * 'delta' dir of the main index's dir.
+ *
+ * @author tep
+ */
+public class DeltaIndexBuilder extends Configured implements Tool {
+    private final static Logger LOGGER = Logger.getLogger(DeltaIndexBuilder.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A BinIO stored LongArrayBitVector with a bit set for each doc id of the
+     * main index that is masked by the delta.
+     */
+    public static final String DELETED_DOCS = "deleted.bits";
+    /**
+     * The BinIO stored {@link DeltaStringMap} of the new and main resources
+     * that the delta's docs are indexed with.
+     */
+    private static final String DELTA_RESOURCES_HASH = "deltaResources.map";
+
+    private static final String NO_CONTEXTS_ARG = "excludeContexts";
+    private static final String ONTOLOGY_ARG = "ontology";
+    private static final String FILTER_ARG = "filter";
+    private static final String DELETED_SUBJECTS_ARG = "deletedSubjects";
+    private static final String RESOURCE_PREFIX_ARG = "resourcePrefix";
+    private static final String THREADS_ARG = "threads";
+    private static final String SORT_BUFFER_MB_ARG = "sortBufferMb";
+    private static final String TMP_DIR_ARG = "tmpDir";
+    private static final String MAIN_ARG = "main";
+    private static final String INPUT_ARG = "input";
+    private static final String OUTPUT_ARG = "output";
+
+    public static void main(String[] args) throws Exception {
+	int ret = ToolRunner.run(new DeltaIndexBuilder(), args);
+	System.exit(ret);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(DeltaIndexBuilder.class.getName(), "Builds a delta index of changed subjects against a main index on local disk.",
+		new Parameter[] {
+			new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple. Must match the main index."),
+			new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'O', ONTOLOGY_ARG,
+				"The ontology file the main index was built with."),
+			new FlaggedOption(FILTER_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'f', FILTER_ARG,
+				"An XStream serialized TupleFilter to filter the tuples with."),
+			new FlaggedOption(DELETED_SUBJECTS_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'd', DELETED_SUBJECTS_ARG,
+				"A file of subjects, one per line, to delete from the main index."),
+			new FlaggedOption(RESOURCE_PREFIX_ARG, JSAP.STRING_PARSER, "@", JSAP.NOT_REQUIRED, 'r', RESOURCE_PREFIX_ARG,
+				"Prefix to add to object resource hash values when indexing. Must match the main index."),
+			new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 't',
+				THREADS_ARG, "The number of map tasks to run at once."),
+			new FlaggedOption(SORT_BUFFER_MB_ARG, JSAP.INTEGER_PARSER, "64", JSAP.NOT_REQUIRED, 'b', SORT_BUFFER_MB_ARG,
+				"The size of each map task's sort buffer in MB. Full buffers are spilled to the tmp dir."),
+			new FlaggedOption(TMP_DIR_ARG, JSAP.STRING_PARSER, System.getProperty("java.io.tmpdir"), JSAP.NOT_REQUIRED, 'T', TMP_DIR_ARG,
+				"Local dir to spill the map output to."),
+			new UnflaggedOption(MAIN_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local dir of the main index."),
+			new UnflaggedOption(INPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local tuples file or dir of tuples files of the changed subjects."),
+			new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local dir to write the delta to. Mustn't exist."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.print(jsap.getUsage());
+	    System.exit(1);
+	}
+
+	Configuration conf = getConf();
+	LocalIndexBuilder.setupLocalConf(conf);
+	// Written to directly. No .crc files.
+	FileSystem fs = FileSystem.getLocal(conf).getRawFileSystem();
+
+	File mainDir = new File(jsapResult.getString(MAIN_ARG)).getAbsoluteFile();
+	File outputDir = new File(jsapResult.getString(OUTPUT_ARG)).getAbsoluteFile();
+	if (outputDir.exists()) {
+	    throw new IllegalArgumentException("Output dir " + outputDir + " already exists.");
+	}
+	Path prepPath = new Path(new Path(outputDir.toURI()), LocalIndexBuilder.PREP_DIR);
+	File prepDir = new File(outputDir, LocalIndexBuilder.PREP_DIR);
+
+	boolean withContexts = !jsapResult.getBoolean(NO_CONTEXTS_ARG, false);
+	String ontologyFilename = jsapResult.getString(ONTOLOGY_ARG);
+	String filterFilename = jsapResult.getString(FILTER_ARG);
+	int threads = jsapResult.getInt(THREADS_ARG);
+
+	String mainHash = new File(mainDir, LocalIndexBuilder.ALL_RESOURCES + ".map").getPath();
+	String mainSignatures = new File(mainDir, LocalIndexBuilder.ALL_RESOURCES + ".smap").getPath();
+	LongBigListSignedStringMap mainResources = ComputeHashTool.loadSignedHash(fs, new Path(mainHash), new Path(mainSignatures));
+	long mainDocCount = mainResources.size64();
+	LOGGER.info("The main index has " + mainDocCount + " docs.");
+
+	File spillDir = LocalIndexBuilder.createSpillDir(new File(jsapResult.getString(TMP_DIR_ARG)));
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	try {
+	    int sortBufferSize = jsapResult.getInt(SORT_BUFFER_MB_ARG) * 1024 * 1024;
+
+	    Configuration prepConf = new Configuration(conf);
+	    prepConf.setBoolean(TuplesToResourcesMapper.INCLUDE_CONTEXTS_KEY, withContexts);
+	    prepConf.set(ResourcesReducer.DOC_ID_HASH_KEY, mainHash);
+	    prepConf.set(ResourcesReducer.DOC_ID_SIGNATURES_KEY, mainSignatures);
+	    prepConf.setLong(ResourceRecordWriter.DOC_ID_OFFSET_KEY, mainDocCount);
+	    if (filterFilename != null) {
+		LocalIndexBuilder.addCacheFile(prepConf, filterFilename, TupleFilterSerializer.FILTER_XML_SYMBOLIC_NAME);
+	    }
+	    LocalIndexBuilder.prep(prepConf, pool, spillDir, sortBufferSize, new Path(new File(jsapResult.getString(INPUT_ARG)).getAbsoluteFile().toURI()),
+		    fs, prepPath, threads, BZip2BlockCodec.NAME);
+
+	    // The prep's ALL resources are those not in the main index.
+	    long newCount = 0;
+	    String resourcesHash = mainHash;
+	    if (new File(prepDir, LocalIndexBuilder.ALL_RESOURCES).length() > 0) {
+		Path allResourcesPath = new Path(prepPath, LocalIndexBuilder.ALL_RESOURCES);
+		newCount = new ComputeHashTool().buildHash(fs, allResourcesPath.toString(), null, true, true, UTF8, true);
+		LongBigListSignedStringMap newResources = ComputeHashTool.loadSignedHash(fs, new Path(allResourcesPath + ".map"), new Path(allResourcesPath
+			+ ".smap"));
+		@SuppressWarnings("unchecked")
+		Object2LongFunction<CharSequence> mainFunction = (Object2LongFunction<CharSequence>) BinIO.loadObject(mainHash);
+		resourcesHash = new File(prepDir, DELTA_RESOURCES_HASH).getPath();
+		BinIO.storeObject(new DeltaStringMap(newResources, mainDocCount, mainFunction), resourcesHash);
+	    }
+	    long numberOfDocs = mainDocCount + newCount;
+	    LOGGER.info("The delta has " + newCount + " resources that aren't in the main index.");
+
+	    Path bySubjectPath = new Path(prepPath, LocalIndexBuilder.BY_SUBJECT + BlockCodecs.BZIP2.getFileExtension());
+	    String resourcePrefix = jsapResult.getString(RESOURCE_PREFIX_ARG);
+	    for (RDFDocumentFactory.IndexType indexType : RDFDocumentFactory.IndexType.values()) {
+		if (indexType == RDFDocumentFactory.IndexType.UNDEFINED) {
+		    continue;
+		}
+		Configuration indexConf = LocalIndexBuilder.newIndexConf(conf, indexType, withContexts, resourcesHash, resourcePrefix, new File(mainDir,
+			LocalIndexBuilder.TOP_PREDICATES), ontologyFilename);
+		LocalIndexBuilder.buildIndex(indexConf, pool, spillDir, sortBufferSize, fs, bySubjectPath, new File(outputDir, indexType.name().toLowerCase()),
+			numberOfDocs);
+	    }
+
+	    LongArrayBitVector deletedDocs = LongArrayBitVector.ofLength(mainDocCount);
+	    long changedCount = markDocs(new File(prepDir, "subjects"), mainResources, deletedDocs, false);
+	    long deletedCount = 0;
+	    if (jsapResult.contains(DELETED_SUBJECTS_ARG)) {
+		deletedCount = markDocs(new File(jsapResult.getString(DELETED_SUBJECTS_ARG)), mainResources, deletedDocs, true);
+	    }
+	    BinIO.storeObject(deletedDocs, new File(outputDir, DELETED_DOCS));
+	    LOGGER.info("The delta replaces " + changedCount + " and deletes " + deletedCount + " of the main index's docs.");
+
+	    LocalIndexBuilder.moveFile(prepDir, LocalIndexBuilder.ALL_RESOURCES, outputDir, LocalIndexBuilder.ALL_RESOURCES + ".txt");
+	    if (newCount > 0) {
+		FrontCodedStringStore.build(new FileInputStream(new File(outputDir, LocalIndexBuilder.ALL_RESOURCES + ".txt")), new FileOutputStream(new File(
+			outputDir, LocalIndexBuilder.ALL_RESOURCES + FrontCodedStringStore.DOT_STORE)), FrontCodedStringStore.DEFAULT_BLOCK_SIZE);
+		LocalIndexBuilder.moveFile(prepDir, LocalIndexBuilder.ALL_RESOURCES + ".map", outputDir, null);
+		LocalIndexBuilder.moveFile(prepDir, LocalIndexBuilder.ALL_RESOURCES + ".smap", outputDir, null);
+	    }
+
+	    LocalIndexBuilder.moveFile(prepDir, LocalIndexBuilder.BY_SUBJECT + BlockCodecs.BZIP2.getFileExtension(), outputDir, null);
+	    LocalIndexBuilder.moveFile(prepDir, LocalIndexBuilder.BY_SUBJECT + ".blockOffsets", outputDir, null);
+	    LocalIndexBuilder.moveFile(prepDir, LabelStore.NAME + BlockCodecs.LZ4.getFileExtension(), outputDir, null);
+	    LocalIndexBuilder.moveFile(prepDir, SubjectBitmap.NAME, outputDir, null);
+	    FileUtil.fullyDelete(prepDir);
+	} finally {
+	    pool.shutdown();
+	    FileUtil.fullyDelete(spillDir);
+	}
+
+	LOGGER.info("Done. Delta files are here " + outputDir);
+	return 0;
+    }
+
+    /**
+     * Sets the bits of the doc ids of the subjects in the file that are in the
+     * main index.
+     *
+     * @return The number of subjects found in the main index.
+     */
+    private static long markDocs(File subjectsFile, LongBigListSignedStringMap mainResources, LongArrayBitVector docs, boolean warnIfNotFound)
+	    throws IOException {
+	long count = 0;
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(subjectsFile), UTF8));
+	try {
+	    String subject;
+	    while ((subject = reader.readLine()) != null) {
+		if (subject.isEmpty()) {
+		    continue;
+		}
+		Long docId = mainResources.get(subject);
+		if (docId == null) {
+		    if (warnIfNotFound) {
+			LOGGER.warn("Subject isn't in the main index:" + subject);
+		    }
+		    continue;
+		}
+		docs.set(docId);
+		count++;
+	    }
+	} finally {
+	    reader.close();
+	}
+	return count;
+    }
+}
@@ -17,18 +17,16 @@ import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.semanticweb.yars.nx.BNode;
-import org.semanticweb.yars.nx.Resource;
 import org.semanticweb.yars.nx.namespace.RDF;
 
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.RdfCounters;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.ResourceHashLookupException;
+import com.yahoo.glimmer.indexing.RelationCursor.NodeType;
 
 /**
  * A RDF document.
@@ -71,7 +69,7 @@ class HorizontalDocument extends RDFDocument {
 	return IndexType.HORIZONTAL;
     }
 
-    protected void ensureParsed_(Iterator<Relation> relations) throws IOException {
+    protected void ensureParsed_(RelationCursor relations) throws IOException {
 	subject.clear();
 	subjectText.clear();
 	objects.clear();
@@ -111,9 +109,8 @@ class HorizontalDocument extends RDFDocument {
 	fbr.close();
 	
 	// Predicate/object/context are parallel.
-	while (relations.hasNext()) {
-	    Relation relation = relations.next();
-	    String predicate = relation.getPredicate().toString();
+	while (relations.next()) {
+	    String predicate = relations.getPredicateString();
 
 	    // Check if prefix is on blacklist
 	    if (RDFDocumentFactory.isOnPredicateBlacklist(predicate.toLowerCase())) {
@@ -135,36 +132,35 @@ class HorizontalDocument extends RDFDocument {
 	    }
 
 	    String contextId = NO_CONTEXT;
-	    if (factory.isWithContexts() && relation.getContext() != null) {
-		if (relation.getContext() instanceof Resource || relation.getContext() instanceof BNode) {
+	    if (factory.isWithContexts() && relations.hasContext()) {
+		if (relations.getContextType() != NodeType.LITERAL) {
 		    try {
-			contextId = factory.lookupResource(relation.getContext().toString(), true);
+			contextId = factory.lookupResource(relations.getContext(), true);
 		    } catch (ResourceHashLookupException rhle) {
 			factory.incrementCounter(RdfCounters.CONTEXT_NOT_IN_HASH, 1);
-			LOG.info("Context not in hash:" + relation.getContext().toString());
+			LOG.info("Context not in hash:" + relations.getContext());
 			continue;
 		    }
 		} else {
-		    throw new IllegalStateException("Context " + relation.getContext() + " is not a Resource.");
+		    throw new IllegalStateException("Context " + relations.getContext() + " is not a Resource.");
 		}
 	    }
 
-	    if (relation.getObject() instanceof Resource || relation.getObject() instanceof BNode) {
+	    if (relations.getObjectType() != NodeType.LITERAL) {
 		String objectId;
 		try {
-		    objectId = factory.lookupResource(relation.getObject().toString(), true);
+		    objectId = factory.lookupResource(relations.getObject(), true);
 		} catch (ResourceHashLookupException rhle) {
 			factory.incrementCounter(RdfCounters.OBJECT_NOT_IN_HASH, 1);
-			LOG.info("Object not in hash:" + relation.getObject().toString());
+			LOG.info("Object not in hash:" + relations.getObject());
 			continue;
 		    }
 		objects.add(objectId);
 		predicates.add(predicateId);
 		contexts.add(contextId);
 	    } else {
-		String object = relation.getObject().toString();
 		// Iterate over the words of the value
-		fbr = new FastBufferedReader(object.toCharArray());
+		fbr = new FastBufferedReader(relations.getObject());
 		while (fbr.next(word, nonWord)) {
 		    if (word != null && !word.equals("")) {
 			if (CombinedTermProcessor.getInstance().processTerm(word)) {
@@ -0,0 +1,194 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.util.BZip2BlockCodec;
+import com.yahoo.glimmer.util.BlockCodecs;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+
+/**
+ * Folds a delta built by {@link DeltaIndexBuilder} back into its main index by
+ * building a new main index with {@link LocalIndexBuilder}.
+ *
+ * The tuples of the new index are read back from the bySubject collections:
+ * those of the main index's records that the delta doesn't mask and those of
+ * all of the delta's records, including its new subjects.
+ *
+ * @author tep
+ */
+public class IndexCompactor extends Configured implements Tool {
+    private final static Logger LOGGER = Logger.getLogger(IndexCompactor.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String NO_CONTEXTS_ARG = "excludeContexts";
+    private static final String ONTOLOGY_ARG = "ontology";
+    private static final String COLLECTION_CODEC_ARG = "collectionCodec";
+    private static final String VERTICAL_PREDICATES_ARG = "verticalPredicates";
+    private static final String RESOURCE_PREFIX_ARG = "resourcePrefix";
+    private static final String THREADS_ARG = "threads";
+    private static final String SORT_BUFFER_MB_ARG = "sortBufferMb";
+    private static final String TMP_DIR_ARG = "tmpDir";
+    private static final String MAIN_ARG = "main";
+    private static final String DELTA_ARG = "delta";
+    private static final String OUTPUT_ARG = "output";
+
+    private static final String TUPLES_FILENAME = "tuples.nq";
+
+    public static void main(String[] args) throws Exception {
+	int ret = ToolRunner.run(new IndexCompactor(), args);
+	System.exit(ret);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(IndexCompactor.class.getName(), "Builds a new main index from a main index and its delta on local disk.",
+		new Parameter[] {
+			new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple."),
+			new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'O', ONTOLOGY_ARG,
+				"The ontology file. The types of the vertical index's type field are expanded with it."),
+			new FlaggedOption(COLLECTION_CODEC_ARG, JSAP.STRING_PARSER, BZip2BlockCodec.NAME, JSAP.NOT_REQUIRED, 'c', COLLECTION_CODEC_ARG,
+				"Also write the bySubject collection with this block codec."),
+			new FlaggedOption(VERTICAL_PREDICATES_ARG, JSAP.INTEGER_PARSER, "200", JSAP.NOT_REQUIRED, 'n', VERTICAL_PREDICATES_ARG,
+				"The number of most used predicates to build vertical indexes for."),
+			new FlaggedOption(RESOURCE_PREFIX_ARG, JSAP.STRING_PARSER, "@", JSAP.NOT_REQUIRED, 'r', RESOURCE_PREFIX_ARG,
+				"Prefix to add to object resource hash values when indexing."),
+			new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 't',
+				THREADS_ARG, "The number of map tasks to run at once."),
+			new FlaggedOption(SORT_BUFFER_MB_ARG, JSAP.INTEGER_PARSER, "64", JSAP.NOT_REQUIRED, 'b', SORT_BUFFER_MB_ARG,
+				"The size of each map task's sort buffer in MB."),
+			new FlaggedOption(TMP_DIR_ARG, JSAP.STRING_PARSER, System.getProperty("java.io.tmpdir"), JSAP.NOT_REQUIRED, 'T', TMP_DIR_ARG,
+				"Local dir for the tuples and the map output."),
+			new UnflaggedOption(MAIN_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local dir of the main index."),
+			new UnflaggedOption(DELTA_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local dir of the main index's delta."),
+			new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local dir to write the new index to. Mustn't exist."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.print(jsap.getUsage());
+	    System.exit(1);
+	}
+
+	Configuration conf = getConf();
+	LocalIndexBuilder.setupLocalConf(conf);
+
+	File mainDir = new File(jsapResult.getString(MAIN_ARG)).getAbsoluteFile();
+	File deltaDir = new File(jsapResult.getString(DELTA_ARG)).getAbsoluteFile();
+	LongArrayBitVector deletedDocs = (LongArrayBitVector) BinIO.loadObject(new File(deltaDir, DeltaIndexBuilder.DELETED_DOCS));
+
+	File tuplesDir = LocalIndexBuilder.createSpillDir(new File(jsapResult.getString(TMP_DIR_ARG)));
+	try {
+	    Writer tuplesWriter = new OutputStreamWriter(new FileOutputStream(new File(tuplesDir, TUPLES_FILENAME)), UTF8);
+	    try {
+		long mainCount = writeTuples(conf, mainDir, deletedDocs, tuplesWriter);
+		long deltaCount = writeTuples(conf, deltaDir, null, tuplesWriter);
+		LOGGER.info("Kept " + mainCount + " subjects of the main index and added " + deltaCount + " of the delta.");
+	    } finally {
+		tuplesWriter.close();
+	    }
+
+	    List<String> builderArgs = new ArrayList<String>();
+	    if (jsapResult.getBoolean(NO_CONTEXTS_ARG, false)) {
+		builderArgs.add("-C");
+	    }
+	    addArg(builderArgs, "-O", jsapResult.getString(ONTOLOGY_ARG));
+	    addArg(builderArgs, "-c", jsapResult.getString(COLLECTION_CODEC_ARG));
+	    addArg(builderArgs, "-n", Integer.toString(jsapResult.getInt(VERTICAL_PREDICATES_ARG)));
+	    addArg(builderArgs, "-r", jsapResult.getString(RESOURCE_PREFIX_ARG));
+	    addArg(builderArgs, "-t", Integer.toString(jsapResult.getInt(THREADS_ARG)));
+	    addArg(builderArgs, "-b", Integer.toString(jsapResult.getInt(SORT_BUFFER_MB_ARG)));
+	    addArg(builderArgs, "-T", jsapResult.getString(TMP_DIR_ARG));
+	    builderArgs.add(tuplesDir.getPath());
+	    builderArgs.add(jsapResult.getString(OUTPUT_ARG));
+	    return ToolRunner.run(conf, new LocalIndexBuilder(), builderArgs.toArray(new String[0]));
+	} finally {
+	    FileUtil.fullyDelete(tuplesDir);
+	}
+    }
+
+    private static void addArg(List<String> args, String flag, String value) {
+	args.add(flag);
+	args.add(value);
+    }
+
+    /**
+     * Writes the tuples of the records in the dir's bySubject collection as
+     * NQuads.
+     *
+     * @param skipDocs
+     *            The doc ids of the records not to write, or null.
+     * @return The number of records written.
+     */
+    private static long writeTuples(Configuration conf, File dir, LongArrayBitVector skipDocs, Writer tuplesWriter) throws IOException {
+	Path bySubjectPath = new Path(new File(dir, LocalIndexBuilder.BY_SUBJECT + BlockCodecs.BZIP2.getFileExtension()).toURI());
+	BufferedReader reader = new BufferedReader(new InputStreamReader(CompressionCodecHelper.openInputStream(conf, bySubjectPath), UTF8));
+	BySubjectRecord record = new BySubjectRecord();
+	long count = 0;
+	try {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		if (line.isEmpty()) {
+		    continue;
+		}
+		byte[] bytes = line.getBytes(UTF8);
+		try {
+		    record.readFrom(bytes, 0, bytes.length);
+		} catch (BySubjectRecordException e) {
+		    throw new IOException("Failed to parse a bySubject record of " + dir, e);
+		}
+		if (skipDocs != null && record.getId() < skipDocs.length() && skipDocs.getBoolean(record.getId())) {
+		    continue;
+		}
+		String subjectN3 = record.isBNode() ? BySubjectRecord.BNODE_PREFIX + record.getSubject() : "<" + record.getSubject() + ">";
+		for (String relation : record.getRelations()) {
+		    tuplesWriter.write(subjectN3);
+		    tuplesWriter.write(' ');
+		    tuplesWriter.write(relation);
+		    tuplesWriter.write('\n');
+		}
+		count++;
+	    }
+	} finally {
+	    reader.close();
+	}
+	return count;
+    }
+}
@@ -0,0 +1,393 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.big.util.ImmutableExternalPrefixMap;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.io.FileLinesCollection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.serializer.WritableSerialization;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+import com.yahoo.glimmer.indexing.generator.DocumentMapper;
+import com.yahoo.glimmer.indexing.generator.IndexRecordWriter;
+import com.yahoo.glimmer.indexing.generator.TermKey;
+import com.yahoo.glimmer.indexing.generator.TermReduce;
+import com.yahoo.glimmer.indexing.generator.TermValue;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter;
+import com.yahoo.glimmer.indexing.preprocessor.ResourcesReducer;
+import com.yahoo.glimmer.indexing.preprocessor.TupleFilterSerializer;
+import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper;
+import com.yahoo.glimmer.util.BZip2BlockCodec;
+import com.yahoo.glimmer.util.BlockCodecs;
+import com.yahoo.glimmer.util.ComputeHashTool;
+import com.yahoo.glimmer.util.ExternalSorter;
+import com.yahoo.glimmer.util.FrontCodedStringStore;
+import com.yahoo.glimmer.util.LocalMapReduce;
+import com.yahoo.glimmer.util.LZ4BlockCodec;
+import com.yahoo.glimmer.util.LabelStore;
+import com.yahoo.glimmer.util.SubjectBitmap;
+
+/**
+ * Builds the files of an index on local disk in one process, doing what
+ * scripts/build-index.sh does with the PrepTool, ComputeHashTool and
+ * TripleIndexGenerator jobs, without a cluster.
+ *
+ * The TuplesToResourcesMapper/ResourcesReducer and DocumentMapper/TermReduce
+ * pairs are run with {@link LocalMapReduce}. As there is a single reducer per
+ * index type there are no sub indexes to merge. The output dir ends up with
+ * the same files as the script's local build dir, which is what RDFIndex
+ * loads.
+ *
+ * @author tep
+ */
+public class LocalIndexBuilder extends Configured implements Tool {
+    private final static Logger LOGGER = Logger.getLogger(LocalIndexBuilder.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String NO_CONTEXTS_ARG = "excludeContexts";
+    private static final String ONTOLOGY_ARG = "ontology";
+    private static final String FILTER_ARG = "filter";
+    private static final String COLLECTION_CODEC_ARG = "collectionCodec";
+    private static final String VERTICAL_PREDICATES_ARG = "verticalPredicates";
+    private static final String RESOURCE_PREFIX_ARG = "resourcePrefix";
+    private static final String THREADS_ARG = "threads";
+    private static final String SORT_BUFFER_MB_ARG = "sortBufferMb";
+    private static final String TMP_DIR_ARG = "tmpDir";
+    private static final String INPUT_ARG = "input";
+    private static final String OUTPUT_ARG = "output";
+
+    private static final String COMPRESSION_CODECS = "org.apache.hadoop.io.compress.DefaultCodec,org.apache.hadoop.io.compress.GzipCodec,org.apache.hadoop.io.compress.BZip2Codec";
+    private static final int INDEX_WRITER_CACHE_SIZE = 1024 * 1024;
+    static final String PREP_DIR = "prep";
+    static final String ALL_RESOURCES = "all";
+    static final String TOP_PREDICATES = "topPredicates";
+    static final String BY_SUBJECT = "bySubject";
+
+    public static void main(String[] args) throws Exception {
+	int ret = ToolRunner.run(new LocalIndexBuilder(), args);
+	System.exit(ret);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(LocalIndexBuilder.class.getName(), "Builds the horizontal and vertical indexes of RDF tuples on local disk.",
+		new Parameter[] {
+			new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple."),
+			new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'O', ONTOLOGY_ARG,
+				"The ontology file. The types of the vertical index's type field are expanded with it."),
+			new FlaggedOption(FILTER_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'f', FILTER_ARG,
+				"An XStream serialized TupleFilter to filter the tuples with."),
+			new FlaggedOption(COLLECTION_CODEC_ARG, JSAP.STRING_PARSER, BZip2BlockCodec.NAME, JSAP.NOT_REQUIRED, 'c', COLLECTION_CODEC_ARG,
+				"Also write the bySubject collection with this block codec(" + LZ4BlockCodec.NAME + ")."),
+			new FlaggedOption(VERTICAL_PREDICATES_ARG, JSAP.INTEGER_PARSER, "200", JSAP.NOT_REQUIRED, 'n', VERTICAL_PREDICATES_ARG,
+				"The number of most used predicates to build vertical indexes for."),
+			new FlaggedOption(RESOURCE_PREFIX_ARG, JSAP.STRING_PARSER, "@", JSAP.NOT_REQUIRED, 'r', RESOURCE_PREFIX_ARG,
+				"Prefix to add to object resource hash values when indexing."),
+			new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 't',
+				THREADS_ARG, "The number of map tasks to run at once."),
+			new FlaggedOption(SORT_BUFFER_MB_ARG, JSAP.INTEGER_PARSER, "64", JSAP.NOT_REQUIRED, 'b', SORT_BUFFER_MB_ARG,
+				"The size of each map task's sort buffer in MB. Full buffers are spilled to the tmp dir."),
+			new FlaggedOption(TMP_DIR_ARG, JSAP.STRING_PARSER, System.getProperty("java.io.tmpdir"), JSAP.NOT_REQUIRED, 'T', TMP_DIR_ARG,
+				"Local dir to spill the map output to."),
+			new UnflaggedOption(INPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local tuples file or dir of tuples files."),
+			new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "Local dir to write the index to. Mustn't exist."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (!jsapResult.success()) {
+	    System.err.print(jsap.getUsage());
+	    System.exit(1);
+	}
+
+	Configuration conf = getConf();
+	setupLocalConf(conf);
+	// Written to directly. No .crc files.
+	FileSystem fs = FileSystem.getLocal(conf).getRawFileSystem();
+
+	File outputDir = new File(jsapResult.getString(OUTPUT_ARG)).getAbsoluteFile();
+	if (outputDir.exists()) {
+	    throw new IllegalArgumentException("Output dir " + outputDir + " already exists.");
+	}
+	Path outputPath = new Path(outputDir.toURI());
+	Path prepPath = new Path(outputPath, PREP_DIR);
+
+	boolean withContexts = !jsapResult.getBoolean(NO_CONTEXTS_ARG, false);
+	String ontologyFilename = jsapResult.getString(ONTOLOGY_ARG);
+	String filterFilename = jsapResult.getString(FILTER_ARG);
+	int threads = jsapResult.getInt(THREADS_ARG);
+
+	File spillDir = createSpillDir(new File(jsapResult.getString(TMP_DIR_ARG)));
+
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	try {
+	    int sortBufferSize = jsapResult.getInt(SORT_BUFFER_MB_ARG) * 1024 * 1024;
+
+	    // PrepTool
+	    Configuration prepConf = new Configuration(conf);
+	    prepConf.setBoolean(TuplesToResourcesMapper.INCLUDE_CONTEXTS_KEY, withContexts);
+	    prepConf.setStrings(TuplesToResourcesMapper.EXTRA_RESOURCES, getOntologyClasses(ontologyFilename));
+	    if (filterFilename != null) {
+		addCacheFile(prepConf, filterFilename, TupleFilterSerializer.FILTER_XML_SYMBOLIC_NAME);
+	    }
+	    String collectionCodecName = BlockCodecs.forName(jsapResult.getString(COLLECTION_CODEC_ARG)).getName();
+	    prep(prepConf, pool, spillDir, sortBufferSize, new Path(new File(jsapResult.getString(INPUT_ARG)).getAbsoluteFile().toURI()), fs, prepPath,
+		    threads, collectionCodecName);
+
+	    File prepDir = new File(outputDir, PREP_DIR);
+	    writeTopPredicates(new File(prepDir, "predicates"), new File(outputDir, TOP_PREDICATES), jsapResult.getInt(VERTICAL_PREDICATES_ARG));
+
+	    // ComputeHashTool
+	    Path allResourcesPath = new Path(prepPath, ALL_RESOURCES);
+	    long numberOfDocs = new ComputeHashTool().buildHash(fs, allResourcesPath.toString(), null, true, true, UTF8, true);
+	    LOGGER.info("There are " + numberOfDocs + " docs(subjects).");
+
+	    // TripleIndexGenerator
+	    Path bySubjectPath = new Path(prepPath, BY_SUBJECT + BlockCodecs.BZIP2.getFileExtension());
+	    String resourcesHash = new Path(prepPath, ALL_RESOURCES + ".map").toString();
+	    String resourcePrefix = jsapResult.getString(RESOURCE_PREFIX_ARG);
+	    for (RDFDocumentFactory.IndexType indexType : RDFDocumentFactory.IndexType.values()) {
+		if (indexType == RDFDocumentFactory.IndexType.UNDEFINED) {
+		    continue;
+		}
+		Configuration indexConf = newIndexConf(conf, indexType, withContexts, resourcesHash, resourcePrefix, new File(outputDir, TOP_PREDICATES),
+			ontologyFilename);
+		buildIndex(indexConf, pool, spillDir, sortBufferSize, fs, bySubjectPath, new File(outputDir, indexType.name().toLowerCase()), numberOfDocs);
+	    }
+
+	    // Move the files the script copies to the local build dir.
+	    moveFile(prepDir, ALL_RESOURCES, outputDir, ALL_RESOURCES + ".txt");
+	    FrontCodedStringStore.build(new FileInputStream(new File(outputDir, ALL_RESOURCES + ".txt")), new FileOutputStream(new File(outputDir,
+		    ALL_RESOURCES + FrontCodedStringStore.DOT_STORE)), FrontCodedStringStore.DEFAULT_BLOCK_SIZE);
+	    moveFile(prepDir, ALL_RESOURCES + ".map", outputDir, null);
+	    moveFile(prepDir, ALL_RESOURCES + ".smap", outputDir, null);
+	    moveFile(prepDir, BY_SUBJECT + BlockCodecs.BZIP2.getFileExtension(), outputDir, null);
+	    moveFile(prepDir, BY_SUBJECT + ".blockOffsets", outputDir, null);
+	    if (!BZip2BlockCodec.NAME.equals(collectionCodecName)) {
+		moveFile(prepDir, BY_SUBJECT + BlockCodecs.forName(collectionCodecName).getFileExtension(), outputDir, null);
+	    }
+	    moveFile(prepDir, LabelStore.NAME + BlockCodecs.LZ4.getFileExtension(), outputDir, null);
+	    moveFile(prepDir, SubjectBitmap.NAME, outputDir, null);
+	    FileUtil.fullyDelete(prepDir);
+	} finally {
+	    pool.shutdown();
+	    FileUtil.fullyDelete(spillDir);
+	}
+
+	LOGGER.info("Done. Index files are here " + outputDir);
+	return 0;
+    }
+
+    /**
+     * Sets up a conf for running jobs over local files with
+     * {@link LocalMapReduce}.
+     */
+    static void setupLocalConf(Configuration conf) {
+	FileSystem.setDefaultUri(conf, "file:///");
+	if (conf.get("io.compression.codecs") == null) {
+	    conf.set("io.compression.codecs", COMPRESSION_CODECS);
+	}
+	conf.setInt(LineRecordReader.MAX_LINE_LENGTH, 1024 * 1024);
+	// The map outputs are all Writables. ExternalSorter only sorts Writables.
+	conf.setStrings("io.serializations", WritableSerialization.class.getName());
+    }
+
+    static File createSpillDir(File tmpDir) throws IOException {
+	File spillDir = File.createTempFile("localIndexBuilder", "", tmpDir);
+	spillDir.delete();
+	if (!spillDir.mkdirs()) {
+	    throw new IOException("Failed to create spill dir " + spillDir);
+	}
+	return spillDir;
+    }
+
+    /**
+     * Runs the PrepTool's mapper and reducer over the tuples, writing the
+     * resource lists and the bySubject collection to the prep dir.
+     */
+    static void prep(Configuration prepConf, ForkJoinPool pool, File spillDir, int sortBufferSize, Path input, FileSystem fs, Path prepPath, int threads,
+	    String collectionCodecName) throws IOException {
+	LocalMapReduce prep = new LocalMapReduce(prepConf, pool, spillDir, sortBufferSize);
+	ExternalSorter sorter = prep.map(TuplesToResourcesMapper.class, input, new Text.Comparator());
+	try {
+	    ResourceRecordWriter writer = new ResourceRecordWriter(fs, prepPath, null, threads, collectionCodecName);
+	    writer.setDocIdOffset(prepConf.getLong(ResourceRecordWriter.DOC_ID_OFFSET_KEY, 0));
+	    prep.reduce(sorter, ResourcesReducer.class, Text.class, Text.class, new Text.Comparator(), writer);
+	} finally {
+	    sorter.close();
+	}
+	LOGGER.info("Prep counters:" + prep.getCounters());
+    }
+
+    /**
+     * @return A conf for {@link #buildIndex} with the document factory of the
+     *         given index type set up.
+     */
+    static Configuration newIndexConf(Configuration conf, RDFDocumentFactory.IndexType indexType, boolean withContexts, String resourcesHash,
+	    String resourcePrefix, File topPredicatesFile, String ontologyFilename) throws IOException {
+	Configuration indexConf = new Configuration(conf);
+	if (indexType == RDFDocumentFactory.IndexType.HORIZONTAL) {
+	    HorizontalDocumentFactory.setupConf(indexConf, withContexts, resourcesHash, resourcePrefix);
+	} else {
+	    VerticalDocumentFactory.setupConf(indexConf, withContexts, resourcesHash, resourcePrefix, topPredicatesFile.getPath());
+	}
+	addCacheFile(indexConf, ontologyFilename, OntologyLoader.ONTOLOGY_SYMBOLIC_NAME);
+	return indexConf;
+    }
+
+    /**
+     * Runs DocumentMapper and TermReduce over the bySubject collection,
+     * writing the indexes and their term maps to the index dir.
+     */
+    static void buildIndex(Configuration indexConf, ForkJoinPool pool, File spillDir, int sortBufferSize, FileSystem fs, Path bySubjectPath,
+	    File indexDir, long numberOfDocs) throws IOException {
+	RDFDocumentFactory.IndexType indexType = RDFDocumentFactory.getIndexType(indexConf);
+	IndexRecordWriter indexWriter = new IndexRecordWriter(fs, new Path(indexDir.toURI()), numberOfDocs, indexType,
+		RDFDocumentFactory.getHashValuePrefix(indexConf), INDEX_WRITER_CACHE_SIZE, RDFDocumentFactory.getFieldsFromConf(indexConf));
+
+	LocalMapReduce generator = new LocalMapReduce(indexConf, pool, spillDir, sortBufferSize);
+	ExternalSorter sorter = generator.map(DocumentMapper.class, bySubjectPath, new TermKey.Comparator());
+	try {
+	    generator.reduce(sorter, TermReduce.class, TermKey.class, TermValue.class, new TermKey.FirstGroupingComparator(), indexWriter);
+	} finally {
+	    sorter.close();
+	}
+	LOGGER.info(indexType + " counters:" + generator.getCounters());
+
+	buildTermMaps(indexDir);
+    }
+
+    static String[] getOntologyClasses(String ontologyFilename) throws IOException {
+	InputStream ontologyInputStream = new FileInputStream(ontologyFilename);
+	OWLOntology ontology = OntologyLoader.load(ontologyInputStream);
+	LOGGER.info("Loaded ontology from " + ontologyFilename + " with " + ontology.getAxiomCount() + " axioms.");
+
+	ArrayList<String> ontologyClasses = new ArrayList<String>();
+	for (OWLClass owlClass : ontology.getClassesInSignature()) {
+	    ontologyClasses.add(owlClass.getIRI().toString());
+	}
+	return ontologyClasses.toArray(new String[0]);
+    }
+
+    /**
+     * Adds a local file to the conf's cache files, as -files does, so that
+     * it's found by its symbolic name.
+     */
+    @SuppressWarnings("deprecation")
+    static void addCacheFile(Configuration conf, String filename, String symbolicName) {
+	URI fileUri = new File(filename).getAbsoluteFile().toURI();
+	DistributedCache.addCacheFile(URI.create(fileUri.toString() + "#" + symbolicName), conf);
+    }
+
+    /**
+     * Writes the predicates with the highest counts, highest first. The same
+     * as 'sort -nr | cut -f 2 | head -n'.
+     */
+    private static void writeTopPredicates(File predicatesFile, File topPredicatesFile, int n) throws IOException {
+	final List<String[]> countPredicates = new ArrayList<String[]>();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(predicatesFile), UTF8));
+	try {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		int tabIndex = line.indexOf('\t');
+		if (tabIndex != -1) {
+		    countPredicates.add(new String[] { line.substring(0, tabIndex), line.substring(tabIndex + 1) });
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+
+	Collections.sort(countPredicates, new Comparator<String[]>() {
+	    @Override
+	    public int compare(String[] o1, String[] o2) {
+		return Long.compare(Long.parseLong(o2[0]), Long.parseLong(o1[0]));
+	    }
+	});
+
+	Writer writer = new OutputStreamWriter(new FileOutputStream(topPredicatesFile), UTF8);
+	try {
+	    for (int i = 0; i < n && i < countPredicates.size(); i++) {
+		writer.write(countPredicates.get(i)[1]);
+		writer.write('\n');
+	    }
+	} finally {
+	    writer.close();
+	}
+    }
+
+    /**
+     * Builds a .termmap and .termmap.dump for each index in the dir, as
+     * 'ImmutableExternalPrefixMap -o X.terms X.termmap X.termmap.dump' does.
+     */
+    private static void buildTermMaps(File indexDir) throws IOException {
+	File[] termsFiles = indexDir.listFiles(new FilenameFilter() {
+	    @Override
+	    public boolean accept(File dir, String name) {
+		return name.endsWith(".terms");
+	    }
+	});
+	if (termsFiles == null) {
+	    throw new IOException("No index files in " + indexDir);
+	}
+	for (File termsFile : termsFiles) {
+	    String basename = termsFile.getPath().substring(0, termsFile.getPath().length() - ".terms".length());
+	    ImmutableExternalPrefixMap termMap = new ImmutableExternalPrefixMap(new FileLinesCollection(termsFile.getPath(), "UTF-8"), basename
+		    + ".termmap.dump");
+	    BinIO.storeObject(termMap, basename + ".termmap");
+	}
+    }
+
+    static void moveFile(File fromDir, String fromName, File toDir, String toName) throws IOException {
+	File from = new File(fromDir, fromName);
+	File to = new File(toDir, toName == null ? fromName : toName);
+	if (!from.renameTo(to)) {
+	    throw new IOException("Failed to move " + from + " to " + to);
+	}
+    }
+}
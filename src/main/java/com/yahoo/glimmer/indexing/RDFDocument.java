@@ -14,17 +14,9 @@ package com.yahoo.glimmer.indexing;
 import it.unimi.dsi.io.WordReader;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
-import org.semanticweb.yars.nx.Node;
-import org.semanticweb.yars.nx.parser.NxParser;
-import org.semanticweb.yars.nx.parser.ParseException;
 
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.RdfCounters;
-import com.yahoo.glimmer.util.BySubjectRecord;
 import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
 
 
@@ -33,7 +25,7 @@ public abstract class RDFDocument {
     public static final String NO_CONTEXT = "";
 
     protected final RDFDocumentFactory factory;
-    private BySubjectRecord record = new BySubjectRecord();
+    private final RelationCursor relations = new RelationCursor();
     /** Whether we already parsed the document. */
     private boolean parsed;
     /** The cached raw content. */
@@ -46,7 +38,7 @@ public abstract class RDFDocument {
 
     public abstract IndexType getIndexType();
 
-    protected abstract void ensureParsed_(Iterator<Relation> relations) throws IOException;
+    protected abstract void ensureParsed_(RelationCursor relations) throws IOException;
 
     public RDFDocument(RDFDocumentFactory factory) {
 	this.factory = factory;
@@ -72,32 +64,26 @@ public abstract class RDFDocument {
 	}
 	
 	try {
-	    record.readFrom(contentBytes, 0, contentLength);
+	    relations.reset(contentBytes, 0, contentLength);
 	} catch (BySubjectRecordException e) {
 	    factory.incrementCounter(RdfCounters.PARSE_ERROR, 1);
 	    // TODO How to fail?
+	    id = relations.getId();
+	    subject = relations.getSubject();
+	    return;
 	}
 	
-	id = record.getId();
-	subject = record.getSubject();
-
-	List<Relation> relations = new ArrayList<Relation>();
-	for (String relationString : record.getRelations()) {
-	    try {
-		Node[] relationNodes = NxParser.parseNodes(relationString);
-		Relation relation = new Relation(relationNodes);
-		relations.add(relation);
-	    } catch (ParseException e) {
-		System.err.println("Parsing failed for " + subject + ": " + e.getMessage() + "Content was: \n" + relationString);
-		return;
-	    }
+	id = relations.getId();
+	subject = relations.getSubject();
+
+	// The relations are parsed as they are read.
+	ensureParsed_(relations);
+	if (relations.getSkippedCount() > 0) {
+	    factory.incrementCounter(RdfCounters.PARSE_ERROR, relations.getSkippedCount());
 	}
-	if (relations.isEmpty()) {
+	if (relations.getRelationCount() == 0) {
 	    factory.incrementCounter(RdfCounters.EMPTY_DOCUMENTS, 1);
-	    return;
 	}
-
-	ensureParsed_(relations.iterator());
     }
 
     public long getId() {
@@ -121,29 +107,4 @@ public abstract class RDFDocument {
     public String toString() {
 	return getSubject().toString();
     }
-    
-    protected static class Relation {
-	private final Node[] nodes;
-	
-	/**
-	 * 
-	 * @param nodes The array of Nodes excluding the subject.
-	 */
-	public Relation(Node[] nodes) {
-	    this.nodes = nodes;
-	}
-	
-	public Node getPredicate() {
-	    return nodes[0];
-	}
-	public Node getObject() {
-	    return nodes[1];
-	}
-	public Node getContext() {
-	    if (nodes.length > 2) {
-		return nodes[2];
-	    }
-	    return null;
-	}
-    }
 }
\ No newline at end of file
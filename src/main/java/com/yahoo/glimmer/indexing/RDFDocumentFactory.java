@@ -176,28 +176,31 @@ public abstract class RDFDocumentFactory {
 
     /**
      * @param url
+     *            A String or MutableString. The hash function must hash by
+     *            content, as the ones written by ComputeHashTool do.
      * @return The hash value for the given URL/BNode or null. The exact behavior depends on the implementation of the hash function used.
      *  
      */
-    public Long lookupResource(String key) {
+    public Long lookupResource(CharSequence key) {
 	Long value = resourcesHashFunction.get(key);
 	if (value != null && value < 0) {
 	    // throw new RuntimeException("Negative hash value for " + key);
-	    throw new ResourceHashLookupException("Resource lookup resulted in a negative value.", key, value);
+	    throw new ResourceHashLookupException("Resource lookup resulted in a negative value.", key.toString(), value);
 	}
 	return value;
     }
 
-    public String lookupResource(String key, boolean prefixed) {
+    public String lookupResource(CharSequence key, boolean prefixed) {
 	Long value = lookupResource(key);
-	if (value != null) {
-	    if (prefixed) {
-		return resourceIdPrefix + value.toString();
-	    } else {
-		return value.toString();
-	    }
+	if (value == null) {
+	    // Only signed hashes know which keys they don't have.
+	    throw new ResourceHashLookupException("Resource not in hash.", key.toString(), null);
+	}
+	if (prefixed) {
+	    return resourceIdPrefix + value.toString();
+	} else {
+	    return value.toString();
 	}
-	return null;
     }
 
     public boolean isWithContexts() {
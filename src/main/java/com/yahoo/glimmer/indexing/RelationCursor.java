@@ -0,0 +1,394 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.lang.MutableString;
+
+import java.nio.charset.Charset;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.NxParser;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.BySubjectRecordReader;
+
+/**
+ * Reads the relations of a text or binary BySubjectRecord one at a time,
+ * straight from its UTF-8 bytes. The predicate, object and context of the
+ * current relation are decoded into MutableStrings that are reused for every
+ * relation, so no objects are created per relation.
+ *
+ * The values are those NxParser gives as Node.toString(). Relations with
+ * escapes are handed to NxParser to get the unescaping the same.
+ *
+ * @author tep
+ */
+public class RelationCursor {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int MAX_CACHED_PREDICATES = 100000;
+
+    public static enum NodeType {
+	RESOURCE, BNODE, LITERAL
+    }
+
+    private final BySubjectRecord record = new BySubjectRecord();
+    private final BySubjectRecordReader binaryReader = new BySubjectRecordReader();
+    private boolean binary;
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private long id;
+    private String subject;
+    private int relationCount;
+    private int skippedCount;
+
+    private final MutableString predicate = new MutableString();
+    private final MutableString object = new MutableString();
+    private NodeType objectType;
+    private final MutableString context = new MutableString();
+    private NodeType contextType;
+    private boolean hasContext;
+    // Set by readTerm().
+    private NodeType termType;
+
+    private final Object2ObjectOpenHashMap<MutableString, String> predicateStrings = new Object2ObjectOpenHashMap<MutableString, String>();
+
+    /**
+     * Reads the id and subject of the record between start and end and moves
+     * to before its first relation.
+     *
+     * @param bytes
+     * @param start
+     * @param end
+     * @throws BySubjectRecordException
+     *             on an invalid record.
+     */
+    public void reset(byte[] bytes, int start, int end) throws BySubjectRecordException {
+	this.bytes = bytes;
+	this.end = end;
+	id = -1;
+	subject = null;
+	relationCount = 0;
+	skippedCount = 0;
+	binary = BySubjectRecordReader.isBinary(bytes, start, end - start);
+	if (binary) {
+	    binaryReader.reset(bytes, start, end - start);
+	    id = binaryReader.getId();
+	    subject = binaryReader.getString(binaryReader.getSubjectOffset(), binaryReader.getSubjectLength());
+	} else {
+	    position = record.readTextHeaderFrom(bytes, start, end);
+	    id = record.getId();
+	    subject = record.getSubject();
+	}
+    }
+
+    /**
+     * Moves to the next relation. Relations that can't be parsed are logged
+     * and skipped.
+     *
+     * @return false if there are no more relations.
+     */
+    public boolean next() {
+	for (;;) {
+	    boolean parsed;
+	    if (binary) {
+		try {
+		    if (!binaryReader.nextRelation()) {
+			return false;
+		    }
+		} catch (BySubjectRecordException e) {
+		    System.err.println("Truncated relations for " + subject + ": " + e.getMessage());
+		    skippedCount++;
+		    return false;
+		}
+		parsed = readBinaryRelation() || parseRelation(binaryReader.getRelation());
+	    } else {
+		// Only FIELD_DELIMITER terminated relations are read.
+		int fieldStart = position;
+		int fieldEnd = fieldStart;
+		while (fieldEnd < end && bytes[fieldEnd] != BySubjectRecord.FIELD_DELIMITER && bytes[fieldEnd] != BySubjectRecord.RECORD_DELIMITER) {
+		    fieldEnd++;
+		}
+		if (fieldEnd == end || bytes[fieldEnd] != BySubjectRecord.FIELD_DELIMITER) {
+		    position = end;
+		    return false;
+		}
+		position = fieldEnd + 1;
+		if (fieldEnd == fieldStart) {
+		    continue;
+		}
+		parsed = readTextRelation(fieldStart, fieldEnd) || parseRelation(new String(bytes, fieldStart, fieldEnd - fieldStart, CHARSET));
+	    }
+	    if (parsed) {
+		relationCount++;
+		return true;
+	    }
+	    skippedCount++;
+	}
+    }
+
+    private boolean readTextRelation(int start, int end) {
+	int position = readTerm(bytes, skipWhitespace(start, end), end, predicate);
+	if (position == -1) {
+	    return false;
+	}
+	position = readTerm(bytes, skipWhitespace(position, end), end, object);
+	if (position == -1) {
+	    return false;
+	}
+	objectType = termType;
+	position = skipWhitespace(position, end);
+	hasContext = position < end && bytes[position] != '.';
+	if (hasContext) {
+	    if (readTerm(bytes, position, end, context) == -1) {
+		return false;
+	    }
+	    contextType = termType;
+	}
+	return true;
+    }
+
+    private boolean readBinaryRelation() {
+	byte[] bytes = binaryReader.getBytes();
+	int predicateEnd = binaryReader.getPredicateOffset() + binaryReader.getPredicateLength();
+	int objectEnd = binaryReader.getObjectOffset() + binaryReader.getObjectLength();
+	if (binaryReader.getObjectLength() == 0 || readTerm(bytes, binaryReader.getPredicateOffset(), predicateEnd, predicate) != predicateEnd
+		|| readTerm(bytes, binaryReader.getObjectOffset(), objectEnd, object) != objectEnd) {
+	    return false;
+	}
+	objectType = termType;
+	hasContext = binaryReader.getContextLength() > 0;
+	if (hasContext) {
+	    int contextEnd = binaryReader.getContextOffset() + binaryReader.getContextLength();
+	    if (readTerm(bytes, binaryReader.getContextOffset(), contextEnd, context) != contextEnd) {
+		return false;
+	    }
+	    contextType = termType;
+	}
+	return true;
+    }
+
+    /**
+     * The slow path for relations with escapes or that aren't as expected.
+     */
+    private boolean parseRelation(String relation) {
+	Node[] nodes;
+	try {
+	    nodes = NxParser.parseNodes(relation);
+	} catch (ParseException e) {
+	    System.err.println("Parsing failed for " + subject + ": " + e.getMessage() + "Content was: \n" + relation);
+	    return false;
+	}
+	if (nodes.length < 2) {
+	    System.err.println("Parsing failed for " + subject + ". Content was: \n" + relation);
+	    return false;
+	}
+	predicate.replace(nodes[0].toString());
+	object.replace(nodes[1].toString());
+	objectType = getNodeType(nodes[1]);
+	hasContext = nodes.length > 2;
+	if (hasContext) {
+	    context.replace(nodes[2].toString());
+	    contextType = getNodeType(nodes[2]);
+	}
+	return true;
+    }
+
+    private static NodeType getNodeType(Node node) {
+	if (node instanceof Resource) {
+	    return NodeType.RESOURCE;
+	}
+	if (node instanceof BNode) {
+	    return NodeType.BNODE;
+	}
+	return NodeType.LITERAL;
+    }
+
+    private int skipWhitespace(int position, int end) {
+	while (position < end && (bytes[position] == ' ' || bytes[position] == '\t')) {
+	    position++;
+	}
+	return position;
+    }
+
+    /**
+     * Decodes the value of the N-Triples term starting at start into target
+     * and sets termType.
+     *
+     * @return The end of the term or -1 if it has escapes or isn't a term.
+     */
+    private int readTerm(byte[] bytes, int start, int end, MutableString target) {
+	if (start >= end) {
+	    return -1;
+	}
+	int position;
+	switch (bytes[start]) {
+	case '<':
+	    position = start + 1;
+	    while (position < end && bytes[position] != '>') {
+		if (bytes[position] == '\\') {
+		    return -1;
+		}
+		position++;
+	    }
+	    if (position == end) {
+		return -1;
+	    }
+	    decode(bytes, start + 1, position, target);
+	    termType = NodeType.RESOURCE;
+	    return position + 1;
+	case '_':
+	    if (start + 1 == end || bytes[start + 1] != ':') {
+		return -1;
+	    }
+	    position = skipToWhitespace(bytes, start + 2, end);
+	    decode(bytes, start + 2, position, target);
+	    termType = NodeType.BNODE;
+	    return position;
+	case '"':
+	    position = start + 1;
+	    while (position < end && bytes[position] != '"') {
+		if (bytes[position] == '\\') {
+		    return -1;
+		}
+		position++;
+	    }
+	    if (position == end) {
+		return -1;
+	    }
+	    decode(bytes, start + 1, position, target);
+	    termType = NodeType.LITERAL;
+	    position++;
+	    if (position + 2 < end && bytes[position] == '^' && bytes[position + 1] == '^' && bytes[position + 2] == '<') {
+		// A datatype.
+		while (position < end && bytes[position] != '>') {
+		    position++;
+		}
+		return position == end ? -1 : position + 1;
+	    }
+	    // A language tag, if any.
+	    return skipToWhitespace(bytes, position, end);
+	default:
+	    return -1;
+	}
+    }
+
+    private static int skipToWhitespace(byte[] bytes, int position, int end) {
+	while (position < end && bytes[position] != ' ' && bytes[position] != '\t') {
+	    position++;
+	}
+	return position;
+    }
+
+    /**
+     * Decodes UTF-8. Malformed sequences are replaced with U+FFFD.
+     */
+    static void decode(byte[] bytes, int start, int end, MutableString target) {
+	target.length(0);
+	int i = start;
+	while (i < end) {
+	    int b = bytes[i++];
+	    if (b >= 0) {
+		target.append((char) b);
+	    } else if ((b & 0xE0) == 0xC0 && i < end && isContinuation(bytes[i])) {
+		target.append((char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F)));
+	    } else if ((b & 0xF0) == 0xE0 && i + 1 < end && isContinuation(bytes[i]) && isContinuation(bytes[i + 1])) {
+		target.append((char) (((b & 0x0F) << 12) | ((bytes[i] & 0x3F) << 6) | (bytes[i + 1] & 0x3F)));
+		i += 2;
+	    } else if ((b & 0xF8) == 0xF0 && i + 2 < end && isContinuation(bytes[i]) && isContinuation(bytes[i + 1]) && isContinuation(bytes[i + 2])) {
+		int codePoint = ((b & 0x07) << 18) | ((bytes[i] & 0x3F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F);
+		target.append(Character.highSurrogate(codePoint));
+		target.append(Character.lowSurrogate(codePoint));
+		i += 3;
+	    } else {
+		target.append('\uFFFD');
+	    }
+	}
+    }
+
+    private static boolean isContinuation(byte b) {
+	return (b & 0xC0) == 0x80;
+    }
+
+    public long getId() {
+	return id;
+    }
+
+    /**
+     * @return The subject or null if the record couldn't be read.
+     */
+    public String getSubject() {
+	return subject;
+    }
+
+    /**
+     * @return The number of relations read so far.
+     */
+    public int getRelationCount() {
+	return relationCount;
+    }
+
+    /**
+     * @return The number of relations that couldn't be parsed so far.
+     */
+    public int getSkippedCount() {
+	return skippedCount;
+    }
+
+    public MutableString getPredicate() {
+	return predicate;
+    }
+
+    /**
+     * @return The predicate as a String. The Strings of the most recently
+     *         seen predicates are cached, as there are few predicates.
+     */
+    public String getPredicateString() {
+	String predicateString = predicateStrings.get(predicate);
+	if (predicateString == null) {
+	    if (predicateStrings.size() >= MAX_CACHED_PREDICATES) {
+		predicateStrings.clear();
+	    }
+	    predicateString = predicate.toString();
+	    predicateStrings.put(predicate.copy(), predicateString);
+	}
+	return predicateString;
+    }
+
+    public MutableString getObject() {
+	return object;
+    }
+
+    public NodeType getObjectType() {
+	return objectType;
+    }
+
+    /**
+     * @return true if the current relation has a context.
+     */
+    public boolean hasContext() {
+	return hasContext;
+    }
+
+    public MutableString getContext() {
+	return context;
+    }
+
+    public NodeType getContextType() {
+	return contextType;
+    }
+}
@@ -17,18 +17,16 @@ import it.unimi.dsi.lang.MutableString;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.semanticweb.yars.nx.BNode;
-import org.semanticweb.yars.nx.Resource;
 import org.semanticweb.yars.nx.namespace.RDF;
 
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.IndexType;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.RdfCounters;
 import com.yahoo.glimmer.indexing.RDFDocumentFactory.ResourceHashLookupException;
+import com.yahoo.glimmer.indexing.RelationCursor.NodeType;
 
 /**
  * A RDF document.
@@ -56,15 +54,17 @@ class VerticalDocument extends RDFDocument {
 	return IndexType.VERTICAL;
     }
 
-    protected void ensureParsed_(Iterator<Relation> relations) throws IOException {
+    protected void ensureParsed_(RelationCursor relations) throws IOException {
 	// clear fields
 	for (List<String> field : fields) {
 	    field.clear();
 	}
 
-	while (relations.hasNext()) {
-	    Relation relation = relations.next();
-	    String predicate = relation.getPredicate().toString();
+	MutableString word = new MutableString();
+	MutableString nonWord = new MutableString();
+
+	while (relations.next()) {
+	    String predicate = relations.getPredicateString();
 	    // Check if prefix is on blacklist
 	    if (RDFDocumentFactory.isOnPredicateBlacklist(predicate)) {
 		factory.incrementCounter(RdfCounters.BLACKLISTED_TRIPLES, 1);
@@ -79,14 +79,14 @@ class VerticalDocument extends RDFDocument {
 
 	    List<String> fieldForPredicate = fields.get(fieldIndex);
 
-	    if (relation.getObject() instanceof Resource || relation.getObject() instanceof BNode) {
+	    if (relations.getObjectType() != NodeType.LITERAL) {
 		// Encode the resource URI or bnode ID using the resources hash
 		String objectId;
 		try {
-		    objectId = factory.lookupResource(relation.getObject().toString(), true);
+		    objectId = factory.lookupResource(relations.getObject(), true);
 		} catch (ResourceHashLookupException rhle) {
 		    factory.incrementCounter(RdfCounters.OBJECT_NOT_IN_HASH, 1);
-		    LOG.info("Object not in hash:" + relation.getContext().toString());
+		    LOG.info("Object not in hash:" + relations.getObject());
 		    continue;
 		}
 
@@ -98,13 +98,13 @@ class VerticalDocument extends RDFDocument {
 		    // to also index all super types.
 		    factory.incrementCounter(RdfCounters.RDF_TYPE_TRIPLES, 1);
 
-		    for (String ancestor : factory.getAncestors(relation.getObject().toString())) {
+		    for (String ancestor : factory.getAncestors(relations.getObject().toString())) {
 			String ancestorId;
 			try {
 			    ancestorId = factory.lookupResource(ancestor, true);
 			} catch (ResourceHashLookupException rhle) {
 			    factory.incrementCounter(RdfCounters.ANCESTOR_OBJECT_NOT_IN_HASH, 1);
-			    LOG.info("Ancestor(" + ancestor + ") of " + relation.getObject().toString()
+			    LOG.info("Ancestor(" + ancestor + ") of " + relations.getObject()
 				    + " not in resources hash function!. Was the same ontology used with the PrepTool?");
 			    continue;
 			}
@@ -115,12 +115,8 @@ class VerticalDocument extends RDFDocument {
 		    }
 		}
 	    } else {
-		String object = relation.getObject().toString();
-
 		// Iterate over the words of the value
-		FastBufferedReader fbr = new FastBufferedReader(object.toCharArray());
-		MutableString word = new MutableString();
-		MutableString nonWord = new MutableString();
+		FastBufferedReader fbr = new FastBufferedReader(relations.getObject());
 		while (fbr.next(word, nonWord)) {
 		    if (word != null && !word.equals("")) {
 			if (CombinedTermProcessor.getInstance().processTerm(word)) {
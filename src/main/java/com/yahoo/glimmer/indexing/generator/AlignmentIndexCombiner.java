@@ -0,0 +1,41 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * An optional combiner for TripleIndexGenerator that writes each of the
+ * alignment index's INDEX_ID values once per map output spill instead of once
+ * per doc. All other values are passed through unchanged.
+ * 
+ * A combiner's values are grouped with the sort comparator and not the
+ * grouping comparator, so the values of each call are for identical keys.
+ * For the alignment index these are all the same term/predicate pair.
+ * 
+ * @author tep
+ */
+public class AlignmentIndexCombiner extends Reducer<TermKey, TermValue, TermKey, TermValue> {
+    @Override
+    public void reduce(TermKey key, Iterable<TermValue> values, Context context) throws IOException, InterruptedException {
+	if (key.getIndex() == DocumentMapper.ALIGNMENT_INDEX) {
+	    // TermReduce only counts distinct predicate ids.
+	    context.write(key, values.iterator().next());
+	} else {
+	    for (TermValue value : values) {
+		context.write(key, value);
+	    }
+	}
+    }
+}
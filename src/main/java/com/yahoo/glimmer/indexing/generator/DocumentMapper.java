@@ -11,6 +11,7 @@ package com.yahoo.glimmer.indexing.generator;
  *  See accompanying LICENSE file.
  */
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.io.WordReader;
 import it.unimi.dsi.lang.MutableString;
 
@@ -63,8 +64,9 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 	    throw new IllegalStateException("Negative docId:" + doc.getId() + " subject:" + doc.getSubject());
 	}
 
-	// This is used to write the position of the last occurrence and testing
-	// if the fakeDocOccurrrence for the term has already been written.
+	// The positions of each term in the current field. Occurrences are
+	// aggregated here so that only one POSTINGS value is written per term
+	// per field rather than one value per occurrence.
 	Map<String, DocStat> termToDocStatMap = new HashMap<String, DocStat>();
 
 	// Iterate over all indices
@@ -90,10 +92,6 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 		    // Report progress
 		    context.setStatus(fields[indexId] + "=" + term.substring(0, Math.min(term.length(), 50)));
 
-		    // Create an occurrence at the next position
-		    TermValue occurrenceValue = new TermValue(Type.OCCURRENCE, doc.getId(), position);
-		    context.write(new TermKey(termString, indexId, occurrenceValue), occurrenceValue);
-
 		    DocStat docStat = termToDocStatMap.get(termString);
 		    if (docStat == null) {
 			if (doc.getIndexType() == RDFDocumentFactory.IndexType.VERTICAL) {
@@ -108,21 +106,20 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 			    context.write(new TermKey(termString, ALIGNMENT_INDEX, indexIdValue), indexIdValue);
 			}
 			docStat = new DocStat();
-			docStat.last = position;
-			docStat.count = 1;
 			termToDocStatMap.put(termString, docStat);
-		    } else {
-			docStat.last = position;
-			docStat.count++;
 		    }
+		    docStat.positions.add(position);
 
 		    position++;
-		    context.getCounter(Counters.INDEXED_OCCURRENCES).increment(1);
 		} else {
 		    LOG.info("Nextterm is null");
 		}
 	    }
 
+	    if (position > 0) {
+		context.getCounter(Counters.INDEXED_OCCURRENCES).increment(position);
+	    }
+
 	    if (doc.getIndexType() == RDFDocumentFactory.IndexType.HORIZONTAL && position > 0) {
 		TermValue docSizeValue = new TermValue(Type.DOC_SIZE, doc.getId(), position);
 		context.write(new TermKey(TermKey.DOC_SIZE_TERM, indexId, docSizeValue), docSizeValue);
@@ -130,8 +127,12 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
 
 	    for (String termString : termToDocStatMap.keySet()) {
 		DocStat docStat = termToDocStatMap.get(termString);
-		TermValue occurrenceCountValue = new TermValue(Type.TERM_STATS, docStat.count, docStat.last);
+		int count = docStat.positions.size();
+		TermValue occurrenceCountValue = new TermValue(Type.TERM_STATS, count, docStat.positions.getInt(count - 1));
 		context.write(new TermKey(termString, indexId, occurrenceCountValue), occurrenceCountValue);
+
+		TermValue postingsValue = new TermValue(Type.POSTINGS, doc.getId(), docStat.positions.elements(), count);
+		context.write(new TermKey(termString, indexId, postingsValue), postingsValue);
 	    }
 	    termToDocStatMap.clear();
 	}
@@ -140,8 +141,7 @@ public class DocumentMapper extends Mapper<LongWritable, Text, TermKey, TermValu
     }
 
     private static class DocStat {
-	int last;
-	int count;
+	final IntArrayList positions = new IntArrayList(4);
     }
 
     // For testing
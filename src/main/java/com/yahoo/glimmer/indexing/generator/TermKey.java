@@ -61,16 +61,18 @@ public class TermKey implements WritableComparable<TermKey> {
 	return value;
     }
 
+    // The index as a VInt, the term as a VInt length and UTF-8 bytes, then
+    // the value's header. POSTINGS positions are only in the value.
     public void readFields(DataInput in) throws IOException {
-	value.readFields(in);
-	index = in.readInt();
+	index = WritableUtils.readVInt(in);
 	term = Text.readString(in);
+	value.readHeader(in);
     }
 
     public void write(DataOutput out) throws IOException {
-	value.write(out);
-	out.writeInt(index);
+	WritableUtils.writeVInt(out, index);
 	Text.writeString(out, term);
+	value.writeHeader(out);
     }
 
     public int compareTo(TermKey top) {
@@ -103,11 +105,58 @@ public class TermKey implements WritableComparable<TermKey> {
 	return Integer.toString(index) + ":" + term + ":" + (value == null ? "null" : value.toString());
     }
 
-    private static final int TYPE_BYTE_OFFSET = 0;
-    private static final int V1_BYTE_OFFSET = Integer.SIZE / 8;
-    private static final int V2_BYTE_OFFSET = V1_BYTE_OFFSET + Long.SIZE / 8;
-    private static final int INDEX_BYTE_OFFSET = V2_BYTE_OFFSET + Integer.SIZE / 8;
-    private static final int TERM_BYTE_OFFSET = INDEX_BYTE_OFFSET + Integer.SIZE / 8;
+    /**
+     * Compares serialized TermKeys field by field without deserializing them.
+     * 
+     * @param keyOnly
+     *            if true only the index and term are compared.
+     */
+    static int compareSerialized(byte[] b1, int s1, byte[] b2, int s2, boolean keyOnly) {
+	try {
+	    // Compare the index
+	    int index1 = WritableComparator.readVInt(b1, s1);
+	    int index2 = WritableComparator.readVInt(b2, s2);
+	    if (index1 != index2) {
+		return index1 < index2 ? -1 : 1;
+	    }
+	    s1 += WritableUtils.decodeVIntSize(b1[s1]);
+	    s2 += WritableUtils.decodeVIntSize(b2[s2]);
+
+	    // Compare the term bytes
+	    int termLength1 = WritableComparator.readVInt(b1, s1);
+	    int termLength2 = WritableComparator.readVInt(b2, s2);
+	    s1 += WritableUtils.decodeVIntSize(b1[s1]);
+	    s2 += WritableUtils.decodeVIntSize(b2[s2]);
+	    int d = WritableComparator.compareBytes(b1, s1, termLength1, b2, s2, termLength2);
+	    if (d != 0 || keyOnly) {
+		return d;
+	    }
+	    s1 += termLength1;
+	    s2 += termLength2;
+
+	    // Compare the values types
+	    d = b1[s1++] - b2[s2++];
+	    if (d != 0) {
+		return d;
+	    }
+
+	    // Compare the values v1s
+	    long v11 = WritableComparator.readVLong(b1, s1);
+	    long v12 = WritableComparator.readVLong(b2, s2);
+	    if (v11 != v12) {
+		return v11 < v12 ? -1 : 1;
+	    }
+	    s1 += WritableUtils.decodeVIntSize(b1[s1]);
+	    s2 += WritableUtils.decodeVIntSize(b2[s2]);
+
+	    // Compare the values v2s
+	    int v21 = WritableComparator.readVInt(b1, s1);
+	    int v22 = WritableComparator.readVInt(b2, s2);
+	    return v21 < v22 ? -1 : (v21 == v22 ? 0 : 1);
+	} catch (IOException e) {
+	    throw new IllegalArgumentException(e);
+	}
+    }
 
     /** A Comparator that compares serialized TermKey objects. */
     public static class Comparator extends WritableComparator {
@@ -116,44 +165,7 @@ public class TermKey implements WritableComparable<TermKey> {
 	}
 
 	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
-	    // Compare the index
-	    int index1 = WritableComparator.readInt(b1, s1 + INDEX_BYTE_OFFSET);
-	    int index2 = WritableComparator.readInt(b2, s2 + INDEX_BYTE_OFFSET);
-	    int d = index1 - index2;
-	    if (d == 0) {
-		// Compare the term
-
-		// first byte of string encodes the length of the size
-		// length1 & 2 are the byte length of the serialized strings
-		// length
-		int length1 = WritableUtils.decodeVIntSize(b1[s1 + TERM_BYTE_OFFSET]);
-		int length2 = WritableUtils.decodeVIntSize(b2[s2 + TERM_BYTE_OFFSET]);
-		d = compareBytes(b1, s1 + TERM_BYTE_OFFSET + length1, l1 - TERM_BYTE_OFFSET - length1, b2, s2 + TERM_BYTE_OFFSET + length2, l2
-			- TERM_BYTE_OFFSET - length2);
-
-		if (d == 0) {
-		    // Compare the values types
-		    int type1 = WritableComparator.readInt(b1, s1 + TYPE_BYTE_OFFSET);
-		    int type2 = WritableComparator.readInt(b2, s2 + TYPE_BYTE_OFFSET);
-		    d = type1 - type2;
-		    if (d == 0) {
-			// Compare the values v1s
-			long v11 = WritableComparator.readLong(b1, s1 + V1_BYTE_OFFSET);
-			long v12 = WritableComparator.readLong(b2, s2 + V1_BYTE_OFFSET);
-			long dl = v11 - v12;
-			if (dl != 0) {
-			    d = dl > 0 ? 1 : -1;
-			} else {
-			    // Compare the values v2s
-			    int v21 = WritableComparator.readInt(b1, s1 + V2_BYTE_OFFSET);
-			    int v22 = WritableComparator.readInt(b2, s2 + V2_BYTE_OFFSET);
-			    d = v21 - v22;
-			}
-		    }
-		}
-	    }
-
-	    return d;
+	    return compareSerialized(b1, s1, b2, s2, false);
 	}
     }
 
@@ -166,22 +178,7 @@ public class TermKey implements WritableComparable<TermKey> {
     public static class FirstGroupingComparator implements RawComparator<TermKey> {
 
 	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
-	    // Compare the index
-	    int index1 = WritableComparator.readInt(b1, s1 + INDEX_BYTE_OFFSET);
-	    int index2 = WritableComparator.readInt(b2, s2 + INDEX_BYTE_OFFSET);
-	    int d = index1 - index2;
-	    if (d == 0) {
-		// Compare the term
-
-		// first byte of string encodes the length of the size
-		// length1 & 2 are the byte length of the serialized strings
-		// length
-		int length1 = WritableUtils.decodeVIntSize(b1[s1 + TERM_BYTE_OFFSET]);
-		int length2 = WritableUtils.decodeVIntSize(b2[s2 + TERM_BYTE_OFFSET]);
-		d = WritableComparator.compareBytes(b1, s1 + TERM_BYTE_OFFSET + length1, l1 - TERM_BYTE_OFFSET - length1, b2, s2 + TERM_BYTE_OFFSET + length2,
-			l2 - TERM_BYTE_OFFSET - length2);
-	    }
-	    return d;
+	    return compareSerialized(b1, s1, b2, s2, true);
 	}
 
 	public int compare(TermKey o1, TermKey o2) {
@@ -0,0 +1,263 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index.PropertyKeys;
+import it.unimi.dsi.io.InputBitStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.util.Properties;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.log4j.Logger;
+
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/**
+ * Concatenates the sub indexes written by the TripleIndexGenerator's reducers
+ * when it is run with the {@link TermRangePartitioner}. As each reducer's sub
+ * index holds a contiguous range of the sorted terms, in reducer order, the
+ * merged index is the sub indexes' inverted lists one after the other. They
+ * are copied bit for bit instead of being decoded and written again as MG4J's
+ * Merge does.
+ *
+ * The sub indexes are the interleaved indexes with offsets that
+ * {@link com.yahoo.glimmer.indexing.generator.Index} writes. Their inverted
+ * lists don't depend on each other, so only the first offset of each sub index
+ * is dropped and the per term files are appended. The result is the same
+ * interleaved index a single reducer would have written.
+ *
+ * The .sizes file isn't concatenated. The first reducer writes the sizes of
+ * all documents and build-index.sh moves it to the output basename.
+ *
+ * @author tep
+ */
+public class TermRangeConcatenator {
+    private final static Logger LOGGER = Logger.getLogger(TermRangeConcatenator.class);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final String OUTPUT_ARG = "output";
+    private static final String INPUTS_ARG = "inputs";
+
+    // The files with a gamma or delta code per term.
+    private static final String[] GAMMA_PER_TERM_EXTENSIONS = { DiskBasedIndex.FREQUENCIES_EXTENSION, DiskBasedIndex.OCCURRENCIES_EXTENSION,
+	    DiskBasedIndex.POSITIONS_NUMBER_OF_BITS_EXTENSION };
+    private static final String[] DELTA_PER_TERM_EXTENSIONS = { DiskBasedIndex.SUMS_MAX_POSITION_EXTENSION };
+
+    public static void main(String[] args) throws Exception {
+	SimpleJSAP jsap = new SimpleJSAP(TermRangeConcatenator.class.getName(), "Concatenates sub indexes of contiguous term ranges.", new Parameter[] {
+		new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The basename of the concatenated index."),
+		new UnflaggedOption(INPUTS_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.GREEDY,
+			"The basenames of the sub indexes in term range order."), });
+
+	JSAPResult jsapResult = jsap.parse(args);
+	if (jsap.messagePrinted()) {
+	    System.exit(1);
+	}
+	concatenate(jsapResult.getString(OUTPUT_ARG), jsapResult.getStringArray(INPUTS_ARG));
+    }
+
+    /**
+     * @param outputBasename
+     * @param inputBasenames
+     *            The sub indexes in term range order.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    public static void concatenate(String outputBasename, String[] inputBasenames) throws IOException, ConfigurationException {
+	if (inputBasenames.length == 0) {
+	    throw new IllegalArgumentException("No sub indexes given.");
+	}
+	Properties[] inputProperties = new Properties[inputBasenames.length];
+	for (int i = 0; i < inputBasenames.length; i++) {
+	    inputProperties[i] = new Properties(inputBasenames[i] + DiskBasedIndex.PROPERTIES_EXTENSION);
+	    checkCompatible(inputProperties[0], inputBasenames[0], inputProperties[i], inputBasenames[i]);
+	}
+
+	List<String> gammaExtensions = existing(inputBasenames[0], GAMMA_PER_TERM_EXTENSIONS);
+	List<String> deltaExtensions = existing(inputBasenames[0], DELTA_PER_TERM_EXTENSIONS);
+
+	long terms = 0;
+	long postings = 0;
+	long occurrences = 0;
+	int maxCount = -1;
+
+	OutputBitStream index = new OutputBitStream(outputBasename + DiskBasedIndex.INDEX_EXTENSION);
+	OutputBitStream offsets = new OutputBitStream(outputBasename + DiskBasedIndex.OFFSETS_EXTENSION);
+	OutputStream termsOutputStream = new FileOutputStream(outputBasename + DiskBasedIndex.TERMS_EXTENSION);
+	OutputBitStream[] gammaStreams = create(outputBasename, gammaExtensions);
+	OutputBitStream[] deltaStreams = create(outputBasename, deltaExtensions);
+	try {
+	    // The first list starts at 0.
+	    offsets.writeLongGamma(0);
+	    for (int i = 0; i < inputBasenames.length; i++) {
+		String inputBasename = inputBasenames[i];
+		long inputTerms = inputProperties[i].getLong(PropertyKeys.TERMS);
+		LOGGER.info("Appending " + inputTerms + " terms of " + inputBasename);
+
+		// Each sub index's offsets start with its first list's 0.
+		long indexBits = 0;
+		InputBitStream inputOffsets = new InputBitStream(inputBasename + DiskBasedIndex.OFFSETS_EXTENSION);
+		try {
+		    if (inputOffsets.readLongGamma() != 0) {
+			throw new IOException("The offsets of " + inputBasename + " don't start at 0.");
+		    }
+		    for (long term = 0; term < inputTerms; term++) {
+			long offset = inputOffsets.readLongGamma();
+			offsets.writeLongGamma(offset);
+			indexBits += offset;
+		    }
+		} finally {
+		    inputOffsets.close();
+		}
+		copyBits(inputBasename + DiskBasedIndex.INDEX_EXTENSION, index, indexBits);
+
+		for (int j = 0; j < gammaStreams.length; j++) {
+		    InputBitStream input = new InputBitStream(inputBasename + gammaExtensions.get(j));
+		    try {
+			for (long term = 0; term < inputTerms; term++) {
+			    gammaStreams[j].writeLongGamma(input.readLongGamma());
+			}
+		    } finally {
+			input.close();
+		    }
+		}
+		for (int j = 0; j < deltaStreams.length; j++) {
+		    InputBitStream input = new InputBitStream(inputBasename + deltaExtensions.get(j));
+		    try {
+			for (long term = 0; term < inputTerms; term++) {
+			    deltaStreams[j].writeLongDelta(input.readLongDelta());
+			}
+		    } finally {
+			input.close();
+		    }
+		}
+
+		long termLines = copyLines(inputBasename + DiskBasedIndex.TERMS_EXTENSION, termsOutputStream);
+		if (termLines != inputTerms) {
+		    throw new IOException(inputBasename + DiskBasedIndex.TERMS_EXTENSION + " has " + termLines + " terms but the index has " + inputTerms);
+		}
+
+		terms += inputTerms;
+		postings += inputProperties[i].getLong(PropertyKeys.POSTINGS);
+		occurrences += inputProperties[i].getLong(PropertyKeys.OCCURRENCES, 0);
+		maxCount = Math.max(maxCount, inputProperties[i].getInt(PropertyKeys.MAXCOUNT, -1));
+	    }
+	} finally {
+	    index.close();
+	    offsets.close();
+	    termsOutputStream.close();
+	    close(gammaStreams);
+	    close(deltaStreams);
+	}
+
+	// The other properties are the same in all the sub indexes.
+	Properties properties = inputProperties[0];
+	properties.setProperty(PropertyKeys.TERMS, terms);
+	properties.setProperty(PropertyKeys.POSTINGS, postings);
+	if (properties.containsKey(PropertyKeys.OCCURRENCES)) {
+	    properties.setProperty(PropertyKeys.OCCURRENCES, occurrences);
+	}
+	properties.setProperty(PropertyKeys.MAXCOUNT, maxCount);
+	properties.save(outputBasename + DiskBasedIndex.PROPERTIES_EXTENSION);
+	LOGGER.info("Concatenated " + inputBasenames.length + " sub indexes with " + terms + " terms and " + postings + " postings to " + outputBasename);
+    }
+
+    private static void checkCompatible(Properties first, String firstBasename, Properties properties, String basename) {
+	if (first.getLong(PropertyKeys.DOCUMENTS) != properties.getLong(PropertyKeys.DOCUMENTS)) {
+	    throw new IllegalArgumentException(basename + " has " + properties.getLong(PropertyKeys.DOCUMENTS) + " documents but " + firstBasename
+		    + " has " + first.getLong(PropertyKeys.DOCUMENTS));
+	}
+	if (!Arrays.equals(first.getStringArray(PropertyKeys.CODING), properties.getStringArray(PropertyKeys.CODING))) {
+	    throw new IllegalArgumentException(basename + " isn't coded the same as " + firstBasename);
+	}
+	if (!first.getString(PropertyKeys.INDEXCLASS).equals(properties.getString(PropertyKeys.INDEXCLASS))) {
+	    throw new IllegalArgumentException(basename + " isn't the same type of index as " + firstBasename);
+	}
+    }
+
+    private static List<String> existing(String basename, String[] extensions) {
+	List<String> existing = new ArrayList<String>();
+	for (String extension : extensions) {
+	    if (new File(basename + extension).exists()) {
+		existing.add(extension);
+	    }
+	}
+	return existing;
+    }
+
+    private static OutputBitStream[] create(String basename, List<String> extensions) throws IOException {
+	OutputBitStream[] streams = new OutputBitStream[extensions.size()];
+	for (int i = 0; i < streams.length; i++) {
+	    streams[i] = new OutputBitStream(basename + extensions.get(i));
+	}
+	return streams;
+    }
+
+    private static void close(OutputBitStream[] streams) throws IOException {
+	for (OutputBitStream stream : streams) {
+	    stream.close();
+	}
+    }
+
+    private static void copyBits(String filename, OutputBitStream out, long bits) throws IOException {
+	InputBitStream in = new InputBitStream(filename);
+	try {
+	    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+	    while (bits > 0) {
+		int length = (int) Math.min(bits, buffer.length * 8l);
+		in.read(buffer, length);
+		out.write(buffer, length);
+		bits -= length;
+	    }
+	} finally {
+	    in.close();
+	}
+    }
+
+    /**
+     * @return The number of lines copied.
+     */
+    private static long copyLines(String filename, OutputStream out) throws IOException {
+	InputStream in = new FileInputStream(filename);
+	try {
+	    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+	    long lines = 0;
+	    int length;
+	    while ((length = in.read(buffer)) != -1) {
+		for (int i = 0; i < length; i++) {
+		    if (buffer[i] == '\n') {
+			lines++;
+		    }
+		}
+		out.write(buffer, 0, length);
+	    }
+	    return lines;
+	} finally {
+	    in.close();
+	}
+    }
+}
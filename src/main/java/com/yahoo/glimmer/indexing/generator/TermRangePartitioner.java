@@ -0,0 +1,233 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.io.WordReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.yahoo.glimmer.indexing.RDFDocument;
+import com.yahoo.glimmer.indexing.RDFDocumentFactory;
+import com.yahoo.glimmer.util.ShardedMonotoneHashFunction;
+
+/**
+ * Partitions TermKeys by ranges of terms, so that every term of reducer n's
+ * sub indexes sorts before every term of reducer n + 1's. Used instead of
+ * TermKey.FirstPartitioner when the sub indexes should cover contiguous term
+ * ranges.
+ * 
+ * The split points are chosen before the job is run by tokenizing a sample
+ * of the input's records with {@link #sampleSplitPoints}. They are written to
+ * a file that each task reads in {@link #setConf(Configuration)}.
+ * 
+ * Terms are compared by code point, as ShardedMonotoneHashFunction.compare()
+ * does, which is the UTF-8 byte order the shuffle sorts TermKeys in. So each
+ * partition is a contiguous run of the reducers' sorted terms, even with
+ * supplementary characters, for which String.compareTo()'s UTF-16 order
+ * differs. The empty DOC_SIZE term always goes to partition 0, as it does with
+ * the FirstPartitioner.
+ * 
+ * @author tep
+ */
+public class TermRangePartitioner extends Partitioner<TermKey, TermValue> implements Configurable {
+    private static final Log LOG = LogFactory.getLog(TermRangePartitioner.class);
+    static final String SPLIT_POINTS_PATH = "termRangePartitioner.splitPointsPath";
+    // Reading the first records of more splits than this takes too long.
+    private static final int MAX_SAMPLED_SPLITS = 100;
+    private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+	@Override
+	public int compare(String s1, String s2) {
+	    return ShardedMonotoneHashFunction.compare(s1, s2);
+	}
+    };
+
+    private Configuration conf;
+    // splitPoints[i] is the first term of partition i + 1.
+    private String[] splitPoints;
+
+    @Override
+    public void setConf(Configuration conf) {
+	this.conf = conf;
+	String splitPointsPath = conf.get(SPLIT_POINTS_PATH);
+	if (splitPointsPath == null) {
+	    throw new IllegalArgumentException(SPLIT_POINTS_PATH + " is not set.");
+	}
+	try {
+	    Path path = new Path(splitPointsPath);
+	    splitPoints = readSplitPoints(path.getFileSystem(conf), path);
+	} catch (IOException e) {
+	    throw new IllegalArgumentException("Can't read term split points from " + splitPointsPath, e);
+	}
+    }
+
+    @Override
+    public Configuration getConf() {
+	return conf;
+    }
+
+    void setSplitPoints(String[] splitPoints) {
+	this.splitPoints = splitPoints;
+    }
+
+    @Override
+    public int getPartition(TermKey key, TermValue value, int numPartitions) {
+	if (splitPoints.length != numPartitions - 1) {
+	    throw new IllegalStateException("Have " + splitPoints.length + " split points for " + numPartitions + " partitions.");
+	}
+	int i = Arrays.binarySearch(splitPoints, key.getTerm(), CODE_POINT_ORDER);
+	return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    /**
+     * Chooses the split points that divide the sampled term occurrences into
+     * numPartitions parts of about the same size. Frequent terms have more
+     * occurrences in the sample, so the partitions have about the same number
+     * of postings rather than of terms.
+     * 
+     * @param terms
+     *            The sampled occurrences. Sorted in place by code point.
+     * @param numPartitions
+     * @return numPartitions - 1 split points in ascending order. When there are
+     *         too few distinct terms some split points are the same and the
+     *         partitions between them are empty.
+     */
+    static String[] chooseSplitPoints(List<String> terms, int numPartitions) {
+	if (terms.isEmpty()) {
+	    throw new IllegalArgumentException("No terms were sampled.");
+	}
+	Collections.sort(terms, CODE_POINT_ORDER);
+	String[] splitPoints = new String[numPartitions - 1];
+	for (int i = 0; i < splitPoints.length; i++) {
+	    splitPoints[i] = terms.get((int) ((long) terms.size() * (i + 1) / numPartitions));
+	}
+	return splitPoints;
+    }
+
+    /**
+     * Tokenizes up to recordsPerSplit records from the start of up to
+     * MAX_SAMPLED_SPLITS of the job's input splits, spread evenly over the
+     * input, in the same way as the DocumentMapper does. Then writes the split
+     * points for the job's number of reducers to the given path and sets the
+     * job to use this partitioner.
+     * 
+     * The job's configuration must already be set up for the
+     * RDFDocumentFactory.
+     * 
+     * @param job
+     * @param recordsPerSplit
+     * @param splitPointsPath
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void sampleSplitPoints(Job job, int recordsPerSplit, Path splitPointsPath) throws IOException, InterruptedException {
+	Configuration conf = job.getConfiguration();
+	String[] fields = RDFDocumentFactory.getFieldsFromConf(conf);
+	RDFDocument doc = RDFDocumentFactory.buildFactory(conf).getDocument();
+
+	InputFormat<?, ?> inputFormat;
+	try {
+	    inputFormat = ReflectionUtils.newInstance(job.getInputFormatClass(), conf);
+	} catch (ClassNotFoundException e) {
+	    throw new IllegalArgumentException(e);
+	}
+	List<InputSplit> splits = inputFormat.getSplits(job);
+	int splitsToSample = Math.min(MAX_SAMPLED_SPLITS, splits.size());
+
+	List<String> terms = new ArrayList<String>();
+	MutableString term = new MutableString();
+	MutableString nonWord = new MutableString();
+	for (int i = 0; i < splitsToSample; i++) {
+	    InputSplit split = splits.get((int) ((long) i * splits.size() / splitsToSample));
+	    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+	    RecordReader<?, ?> reader = inputFormat.createRecordReader(split, context);
+	    try {
+		reader.initialize(split, context);
+		for (int records = 0; records < recordsPerSplit && reader.nextKeyValue(); records++) {
+		    Text record = (Text) reader.getCurrentValue();
+		    doc.setContent(record.getBytes(), record.getLength());
+		    if (doc.getSubject() == null) {
+			continue;
+		    }
+		    for (int indexId = 0; indexId < fields.length; indexId++) {
+			if (fields[indexId].startsWith("NOINDEX")) {
+			    continue;
+			}
+			WordReader termReader = doc.content(indexId);
+			while (termReader.next(term, nonWord)) {
+			    if (term.length() > 0) {
+				terms.add(term.toString());
+			    }
+			}
+		    }
+		}
+	    } finally {
+		reader.close();
+	    }
+	}
+	LOG.info("Sampled " + terms.size() + " term occurrences from " + splitsToSample + " of " + splits.size() + " splits.");
+
+	String[] splitPoints = chooseSplitPoints(terms, job.getNumReduceTasks());
+	writeSplitPoints(splitPointsPath.getFileSystem(conf), splitPointsPath, splitPoints);
+	conf.set(SPLIT_POINTS_PATH, splitPointsPath.toString());
+	job.setPartitionerClass(TermRangePartitioner.class);
+    }
+
+    static void writeSplitPoints(FileSystem fs, Path path, String[] splitPoints) throws IOException {
+	DataOutputStream out = fs.create(path, true);
+	try {
+	    out.writeInt(splitPoints.length);
+	    for (String splitPoint : splitPoints) {
+		Text.writeString(out, splitPoint);
+	    }
+	} finally {
+	    out.close();
+	}
+    }
+
+    static String[] readSplitPoints(FileSystem fs, Path path) throws IOException {
+	DataInputStream in = fs.open(path);
+	try {
+	    String[] splitPoints = new String[in.readInt()];
+	    for (int i = 0; i < splitPoints.length; i++) {
+		splitPoints[i] = Text.readString(in);
+	    }
+	    return splitPoints;
+	} finally {
+	    in.close();
+	}
+    }
+}
@@ -114,8 +114,8 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
 		sumOfMaxTermPositions += value.getV2();
 	    }
 
-	    if (Type.OCCURRENCE != value.getType()) {
-		throw new IllegalStateException("Got a " + value.getType() + " value when expecting only " + Type.OCCURRENCE);
+	    if (Type.POSTINGS != value.getType() && Type.OCCURRENCE != value.getType()) {
+		throw new IllegalStateException("Got a " + value.getType() + " value when expecting only " + Type.POSTINGS + " or " + Type.OCCURRENCE);
 	    }
 
 	    writerTermValue.setTerm(key.getTerm());
@@ -125,6 +125,12 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
 
 	    context.write(writerKey, writerTermValue);
 
+	    if (Type.POSTINGS == value.getType()) {
+		writePostings(key, value, valuesIt, context);
+		termKeysProcessed++;
+		return;
+	    }
+
 	    TermValue prevValue = new TermValue();
 	    prevValue.set(value);
 
@@ -184,4 +190,39 @@ public class TermReduce extends Reducer<TermKey, TermValue, IntWritable, IndexRe
 	}
 	termKeysProcessed++;
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a doc value for each of the remaining POSTINGS values. There is
+     * one POSTINGS value per doc with all of the term's positions in the doc.
+     */
+    private void writePostings(TermKey key, TermValue value, Iterator<TermValue> valuesIt, Context context) throws IOException, InterruptedException {
+	long prevDocId = -1;
+	while (true) {
+	    if (Type.POSTINGS != value.getType()) {
+		throw new IllegalStateException("Got a " + value.getType() + " value when expecting only " + Type.POSTINGS);
+	    }
+	    long docId = value.getV1();
+	    if (docId < 0) {
+		throw new IllegalStateException("Negative DocID. Key:" + key + "\nValue:" + value);
+	    }
+	    if (docId == prevDocId) {
+		throw new IllegalStateException("For indexId " + key.getIndex() + " and term " + key.getTerm() + " got a duplicate doc " + value.toString());
+	    }
+
+	    writerDocValue.clearOccerrences();
+	    writerDocValue.setDocument(docId);
+	    int[] positions = value.getPositions();
+	    for (int i = 0; i < value.getV2(); i++) {
+		writerDocValue.addOccurrence(positions[i]);
+	    }
+	    context.write(writerKey, writerDocValue);
+	    prevDocId = docId;
+
+	    if (!valuesIt.hasNext()) {
+		break;
+	    }
+	    value = valuesIt.next();
+	}
+	writerDocValue.clearOccerrences();
+    }
+}
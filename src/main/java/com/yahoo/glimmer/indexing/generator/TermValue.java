@@ -16,6 +16,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
 /**
  * The value that is passed between the mapper and reducer.
@@ -47,8 +48,15 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	 * = terms position.
 	 */
 	OCCURRENCE,
-	
-	
+
+	/**
+	 * For every term in every doc a POSTINGS is written with the positions
+	 * of all of the term's occurrences in the doc. v1 = doc id, v2 = number
+	 * of positions. The positions follow the header as VInt gaps and aren't
+	 * part of the key.
+	 */
+	POSTINGS,
+
 	/**
 	 * To generate the doc sizes for each index we need to know the number of terms per doc per index.
 	 * Unlike the other types the term here is irrelevant. And will be set to TermKey.DOC_SIZE_TERM.
@@ -62,6 +70,8 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
     private Type type;
     private long v1;
     private int v2;
+    // Only for POSTINGS. The first v2 are the positions in ascending order.
+    private int[] positions;
 
     public TermValue(Type type, long v1) {
 	if (type != Type.INDEX_ID) {
@@ -80,6 +90,27 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	this.v2 = v2;
     }
 
+    /**
+     * A POSTINGS value. The positions array isn't copied.
+     * 
+     * @param type
+     *            must be POSTINGS.
+     * @param docId
+     * @param positions
+     *            in ascending order.
+     * @param positionCount
+     *            the number of positions used from the start of the array.
+     */
+    public TermValue(Type type, long docId, int[] positions, int positionCount) {
+	if (type != Type.POSTINGS) {
+	    throw new IllegalArgumentException("Type " + type + " is not value with positions");
+	}
+	this.type = type;
+	this.v1 = docId;
+	this.v2 = positionCount;
+	this.positions = positions;
+    }
+
     public TermValue() {
     }
 
@@ -91,6 +122,16 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	type = that.type;
 	v1 = that.v1;
 	v2 = that.v2;
+	if (type == Type.POSTINGS && that.positions != null) {
+	    ensurePositionsCapacity(v2);
+	    System.arraycopy(that.positions, 0, positions, 0, v2);
+	}
+    }
+
+    private void ensurePositionsCapacity(int capacity) {
+	if (positions == null || positions.length < capacity) {
+	    positions = new int[Math.max(capacity, positions == null ? 16 : positions.length * 2)];
+	}
     }
 
     public Type getType() {
@@ -105,23 +146,78 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
 	return v2;
     }
 
+    /**
+     * @return The positions of a POSTINGS value. Only the first
+     *         {@link #getV2()} are valid.
+     */
+    public int[] getPositions() {
+	return positions;
+    }
+
     public void readFields(DataInput in) throws IOException {
-	type = Type.values()[in.readInt()];
-	v1 = in.readLong();
-	v2 = in.readInt();
+	// Keep the positions array for reuse.
+	int[] reusablePositions = positions;
+	readHeader(in);
+	positions = reusablePositions;
+	if (type == Type.POSTINGS) {
+	    ensurePositionsCapacity(v2);
+	    int position = 0;
+	    for (int i = 0; i < v2; i++) {
+		position += WritableUtils.readVInt(in);
+		positions[i] = position;
+	    }
+	}
     }
 
     public void write(DataOutput out) throws IOException {
-	out.writeInt(type.ordinal());
-	out.writeLong(v1);
-	out.writeInt(v2);
+	writeHeader(out);
+	if (type == Type.POSTINGS) {
+	    int lastPosition = 0;
+	    for (int i = 0; i < v2; i++) {
+		WritableUtils.writeVInt(out, positions[i] - lastPosition);
+		lastPosition = positions[i];
+	    }
+	}
+    }
+
+    /**
+     * Reads the part of the value that is also part of a TermKey. A POSTINGS
+     * value read this way has no positions.
+     */
+    void readHeader(DataInput in) throws IOException {
+	type = Type.values()[in.readByte()];
+	v1 = WritableUtils.readVLong(in);
+	v2 = WritableUtils.readVInt(in);
+	positions = null;
+    }
+
+    /**
+     * Writes the part of the value that is also part of a TermKey. The type's
+     * ordinal as a byte, then v1 as a VLong and v2 as a VInt.
+     * TermKey.Comparator depends on this layout.
+     */
+    void writeHeader(DataOutput out) throws IOException {
+	out.writeByte(type.ordinal());
+	WritableUtils.writeVLong(out, v1);
+	WritableUtils.writeVInt(out, v2);
     }
 
     @Override
     public boolean equals(Object o) {
 	if (o instanceof TermValue) {
 	    TermValue that = (TermValue) o;
-	    return type == that.type && v1 == that.v1 && v2 == that.v2;
+	    if (type != that.type || v1 != that.v1 || v2 != that.v2) {
+		return false;
+	    }
+	    // A TermKey's value has no positions.
+	    if (type == Type.POSTINGS && positions != null && that.positions != null) {
+		for (int i = 0; i < v2; i++) {
+		    if (positions[i] != that.positions[i]) {
+			return false;
+		    }
+		}
+	    }
+	    return true;
 	}
 	return false;
     }
@@ -136,6 +232,17 @@ public class TermValue implements WritableComparable<TermValue>, Cloneable {
     }
 
     public String toString() {
+	if (type == Type.POSTINGS && positions != null) {
+	    StringBuilder sb = new StringBuilder();
+	    sb.append(type.name()).append('(').append(v1).append(',').append(v2).append(",[");
+	    for (int i = 0; i < v2; i++) {
+		if (i > 0) {
+		    sb.append(',');
+		}
+		sb.append(positions[i]);
+	    }
+	    return sb.append("])").toString();
+	}
 	return type.name() + "(" + v1 + "," + v2 + ")";
     }
 
@@ -45,6 +45,8 @@ public class TripleIndexGenerator extends Configured implements Tool {
     private static final String NO_CONTEXTS_ARG = "noContexts";
     private static final String RESOURCE_PREFIX_ARG = "resourcePrefix";
     private static final String RESOURCES_HASH_ARG = "resourcesHash";
+    private static final String COMBINE_ALIGNMENT_ARG = "combineAlignment";
+    private static final String RANGE_PARTITION_SAMPLES_ARG = "rangePartitionSamples";
 
     // Job configuration attribute names
     static final String OUTPUT_DIR = "OUTPUT_DIR";
@@ -66,6 +68,9 @@ public class TripleIndexGenerator extends Configured implements Tool {
 			"Subset of the properties to be indexed."),
 		new FlaggedOption(RESOURCE_PREFIX_ARG, JSAP.STRING_PARSER, "@", JSAP.NOT_REQUIRED, 'r', RESOURCE_PREFIX_ARG,
 			"Prefix to add to object resource hash values when indexing. Stops queries for numbers matching resource hash values. Default is '@'"),
+		new Switch(COMBINE_ALIGNMENT_ARG, 'a', COMBINE_ALIGNMENT_ARG, "Combine the alignment index's values on the map side. Reduces the shuffle of vertical indexes."),
+		new FlaggedOption(RANGE_PARTITION_SAMPLES_ARG, JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 's', RANGE_PARTITION_SAMPLES_ARG,
+			"Partition the terms by ranges so that each reducer's sub indexes have a contiguous range of terms. The ranges are chosen from the terms of this many records from the start of each of up to 100 input splits."),
 
 		new UnflaggedOption("input", JSAP.STRING_PARSER, JSAP.REQUIRED, "HDFS location for the input data."),
 		new UnflaggedOption(NUMBER_OF_DOCS_ARG, JSAP.LONG_PARSER, JSAP.REQUIRED, "Number of documents to index"),
@@ -98,6 +103,9 @@ public class TripleIndexGenerator extends Configured implements Tool {
 
 	job.setPartitionerClass(TermKey.FirstPartitioner.class);
 	job.setGroupingComparatorClass(TermKey.FirstGroupingComparator.class);
+	if (jsapResult.getBoolean(COMBINE_ALIGNMENT_ARG, false)) {
+	    job.setCombinerClass(AlignmentIndexCombiner.class);
+	}
 
 	job.setReducerClass(TermReduce.class);
 	job.setOutputKeyClass(IntWritable.class);
@@ -132,6 +140,13 @@ public class TripleIndexGenerator extends Configured implements Tool {
 
 	conf.setInt("mapreduce.input.linerecordreader.line.maxlength", 1024 * 1024);
 
+	if (jsapResult.contains(RANGE_PARTITION_SAMPLES_ARG) && job.getNumReduceTasks() > 1) {
+	    // Next to the output dir as the output dir can't exist before the job is run.
+	    Path outputPath = new Path(jsapResult.getString("output"));
+	    Path splitPointsPath = new Path(outputPath.getParent(), outputPath.getName() + ".termSplitPoints");
+	    TermRangePartitioner.sampleSplitPoints(job, jsapResult.getInt(RANGE_PARTITION_SAMPLES_ARG), splitPointsPath);
+	}
+
 	boolean success = job.waitForCompletion(true);
 
 	return success ? 0 : 1;
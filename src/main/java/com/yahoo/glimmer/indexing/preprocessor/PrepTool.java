@@ -12,19 +12,28 @@ package com.yahoo.glimmer.indexing.preprocessor;
  */
 
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLOntology;
 
@@ -36,14 +45,22 @@ import com.martiansoftware.jsap.SimpleJSAP;
 import com.martiansoftware.jsap.Switch;
 import com.martiansoftware.jsap.UnflaggedOption;
 import com.yahoo.glimmer.indexing.OntologyLoader;
+import com.yahoo.glimmer.util.BZip2BlockCodec;
+import com.yahoo.glimmer.util.BlockCodecs;
+import com.yahoo.glimmer.util.LZ4BlockCodec;
 
 public class PrepTool extends Configured implements Tool {
+    private final static Logger LOGGER = Logger.getLogger(PrepTool.class);
     private static final int DEFAULT_REDUCER_COUNT = 1;
     public static final String NO_CONTEXTS_ARG = "excludeContexts";
     private static final String ONTOLOGY_ARG = "ontology";
     private static final String REDUCER_COUNT_ARG = "reducers";
+    private static final String COLLECTION_CODEC_ARG = "collectionCodec";
     private static final String OUTPUT_ARG = "output";
     private static final String INPUT_ARG = "input";
+    private static final String PART_DIR_GLOB = "part-r-*";
+    private static final String FIRST_PART_DIR = "part-r-00000";
+    private static final String MERGED_DIR = "merged";
 
     public static void main(String[] args) throws Exception {
 	int ret = ToolRunner.run(new PrepTool(), args);
@@ -56,7 +73,10 @@ public class PrepTool extends Configured implements Tool {
 	SimpleJSAP jsap = new SimpleJSAP(PrepTool.class.getName(), "RDF tuples pre-processor for Glimmer", new Parameter[] {
 		new Switch(NO_CONTEXTS_ARG, 'C', NO_CONTEXTS_ARG, "Don't process the contexts for each tuple."),
 		new FlaggedOption(ONTOLOGY_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'O', ONTOLOGY_ARG),
-		new FlaggedOption(REDUCER_COUNT_ARG, JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'r', REDUCER_COUNT_ARG),
+		new FlaggedOption(REDUCER_COUNT_ARG, JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'r', REDUCER_COUNT_ARG,
+			"The number of reducers. With more than one their outputs are merged on the gateway."),
+		new FlaggedOption(COLLECTION_CODEC_ARG, JSAP.STRING_PARSER, BZip2BlockCodec.NAME, JSAP.NOT_REQUIRED, 'c', COLLECTION_CODEC_ARG,
+			"Also write the bySubject collection with this block codec(" + LZ4BlockCodec.NAME + "), with binary records. bySubject.bz2 is always written, as text."),
 		new UnflaggedOption(INPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "HDFS location for the input data."),
 		new UnflaggedOption(OUTPUT_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "HDFS location for the out data."), });
 
@@ -71,6 +91,12 @@ public class PrepTool extends Configured implements Tool {
 	boolean withContexts = !jsapResult.getBoolean(NO_CONTEXTS_ARG, false);
 	config.setBoolean(TuplesToResourcesMapper.INCLUDE_CONTEXTS_KEY, withContexts);
 
+	String collectionCodecName = BlockCodecs.forName(jsapResult.getString(COLLECTION_CODEC_ARG)).getName();
+	int reducerCount = jsapResult.getInt(REDUCER_COUNT_ARG, DEFAULT_REDUCER_COUNT);
+	if (reducerCount == 1) {
+	    config.set(ResourceRecordWriter.COLLECTION_CODEC_KEY, collectionCodecName);
+	}
+
 	// The ontology if any...
 	String ontologyFilename = jsapResult.getString(ONTOLOGY_ARG);
 	if (ontologyFilename != null) {
@@ -99,24 +125,16 @@ public class PrepTool extends Configured implements Tool {
 	job.setMapOutputKeyClass(Text.class);
 	job.setMapOutputValueClass(Text.class);
 
-	int reducerCount = jsapResult.getInt(REDUCER_COUNT_ARG, DEFAULT_REDUCER_COUNT);
 	job.setNumReduceTasks(reducerCount);
-	if (reducerCount == 1) {
-	    // We assign 'global' ids in the reducer. For this to work, there
-	    // can be only one. But using just one reducer, we run out of local disk space during the
-	    // pre-reduce merge with big data sets like WCC.
-	    
-	    job.setReducerClass(ResourcesReducer.class);
-	    job.setOutputKeyClass(Text.class);
-	    job.setOutputValueClass(Object.class);
-	    job.setOutputFormatClass(ResourceRecordWriter.OutputFormat.class);
-	} else {
-	    /*
-	     * TODO: Take the functionality of the reducer and move it to run on
-	     * the gateway. We then use n identity reducers, the output of which
-	     * will be read and merged as streams on the gateway.
-	     */
-	}
+	// With one reducer the ids it gives the subjects are their 'global' ids.
+	// But using just one reducer, we run out of local disk space during the
+	// pre-reduce merge with big data sets like WCC. With more, each reducer's
+	// output is sorted but only has the keys of its partition, so the outputs
+	// are merged as streams on the gateway which gives the 'global' ids.
+	job.setReducerClass(ResourcesReducer.class);
+	job.setOutputKeyClass(Text.class);
+	job.setOutputValueClass(Object.class);
+	job.setOutputFormatClass(ResourceRecordWriter.OutputFormat.class);
 
 	FileInputFormat.setInputPaths(job, new Path(jsapResult.getString(INPUT_ARG)));
 
@@ -128,16 +146,53 @@ public class PrepTool extends Configured implements Tool {
 	    return 1;
 	}
 
-	// IF THERE WAS ONLY ONE REDUCER WE NOW HAVE
-	// One file per reducer containing lists of urls(recourses) for
+	if (reducerCount > 1) {
+	    mergeParts(job, outputDir, collectionCodecName);
+	}
+
+	// WE NOW HAVE in part-r-00000
+	// Files containing lists of urls(recourses) for
 	// subjects, predicates, objects and contexts.
-	// One file per reducer that contains all resources. subjects +
+	// A file that contains all resources. subjects +
 	// predicates + objects + contexts.
-	// One file per reducer that contains the subjects + all <predicate>
+	// A file that contains the subjects + all <predicate>
 	// <object>|"Literal" <context> on that subject.
-	
-	// IF THERE WAS MORE THAN ONE REDUCER WE NOW HAVE N FILES THAT NEED TO BE MERGED ON THE GATEWAY. TODO.
-	
+
 	return 0;
     }
+
+    /**
+     * Merges the reducers' part dirs into one part-r-00000 dir, the same as
+     * one reducer would have written.
+     */
+    private static void mergeParts(Job job, Path outputDir, String collectionCodecName) throws IOException {
+	Configuration conf = job.getConfiguration();
+	FileSystem fs = FileSystem.get(conf);
+
+	FileStatus[] partStatuses = fs.globStatus(new Path(outputDir, PART_DIR_GLOB));
+	List<Path> partDirs = new ArrayList<Path>(partStatuses.length);
+	for (FileStatus partStatus : partStatuses) {
+	    partDirs.add(partStatus.getPath());
+	}
+	Collections.sort(partDirs);
+
+	CompressionCodec codecIfAny = null;
+	if (FileOutputFormat.getCompressOutput(job)) {
+	    codecIfAny = ReflectionUtils.newInstance(FileOutputFormat.getOutputCompressorClass(job, BZip2Codec.class), conf);
+	}
+
+	Path mergedDir = new Path(outputDir, MERGED_DIR);
+	int compressionThreads = conf.getInt(ResourceRecordWriter.COMPRESSION_THREADS_KEY, Runtime.getRuntime().availableProcessors());
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, mergedDir, codecIfAny, compressionThreads, collectionCodecName);
+	LOGGER.info("Merging " + partDirs.size() + " reducer outputs into " + mergedDir);
+	long resourceCount = ResourcesMerger.merge(conf, partDirs, codecIfAny, writer);
+	LOGGER.info("Merged " + resourceCount + " resources.");
+
+	for (Path partDir : partDirs) {
+	    fs.delete(partDir, true);
+	}
+	if (!fs.rename(mergedDir, new Path(outputDir, FIRST_PART_DIR))) {
+	    throw new IOException("Failed to rename " + mergedDir + " to " + FIRST_PART_DIR);
+	}
+    }
 }
@@ -11,7 +11,14 @@ package com.yahoo.glimmer.indexing.preprocessor;
  *  See accompanying LICENSE file.
  */
 
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -28,10 +35,16 @@ import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.ReflectionUtils;
-import org.itadaki.bzip2.BZip2OutputStream;
 
+import com.yahoo.glimmer.util.BZip2BlockCodec;
+import com.yahoo.glimmer.util.BlockCodec;
+import com.yahoo.glimmer.util.BlockCodecs;
+import com.yahoo.glimmer.util.BlockCompressedDocumentWriter;
 import com.yahoo.glimmer.util.BlockOffsets;
 import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.LabelStore;
+import com.yahoo.glimmer.util.SubjectBitmap;
 
 /**
  * Writes to different output files depending on the contents of the value.
@@ -40,6 +53,21 @@ import com.yahoo.glimmer.util.BySubjectRecord;
  * 
  */
 public class ResourceRecordWriter extends RecordWriter<Text, Object> {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final String COMPRESSION_THREADS_KEY = "bySubjectCompressionThreads";
+    /**
+     * The name of a {@link BlockCodec} to also write the bySubject collection
+     * with. bySubject.bz2 is always written as it's the input of the indexing
+     * jobs.
+     */
+    public static final String COLLECTION_CODEC_KEY = "bySubjectCodec";
+    /**
+     * The id of the first doc that isn't in another build, when
+     * ResourcesReducer takes the ids of that build's resources from its hash.
+     * The ALL resources written are the docs from this id on.
+     */
+    public static final String DOC_ID_OFFSET_KEY = "bySubjectDocIdOffset";
+
     public static enum OUTPUT {
 	ALL("all", false), CONTEXT("contexts", false), OBJECT("objects", false), PREDICATE("predicates", true), SUBJECT("subjects", false);
 
@@ -64,16 +92,36 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 
     private HashMap<OUTPUT, Writer> writersMap = new HashMap<OUTPUT, Writer>();
     private OutputStream bySubjectOffsetsOutputStream;
-    private Writer bySubjectWriter;
-    private boolean bySubjectFirstRecord = true;
-    private BlockOffsets.Builder blockOffsetsBuilder;
-    private OutputStream uncompressedOutputStream;
+    private BlockCompressedDocumentWriter bySubjectWriter;
+    // Null unless a codec other than BZip2 was asked for. Its records are
+    // binary as it is only read by doc offset.
+    private BlockCompressedDocumentWriter bySubjectCodecWriter;
+    private final FastByteArrayOutputStream binaryRecordBytes = new FastByteArrayOutputStream(4096);
+    private LabelStore.Writer labelsWriter;
+    private SubjectBitmap.Writer subjectBitmapWriter;
+    // Records are serialized once and the bytes written to each collection.
+    private final FastByteArrayOutputStream recordBytes = new FastByteArrayOutputStream(4096);
+    private final Writer recordWriter = new OutputStreamWriter(recordBytes, UTF8);
     private long allCount;
-    private long docCount;
-    private long lastBlockStartBitOffset;
-    private long lastFirstDocId;
+    private long docIdOffset;
+    private long lastRecordId = -1;
+    // The records of the docs from docIdOffset on. The reducer writes them
+    // between those of the other build's docs, in key order.
+    private File deferredRecordsFile;
+    private Writer deferredRecordsWriter;
 
     public ResourceRecordWriter(FileSystem fs, Path taskWorkPath, CompressionCodec codecIfAny) throws IOException {
+	this(fs, taskWorkPath, codecIfAny, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ResourceRecordWriter(FileSystem fs, Path taskWorkPath, CompressionCodec codecIfAny, int compressionThreads) throws IOException {
+	this(fs, taskWorkPath, codecIfAny, compressionThreads, BZip2BlockCodec.NAME);
+    }
+
+    public ResourceRecordWriter(FileSystem fs, Path taskWorkPath, CompressionCodec codecIfAny, int compressionThreads, String collectionCodecName)
+	    throws IOException {
+	BlockCodec collectionCodec = BlockCodecs.forName(collectionCodecName);
+
 	if (fs.exists(taskWorkPath)) {
 	    throw new IOException("Task work path already exists:" + taskWorkPath.toString());
 	}
@@ -89,32 +137,27 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 		Path file = new Path(taskWorkPath, output.filename);
 		out = fs.create(file, false);
 	    }
-	    writersMap.put(output, new OutputStreamWriter(out, Charset.forName("UTF-8")));
+	    writersMap.put(output, new OutputStreamWriter(out, UTF8));
 	}
 
-	Path file = new Path(taskWorkPath, "bySubject.bz2");
+	Path file = new Path(taskWorkPath, "bySubject" + BlockCodecs.BZIP2.getFileExtension());
 	OutputStream compressedOutputStream = fs.create(file, false);
 	file = new Path(taskWorkPath, "bySubject.blockOffsets");
 	bySubjectOffsetsOutputStream = fs.create(file, false);
 
-	blockOffsetsBuilder = new BlockOffsets.Builder();
-	// Create a Writer on a BZip2 compressed OutputStream with a small block
-	// size( * 100K).
-	uncompressedOutputStream = new BZip2OutputStream(compressedOutputStream, 1, new BZip2OutputStream.Callback() {
-	    @Override
-	    public void blockStart(long blockStartBitOffset) {
-		if (lastBlockStartBitOffset != 0) {
-		    blockOffsetsBuilder.setBlockStart(lastBlockStartBitOffset, lastFirstDocId);
-		}
-		lastBlockStartBitOffset = blockStartBitOffset;
-	    }
+	// BZip2 with a small block size( * 100K).
+	bySubjectWriter = new BlockCompressedDocumentWriter(BlockCodecs.BZIP2, compressedOutputStream, compressionThreads);
 
-	    @Override
-	    public void finish(long totalBitsWritten) {
-		blockOffsetsBuilder.close(totalBitsWritten);
-	    }
-	});
-	bySubjectWriter = new OutputStreamWriter(uncompressedOutputStream);
+	if (!BZip2BlockCodec.NAME.equals(collectionCodec.getName())) {
+	    file = new Path(taskWorkPath, "bySubject" + collectionCodec.getFileExtension());
+	    bySubjectCodecWriter = new BlockCompressedDocumentWriter(collectionCodec, fs.create(file, false), compressionThreads);
+	}
+
+	file = new Path(taskWorkPath, LabelStore.NAME + BlockCodecs.LZ4.getFileExtension());
+	labelsWriter = new LabelStore.Writer(fs.create(file, false));
+
+	file = new Path(taskWorkPath, SubjectBitmap.NAME);
+	subjectBitmapWriter = new SubjectBitmap.Writer(fs.create(file, false));
     }
 
     /**
@@ -150,42 +193,103 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 	    subjectWriter.write(record.getSubject());
 	    subjectWriter.write('\n');
 
-	    // bySubject
-	    if (lastBlockStartBitOffset != 0) {
-		blockOffsetsBuilder.setBlockStart(lastBlockStartBitOffset, record.getId());
-		lastBlockStartBitOffset = 0;
-		lastFirstDocId = record.getId();
-	    }
-	    
-	    
-	    if (bySubjectFirstRecord) {
-		bySubjectFirstRecord = false;
+	    if (docIdOffset > 0 && record.getId() >= docIdOffset) {
+		deferRecord(record);
 	    } else {
-		bySubjectWriter.write(BySubjectRecord.RECORD_DELIMITER);
+		writeRecord(record);
 	    }
-	    record.writeTo(bySubjectWriter);
-	    // The record needs to be flushed through to write out the resulting BZip2 blocks at as they are filled.
-	    bySubjectWriter.flush();
-	    uncompressedOutputStream.flush();
-	    docCount++;
 	} else {
 	    throw new IllegalArgumentException("Don't know how to write a " + value.getClass().getSimpleName());
 	}
     }
 
+    private void writeRecord(BySubjectRecord record) throws IOException {
+	if (docIdOffset > 0) {
+	    // The reducer's previous ids are in key order.
+	    record.setPreviousId(lastRecordId);
+	    lastRecordId = record.getId();
+	}
+
+	// bySubject
+	recordBytes.reset();
+	record.writeTo(recordWriter);
+	recordWriter.flush();
+	bySubjectWriter.write(record.getId(), recordBytes.array, 0, recordBytes.length);
+	if (bySubjectCodecWriter != null) {
+	    binaryRecordBytes.reset();
+	    record.writeBinaryTo(binaryRecordBytes);
+	    bySubjectCodecWriter.write(record.getId(), binaryRecordBytes.array, 0, binaryRecordBytes.length);
+	}
+
+	// labels
+	labelsWriter.write(record);
+
+	subjectBitmapWriter.set(record.getId());
+    }
+
+    private void deferRecord(BySubjectRecord record) throws IOException {
+	if (deferredRecordsWriter == null) {
+	    deferredRecordsFile = File.createTempFile("deferredRecords", ".txt");
+	    deferredRecordsWriter = new OutputStreamWriter(new FileOutputStream(deferredRecordsFile), UTF8);
+	}
+	record.writeTo(deferredRecordsWriter);
+	deferredRecordsWriter.write(BySubjectRecord.RECORD_DELIMITER);
+    }
+
+    /**
+     * Writes the deferred records after all the others, which have lower ids.
+     */
+    private void writeDeferredRecords() throws IOException {
+	deferredRecordsWriter.close();
+	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(deferredRecordsFile), UTF8));
+	try {
+	    BySubjectRecord record = new BySubjectRecord();
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		byte[] bytes = line.getBytes(UTF8);
+		try {
+		    record.readFrom(bytes, 0, bytes.length);
+		} catch (BySubjectRecordException e) {
+		    throw new IOException("Failed to read back a deferred record.", e);
+		}
+		writeRecord(record);
+	    }
+	} finally {
+	    reader.close();
+	    deferredRecordsFile.delete();
+	}
+    }
+
     @Override
     public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+	if (deferredRecordsWriter != null) {
+	    writeDeferredRecords();
+	}
 	for (Writer writer : writersMap.values()) {
 	    writer.close();
 	}
-	bySubjectWriter.write(BySubjectRecord.RECORD_DELIMITER);
-	bySubjectWriter.flush();
+	long lastDocId = docIdOffset + allCount;
+	BlockOffsets blockOffsets = bySubjectWriter.finish(lastDocId);
 	bySubjectWriter.close();
-
-	BlockOffsets blockOffsets = blockOffsetsBuilder.build(docCount, allCount);
 	blockOffsets.printTo(System.err);
 	blockOffsets.save(bySubjectOffsetsOutputStream);
 	bySubjectOffsetsOutputStream.close();
+
+	if (bySubjectCodecWriter != null) {
+	    bySubjectCodecWriter.appendBlockOffsets(bySubjectCodecWriter.finish(lastDocId));
+	    bySubjectCodecWriter.close();
+	}
+
+	labelsWriter.close(lastDocId);
+	subjectBitmapWriter.close(lastDocId);
+    }
+
+    /**
+     * @param docIdOffset
+     *            See {@link #DOC_ID_OFFSET_KEY}.
+     */
+    public void setDocIdOffset(long docIdOffset) {
+	this.docIdOffset = docIdOffset;
     }
 
     public static class OutputFormat extends FileOutputFormat<Text, Object> {
@@ -201,7 +305,13 @@ public class ResourceRecordWriter extends RecordWriter<Text, Object> {
 
 	    FileSystem fs = FileSystem.get(conf);
 
-	    return new ResourceRecordWriter(fs, taskWorkPath, outputCompressionCodec);
+	    int compressionThreads = conf.getInt(COMPRESSION_THREADS_KEY, Runtime.getRuntime().availableProcessors());
+
+	    String collectionCodecName = conf.get(COLLECTION_CODEC_KEY, BZip2BlockCodec.NAME);
+
+	    ResourceRecordWriter writer = new ResourceRecordWriter(fs, taskWorkPath, outputCompressionCodec, compressionThreads, collectionCodecName);
+	    writer.setDocIdOffset(conf.getLong(DOC_ID_OFFSET_KEY, 0));
+	    return writer;
 	}
     }
 }
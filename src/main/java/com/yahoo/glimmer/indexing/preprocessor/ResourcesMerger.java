@@ -0,0 +1,272 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.LineReader;
+import org.apache.log4j.Logger;
+
+import com.yahoo.glimmer.indexing.CompressionCodecHelper;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OUTPUT;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OutputCount;
+import com.yahoo.glimmer.util.BlockCodecs;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+
+/**
+ * Merges the outputs of several ResourcesReducers, each written by a
+ * {@link ResourceRecordWriter} to its own part dir, into the output a single
+ * reducer would have written.
+ *
+ * Each part's 'all' list is sorted and a key is only in one part, so a k-way
+ * merge of the parts' 'all' lists gives the global 'all' list. A subject's doc
+ * id is its position in that list, so the bySubject records are given their
+ * ids as they are merged. The parts' other lists and records are read in step
+ * with their 'all' list. Only the heads of the parts are held in memory.
+ *
+ * @author tep
+ */
+public class ResourcesMerger {
+    private final static Logger LOGGER = Logger.getLogger(ResourcesMerger.class);
+
+    /**
+     * @param conf
+     * @param partDirs
+     *            The part dirs written by the reducers.
+     * @param codecIfAny
+     *            The codec the parts' resource lists were compressed with, or
+     *            null.
+     * @param writer
+     *            Where the merged output is written. It is closed when done.
+     * @return The number of resources merged.
+     * @throws IOException
+     */
+    public static long merge(Configuration conf, List<Path> partDirs, CompressionCodec codecIfAny, ResourceRecordWriter writer) throws IOException {
+	FileSystem fs = FileSystem.get(conf);
+	List<Part> parts = new ArrayList<Part>(partDirs.size());
+	PriorityQueue<Part> queue = new PriorityQueue<Part>(Math.max(1, partDirs.size()));
+	OutputCount outputCount = new OutputCount();
+	long docId = 0;
+	long previousDocId = -1;
+	try {
+	    for (Path partDir : partDirs) {
+		Part part = new Part(conf, fs, partDir, codecIfAny);
+		parts.add(part);
+		if (part.all.next()) {
+		    queue.add(part);
+		}
+	    }
+
+	    while (!queue.isEmpty()) {
+		Part part = queue.poll();
+		Text key = part.all.line;
+
+		outputCount.output = OUTPUT.ALL;
+		outputCount.count = 0;
+		writer.write(key, outputCount);
+
+		if (part.nextRecordIs(key)) {
+		    part.record.setId(docId);
+		    // The first record is its part's first, so its previous id is
+		    // already unset.
+		    if (previousDocId != -1) {
+			part.record.setPreviousId(previousDocId);
+		    }
+		    writer.write(key, part.record);
+		    previousDocId = docId;
+		    part.recordRead = false;
+		}
+
+		if (part.predicates.isAt(key)) {
+		    outputCount.output = OUTPUT.PREDICATE;
+		    outputCount.count = part.predicates.count;
+		    writer.write(key, outputCount);
+		}
+		if (part.objects.isAt(key)) {
+		    outputCount.output = OUTPUT.OBJECT;
+		    outputCount.count = 0;
+		    writer.write(key, outputCount);
+		}
+		if (part.contexts.isAt(key)) {
+		    outputCount.output = OUTPUT.CONTEXT;
+		    outputCount.count = 0;
+		    writer.write(key, outputCount);
+		}
+
+		docId++;
+		if (part.all.next()) {
+		    queue.add(part);
+		}
+	    }
+	    writer.close(null);
+	} catch (InterruptedException e) {
+	    throw new IOException(e);
+	} finally {
+	    for (Part part : parts) {
+		part.close();
+	    }
+	}
+	LOGGER.info("Merged " + docId + " resources from " + partDirs.size() + " parts.");
+	return docId;
+    }
+
+    /**
+     * The heads of one part's lists and bySubject records. Parts are ordered
+     * by the key at the head of their 'all' list.
+     */
+    private static class Part implements Comparable<Part> {
+	private final Path dir;
+	private final ListReader all;
+	private final ListReader predicates;
+	private final ListReader objects;
+	private final ListReader contexts;
+	private final LineReader bySubjectReader;
+	private final Text bySubjectLine = new Text();
+	private final BySubjectRecord record = new BySubjectRecord();
+	private boolean recordRead;
+	private boolean recordsDone;
+
+	public Part(Configuration conf, FileSystem fs, Path dir, CompressionCodec codecIfAny) throws IOException {
+	    this.dir = dir;
+	    all = new ListReader(fs, dir, OUTPUT.ALL, codecIfAny);
+	    predicates = new ListReader(fs, dir, OUTPUT.PREDICATE, codecIfAny);
+	    objects = new ListReader(fs, dir, OUTPUT.OBJECT, codecIfAny);
+	    contexts = new ListReader(fs, dir, OUTPUT.CONTEXT, codecIfAny);
+	    Path bySubjectPath = new Path(dir, "bySubject" + BlockCodecs.BZIP2.getFileExtension());
+	    bySubjectReader = new LineReader(CompressionCodecHelper.wrapStream(conf, bySubjectPath, fs.open(bySubjectPath)));
+	}
+
+	/**
+	 * @return true if the part's next bySubject record is the key's. The
+	 *         record is then in {@link #record}.
+	 */
+	public boolean nextRecordIs(Text key) throws IOException {
+	    if (!recordRead && !recordsDone) {
+		do {
+		    if (bySubjectReader.readLine(bySubjectLine) == 0) {
+			recordsDone = true;
+			return false;
+		    }
+		} while (bySubjectLine.getLength() == 0);
+		try {
+		    record.readFrom(bySubjectLine.getBytes(), 0, bySubjectLine.getLength());
+		} catch (BySubjectRecordException e) {
+		    throw new IOException("Failed to parse a bySubject record in " + dir, e);
+		}
+		recordRead = true;
+	    }
+	    return recordRead && record.getSubject().equals(key.toString());
+	}
+
+	@Override
+	public int compareTo(Part that) {
+	    return all.line.compareTo(that.all.line);
+	}
+
+	public void close() throws IOException {
+	    all.close();
+	    predicates.close();
+	    objects.close();
+	    contexts.close();
+	    bySubjectReader.close();
+	}
+    }
+
+    /**
+     * Reads one of a part's resource lists, in the order of its 'all' list.
+     */
+    private static class ListReader {
+	private final LineReader reader;
+	private final boolean includeCounts;
+	private final Text line = new Text();
+	private final Text key = new Text();
+	private int count;
+	private boolean done;
+	// The head has been read but not matched yet.
+	private boolean pending;
+
+	public ListReader(FileSystem fs, Path dir, OUTPUT output, CompressionCodec codecIfAny) throws IOException {
+	    InputStream inputStream;
+	    if (codecIfAny != null) {
+		inputStream = codecIfAny.createInputStream(fs.open(new Path(dir, output.filename + codecIfAny.getDefaultExtension())));
+	    } else {
+		inputStream = fs.open(new Path(dir, output.filename));
+	    }
+	    reader = new LineReader(inputStream);
+	    includeCounts = output.includeCounts;
+	}
+
+	/**
+	 * Moves to the next line, used for the 'all' list.
+	 *
+	 * @return false at the end of the list.
+	 */
+	public boolean next() throws IOException {
+	    return reader.readLine(line) > 0;
+	}
+
+	/**
+	 * @return true if the head of the list is the key, in which case the
+	 *         list moves past it.
+	 */
+	public boolean isAt(Text key) throws IOException {
+	    if (!pending && !done) {
+		if (reader.readLine(line) == 0) {
+		    done = true;
+		    return false;
+		}
+		parseLine();
+		pending = true;
+	    }
+	    if (pending && this.key.equals(key)) {
+		pending = false;
+		return true;
+	    }
+	    return false;
+	}
+
+	private void parseLine() throws IOException {
+	    if (!includeCounts) {
+		key.set(line);
+		return;
+	    }
+	    byte[] bytes = line.getBytes();
+	    int tab = 0;
+	    while (tab < line.getLength() && bytes[tab] != '\t') {
+		tab++;
+	    }
+	    if (tab == line.getLength()) {
+		throw new IOException("No count in line:" + line);
+	    }
+	    try {
+		count = Integer.parseInt(Text.decode(bytes, 0, tab));
+	    } catch (NumberFormatException e) {
+		throw new IOException("Bad count in line:" + line, e);
+	    }
+	    key.set(bytes, tab + 1, line.getLength() - tab - 1);
+	}
+
+	public void close() throws IOException {
+	    reader.close();
+	}
+    }
+}
@@ -11,8 +11,13 @@ package com.yahoo.glimmer.indexing.preprocessor;
  *  See accompanying LICENSE file.
  */
 
+import it.unimi.dsi.big.util.LongBigListSignedStringMap;
+
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
@@ -20,6 +25,7 @@ import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OUTPUT;
 import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OutputCount;
 import com.yahoo.glimmer.indexing.preprocessor.TuplesToResourcesMapper.TupleElementName;
 import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.ComputeHashTool;
 
 /**
  * Reducer
@@ -30,6 +36,16 @@ import com.yahoo.glimmer.util.BySubjectRecord;
  * 
  */
 public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
+    /**
+     * The .map and .smap files of the 'all' resources hash of another build.
+     * When set, keys in that hash keep its doc ids and aren't written to the
+     * ALL output. The other keys are numbered from the size of the hash on, so
+     * that the ALL output only lists them and its hash's ids are offset by that
+     * size. Used for delta builds.
+     */
+    public static final String DOC_ID_HASH_KEY = "docIdHash";
+    public static final String DOC_ID_SIGNATURES_KEY = "docIdSignatures";
+
     private OutputCount outputCount = new OutputCount();
     private BySubjectRecord bySubjectRecord = new BySubjectRecord();
     // Given that there is only 1 reducer writing a sorted list of subjects we
@@ -37,15 +53,31 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
     // The alternative would be to generate a MPH over the list of subjects but
     // that would require more memory when building the indices.
     private long docId;
+    private LongBigListSignedStringMap docIdHash;
     
     static enum Counters {
-	TOO_MANY_RELATIONS, DUPLICATE_RELATIONS, KEYS, KEY_SUBJECT, KEY_PREDICATE, KEY_OBJECT, KEY_CONTEXT, VALUES;
+	TOO_MANY_RELATIONS, DUPLICATE_RELATIONS, KEYS, KEY_SUBJECT, KEY_PREDICATE, KEY_OBJECT, KEY_CONTEXT, VALUES, KEY_NOT_IN_DOC_ID_HASH;
     }
     
     private final static Text SUBJECT_TEXT = new Text(TupleElementName.SUBJECT.name());
     private final static Text PREDICATE_TEXT = new Text(TupleElementName.PREDICATE.name());
     private final static Text OBJECT_TEXT = new Text(TupleElementName.OBJECT.name());
     private final static Text CONTEXT_TEXT = new Text(TupleElementName.CONTEXT.name());
+    private final static Text BNODE_SUBJECT_TEXT = new Text(TuplesToResourcesMapper.BNODE_SUBJECT_VALUE);
+
+    @Override
+    protected void setup(Reducer<Text, Text, Text, Object>.Context context) throws IOException, InterruptedException {
+	Configuration conf = context.getConfiguration();
+	String docIdHashFilename = conf.get(DOC_ID_HASH_KEY);
+	if (docIdHashFilename != null) {
+	    try {
+		docIdHash = ComputeHashTool.loadSignedHash(FileSystem.get(conf), new Path(docIdHashFilename), new Path(conf.get(DOC_ID_SIGNATURES_KEY)));
+	    } catch (ClassNotFoundException e) {
+		throw new IOException(e);
+	    }
+	    docId = docIdHash.size64();
+	}
+    }
 
     protected void reduce(Text key, Iterable<Text> values, Reducer<Text, Text, Text, Object>.Context context) throws IOException, InterruptedException {
 	context.getCounter(Counters.KEYS).increment(1);
@@ -54,10 +86,18 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 	int keyContextCount = 0;
 	int relationsCount = 0;
 	int duplicateRelatations = 0;
-	
-	outputCount.output = OUTPUT.ALL;
-	outputCount.count = 0;
-	context.write(key, outputCount);
+	boolean bNode = false;
+
+	// The hash is monotone so the ids of the keys in it are in key order.
+	Long hashId = docIdHash == null ? null : docIdHash.get(key.toString());
+	if (hashId == null) {
+	    if (docIdHash != null) {
+		context.getCounter(Counters.KEY_NOT_IN_DOC_ID_HASH).increment(1);
+	    }
+	    outputCount.output = OUTPUT.ALL;
+	    outputCount.count = 0;
+	    context.write(key, outputCount);
+	}
 	
 	bySubjectRecord.clearRelations();
 
@@ -71,6 +111,8 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 		keyObjectCount++;
 	    } else if (CONTEXT_TEXT.equals(value)) {
 		keyContextCount++;
+	    } else if (BNODE_SUBJECT_TEXT.equals(value)) {
+		bNode = true;
 	    } else if (SUBJECT_TEXT.equals(value)) {
 		throw new IllegalArgumentException("Reducer got a SUBJECT value!?.  Should only be \"PREDICATE\", \"OBJECT\", \"CONTEXT\" or a relation String.");
 	    } else if (value.getLength() > 0) {
@@ -85,14 +127,17 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 	    }
 	}
 	
+	long recordId = hashId == null ? docId : hashId;
+
 	if (relationsCount > 0) {
 	    if (duplicateRelatations > 0) {
 		context.getCounter(Counters.DUPLICATE_RELATIONS).increment(duplicateRelatations);
 	    }
 	    
 	    // The docId's should match with OUTPUT.ALL hash values
-	    bySubjectRecord.setId(docId);
+	    bySubjectRecord.setId(recordId);
 	    bySubjectRecord.setSubject(key.toString());
+	    bySubjectRecord.setBNode(bNode);
 	    
 	    if (bySubjectRecord.getRelationsCount() != relationsCount) {
 		System.out.println("Too many relations. Only indexing " + bySubjectRecord.getRelationsCount() + " of " + relationsCount + ". Subject is:"
@@ -101,7 +146,7 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 	    }
 	    context.write(key, bySubjectRecord);
 	    
-	    bySubjectRecord.setPreviousId(docId);
+	    bySubjectRecord.setPreviousId(recordId);
 	    context.getCounter(Counters.KEY_SUBJECT).increment(relationsCount);
 	}
 
@@ -124,6 +169,8 @@ public class ResourcesReducer extends Reducer<Text, Text, Text, Object> {
 	    context.getCounter(Counters.KEY_CONTEXT).increment(keyContextCount);
 	}
 	
-	docId++;
+	if (hashId == null) {
+	    docId++;
+	}
     };
 }
@@ -50,6 +50,12 @@ public class TuplesToResourcesMapper extends Mapper<LongWritable, Text, Text, Ob
 
     public static final String INCLUDE_CONTEXTS_KEY = "includeContexts";
     public static final String EXTRA_RESOURCES = "extraResources";
+    /**
+     * Written as a value of the subject's key for each tuple with a BNode
+     * subject, so that the ResourcesReducer can mark its record as a BNode's.
+     */
+    public static final String BNODE_SUBJECT_VALUE = "BNODE";
+    private static final Text BNODE_SUBJECT_TEXT = new Text(BNODE_SUBJECT_VALUE);
 
     enum Counters {
 	NX_PARSER_EXCEPTION, NX_PARSER_RETRY_EXCEPTION, LONG_TUPLE, LONG_TUPLES, SHORT_TUPLE, LONG_TUPLE_ELEMENT, INVALID_RESOURCE, UNEXPECTED_SUBJECT_TYPE, UNEXPECTED_PREDICATE_TYPE, UNEXPECTED_CONTEXT_TYPE, WRITTEN_RESOURCES_CACHE_HIT
@@ -228,6 +234,9 @@ public class TuplesToResourcesMapper extends Mapper<LongWritable, Text, Text, Ob
 	} else {
 	    // Write subject with predicate, object, context as value
 	    context.write(subject, new Text(predicateObjectContextDot.toString()));
+	    if (tuple.subject.isOfType(TupleElement.Type.BNODE)) {
+		context.write(subject, BNODE_SUBJECT_TEXT);
+	    }
 	}
     }
 }
@@ -26,13 +26,18 @@ public class Context extends Properties {
     private static final String ALL_RESOURCES_MAP_KEY = "allResorcesMap";
     private static final String ALL_RESOURCES_SIGNATURE_KEY = "allResorcesSignature";
     private static final String ALL_RESOURCES_KEY = "allResorces";
+    private static final String ALL_RESOURCES_STORE_KEY = "allResorcesStore";
 
     private static final String MULTIINDEX_DIR_PREFIX_KEY = "multiindex.dirprefix";
     private static final String MULTIINDEX_PATH_KEY = "multiindex.path";
 
     private static final String COLLECTION_BASENAME_KEY = "bySubject";
+    private static final String COLLECTION_CACHE_SIZE_KEY = "collection.cache.size";
+    private static final String COLLECTION_MMAP_KEY = "collection.mmap";
+    private static final String COLLECTION_PREFETCH_THREADS_KEY = "collection.prefetch.threads";
     private static final String VERTICAL_DIR_KEY = "vertical.dir";
     private static final String HORIZONTAL_DIR_KEY = "horizontal.dir";
+    private static final String DELTA_DIR_KEY = "delta.dir";
     private static final String TITLE_LIST_KEY = "title.list";
 
     private static final String ONTOLOGY_PATH_KEY = "ontology.path";
@@ -49,6 +54,7 @@ public class Context extends Properties {
     private static final String K1_TAG = "k1";
     private static final String B_TAG = "b";
     private static final String MAX_NORM_TAG = "max.norm";
+    private static final String TOP_K_PRUNING_TAG = "topk.pruning";
 
     private static final String W_MATCHES_TAG = "w.matches";
     private static final String WF_IMPORTANT_TAG = "wf.important";
@@ -89,6 +95,14 @@ public class Context extends Properties {
     public File getAllResourcesFile() {
 	return getKbRootRelativeFile(getProperty(ALL_RESOURCES_KEY, "all.txt"));
     }
+
+    /**
+     * @return The front coded store of the 'all' resources, used instead of
+     *         the all resources file if it exists.
+     */
+    public File getAllResourcesStoreFile() {
+	return getKbRootRelativeFile(getProperty(ALL_RESOURCES_STORE_KEY, "all.fcs"));
+    }
     
     public double getB() {
 	return getDouble(B_TAG, 0.75);
@@ -98,6 +112,30 @@ public class Context extends Properties {
 	return getKbRootRelativeFile(getProperty(COLLECTION_BASENAME_KEY, "bySubject"));
     }
 
+    /**
+     * @return The number of bytes of off heap memory to cache uncompressed
+     *         collection blocks in.
+     */
+    public long getCollectionCacheSize() {
+	return getLong(COLLECTION_CACHE_SIZE_KEY, 256l * 1024 * 1024);
+    }
+
+    /**
+     * @return false if the collection's compressed file should be read with
+     *         positional reads instead of being memory mapped.
+     */
+    public boolean getCollectionMemoryMapped() {
+	return getBoolean(COLLECTION_MMAP_KEY, true);
+    }
+
+    /**
+     * @return The number of threads uncompressing the collection blocks of a
+     *         page of results before they are read. 0 turns prefetching off.
+     */
+    public int getCollectionPrefetchThreads() {
+	return getInt(COLLECTION_PREFETCH_THREADS_KEY, 4);
+    }
+
     public File getVerticalIndexDir() {
 	return getKbRootRelativeFile(getProperty(VERTICAL_DIR_KEY, "vertical"));
     }
@@ -106,6 +144,14 @@ public class Context extends Properties {
 	return getKbRootRelativeFile(getProperty(HORIZONTAL_DIR_KEY, "horizontal"));
     }
     
+    /**
+     * @return The dir of the delta built by DeltaIndexBuilder. It's only
+     *         loaded if it exists.
+     */
+    public File getDeltaDir() {
+	return getKbRootRelativeFile(getProperty(DELTA_DIR_KEY, "delta"));
+    }
+
     public File getIndexedPredicatesFile() {
 	return getKbRootRelativeFile(getProperty(HORIZONTAL_DIR_KEY, "topPredicates"));
     }
@@ -142,6 +188,15 @@ public class Context extends Properties {
 	return getInt(MAX_NORM_TAG, 5);
     }
 
+    /**
+     * @return true if disjunctive queries should skip the docs that can't
+     *         make the top results. The number of results is then only a lower
+     *         bound.
+     */
+    public boolean getTopKPruning() {
+	return getBoolean(TOP_K_PRUNING_TAG, false);
+    }
+
     public String getMultiIndexDirPrefix() {
 	return getProperty(MULTIINDEX_DIR_PREFIX_KEY, "index-");
     }
@@ -256,6 +311,14 @@ public class Context extends Properties {
 	return Integer.parseInt(value);
     }
 
+    private long getLong(String key, long defaultValue) {
+	String value = getProperty(key);
+	if (value == null) {
+	    return defaultValue;
+	}
+	return Long.parseLong(value);
+    }
+
     public Integer getInteger(String key) {
 	String value = getProperty(key);
 	if (value == null) {
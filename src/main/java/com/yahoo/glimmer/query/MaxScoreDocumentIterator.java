@@ -0,0 +1,257 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.IntervalIterator;
+import it.unimi.di.big.mg4j.search.visitor.DocumentIteratorVisitor;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
+import it.unimi.dsi.fastutil.objects.ReferenceArraySet;
+import it.unimi.dsi.fastutil.objects.ReferenceSet;
+import it.unimi.dsi.fastutil.objects.ReferenceSets;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A disjunction of document iterators that only returns the docs that could
+ * score more than a threshold, the MaxScore algorithm of Turtle and Flood.
+ *
+ * Each iterator has an upper bound of the score a doc can get from it. The
+ * iterators are ordered by their bounds and those whose bounds sum to no more
+ * than the threshold are non-essential: a doc that only they return can't
+ * score more than the threshold. Candidate docs are the docs of the essential
+ * iterators, and the non-essential iterators are only skipped to a candidate
+ * while the sum of the bounds of the iterators that may return it is more
+ * than the threshold. So as the threshold is raised to the score of the
+ * k-th best doc found, most of the docs of the iterators with small bounds,
+ * which are those of the frequent terms, are never read or scored.
+ *
+ * Like an Or the true paths of a doc are the iterators at the doc. The
+ * iterator has no intervals.
+ *
+ * @author tep
+ */
+public class MaxScoreDocumentIterator implements DocumentIterator {
+    private final DocumentIterator[] documentIterators;
+    private final double[] bounds;
+    /** The sum of the bounds up to and including each iterator's. */
+    private final double[] cumulativeBounds;
+    private final ReferenceSet<Index> indices;
+    /** The iterators before this are non-essential. */
+    private int firstEssential;
+    private double threshold = Double.NEGATIVE_INFINITY;
+    private long document = -1;
+    private double weight = 1;
+
+    /**
+     * @param documentIterators
+     * @param bounds
+     *            The upper bound of the score a doc can get from each
+     *            iterator.
+     */
+    public MaxScoreDocumentIterator(DocumentIterator[] documentIterators, final double[] bounds) {
+	if (documentIterators.length != bounds.length) {
+	    throw new IllegalArgumentException("Need a bound for each of the " + documentIterators.length + " iterators.");
+	}
+	int n = documentIterators.length;
+	// Sort the iterators by their bounds.
+	Integer[] order = new Integer[n];
+	for (int i = 0; i < n; i++) {
+	    order[i] = i;
+	}
+	Arrays.sort(order, new Comparator<Integer>() {
+	    @Override
+	    public int compare(Integer i1, Integer i2) {
+		return Double.compare(bounds[i1], bounds[i2]);
+	    }
+	});
+	this.documentIterators = new DocumentIterator[n];
+	this.bounds = new double[n];
+	cumulativeBounds = new double[n];
+	indices = new ReferenceArraySet<Index>();
+	double cumulativeBound = 0;
+	for (int i = 0; i < n; i++) {
+	    this.documentIterators[i] = documentIterators[order[i]];
+	    this.bounds[i] = bounds[order[i]];
+	    cumulativeBound += this.bounds[i];
+	    cumulativeBounds[i] = cumulativeBound;
+	    indices.addAll(this.documentIterators[i].indices());
+	}
+    }
+
+    /**
+     * Sets the score a doc has to beat to be returned. It should only be
+     * raised.
+     */
+    public void setThreshold(double threshold) {
+	this.threshold = threshold;
+	while (firstEssential < documentIterators.length && cumulativeBounds[firstEssential] <= threshold) {
+	    firstEssential++;
+	}
+    }
+
+    public int getEssentialCount() {
+	return documentIterators.length - firstEssential;
+    }
+
+    @Override
+    public long nextDocument() throws IOException {
+	if (document == END_OF_LIST) {
+	    return END_OF_LIST;
+	}
+	long candidate = document;
+	while (true) {
+	    // Move the essential iterators past the last candidate.
+	    long next = END_OF_LIST;
+	    for (int i = firstEssential; i < documentIterators.length; i++) {
+		long d = documentIterators[i].document();
+		if (d <= candidate) {
+		    d = documentIterators[i].skipTo(candidate + 1);
+		}
+		if (d < next) {
+		    next = d;
+		}
+	    }
+	    if (next == END_OF_LIST) {
+		return document = END_OF_LIST;
+	    }
+	    candidate = next;
+
+	    double bound = 0;
+	    for (int i = firstEssential; i < documentIterators.length; i++) {
+		if (documentIterators[i].document() == candidate) {
+		    bound += bounds[i];
+		}
+	    }
+	    // The non-essential iterators from the largest bound while the
+	    // candidate could still beat the threshold.
+	    boolean pruned = false;
+	    for (int i = firstEssential; i-- != 0;) {
+		if (bound + cumulativeBounds[i] <= threshold) {
+		    pruned = true;
+		    break;
+		}
+		if (documentIterators[i].skipTo(candidate) == candidate) {
+		    bound += bounds[i];
+		}
+	    }
+	    if (!pruned && bound > threshold) {
+		return document = candidate;
+	    }
+	}
+    }
+
+    @Override
+    public long skipTo(long n) throws IOException {
+	if (document >= n) {
+	    return document;
+	}
+	document = n - 1;
+	return nextDocument();
+    }
+
+    @Override
+    public long document() {
+	return document;
+    }
+
+    @Override
+    public boolean mayHaveNext() {
+	return document != END_OF_LIST;
+    }
+
+    @Override
+    public ReferenceSet<Index> indices() {
+	return ReferenceSets.unmodifiable(indices);
+    }
+
+    @Override
+    public <T> T accept(DocumentIteratorVisitor<T> visitor) throws IOException {
+	if (!visitor.visitPre(this)) {
+	    return null;
+	}
+	final T[] a = visitor.newArray(documentIterators.length);
+	for (int i = 0; i < documentIterators.length; i++) {
+	    T t = documentIterators[i].accept(visitor);
+	    if (t == null) {
+		return null;
+	    }
+	    if (a != null) {
+		a[i] = t;
+	    }
+	}
+	return visitor.visitPost(this, a);
+    }
+
+    @Override
+    public <T> T acceptOnTruePaths(DocumentIteratorVisitor<T> visitor) throws IOException {
+	if (!visitor.visitPre(this)) {
+	    return null;
+	}
+	int trueCount = 0;
+	for (DocumentIterator documentIterator : documentIterators) {
+	    if (documentIterator.document() == document) {
+		trueCount++;
+	    }
+	}
+	final T[] a = visitor.newArray(trueCount);
+	int j = 0;
+	for (DocumentIterator documentIterator : documentIterators) {
+	    if (documentIterator.document() == document) {
+		T t = documentIterator.acceptOnTruePaths(visitor);
+		if (t == null) {
+		    return null;
+		}
+		if (a != null) {
+		    a[j++] = t;
+		}
+	    }
+	}
+	return visitor.visitPost(this, a);
+    }
+
+    @Override
+    public double weight() {
+	return weight;
+    }
+
+    @Override
+    public DocumentIterator weight(double weight) {
+	this.weight = weight;
+	return this;
+    }
+
+    @Override
+    public IntervalIterator intervalIterator() throws IOException {
+	throw new UnsupportedOperationException("A MaxScoreDocumentIterator has no intervals.");
+    }
+
+    @Override
+    public IntervalIterator intervalIterator(Index index) throws IOException {
+	throw new UnsupportedOperationException("A MaxScoreDocumentIterator has no intervals.");
+    }
+
+    @Override
+    public Reference2ReferenceMap<Index, IntervalIterator> intervalIterators() throws IOException {
+	throw new UnsupportedOperationException("A MaxScoreDocumentIterator has no intervals.");
+    }
+
+    @Override
+    public void dispose() throws IOException {
+	for (DocumentIterator documentIterator : documentIterators) {
+	    documentIterator.dispose();
+	}
+    }
+}
@@ -0,0 +1,170 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.QueryEngine;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.query.nodes.Or;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitor;
+import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.parser.QueryParser;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.OrDocumentIterator;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.di.big.mg4j.search.score.Scorer;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ReferenceMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.lang.FlyweightPrototypes;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A QueryEngine that evaluates disjunctive queries scored by a
+ * {@link WOOScorer} with a {@link MaxScoreDocumentIterator}, so that the docs
+ * that can't make the offset + length top results aren't scored.
+ *
+ * The disjuncts of the query are grouped by their terms, so the Selects of a
+ * term's fields that RDFQueryParser expands a term to are one group. The
+ * bound of each group is the scorer's upper bound of the score its terms can
+ * add. The threshold of the iterator is the score of the last of the top
+ * results once there are offset + length of them.
+ *
+ * The results are those QueryEngine would give for the query. The count
+ * returned is the number of docs scored, which is less than the number of
+ * docs matched if any were skipped but is still more than offset + length
+ * when there are more matches. Other queries are processed by QueryEngine.
+ *
+ * @author tep
+ */
+public class MaxScoreQueryEngine extends QueryEngine {
+    /** Worst first. Of equal scores the later doc is worse. */
+    private static final Comparator<DocumentScoreInfo<?>> WORST_FIRST = new Comparator<DocumentScoreInfo<?>>() {
+	@Override
+	public int compare(DocumentScoreInfo<?> dsi1, DocumentScoreInfo<?> dsi2) {
+	    int byScore = Double.compare(dsi1.score, dsi2.score);
+	    return byScore != 0 ? byScore : Long.compare(dsi2.document, dsi1.document);
+	}
+    };
+
+    private final QueryBuilderVisitor<DocumentIterator> builderVisitor;
+    private Scorer[] scorers = new Scorer[0];
+    private double[] scorerWeights = new double[0];
+
+    public MaxScoreQueryEngine(QueryParser queryParser, QueryBuilderVisitor<DocumentIterator> builderVisitor, Object2ReferenceMap<String, Index> indexMap) {
+	super(queryParser, builderVisitor, indexMap);
+	this.builderVisitor = builderVisitor;
+    }
+
+    @Override
+    public synchronized MaxScoreQueryEngine copy() {
+	MaxScoreQueryEngine engine = new MaxScoreQueryEngine(FlyweightPrototypes.copy(queryParser), builderVisitor.copy(), indexMap);
+	engine.multiplex = multiplex;
+	engine.intervalSelector = FlyweightPrototypes.copy(intervalSelector);
+	Scorer[] scorers = new Scorer[this.scorers.length];
+	for (int i = 0; i < scorers.length; i++) {
+	    scorers[i] = FlyweightPrototypes.copy(this.scorers[i]);
+	}
+	engine.score(scorers, scorerWeights.clone());
+	engine.setWeights(index2Weight);
+	return engine;
+    }
+
+    @Override
+    public synchronized void score(Scorer[] scorer, double[] weight) {
+	super.score(scorer, weight);
+	scorers = scorer;
+	scorerWeights = weight;
+    }
+
+    @Override
+    public int process(Query[] queries, int offset, int length,
+	    ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results) throws QueryBuilderVisitorException, IOException {
+	if (queries.length != 1 || !(queries[0] instanceof Or) || scorers.length != 1 || !(scorers[0] instanceof WOOScorer) || intervalSelector != null
+		|| length <= 0) {
+	    return super.process(queries, offset, length, results);
+	}
+	WOOScorer scorer = (WOOScorer) scorers[0];
+	results.clear();
+
+	Map<Set<String>, ObjectArrayList<DocumentIterator>> groups = new Object2ObjectLinkedOpenHashMap<Set<String>, ObjectArrayList<DocumentIterator>>();
+	Set<String> queryTerms = new HashSet<String>();
+	for (Query disjunct : ((Or) queries[0]).query) {
+	    DocumentIterator documentIterator = disjunct.accept(builderVisitor.prepare());
+	    Set<String> terms = scorer.terms(documentIterator);
+	    queryTerms.addAll(terms);
+	    ObjectArrayList<DocumentIterator> group = groups.get(terms);
+	    if (group == null) {
+		group = new ObjectArrayList<DocumentIterator>();
+		groups.put(terms, group);
+	    }
+	    group.add(documentIterator);
+	}
+	DocumentIterator[] groupIterators = new DocumentIterator[groups.size()];
+	double[] bounds = new double[groups.size()];
+	int i = 0;
+	for (Map.Entry<Set<String>, ObjectArrayList<DocumentIterator>> group : groups.entrySet()) {
+	    ObjectArrayList<DocumentIterator> documentIterators = group.getValue();
+	    if (documentIterators.size() == 1) {
+		groupIterators[i] = documentIterators.get(0);
+	    } else {
+		groupIterators[i] = OrDocumentIterator.getInstance(documentIterators.toArray(new DocumentIterator[documentIterators.size()]));
+	    }
+	    bounds[i] = scorer.upperBound(group.getKey(), queryTerms.size());
+	    i++;
+	}
+	MaxScoreDocumentIterator documentIterator = new MaxScoreDocumentIterator(groupIterators, bounds);
+
+	final int topCount = offset + length;
+	ObjectHeapPriorityQueue<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> top = new ObjectHeapPriorityQueue<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>(
+		WORST_FIRST);
+	int count = 0;
+	scorer.wrap(documentIterator);
+	long document;
+	while ((document = scorer.nextDocument()) != DocumentIterator.END_OF_LIST) {
+	    count++;
+	    double score = scorer.score();
+	    if (top.size() < topCount) {
+		top.enqueue(new DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>(document, score));
+	    } else if (score > top.first().score) {
+		DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> worst = top.first();
+		worst.document = document;
+		worst.score = score;
+		top.changed();
+	    } else {
+		continue;
+	    }
+	    if (top.size() == topCount) {
+		documentIterator.setThreshold(top.first().score);
+	    }
+	}
+	documentIterator.dispose();
+
+	@SuppressWarnings("unchecked")
+	DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>[] ranked = new DocumentScoreInfo[top.size()];
+	for (int j = ranked.length; j-- != 0;) {
+	    ranked[j] = top.dequeue();
+	}
+	for (int j = offset; j < ranked.length; j++) {
+	    results.add(ranked[j]);
+	}
+	return count;
+    }
+}
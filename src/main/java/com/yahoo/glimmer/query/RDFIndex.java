@@ -22,20 +22,25 @@ import it.unimi.di.big.mg4j.index.QuasiSuccinctIndex;
 import it.unimi.di.big.mg4j.index.TermProcessor;
 import it.unimi.di.big.mg4j.query.QueryEngine;
 import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.query.nodes.Prefix;
 import it.unimi.di.big.mg4j.query.nodes.Query;
 import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
+import it.unimi.di.big.mg4j.query.nodes.Range;
 import it.unimi.di.big.mg4j.query.nodes.Select;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
 import it.unimi.di.big.mg4j.search.DocumentIteratorBuilderVisitor;
 import it.unimi.di.big.mg4j.search.score.CountScorer;
 import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
 import it.unimi.di.big.mg4j.search.score.Scorer;
 import it.unimi.dsi.big.util.ImmutableExternalPrefixMap;
-import it.unimi.dsi.big.util.LongBigListSignedStringMap;
 import it.unimi.dsi.big.util.SemiExternalGammaBigList;
 import it.unimi.dsi.big.util.StringMap;
+import it.unimi.dsi.bits.LongArrayBitVector;
 import it.unimi.dsi.fastutil.BigList;
 import it.unimi.dsi.fastutil.Hash;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.Object2LongFunction;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ReferenceLinkedOpenHashMap;
@@ -47,6 +52,7 @@ import it.unimi.dsi.fastutil.objects.Reference2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
 import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import it.unimi.dsi.io.InputBitStream;
 import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.sux4j.io.FileLinesBigList;
@@ -59,6 +65,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -70,8 +77,15 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.semanticweb.yars.nx.namespace.RDF;
 
+import com.yahoo.glimmer.indexing.DeltaIndexBuilder;
+import com.yahoo.glimmer.indexing.RDFDocumentFactory;
 import com.yahoo.glimmer.indexing.TitleListDocumentCollection;
 import com.yahoo.glimmer.util.BlockCompressedDocumentCollection;
+import com.yahoo.glimmer.util.DeltaStringMap;
+import com.yahoo.glimmer.util.FrontCodedStringStore;
+import com.yahoo.glimmer.util.LabelStore;
+import com.yahoo.glimmer.util.MappedSignedStringMap;
+import com.yahoo.glimmer.util.SubjectBitmap;
 import com.yahoo.glimmer.util.Util;
 
 public class RDFIndex {
@@ -81,6 +95,8 @@ public class RDFIndex {
     private final static String TYPE_FEILD_NAME = Util.encodeFieldName(RDF.TYPE.toString());
 
     private final static String BASENAME_INDEX_PROPERTY_KEY = "basename";
+    // Labels are short so this holds a lot of them.
+    private final static long LABEL_STORE_CACHE_SIZE = 16l * 1024 * 1024;
 
     private final static String ALIGNMENT_INDEX_NAME = "alignment";
     private final static String SUBJECT_INDEX_KEY = "subject";
@@ -95,8 +111,14 @@ public class RDFIndex {
     private final String indexName;
     /** The query engine. */
     private QueryEngine queryEngine;
+    /** The subjects changed since the index was built, or null. */
+    private Delta delta;
     /** The document collection. */
     private DocumentCollection documentCollection = null;
+    /** The labels of the subjects, if the PrepTool wrote them. */
+    private LabelStore labelStore;
+    /** The doc ids that are subjects, if the PrepTool wrote them. */
+    private SubjectBitmap subjectBitmap;
     /** Term counts in the token index */
     protected SemiExternalGammaBigList frequencies = null;
     /** Document priors */
@@ -104,7 +126,9 @@ public class RDFIndex {
     /** Map used to encode URIs for retrieving from the collection */
     protected Object2LongFunction<CharSequence> allResourcesToIds;
     /** Map used to decode URIs */
-    protected FileLinesList allIdsToResources;
+    protected FrontCodedStringStore allIdsToResources;
+    /** Used to decode URIs if there isn't a store */
+    protected FileLinesList allIdsToResourcesLines;
     /** The alignment index **/
     protected Index alignmentIndex;
 
@@ -161,13 +185,32 @@ public class RDFIndex {
 	// Load the collection or titlelist
 	String indexBasename = new File(kbRootPath, "bySubject").getAbsolutePath();
 	try {
-	    BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", new IdentityDocumentFactory(), 100000);
+	    BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", new IdentityDocumentFactory(),
+		    context.getCollectionCacheSize(), context.getCollectionMemoryMapped(), context.getCollectionPrefetchThreads());
 	    collection.filename(indexBasename);
 	    documentCollection = collection;
 	} catch (IOException e) {
 	    LOGGER.info("Couldn't open Bz2BlockIndexedDocumentCollection from " + indexBasename, e);
 	}
 
+	if (SubjectBitmap.exists(kbRootPath)) {
+	    try {
+		subjectBitmap = new SubjectBitmap(kbRootPath);
+		LOGGER.info("Loaded subjects bitmap of " + subjectBitmap.getSubjectCount() + " subjects from " + kbRootPath);
+	    } catch (IOException e) {
+		LOGGER.warn("Couldn't load subjects bitmap from " + kbRootPath + ". Subjects will be checked in the collection.", e);
+	    }
+	}
+
+	if (LabelStore.exists(kbRootPath)) {
+	    try {
+		labelStore = new LabelStore(kbRootPath, LABEL_STORE_CACHE_SIZE);
+		LOGGER.info("Opened label store in " + kbRootPath);
+	    } catch (IOException e) {
+		LOGGER.warn("Couldn't open label store in " + kbRootPath + ". Labels will be read from the collection.", e);
+	    }
+	}
+
 	if (documentCollection == null) {
 	    LOGGER.info("No collection specified, we will try to use a title list...");
 	    File titleListFile = context.getTitleListFile();
@@ -195,24 +238,40 @@ public class RDFIndex {
 	}
 
 	try {
-	    allResourcesToIds = new LongBigListSignedStringMap(allResourcesToIds, context.getAllResourcesSignatureFile().getPath());
+	    File signatureFile = context.getAllResourcesSignatureFile();
+	    MappedSignedStringMap mappedMap = new MappedSignedStringMap(allResourcesToIds, signatureFile);
+	    LOGGER.info("Mapped " + mappedMap.getWidth() + " bit resources signatures " + signatureFile.getPath());
+	    allResourcesToIds = mappedMap;
 	} catch (Exception e) {
 	    throw new RDFIndexException("Exception while creating 'all' resources signed map", e);
 	}
 
 	// Load the reverse all resource function.
-	File allResourcesFile = context.getAllResourcesFile();
-	if (!allResourcesFile.exists()) {
-	    throw new RDFIndexException("All resources file " + allResourcesFile.getPath() + " does not exist.");
-	}
-	try {
-	    allIdsToResources = new FileLinesList(allResourcesFile.getPath(), "UTF-8");
-	} catch (IOException e) {
-	    throw new RDFIndexException("Couldn't open all resources file " + allResourcesFile.getPath() + " as a FileLinesList.", e);
+	File allResourcesStoreFile = context.getAllResourcesStoreFile();
+	if (allResourcesStoreFile.exists()) {
+	    try {
+		allIdsToResources = new FrontCodedStringStore(allResourcesStoreFile);
+		LOGGER.info("Mapped all resources store " + allResourcesStoreFile.getPath() + " with " + allIdsToResources.size64() + " entries.");
+	    } catch (IOException e) {
+		throw new RDFIndexException("Couldn't open all resources store " + allResourcesStoreFile.getPath(), e);
+	    }
+	} else {
+	    File allResourcesFile = context.getAllResourcesFile();
+	    if (!allResourcesFile.exists()) {
+		throw new RDFIndexException("All resources file " + allResourcesFile.getPath() + " does not exist.");
+	    }
+	    LOGGER.warn("No all resources store " + allResourcesStoreFile.getPath() + ". Looking up resources by id in " + allResourcesFile.getPath()
+		    + " one at a time.");
+	    try {
+		allIdsToResourcesLines = new FileLinesList(allResourcesFile.getPath(), "UTF-8");
+	    } catch (IOException e) {
+		throw new RDFIndexException("Couldn't open all resources file " + allResourcesFile.getPath() + " as a FileLinesList.", e);
+	    }
 	}
 
 	// Load vertical indexes
-	Object2ReferenceMap<String, Index> indexMap = loadIndexesFromDir(verticalIndexDir, context.getLoadDocumentSizes(), context.getLoadIndexesInMemory());
+	Object2ReferenceMap<String, Index> indexMap = loadIndexesFromDir(verticalIndexDir, documentCollection.size(), context.getLoadDocumentSizes(),
+		context.getLoadIndexesInMemory());
 	LOGGER.info("Loaded " + indexMap.size() + " vertical indices.");
 
 	verticalPredicates = Collections.unmodifiableSet(new HashSet<String>(indexMap.keySet()));
@@ -227,7 +286,7 @@ public class RDFIndex {
 	}
 
 	// Load horizontal indexes
-	indexMap.putAll(loadIndexesFromDir(horizontalIndexDir, true, context.getLoadIndexesInMemory()));
+	indexMap.putAll(loadIndexesFromDir(horizontalIndexDir, documentCollection.size(), true, context.getLoadIndexesInMemory()));
 
 	for (String indexKey : MANDITORY_HORIZONTAL_INDECIES) {
 	    if (!indexMap.containsKey(indexKey)) {
@@ -314,8 +373,7 @@ public class RDFIndex {
 	// This is empty for non-payload indices
 	Reference2ReferenceMap<Index, Object> index2Parser = new Reference2ReferenceOpenHashMap<Index, Object>();
 	DocumentIteratorBuilderVisitor builderVisitor = new DocumentIteratorBuilderVisitor(indexMap, index2Parser, objectIndex, MAX_STEMMING);
-	// QueryParser is null as we will only pass in parsed queries
-	queryEngine = new QueryEngine(null, builderVisitor, indexMap);
+	queryEngine = newQueryEngine(context, builderVisitor, indexMap);
 
 	// We set up an interval selector only if there is a collection for
 	// snippeting
@@ -324,6 +382,15 @@ public class RDFIndex {
 	queryEngine.multiplex = false;
 	queryEngine.intervalSelector = null;
 
+	File deltaDir = context.getDeltaDir();
+	if (deltaDir != null && deltaDir.isDirectory()) {
+	    delta = loadDelta(deltaDir, context);
+	    if (delta.resourcesToIds != null) {
+		// Resources new in the delta are looked up in it first.
+		allResourcesToIds = new DeltaStringMap(delta.resourcesToIds, delta.mainDocCount, allResourcesToIds);
+	    }
+	}
+
 	// Load priors
 	documentPriors = loadObjectOfType(context.getDocumentPriorsFile());
 	if (documentPriors != null) {
@@ -347,7 +414,8 @@ public class RDFIndex {
 	return indexName;
     }
 
-    private Object2ReferenceMap<String, Index> loadIndexesFromDir(File indexDir, boolean loadDocSizes, boolean inMemory) throws RDFIndexException {
+    private Object2ReferenceMap<String, Index> loadIndexesFromDir(File indexDir, long numberOfDocuments, boolean loadDocSizes, boolean inMemory)
+	    throws RDFIndexException {
 	EnumMap<UriKeys, String> indexOptionsmap = new EnumMap<UriKeys, String>(UriKeys.class);
 	if (inMemory) {
 	    indexOptionsmap.put(UriKeys.INMEMORY, "true");
@@ -375,7 +443,77 @@ public class RDFIndex {
 	}
 
 	Reference2DoubleOpenHashMap<Index> index2Weight = new Reference2DoubleOpenHashMap<Index>();
-	return loadIndicesFromSpec(indexBasenames, documentCollection.size(), index2Weight, loadDocSizes, indexOptionsmap);
+	return loadIndicesFromSpec(indexBasenames, numberOfDocuments, index2Weight, loadDocSizes, indexOptionsmap);
+    }
+
+    /**
+     * Loads a delta written by {@link DeltaIndexBuilder}. Its indexes have the
+     * same fields as this index's, this index's doc ids for the docs it
+     * replaces and ids from this index's doc count on for its new resources.
+     */
+    private Delta loadDelta(File deltaDir, Context context) throws RDFIndexException {
+	Delta delta = new Delta();
+	try {
+	    delta.collection = new BlockCompressedDocumentCollection("bySubject", new IdentityDocumentFactory(), context.getCollectionCacheSize(),
+		    context.getCollectionMemoryMapped(), context.getCollectionPrefetchThreads());
+	    delta.collection.filename(new File(deltaDir, "bySubject").getAbsolutePath());
+	    if (LabelStore.exists(deltaDir)) {
+		delta.labelStore = new LabelStore(deltaDir, LABEL_STORE_CACHE_SIZE);
+	    }
+	    if (SubjectBitmap.exists(deltaDir)) {
+		delta.subjectBitmap = new SubjectBitmap(deltaDir);
+	    }
+	} catch (IOException e) {
+	    throw new RDFIndexException("Couldn't open the delta's collection in " + deltaDir, e);
+	}
+	delta.deletedDocs = loadObjectOfType(new File(deltaDir, DeltaIndexBuilder.DELETED_DOCS));
+	delta.deletedCount = delta.deletedDocs.count();
+	delta.mainDocCount = delta.deletedDocs.length();
+
+	// Only written if the delta has resources that this index hasn't.
+	File resourcesMapFile = new File(deltaDir, "all.map");
+	if (resourcesMapFile.exists()) {
+	    Object2LongFunction<CharSequence> resourcesMap = loadObjectOfType(resourcesMapFile);
+	    try {
+		delta.resourcesToIds = new MappedSignedStringMap(resourcesMap, new File(deltaDir, "all.smap"));
+		delta.idsToResources = new FrontCodedStringStore(new File(deltaDir, "all" + FrontCodedStringStore.DOT_STORE));
+	    } catch (IOException e) {
+		throw new RDFIndexException("Couldn't open the delta's resources in " + deltaDir, e);
+	    }
+	}
+
+	File verticalIndexDir = new File(deltaDir, RDFDocumentFactory.IndexType.VERTICAL.name().toLowerCase());
+	File horizontalIndexDir = new File(deltaDir, RDFDocumentFactory.IndexType.HORIZONTAL.name().toLowerCase());
+	long numberOfDocuments = delta.collection.size();
+	Object2ReferenceMap<String, Index> indexMap = loadIndexesFromDir(verticalIndexDir, numberOfDocuments, context.getLoadDocumentSizes(),
+		context.getLoadIndexesInMemory());
+	indexMap.putAll(loadIndexesFromDir(horizontalIndexDir, numberOfDocuments, true, context.getLoadIndexesInMemory()));
+	// Fields that none of the delta's docs have give empty indexes, which
+	// don't load. Their selects are answered with empty iterators.
+	ReferenceOpenHashSet<Index> emptyIndexes = new ReferenceOpenHashSet<Index>();
+	for (String field : queryEngine.indexMap.keySet()) {
+	    if (!indexMap.containsKey(field)) {
+		Index index = queryEngine.indexMap.get(field);
+		indexMap.put(field, index);
+		emptyIndexes.add(index);
+	    }
+	}
+
+	DocumentIteratorBuilderVisitor builderVisitor = new DeltaIteratorBuilderVisitor(indexMap, indexMap.get(OBJECT_INDEX_KEY), emptyIndexes);
+	delta.queryEngine = newQueryEngine(context, builderVisitor, indexMap);
+	delta.queryEngine.multiplex = false;
+	delta.queryEngine.intervalSelector = null;
+	LOGGER.info("Loaded delta from " + deltaDir + ". It masks " + delta.deletedCount + " docs and has " + (numberOfDocuments - delta.mainDocCount)
+		+ " new resources.");
+	return delta;
+    }
+
+    private static QueryEngine newQueryEngine(Context context, DocumentIteratorBuilderVisitor builderVisitor, Object2ReferenceMap<String, Index> indexMap) {
+	// QueryParser is null as we will only pass in parsed queries
+	if (context.getTopKPruning()) {
+	    return new MaxScoreQueryEngine(null, builderVisitor, indexMap);
+	}
+	return new QueryEngine(null, builderVisitor, indexMap);
     }
 
     /**
@@ -470,16 +608,16 @@ public class RDFIndex {
 	}
     }
 
-    private Reference2DoubleOpenHashMap<Index> loadB(Context context) {
+    private Reference2DoubleOpenHashMap<Index> loadB(Context context, Object2ReferenceMap<String, Index> indexMap) {
 	Reference2DoubleOpenHashMap<Index> b = new Reference2DoubleOpenHashMap<Index>();
 
 	double db = context.getB();
 
-	for (String indexName : getIndexedFields()) {
+	for (String indexName : indexMap.keySet()) {
 	    // TODO load from file if needed
-	    b.put(getField(indexName), db);
+	    b.put(indexMap.get(indexName), db);
 	}
-	b.put(queryEngine.indexMap.get(OBJECT_INDEX_KEY), db);
+	b.put(indexMap.get(OBJECT_INDEX_KEY), db);
 	return b;
     }
 
@@ -490,12 +628,12 @@ public class RDFIndex {
      * @param context
      * @return
      */
-    private Reference2DoubleOpenHashMap<Index> loadWeights(Context context) {
+    private Reference2DoubleOpenHashMap<Index> loadWeights(Context context, Object2ReferenceMap<String, Index> indexMap) {
 	Reference2DoubleOpenHashMap<Index> index2Weight = new Reference2DoubleOpenHashMap<Index>();
 
-	ObjectSet<String> indexNames = queryEngine.indexMap.keySet();
+	ObjectSet<String> indexNames = indexMap.keySet();
 	for (String indexName : indexNames) {
-	    Index index = queryEngine.indexMap.get(indexName);
+	    Index index = indexMap.get(indexName);
 	    String w = context.getString("w." + indexName);
 	    if (w == null) { // unimportant
 		index2Weight.put(index, context.getWfUnimportant() * indexNames.size());
@@ -514,8 +652,18 @@ public class RDFIndex {
     }
 
     protected Scorer configureScorer(Context context) throws FileNotFoundException, IOException {
+	return configureScorer(context, queryEngine.indexMap);
+    }
 
-	Reference2DoubleOpenHashMap<Index> bByIndex = loadB(context);
+    /**
+     * @param indexMap
+     *            The indexes scored. Either this index's or the delta's. The
+     *            term statistics are always this index's so that the scores
+     *            of both are comparable.
+     */
+    private Scorer configureScorer(Context context, Object2ReferenceMap<String, Index> indexMap) throws FileNotFoundException, IOException {
+
+	Reference2DoubleOpenHashMap<Index> bByIndex = loadB(context, indexMap);
 
 	double[] documentWeights = new double[3];
 	documentWeights[Integer.parseInt(SetDocumentPriors.IMPORTANT)] = context.getWsImportant();
@@ -531,7 +679,7 @@ public class RDFIndex {
 	} else {
 	    throw new IllegalStateException("Subject index is not a BitStreamIndex. Don't know how to get its termMap.");
 	}
-	return new WOOScorer(context.getK1(), bByIndex, objectTermMap, frequencies, objectIndex.sizes, (double) objectIndex.numberOfOccurrences
+	return new WOOScorer(context.getK1(), bByIndex, objectTermMap, frequencies, indexMap.get(OBJECT_INDEX_KEY).sizes, (double) objectIndex.numberOfOccurrences
 		/ objectIndex.numberOfDocuments, objectIndex.numberOfDocuments, context.getWMatches(), documentWeights, context.getDlCutoff(), documentPriors,
 		context.getMaxNumberOfDieldsNorm());
     }
@@ -543,7 +691,10 @@ public class RDFIndex {
      */
     public void reconfigure(Context context) {
 	// Recomputes index weights
-	queryEngine.setWeights(loadWeights(context));
+	queryEngine.setWeights(loadWeights(context, queryEngine.indexMap));
+	if (delta != null) {
+	    delta.queryEngine.setWeights(loadWeights(context, delta.queryEngine.indexMap));
+	}
 
 	// Configure scorer
 	try {
@@ -551,6 +702,9 @@ public class RDFIndex {
 	    // Configure scorer
 	    Scorer scorer = configureScorer(context);
 	    queryEngine.score(scorer);
+	    if (delta != null) {
+		delta.queryEngine.score(configureScorer(context, delta.queryEngine.indexMap));
+	    }
 	    // Only valid if we have a scorer
 	    // ALERT WTF
 	    // queryEngine.equalize( context.SIZE_TOP_K );
@@ -591,22 +745,58 @@ public class RDFIndex {
      */
     public Long getSubjectId(String uri) throws IOException {
 	Long id = allResourcesToIds.get(uri);
-	if (id != null) {
-	    // Check that the doc is a valid doc(has contents).. TODO could use
-	    // the subjects signed hash here..
-	    InputStream docStream = documentCollection.stream(id);
-	    if (docStream.read() == -1) {
-		id = null;
-	    }
-	    docStream.close();
+	if (id != null && !isSubject(id)) {
+	    id = null;
 	}
 	return id;
     }
 
+    /**
+     * @param docId
+     * @return true if the doc has contents, that is the resource with the doc
+     *         id is a subject. Checked in the subjects bitmap of the delta, if
+     *         it has the doc, or of this index if there is one.
+     * @throws IOException
+     */
+    public boolean isSubject(long docId) throws IOException {
+	SubjectBitmap bitmap = delta != null && delta.owns(docId) ? delta.subjectBitmap : subjectBitmap;
+	if (bitmap != null) {
+	    return bitmap.isSubject(docId);
+	}
+	InputStream docStream = getDocumentInputStream(docId);
+	try {
+	    return docStream.read() != -1;
+	} finally {
+	    docStream.close();
+	}
+    }
+
     public DocumentCollection getCollection() {
 	return documentCollection;
     }
 
+    /**
+     * @return The subject labels written by the PrepTool or null if there
+     *         aren't any.
+     */
+    public LabelStore getLabelStore() {
+	return labelStore;
+    }
+
+    /**
+     * @param docId
+     * @return The label of the subject from the label store of the delta, if
+     *         it has the doc, or of this index. Null if it hasn't one or there
+     *         is no label store.
+     * @throws IOException
+     */
+    public String getLabel(long docId) throws IOException {
+	if (delta != null && delta.owns(docId)) {
+	    return delta.labelStore == null ? null : delta.labelStore.getLabel(docId);
+	}
+	return labelStore == null ? null : labelStore.getLabel(docId);
+    }
+
     public Index getAlignmentIndex() {
 	return alignmentIndex;
     }
@@ -619,12 +809,21 @@ public class RDFIndex {
 	return id == null ? null : resourceIdPrefix + id.intValue();
     }
 
-    public synchronized String lookupResourceById(long id) {
-	MutableString value = allIdsToResources.get((int) id);
-	if (value != null) {
-	    return value.toString();
+    public String lookupResourceById(long id) {
+	if (delta != null && id >= delta.mainDocCount) {
+	    return delta.idsToResources == null ? null : delta.idsToResources.get(id - delta.mainDocCount);
+	}
+	if (allIdsToResources != null) {
+	    return allIdsToResources.get(id);
+	}
+	// FileLinesList isn't thread safe.
+	synchronized (allIdsToResourcesLines) {
+	    MutableString value = allIdsToResourcesLines.get((int) id);
+	    if (value != null) {
+		return value.toString();
+	    }
+	    return null;
 	}
-	return null;
     }
 
     public String getDefaultField() {
@@ -642,20 +841,86 @@ public class RDFIndex {
     public int process(final int offset, final int length, final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results,
 	    final Query... queries) throws QueryBuilderVisitorException, IOException {
 	QueryEngine engine = queryEngine.copy();
+	QueryEngine deltaEngine = delta == null ? null : delta.queryEngine.copy();
 	if (queries.length == 1 && queries[0] instanceof Select) {
 	    // If it is only a query by type disable the scorer for this query
 	    Select select = (Select) queries[0];
 	    if (TYPE_FEILD_NAME.equals(select.index)) {
 		engine.score(new Scorer[0], new double[0]);
+		if (deltaEngine != null) {
+		    deltaEngine.score(new Scorer[0], new double[0]);
+		}
+	    }
+	}
+	if (deltaEngine == null) {
+	    return engine.process(queries, offset, length, results);
+	}
+	return processWithDelta(engine, deltaEngine, offset, length, results, queries);
+    }
+
+    /**
+     * Merges the top results of the delta with those of this index that the
+     * delta doesn't mask. As masked results are dropped more than offset +
+     * length results may have to be asked for, up to offset + length + the
+     * number of masked docs.
+     * 
+     * @return The number of results of both. Masked docs of this index that
+     *         aren't in its top results fetched are still counted.
+     */
+    private int processWithDelta(QueryEngine engine, QueryEngine deltaEngine, final int offset, final int length,
+	    final ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results, final Query... queries)
+	    throws QueryBuilderVisitorException, IOException {
+	final int wanted = offset + length;
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> merged = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	int count = deltaEngine.process(queries, 0, wanted, merged);
+
+	final long maxLength = Math.min(Integer.MAX_VALUE, wanted + delta.deletedCount);
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> mainResults = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	int mainLength = wanted;
+	int mainCount;
+	int maskedCount;
+	while (true) {
+	    mainResults.clear();
+	    mainCount = engine.process(queries, 0, mainLength, mainResults);
+	    maskedCount = 0;
+	    for (DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi : mainResults) {
+		if (delta.masks(dsi.document)) {
+		    maskedCount++;
+		}
 	    }
+	    if (mainResults.size() - maskedCount >= wanted || mainResults.size() < mainLength || mainLength >= maxLength) {
+		break;
+	    }
+	    mainLength = (int) Math.min(maxLength, 2l * mainLength);
 	}
-	return engine.process(queries, offset, length, results);
+	for (DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi : mainResults) {
+	    if (!delta.masks(dsi.document)) {
+		merged.add(dsi);
+	    }
+	}
+	count += mainCount - maskedCount;
+
+	Collections.sort(merged, new Comparator<DocumentScoreInfo<?>>() {
+	    @Override
+	    public int compare(DocumentScoreInfo<?> dsi1, DocumentScoreInfo<?> dsi2) {
+		int byScore = Double.compare(dsi2.score, dsi1.score);
+		return byScore != 0 ? byScore : Long.compare(dsi1.document, dsi2.document);
+	    }
+	});
+	for (int i = offset; i < wanted && i < merged.size(); i++) {
+	    results.add(merged.get(i));
+	}
+	return count;
     }
 
     public void destroy() {
 	try {
 	    if (documentCollection != null)
 		documentCollection.close();
+	    if (labelStore != null)
+		labelStore.close();
+	    if (delta != null)
+		delta.close();
 	} catch (IOException e) {
 	    e.printStackTrace();
 	}
@@ -710,15 +975,128 @@ public class RDFIndex {
 	}
     }
 
+    /**
+     * @param docId
+     * @return The doc from the delta if it replaces or deletes it, otherwise
+     *         from the collection. Deleted docs are empty.
+     * @throws IOException
+     */
     public InputStream getDocumentInputStream(long docId) throws IOException {
+	if (delta != null && delta.owns(docId)) {
+	    return delta.collection.stream(docId);
+	}
 	return documentCollection.stream(docId);
     }
 
+    /**
+     * Starts loading the given documents in the background so that reading
+     * them with {@link #getDocumentInputStream(long)} doesn't wait for each in
+     * turn. Does nothing if the collection can't prefetch.
+     * 
+     * @param docIds
+     */
+    public void prefetchDocuments(long[] docIds) {
+	if (delta != null) {
+	    LongArrayList mainDocIds = new LongArrayList(docIds.length);
+	    LongArrayList deltaDocIds = new LongArrayList();
+	    for (long docId : docIds) {
+		(delta.owns(docId) ? deltaDocIds : mainDocIds).add(docId);
+	    }
+	    delta.collection.prefetch(deltaDocIds.toLongArray());
+	    docIds = mainDocIds.toLongArray();
+	}
+	if (documentCollection instanceof BlockCompressedDocumentCollection) {
+	    ((BlockCompressedDocumentCollection) documentCollection).prefetch(docIds);
+	}
+    }
+
     public Integer getDocumentSize(int docId) {
+	if (delta != null && delta.owns(docId)) {
+	    return delta.queryEngine.indexMap.get(OBJECT_INDEX_KEY).sizes.get(docId);
+	}
 	return getObjectIndex().sizes.get(docId);
     }
 
     public Set<String> getIndexedPredicates() {
 	return verticalPredicates;
     }
+
+    /**
+     * A delta built by DeltaIndexBuilder. Its docs replace those of this index
+     * with the same ids. Its new resources have the ids from this index's doc
+     * count on.
+     */
+    private static class Delta {
+	private BlockCompressedDocumentCollection collection;
+	private LabelStore labelStore;
+	private SubjectBitmap subjectBitmap;
+	/** The docs of this index that the delta replaces or deletes. */
+	private LongArrayBitVector deletedDocs;
+	private long deletedCount;
+	private long mainDocCount;
+	/** The delta's new resources or null if it has none. */
+	private MappedSignedStringMap resourcesToIds;
+	private FrontCodedStringStore idsToResources;
+	private QueryEngine queryEngine;
+
+	public boolean masks(long docId) {
+	    return docId < mainDocCount && deletedDocs.getBoolean(docId);
+	}
+
+	/**
+	 * @return true if the doc is read from the delta, as it's new or masked.
+	 */
+	public boolean owns(long docId) {
+	    return docId >= mainDocCount || deletedDocs.getBoolean(docId);
+	}
+
+	public void close() throws IOException {
+	    collection.close();
+	    if (labelStore != null) {
+		labelStore.close();
+	    }
+	}
+    }
+
+    /**
+     * Builds empty iterators for the indexes given, which are this index's
+     * stand-ins for the fields the delta has no index for.
+     */
+    private static class DeltaIteratorBuilderVisitor extends DocumentIteratorBuilderVisitor {
+	private final ReferenceOpenHashSet<Index> emptyIndexes;
+
+	public DeltaIteratorBuilderVisitor(Object2ReferenceMap<String, Index> indexMap, Index defaultIndex, ReferenceOpenHashSet<Index> emptyIndexes) {
+	    super(indexMap, new Reference2ReferenceOpenHashMap<Index, Object>(), defaultIndex, MAX_STEMMING);
+	    this.emptyIndexes = emptyIndexes;
+	}
+
+	@Override
+	public DocumentIteratorBuilderVisitor copy() {
+	    return new DeltaIteratorBuilderVisitor(indexMap, defaultIndex, emptyIndexes);
+	}
+
+	@Override
+	public DocumentIterator visit(Term node) throws QueryBuilderVisitorException {
+	    if (emptyIndexes.contains(curr.top())) {
+		return curr.top().getEmptyIndexIterator(node.term).weight(weight());
+	    }
+	    return super.visit(node);
+	}
+
+	@Override
+	public DocumentIterator visit(Prefix node) throws QueryBuilderVisitorException {
+	    if (emptyIndexes.contains(curr.top())) {
+		return curr.top().getEmptyIndexIterator().weight(weight());
+	    }
+	    return super.visit(node);
+	}
+
+	@Override
+	public DocumentIterator visit(Range node) throws QueryBuilderVisitorException {
+	    if (emptyIndexes.contains(curr.top())) {
+		return curr.top().getEmptyIndexIterator().weight(weight());
+	    }
+	    return super.visit(node);
+	}
+    }
 }
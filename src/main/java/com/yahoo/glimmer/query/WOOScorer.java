@@ -29,6 +29,8 @@ import it.unimi.dsi.fastutil.objects.Reference2DoubleMap;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -316,22 +318,7 @@ public class WOOScorer extends AbstractWeightedScorer implements DelegatingScore
 	for (int i = idfPart.length; i-- != 0;) {
 	    if (setupVisitor.offset2TermId[i] == -1)
 		continue;
-	    // TODO CAUTION ATOMIC BOMB
-	    final int id = (int) termMap.getLong(setupVisitor.termId2Term[setupVisitor.offset2TermId[i]]);
-	    /*
-	     * if ( id == -1 ) throw new IllegalStateException(
-	     * "The term map passed to a WOOScorer scorer must contain all terms appearing in all indices"
-	     * ); final long f = frequencies.getLong( id ); idfPart[ i ] =
-	     * Math.max( EPSILON_SCORE, Math.log( ( N - f + 0.5 ) / ( f + 0.5 )
-	     * ) );
-	     */
-	    if (id == -1) {
-		idfPart[i] = 0; // if the final score is not a X * idf the score
-				// for unseen terms will not be zero!!!!!!!!!
-	    } else {
-		final long f = frequencies.getLong(id);
-		idfPart[i] = Math.max(EPSILON_SCORE, Math.log((N - f + 0.5) / (f + 0.5)));
-	    }
+	    idfPart[i] = idf(setupVisitor.termId2Term[setupVisitor.offset2TermId[i]]);
 	    // System.out.println("i="+i+", frequency is "+f+" N is "+N);
 	    // System.out.println("idf for term "+setupVisitor.termId2Term[
 	    // setupVisitor.offset2TermId[ i ] ]+" is "+idfPart[i]);
@@ -342,6 +329,69 @@ public class WOOScorer extends AbstractWeightedScorer implements DelegatingScore
 	// }
     }
 
+    private double idf(String term) {
+	// TODO CAUTION ATOMIC BOMB
+	final int id = (int) termMap.getLong(term);
+	/*
+	 * if ( id == -1 ) throw new IllegalStateException(
+	 * "The term map passed to a WOOScorer scorer must contain all terms appearing in all indices"
+	 * ); final long f = frequencies.getLong( id ); idfPart[ i ] = Math.max(
+	 * EPSILON_SCORE, Math.log( ( N - f + 0.5 ) / ( f + 0.5 ) ) );
+	 */
+	if (id == -1) {
+	    return 0; // if the final score is not a X * idf the score
+		      // for unseen terms will not be zero!!!!!!!!!
+	}
+	final long f = frequencies.getLong(id);
+	return Math.max(EPSILON_SCORE, Math.log((N - f + 0.5) / (f + 0.5)));
+    }
+
+    /**
+     * @return The terms of the index iterators of the given iterator.
+     */
+    public Set<String> terms(DocumentIterator documentIterator) throws IOException {
+	TermCollectionVisitor visitor = new TermCollectionVisitor();
+	visitor.prepare();
+	documentIterator.accept(visitor);
+	return new HashSet<String>(visitor.term2Id().keySet());
+    }
+
+    /**
+     * An upper bound of the score a doc can get from some of a query's terms,
+     * used by {@link MaxScoreDocumentIterator} to skip docs that can't make
+     * the top results.
+     * 
+     * As (k1 + 1) * v / (v + k1) is less than k1 + 1 for any virtual count v,
+     * a term adds less than (k1 + 1) * idf whatever its counts in whichever
+     * fields. The factor for the number of terms matched is bounded by its
+     * value for all the query's terms and the doc's prior by the largest
+     * prior.
+     * 
+     * @param terms
+     *            Some of the query's terms.
+     * @param queryTermCount
+     *            The number of terms in the whole query.
+     * @return The bound, which is infinite if the factors are negative.
+     */
+    public double upperBound(Set<String> terms, int queryTermCount) {
+	double factor = w_numberOfFieldsMatched * Math.min(queryTermCount, max_number_of_fields) / max_number_of_fields;
+	if (documentPriors != null) {
+	    double maxDocumentWeight = documentWeights[0];
+	    for (double documentWeight : documentWeights) {
+		maxDocumentWeight = Math.max(maxDocumentWeight, documentWeight);
+	    }
+	    factor *= maxDocumentWeight;
+	}
+	if (factor < 0) {
+	    return Double.POSITIVE_INFINITY;
+	}
+	double bound = 0;
+	for (String term : terms) {
+	    bound += k1Plus1 * idf(term);
+	}
+	return bound * factor;
+    }
+
     public boolean usesIntervals() {
 	return false;
     }
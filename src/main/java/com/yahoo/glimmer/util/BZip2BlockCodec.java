@@ -0,0 +1,133 @@
+package com.yahoo.glimmer.util;
+
+import it.unimi.dsi.io.ByteBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.itadaki.bzip2.BZip2BitInputStream;
+import org.itadaki.bzip2.BZip2BlockDecompressor;
+import org.itadaki.bzip2.BZip2Constants;
+import org.itadaki.bzip2.BZip2OutputStream;
+import org.itadaki.bzip2.ParallelBZip2OutputStream;
+
+/**
+ * BZip2 blocks. The compressed stream is a normal .bz2 file so can also be
+ * read by Hadoop's BZip2Codec.
+ * 
+ * @author tep
+ */
+public class BZip2BlockCodec implements BlockCodec {
+    public static final String NAME = "bzip2";
+    // 6 Stream end bytes + 32 bit CRC
+    public static final int FOOTER_LENGTH_IN_BITS = 6 * 8 + 32;
+
+    private final int blockSizeMultiplier;
+
+    /**
+     * @param blockSizeMultiplier
+     *            The BZip2 block size as a multiple of 100,000 bytes used when
+     *            compressing.
+     */
+    public BZip2BlockCodec(int blockSizeMultiplier) {
+	this.blockSizeMultiplier = blockSizeMultiplier;
+    }
+
+    @Override
+    public String getName() {
+	return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+	return ".bz2";
+    }
+
+    @Override
+    public BlockOutputStream createOutputStream(OutputStream outputStream, int threadCount, final BlockOutputStream.Callback callback) throws IOException {
+	final ParallelBZip2OutputStream bz2OutputStream = new ParallelBZip2OutputStream(outputStream, blockSizeMultiplier, threadCount,
+		new BZip2OutputStream.Callback() {
+		    @Override
+		    public void blockStart(long blockStartBitOffset) {
+			callback.blockStart(blockStartBitOffset);
+		    }
+
+		    @Override
+		    public void finish(long totalBitsWritten) {
+			callback.finish(totalBitsWritten - FOOTER_LENGTH_IN_BITS, totalBitsWritten);
+		    }
+		});
+
+	return new BlockOutputStream() {
+	    @Override
+	    public void write(int b) throws IOException {
+		bz2OutputStream.write(b);
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) throws IOException {
+		bz2OutputStream.write(b, off, len);
+	    }
+
+	    @Override
+	    public void flush() throws IOException {
+		bz2OutputStream.flush();
+	    }
+
+	    @Override
+	    public long getCurrentBlockIndex() {
+		return bz2OutputStream.getCurrentBlockIndex();
+	    }
+
+	    @Override
+	    public long getCurrentBlockUncompressedStart() {
+		return bz2OutputStream.getCurrentBlockUncompressedStart();
+	    }
+
+	    @Override
+	    public void finish() throws IOException {
+		bz2OutputStream.finish();
+	    }
+
+	    @Override
+	    public void close() throws IOException {
+		bz2OutputStream.close();
+	    }
+	};
+    }
+
+    @Override
+    public int readHeader(InputStream inputStream) throws IOException {
+	if (inputStream.read() != 'B' || inputStream.read() != 'Z' || inputStream.read() != 'h') {
+	    throw new IOException("No bzip2 header!");
+	}
+	int uncompressedBlockSize = inputStream.read() - '0';
+	if (uncompressedBlockSize < 0 || uncompressedBlockSize > 9) {
+	    throw new IOException("Invalid bzip2 block size byte.");
+	}
+	// This is weird. The uncompressed blocks can be bigger than multiples
+	// of 100000.
+	return uncompressedBlockSize * 100 * 1024;
+    }
+
+    @Override
+    public int uncompressBlock(ByteBuffer compressedBlock, int skipBits, byte[] uncompressedBuffer) throws IOException {
+	final BZip2BitInputStream blockBitInputStream = new BZip2BitInputStream(new ByteBufferInputStream(compressedBlock));
+	blockBitInputStream.readBits(skipBits);
+
+	/* Read block-header or end-of-stream marker */
+	final int marker1 = blockBitInputStream.readBits(24);
+	final int marker2 = blockBitInputStream.readBits(24);
+
+	if (marker1 == BZip2Constants.BLOCK_HEADER_MARKER_1 && marker2 == BZip2Constants.BLOCK_HEADER_MARKER_2) {
+	    final BZip2BlockDecompressor blockDecompressor = new BZip2BlockDecompressor(blockBitInputStream, uncompressedBuffer.length);
+	    return blockDecompressor.read(uncompressedBuffer, 0, uncompressedBuffer.length);
+	} else if (marker1 == BZip2Constants.STREAM_END_MARKER_1 && marker2 == BZip2Constants.STREAM_END_MARKER_2) {
+	    throw new IllegalArgumentException("End of BZip2 marker");
+	} else {
+	    throw new IllegalStateException("Not a BZip2 block header");
+	}
+    }
+}
@@ -2,10 +2,10 @@ package com.yahoo.glimmer.util;
 
 /*
  * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
- * 
+ *
  *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
  *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
- *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
  *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
  *  See the License for the specific language governing permissions and limitations under the License.
  *  See accompanying LICENSE file.
@@ -13,28 +13,54 @@ package com.yahoo.glimmer.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.CacheStats;
 
 /**
- * A LRU cache of fixed size byte arrays(blocks). Intended use is for caching
- * uncompressed BZip2 blocks.
- * 
+ * A LRU cache of fixed size blocks held in direct ByteBuffers, so that the
+ * cached blocks aren't on the heap. Intended use is for caching uncompressed
+ * blocks of a BlockCompressedDocumentCollection.
+ *
+ * The cache is limited to a number of bytes, which is divided between lock
+ * stripes. Each block index maps to one stripe. When more than one thread asks
+ * for the same uncached block it is read once and the other threads wait for
+ * it.
+ *
+ * Blocks are leased. A block returned by acquire() isn't evicted or reused for
+ * another block index until it's given back to release(). Only the least
+ * recently used of the unleased blocks are evicted. A stripe allocates blocks
+ * over its size while all of its blocks are leased, and shrinks back once they
+ * are released. It warns each time the number of allocated blocks doubles, as
+ * leases are probably not being released. The
+ * InputStreams read directly from the cached blocks and hold a lease on the
+ * block they are reading until they move on to the next block or are closed.
+ *
  * Should be thread safe if the given BlockReader is thread safe.
- * 
+ *
  * @author tep
  */
 public class BlockCache {
+    private final static Logger LOGGER = Logger.getLogger(BlockCache.class);
+    private static final int MAX_STRIPE_COUNT = 16;
+    // So that a block and the one after it can be used together.
+    private static final int MIN_BLOCKS_PER_STRIPE = 2;
+
     public interface BlockReader {
 	/**
 	 * Implementations should set bytes in the buffer starting at offset 0.
-	 * 
+	 *
 	 * @param blockIndex
 	 * @param buffer
 	 * @throws IOException
@@ -46,21 +72,14 @@ public class BlockCache {
     }
 
     public static class Block {
-	private long index = -1;
-	private final byte[] bytes;
+	private volatile long index = -1;
+	private final ByteBuffer buffer;
 	private int length;
+	// Guarded by the lock of the Stripe the block is in.
+	private int leaseCount;
 
 	public Block(int blockSize) {
-	    bytes = new byte[blockSize];
-	}
-
-	public boolean hasData() {
-	    return length != 0;
-	}
-
-	public void clear() {
-	    index = -1;
-	    length = 0;
+	    buffer = ByteBuffer.allocateDirect(blockSize);
 	}
 
 	public long getIndex() {
@@ -71,153 +90,434 @@ public class BlockCache {
 	    return length;
 	}
 
-	public byte[] getBytes() {
-	    return bytes;
+	public byte get(int byteIndex) {
+	    return buffer.get(byteIndex);
+	}
+
+	/**
+	 * Copies length bytes starting at byteIndex to dest.
+	 *
+	 * @param byteIndex
+	 * @param dest
+	 * @param destOffset
+	 * @param length
+	 */
+	public void get(int byteIndex, byte[] dest, int destOffset, int length) {
+	    ByteBuffer duplicate = buffer.duplicate();
+	    duplicate.position(byteIndex);
+	    duplicate.get(dest, destOffset, length);
 	}
-	
+
 	@Override
 	public String toString() {
-	    return "Index:" + index + " Length:" + length + " Starts:" + new String(bytes, 0, length < 64 ? length : 64);
+	    byte[] start = new byte[length < 64 ? length : 64];
+	    get(0, start, 0, start.length);
+	    return "Index:" + index + " Length:" + length + " Starts:" + new String(start);
 	}
     }
 
-    private final LoadingCache<Long, Block> blocksCache;
-    private final ConcurrentLinkedQueue<Block> freeBlocks;
-    private final long lastBlockIndex;
-    private final int inputStreamBufferSize;
+    /**
+     * A part of the cache with its own lock.
+     */
+    private class Stripe {
+	private final int maxBlocks;
+	// Access ordered so the first entry is the least recently used.
+	private final LinkedHashMap<Long, Block> blocks = new LinkedHashMap<Long, Block>(16, 0.75f, true);
+	private final Map<Long, FutureTask<Block>> loading = new HashMap<Long, FutureTask<Block>>();
+	private final ArrayDeque<Block> freeBlocks = new ArrayDeque<Block>();
+	// Blocks cached, free or being loaded.
+	private int allocatedBlocks;
+	// The number of allocated blocks to warn at next.
+	private int warnAllocatedBlocks;
 
-    public BlockCache(final BlockReader blockReader, final long lastBlockIndex, final int blockSize, final int cacheSizeInBlocks) {
-	// Fixed size LRU with block recycling.
-	blocksCache = CacheBuilder.newBuilder().maximumSize(cacheSizeInBlocks).removalListener(new RemovalListener<Long, Block>() {
-	    @Override
-	    public void onRemoval(RemovalNotification<Long, Block> notification) {
-		Block block = notification.getValue();
-		block.index = -1;
-		block.length = 0;
-		freeBlocks.add(block);
+	public Stripe(int maxBlocks) {
+	    this.maxBlocks = maxBlocks;
+	    warnAllocatedBlocks = maxBlocks * 2;
+	}
+
+	/**
+	 * @param blockIndex
+	 * @return The block leased to the caller.
+	 * @throws IOException
+	 */
+	public Block acquire(final long blockIndex) throws IOException {
+	    while (true) {
+		FutureTask<Block> load;
+		boolean loadHere = false;
+		synchronized (this) {
+		    Block block = blocks.get(blockIndex);
+		    if (block != null) {
+			hitCount.incrementAndGet();
+			block.leaseCount++;
+			return block;
+		    }
+		    missCount.incrementAndGet();
+		    load = loading.get(blockIndex);
+		    if (load == null) {
+			load = new FutureTask<Block>(new Callable<Block>() {
+			    @Override
+			    public Block call() throws Exception {
+				return load(blockIndex);
+			    }
+			});
+			loading.put(blockIndex, load);
+			loadHere = true;
+		    }
+		}
+
+		if (loadHere) {
+		    long startTime = System.nanoTime();
+		    load.run();
+		    loadTimeNanos.addAndGet(System.nanoTime() - startTime);
+		    synchronized (this) {
+			loading.remove(blockIndex);
+		    }
+		    // The loaded block is leased to the loading thread.
+		    return getLoaded(load, blockIndex);
+		}
+
+		Block block = getLoaded(load, blockIndex);
+		synchronized (this) {
+		    // The block could have been evicted and reused before this
+		    // thread got the lock. If so try again.
+		    if (block.index == blockIndex) {
+			block.leaseCount++;
+			return block;
+		    }
+		}
 	    }
-	}).build(new CacheLoader<Long, Block>() {
-	    @Override
-	    public Block load(Long blockIndex) throws Exception {
-		Block block = freeBlocks.poll();
+	}
+
+	/**
+	 * Loads the block if it isn't cached or being loaded.
+	 *
+	 * @param blockIndex
+	 * @throws IOException
+	 */
+	public void prefetch(long blockIndex) throws IOException {
+	    synchronized (this) {
+		// containsKey() doesn't change the access order.
+		if (blocks.containsKey(blockIndex) || loading.containsKey(blockIndex)) {
+		    return;
+		}
+	    }
+	    release(acquire(blockIndex));
+	}
+
+	public synchronized void release(Block block) {
+	    if (block.leaseCount <= 0) {
+		throw new IllegalStateException("Block " + block.index + " isn't leased.");
+	    }
+	    block.leaseCount--;
+	}
+
+	private Block getLoaded(FutureTask<Block> load, long blockIndex) throws IOException {
+	    try {
+		return load.get();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new IOException("Interrupted waiting for block " + blockIndex + " to load.");
+	    } catch (ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+		    throw (IOException) cause;
+		} else if (cause instanceof IndexOutOfBoundsException) {
+		    throw (IndexOutOfBoundsException) cause;
+		}
+		throw new RuntimeException(cause);
+	    }
+	}
+
+	private Block load(long blockIndex) throws IOException {
+	    byte[] buffer = readBuffers.get();
+	    int bytesRead;
+	    try {
+		bytesRead = blockReader.readBlock(blockIndex, buffer);
+	    } catch (IOException e) {
+		loadExceptionCount.incrementAndGet();
+		throw e;
+	    } catch (RuntimeException e) {
+		loadExceptionCount.incrementAndGet();
+		throw e;
+	    }
+	    if (bytesRead < 0 || bytesRead > blockSize) {
+		loadExceptionCount.incrementAndGet();
+		throw new RuntimeException("bytesRead(" + bytesRead + ") is not in range 0 to " + blockSize);
+	    }
+
+	    Block block;
+	    synchronized (this) {
+		block = freeBlocks.poll();
+		// Evicting a block when the stripe is over its size shrinks it
+		// instead of freeing the block.
+		while (block == null && allocatedBlocks >= maxBlocks && evictLeastRecentlyUnleased()) {
+		    block = freeBlocks.poll();
+		}
 		if (block == null) {
+		    // When all the blocks are leased or being loaded by other
+		    // threads the stripe goes over its size until they are
+		    // released.
 		    block = new Block(blockSize);
+		    allocatedBlocks++;
+		    if (allocatedBlocks >= warnAllocatedBlocks) {
+			LOGGER.warn("A stripe of " + maxBlocks + " blocks has " + allocatedBlocks + " blocks allocated. Are leased blocks being released?");
+			warnAllocatedBlocks *= 2;
+		    }
 		}
+	    }
+	    block.buffer.clear();
+	    block.buffer.put(buffer, 0, bytesRead);
+	    block.length = bytesRead;
+	    block.index = blockIndex;
 
-		int bytesRead = -1;
-		try {
-		    bytesRead = blockReader.readBlock(blockIndex, block.bytes);
-		} catch (Exception e) {
-		    freeBlocks.add(block);
-		    throw e;
+	    synchronized (this) {
+		// Leased before it's in the map so it can't be evicted and
+		// reused before the loading thread gets it.
+		block.leaseCount = 1;
+		blocks.put(blockIndex, block);
+		while (blocks.size() > maxBlocks && evictLeastRecentlyUnleased()) {
 		}
+	    }
+	    loadSuccessCount.incrementAndGet();
+	    return block;
+	}
 
-		if (bytesRead < 0 || bytesRead > block.bytes.length) {
-		    freeBlocks.add(block);
-		    throw new RuntimeException("bytesRead(" + bytesRead + ") is not in range 0 to " + block.bytes.length);
+	/**
+	 * Removes and recycles the least recently used block that isn't leased.
+	 *
+	 * @return false if all the cached blocks are leased.
+	 */
+	private boolean evictLeastRecentlyUnleased() {
+	    Iterator<Block> iterator = blocks.values().iterator();
+	    while (iterator.hasNext()) {
+		Block block = iterator.next();
+		if (block.leaseCount == 0) {
+		    iterator.remove();
+		    evictionCount.incrementAndGet();
+		    recycle(block);
+		    return true;
 		}
+	    }
+	    return false;
+	}
 
-		block.index = blockIndex;
-		block.length = bytesRead;
-		return block;
+	private void recycle(Block block) {
+	    block.index = -1;
+	    block.length = 0;
+	    if (allocatedBlocks > maxBlocks) {
+		// Let the stripe shrink back to its size.
+		allocatedBlocks--;
+	    } else {
+		freeBlocks.add(block);
 	    }
-	});
+	}
+    }
+
+    private final BlockReader blockReader;
+    private final long lastBlockIndex;
+    private final int blockSize;
+    private final Stripe[] stripes;
+    private final ThreadLocal<byte[]> readBuffers;
 
-	freeBlocks = new ConcurrentLinkedQueue<Block>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadSuccessCount = new AtomicLong();
+    private final AtomicLong loadExceptionCount = new AtomicLong();
+    private final AtomicLong loadTimeNanos = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param blockReader
+     * @param lastBlockIndex
+     * @param blockSize
+     *            The maximum number of bytes in a block.
+     * @param cacheSizeInBytes
+     *            The maximum number of bytes used by the cached blocks. At
+     *            least 2 blocks are always cached.
+     */
+    public BlockCache(final BlockReader blockReader, final long lastBlockIndex, final int blockSize, final long cacheSizeInBytes) {
+	this.blockReader = blockReader;
 	this.lastBlockIndex = lastBlockIndex;
-	int inputStreamBufferSize = blockSize;
-	while (inputStreamBufferSize > 8196) {
-	    inputStreamBufferSize >>= 1;
+	this.blockSize = blockSize;
+
+	long cacheSizeInBlocks = Math.max(cacheSizeInBytes / blockSize, MIN_BLOCKS_PER_STRIPE);
+	int stripeCount = (int) Math.min(MAX_STRIPE_COUNT, cacheSizeInBlocks / MIN_BLOCKS_PER_STRIPE);
+	stripes = new Stripe[stripeCount];
+	for (int i = 0; i < stripeCount; i++) {
+	    // Spread the remainder over the first stripes.
+	    long stripeBlocks = cacheSizeInBlocks / stripeCount + (i < cacheSizeInBlocks % stripeCount ? 1 : 0);
+	    stripes[i] = new Stripe((int) Math.min(stripeBlocks, Integer.MAX_VALUE));
 	}
-	this.inputStreamBufferSize = inputStreamBufferSize;
+
+	readBuffers = new ThreadLocal<byte[]>() {
+	    @Override
+	    protected byte[] initialValue() {
+		return new byte[blockSize];
+	    }
+	};
     }
 
     /**
+     * The returned block's contents are only valid until it's given to
+     * release(), which must be called once for each call to acquire().
+     * 
      * @param blockIndex
-     * @return The block or null if the blockIndex is out of bounds.
+     * @return The leased block or null if the blockIndex is out of bounds.
      * @throws IOException
      */
-    public Block getBlock(final long blockIndex) throws IOException, IndexOutOfBoundsException {
+    public Block acquire(final long blockIndex) throws IOException, IndexOutOfBoundsException {
 	if (blockIndex < 0 || blockIndex > lastBlockIndex) {
 	    return null;
 	}
-	try {
-	    return blocksCache.get(blockIndex);
-	} catch (ExecutionException e) {
-	    Throwable cause = e.getCause();
-	    if (cause instanceof IOException) {
-		throw (IOException) cause;
-	    } else if (cause instanceof IndexOutOfBoundsException) {
-		throw (IndexOutOfBoundsException) cause;
-	    }
-	    throw new RuntimeException(e);
+	return getStripe(blockIndex).acquire(blockIndex);
+    }
+
+    /**
+     * Loads the block into the cache if it isn't already cached or being
+     * loaded. Doesn't count as a hit.
+     *
+     * @param blockIndex
+     * @throws IOException
+     */
+    public void prefetch(final long blockIndex) throws IOException {
+	if (blockIndex < 0 || blockIndex > lastBlockIndex) {
+	    return;
 	}
+	getStripe(blockIndex).prefetch(blockIndex);
     }
 
-    public InputStream getInputStream(final long blockIndex, final int startByteIndexInFirstBlock) throws IOException {
-	return new BlockInputStream(blockIndex, startByteIndexInFirstBlock, inputStreamBufferSize);
+    /**
+     * @return The number of blocks the cache holds when none are leased.
+     */
+    public long getMaxBlockCount() {
+	long maxBlockCount = 0;
+	for (Stripe stripe : stripes) {
+	    maxBlockCount += stripe.maxBlocks;
+	}
+	return maxBlockCount;
     }
 
-    private class BlockInputStream extends InputStream {
-	private final byte[] buffer;
+    /**
+     * @param block
+     *            A block returned by acquire().
+     * @throws IllegalStateException
+     *             if the block has already been released.
+     */
+    public void release(Block block) {
+	long blockIndex = block.index;
+	if (blockIndex < 0) {
+	    // Recycled by its last release.
+	    throw new IllegalStateException("Block isn't leased.");
+	}
+	getStripe(blockIndex).release(block);
+    }
 
-	private long currentBlockIndex;
-	private int currentBlockByteIndex;
+    private Stripe getStripe(long blockIndex) {
+	// Consecutive blocks go to different stripes.
+	return stripes[(int) (blockIndex % stripes.length)];
+    }
 
-	private int bufferReadIndex;
-	private int bufferByteCount;
+    /**
+     * @return The hit, miss, load and eviction counts and the total time spent
+     *         loading blocks.
+     */
+    public CacheStats stats() {
+	return new CacheStats(hitCount.get(), missCount.get(), loadSuccessCount.get(), loadExceptionCount.get(), loadTimeNanos.get(),
+		evictionCount.get());
+    }
 
-	public BlockInputStream(long startBlockIndex, int startBlockByteIndex, int bufferSize) throws IOException {
-	    buffer = new byte[bufferSize];
+    /**
+     * The returned stream reads directly from the cached blocks and leases the
+     * block it's reading. It should be closed.
+     *
+     * @param blockIndex
+     * @param startByteIndexInFirstBlock
+     * @return A stream of the bytes from the given offset to the end of the
+     *         last block.
+     * @throws IOException
+     */
+    public InputStream getInputStream(final long blockIndex, final int startByteIndexInFirstBlock) throws IOException {
+	return new BlockInputStream(blockIndex, startByteIndexInFirstBlock);
+    }
 
-	    this.currentBlockIndex = startBlockIndex;
-	    this.currentBlockByteIndex = startBlockByteIndex;
+    private class BlockInputStream extends InputStream {
+	// Leased. Null at the end of the last block or when closed.
+	private Block currentBlock;
+	// This stream's view of the current block's buffer.
+	private ByteBuffer currentBuffer;
+	private long currentBlockIndex;
 
+	public BlockInputStream(long startBlockIndex, int startBlockByteIndex) throws IOException {
 	    if (startBlockByteIndex < 0) {
 		throw new IndexOutOfBoundsException("given startBlockIndex(" + startBlockByteIndex + ") < 0");
 	    }
-	    fillBuffer();
-	}
-
-	private boolean fillBuffer() throws IOException {
-	    bufferReadIndex = 0;
-	    bufferByteCount = 0;
-
-	    if (currentBlockIndex >= 0) {
-		while (bufferByteCount < buffer.length) {
-		    Block currentBlock = getBlock(currentBlockIndex);
-		    if (currentBlock != null) {
-			int currentBlockBytesRemaining = currentBlock.length - currentBlockByteIndex;
-			int bytesNeededToFillBuffer = buffer.length - bufferByteCount;
-
-			if (currentBlockBytesRemaining > bytesNeededToFillBuffer) {
-			    System.arraycopy(currentBlock.bytes, currentBlockByteIndex, buffer, bufferByteCount, bytesNeededToFillBuffer);
-			    currentBlockByteIndex += bytesNeededToFillBuffer;
-			    bufferByteCount = buffer.length; // +=
-							     // bytesNeededToFillBuffer;
-			} else {
-			    System.arraycopy(currentBlock.bytes, currentBlockByteIndex, buffer, bufferByteCount, currentBlockBytesRemaining);
-			    currentBlockByteIndex = 0;
-			    currentBlockIndex++;
-			    bufferByteCount += currentBlockBytesRemaining;
-			}
-		    } else {
-			// No more blocks.
-			currentBlockIndex = -1;
-			return bufferReadIndex < bufferByteCount;
-		    }
+	    currentBlockIndex = startBlockIndex;
+	    currentBlock = acquire(currentBlockIndex);
+	    if (currentBlock != null) {
+		currentBuffer = currentBlock.buffer.duplicate();
+		currentBuffer.limit(currentBlock.length);
+		currentBuffer.position(Math.min(startBlockByteIndex, currentBlock.length));
+	    }
+	}
+
+	/**
+	 * @return false if there are no more bytes.
+	 * @throws IOException
+	 */
+	private boolean ensureRemaining() throws IOException {
+	    while (currentBlock != null && !currentBuffer.hasRemaining()) {
+		Block block = currentBlock;
+		currentBlock = null;
+		release(block);
+		currentBlock = acquire(++currentBlockIndex);
+		if (currentBlock != null) {
+		    currentBuffer = currentBlock.buffer.duplicate();
+		    currentBuffer.limit(currentBlock.length);
+		    currentBuffer.position(0);
+		} else {
+		    currentBuffer = null;
 		}
-		return true;
 	    }
-	    return false;
+	    return currentBlock != null;
 	}
 
 	@Override
 	public int read() throws IOException {
-	    if (bufferReadIndex < bufferByteCount || fillBuffer()) {
-		return buffer[bufferReadIndex++] & 0xFF;
+	    if (ensureRemaining()) {
+		return currentBuffer.get() & 0xFF;
 	    }
 	    return -1;
 	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if (off < 0 || len < 0 || len > b.length - off) {
+		throw new IndexOutOfBoundsException();
+	    }
+	    if (len == 0) {
+		return 0;
+	    }
+	    int bytesRead = 0;
+	    while (bytesRead < len && ensureRemaining()) {
+		int n = Math.min(len - bytesRead, currentBuffer.remaining());
+		currentBuffer.get(b, off + bytesRead, n);
+		bytesRead += n;
+	    }
+	    return bytesRead == 0 ? -1 : bytesRead;
+	}
+
+	@Override
+	public int available() {
+	    return currentBuffer == null ? 0 : currentBuffer.remaining();
+	}
+
+	@Override
+	public void close() {
+	    if (currentBlock != null) {
+		release(currentBlock);
+		currentBlock = null;
+		currentBuffer = null;
+	    }
+	}
     }
 }
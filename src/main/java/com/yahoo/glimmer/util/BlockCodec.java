@@ -0,0 +1,60 @@
+package com.yahoo.glimmer.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The compression used for the blocks of a BlockCompressedDocumentCollection.
+ * 
+ * Implementations should be thread safe.
+ * 
+ * @author tep
+ */
+public interface BlockCodec {
+    /**
+     * @return The name used to select the codec.
+     */
+    public String getName();
+
+    /**
+     * @return The extension of collection files compressed with this codec.
+     */
+    public String getFileExtension();
+
+    /**
+     * @param outputStream
+     *            Where the compressed stream is written.
+     * @param threadCount
+     *            The number of threads the codec can use to compress blocks.
+     * @param callback
+     * @return A stream that compresses what is written to it.
+     * @throws IOException
+     */
+    public BlockOutputStream createOutputStream(OutputStream outputStream, int threadCount, BlockOutputStream.Callback callback) throws IOException;
+
+    /**
+     * Reads the header written to the start of the stream by the
+     * BlockOutputStream.
+     * 
+     * @param inputStream
+     * @return The size of buffer needed to uncompress any block of the stream.
+     * @throws IOException
+     *             if the header isn't valid.
+     */
+    public int readHeader(InputStream inputStream) throws IOException;
+
+    /**
+     * @param compressedBlock
+     *            The compressed bytes of the block starting at position 0.
+     * @param skipBits
+     *            The number of bits to skip in the first byte.
+     * @param uncompressedBuffer
+     * @return The number of uncompressed bytes written to uncompressedBuffer
+     *         starting at offset 0.
+     * @throws IOException
+     *             if the block isn't valid.
+     */
+    public int uncompressBlock(ByteBuffer compressedBlock, int skipBits, byte[] uncompressedBuffer) throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.yahoo.glimmer.util;
+
+/**
+ * The BlockCodecs that BlockCompressedDocumentCollections can be written with.
+ * 
+ * @author tep
+ */
+public class BlockCodecs {
+    public static final BlockCodec BZIP2 = new BZip2BlockCodec(1);
+    public static final BlockCodec LZ4 = new LZ4BlockCodec(64 * 1024);
+
+    /**
+     * In order of preference when opening a collection for which more than one
+     * file exists.
+     */
+    private static final BlockCodec[] CODECS = { LZ4, BZIP2 };
+
+    public static BlockCodec[] getCodecs() {
+	return CODECS.clone();
+    }
+
+    /**
+     * @param name
+     * @return The codec with the given name.
+     * @throws IllegalArgumentException
+     *             if there is no codec with the given name.
+     */
+    public static BlockCodec forName(String name) {
+	for (BlockCodec codec : CODECS) {
+	    if (codec.getName().equals(name)) {
+		return codec;
+	    }
+	}
+	throw new IllegalArgumentException("No BlockCodec named " + name);
+    }
+}
@@ -6,9 +6,10 @@ import it.unimi.di.big.mg4j.document.DocumentCollection;
 import it.unimi.di.big.mg4j.document.DocumentFactory;
 import it.unimi.di.big.mg4j.document.PropertyBasedDocumentFactory;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
-import it.unimi.dsi.io.ByteBufferInputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
@@ -17,20 +18,34 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
-import org.itadaki.bzip2.BZip2BitInputStream;
-import org.itadaki.bzip2.BZip2BlockDecompressor;
-import org.itadaki.bzip2.BZip2Constants;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
- * A DocumentCollection using a bzip2 file and a list of 'first docId in block' to block offsets.
+ * A DocumentCollection using a block compressed file and a list of 'first docId in block' to block offsets.
+ * 
+ * The file is found by trying the extensions of {@link BlockCodecs#getCodecs()} in order. BZip2 files have
+ * their block offsets in a separate .blockOffsets file, other codecs have them appended to the compressed file.
+ * 
+ * Collections written with a per document index go straight to the start of a document. Older collections scan
+ * the block the document is in.
  * 
- * Would be nice to make retrieval of docs that are not in the collection more efficient.
+ * The compressed file is memory mapped once when opened, or read with positional reads if memory mapping is
+ * turned off.
+ * 
+ * {@link #prefetch(long[])} uncompresses the blocks of a list of documents on a small pool of threads so that they are
+ * cached by the time they are read.
  * @author tep
  *
  */
@@ -42,65 +57,246 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 
     public static final String COMPRESSED_FILE_EXTENSION = ".bz2";
     public static final String BLOCK_OFFSETS_EXTENSION = ".blockOffsets";
+    public static final int DEFAULT_PREFETCH_THREAD_COUNT = 4;
+    // Prefetching is best effort. Blocks past this many waiting are dropped.
+    private static final int PREFETCH_QUEUE_SIZE = 256;
 
     private final String name;
     private final DocumentFactory documentFactory;
 
+    private BlockCodec codec;
     private BlockOffsets blockOffsets;
-    private FileInputStream bz2InputStream;
-    private FileChannel bz2FileChannel;
+    private FileInputStream compressedInputStream;
+    private FileChannel compressedFileChannel;
+    private ByteRangeSource compressedBytes;
     private int uncompressedBlockSize;
+    private final long cacheSizeInBytes;
+    private final boolean memoryMapped;
+    private final int prefetchThreadCount;
     private BlockCache blockCache;
+    private ThreadPoolExecutor prefetchExecutor;
+
+    /**
+     * @param name
+     * @param documentFactory
+     * @param cacheSizeInBytes
+     *            The size of the off heap cache of uncompressed blocks.
+     */
+    public BlockCompressedDocumentCollection(String name, DocumentFactory documentFactory, final long cacheSizeInBytes) {
+	this(name, documentFactory, cacheSizeInBytes, true);
+    }
+
+    /**
+     * @param name
+     * @param documentFactory
+     * @param cacheSizeInBytes
+     *            The size of the off heap cache of uncompressed blocks.
+     * @param memoryMapped
+     *            If false compressed blocks are read with positional reads
+     *            instead of from a memory mapping of the file.
+     */
+    public BlockCompressedDocumentCollection(String name, DocumentFactory documentFactory, final long cacheSizeInBytes, final boolean memoryMapped) {
+	this(name, documentFactory, cacheSizeInBytes, memoryMapped, DEFAULT_PREFETCH_THREAD_COUNT);
+    }
 
-    public BlockCompressedDocumentCollection(String name, DocumentFactory documentFactory, final int cacheSize) {
+    /**
+     * @param name
+     * @param documentFactory
+     * @param cacheSizeInBytes
+     *            The size of the off heap cache of uncompressed blocks.
+     * @param memoryMapped
+     *            If false compressed blocks are read with positional reads
+     *            instead of from a memory mapping of the file.
+     * @param prefetchThreadCount
+     *            The number of threads uncompressing blocks for
+     *            {@link #prefetch(long[])}. 0 turns prefetching off.
+     */
+    public BlockCompressedDocumentCollection(String name, DocumentFactory documentFactory, final long cacheSizeInBytes, final boolean memoryMapped,
+	    final int prefetchThreadCount) {
+	if (prefetchThreadCount < 0) {
+	    throw new IllegalArgumentException("prefetchThreadCount(" + prefetchThreadCount + ") should not be negative.");
+	}
 	this.name = new File(name).getName();
 	this.documentFactory = documentFactory;
+	this.cacheSizeInBytes = cacheSizeInBytes;
+	this.memoryMapped = memoryMapped;
+	this.prefetchThreadCount = prefetchThreadCount;
     }
 
     @Override
     public void filename(CharSequence absolutePathToAFileInTheCollection) throws IOException {
 	File absolutePathToCollection = new File(absolutePathToAFileInTheCollection.toString()).getParentFile();
 
-	File bz2File = new File(absolutePathToCollection, name + COMPRESSED_FILE_EXTENSION);
-	bz2InputStream = new FileInputStream(bz2File);
+	for (BlockCodec codec : BlockCodecs.getCodecs()) {
+	    File compressedFile = new File(absolutePathToCollection, name + codec.getFileExtension());
+	    if (!compressedFile.exists()) {
+		continue;
+	    }
+	    compressedInputStream = new FileInputStream(compressedFile);
+	    try {
+		uncompressedBlockSize = codec.readHeader(compressedInputStream);
+	    } catch (IOException e) {
+		compressedInputStream.close();
+		throw new IllegalArgumentException(compressedFile.getAbsolutePath() + " has an invalid header. " + e.getMessage());
+	    }
+	    FileChannel compressedFileChannel = compressedInputStream.getChannel();
+
+	    if (BZip2BlockCodec.NAME.equals(codec.getName())) {
+		File blockOffsetsFile = new File(absolutePathToCollection, name + BLOCK_OFFSETS_EXTENSION);
+		InputStream blockOffsetsInputStream = new FileInputStream(blockOffsetsFile);
+		init(codec, compressedFileChannel, loadBlockOffsets(blockOffsetsInputStream), uncompressedBlockSize);
+		blockOffsetsInputStream.close();
+	    } else {
+		init(codec, compressedFileChannel, loadAppendedBlockOffsets(compressedFileChannel), uncompressedBlockSize);
+	    }
+	    LOGGER.info("Opened " + compressedFile.getAbsolutePath() + " using the " + codec.getName() + " codec.");
+	    return;
+	}
+	throw new IllegalArgumentException("No compressed file for collection " + name + " in " + absolutePathToCollection.getAbsolutePath());
+    }
+
+    public void init(FileChannel bz2FileChannel, InputStream blockOffsetsInputStream, int uncompressedBlockSize) throws IOException {
+	init(BlockCodecs.BZIP2, bz2FileChannel, loadBlockOffsets(blockOffsetsInputStream), uncompressedBlockSize);
+    }
 
-	if (bz2InputStream.read() != 'B' || bz2InputStream.read() != 'Z' || bz2InputStream.read() != 'h') {
-	    bz2InputStream.close();
-	    throw new IllegalArgumentException(bz2File.getAbsolutePath() + " doesn't have bzip2 header!");
+    public void init(BlockCodec codec, FileChannel compressedFileChannel, BlockOffsets blockOffsets, int uncompressedBlockSize) throws IOException {
+	this.codec = codec;
+	this.compressedFileChannel = compressedFileChannel;
+	this.blockOffsets = blockOffsets;
+	this.uncompressedBlockSize = uncompressedBlockSize;
+	if (memoryMapped) {
+	    compressedBytes = new MappedByteRangeSource(compressedFileChannel);
+	} else {
+	    compressedBytes = new PositionalReadByteRangeSource(compressedFileChannel);
 	}
-	uncompressedBlockSize = bz2InputStream.read() - '0';
-	if (uncompressedBlockSize < 0 || uncompressedBlockSize > 9) {
-	    bz2InputStream.close();
-	    throw new IllegalArgumentException(bz2File.getAbsolutePath() + " has a invalid block size byte.");
+
+	blockCache = new BlockCache(new BlockCache.BlockReader() {
+	    @Override
+	    public int readBlock(long blockIndex, byte[] buffer) throws IOException {
+		return uncompressBlock(blockIndex, buffer);
+	    }
+	}, blockOffsets.getBlockCount() - 1, uncompressedBlockSize, cacheSizeInBytes);
+
+	if (prefetchThreadCount > 0) {
+	    // The threads are started when first needed and stop when idle.
+	    prefetchExecutor = new ThreadPoolExecutor(prefetchThreadCount, prefetchThreadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+		    PREFETCH_QUEUE_SIZE), new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name + "-prefetch-%d").build());
+	    prefetchExecutor.allowCoreThreadTimeOut(true);
 	}
-	uncompressedBlockSize *= 100 * 1024; // This is weird.  The uncompressed blocks can be bigger than multiples of 100000.
+    }
 
-	FileChannel bz2FileChannel = bz2InputStream.getChannel();
+    /**
+     * @return The block cache's hit, miss and load counts and load time.
+     */
+    public CacheStats getCacheStats() {
+	return blockCache.stats();
+    }
 
-	File blockOffsetsFile = new File(absolutePathToCollection, name + BLOCK_OFFSETS_EXTENSION);
-	InputStream blockOffsetsInputStream = new FileInputStream(blockOffsetsFile);
-	init(bz2FileChannel, blockOffsetsInputStream, uncompressedBlockSize);
-	blockOffsetsInputStream.close();
+    /**
+     * Starts uncompressing the blocks the given documents start in, in the
+     * background. Returns without waiting. A thread that then reads one of the
+     * documents waits for its block if it's still being uncompressed rather
+     * than uncompressing it again, so reading a list of documents takes about
+     * as long as the slowest block instead of the sum of them.
+     * 
+     * Only as many blocks as fit in the cache are prefetched, in the order of
+     * the given docIds.
+     * 
+     * @param docIds
+     * @return The number of blocks queued to be prefetched.
+     */
+    public int prefetch(long[] docIds) {
+	if (prefetchExecutor == null) {
+	    return 0;
+	}
+	final long maxBlockCount = blockCache.getMaxBlockCount();
+	LongLinkedOpenHashSet blockIndexes = new LongLinkedOpenHashSet();
+	for (int i = 0; i < docIds.length && blockIndexes.size() < maxBlockCount; i++) {
+	    long blockIndex = getBlockIndexOfDocStart(docIds[i]);
+	    if (blockIndex != -1) {
+		blockIndexes.add(blockIndex);
+	    }
+	}
+
+	int queuedCount = 0;
+	for (LongIterator i = blockIndexes.iterator(); i.hasNext();) {
+	    final long blockIndex = i.nextLong();
+	    try {
+		prefetchExecutor.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    blockCache.prefetch(blockIndex);
+			} catch (Exception e) {
+			    // The thread reading the document will get the
+			    // exception too.
+			    LOGGER.debug("Prefetching block " + blockIndex + " failed.", e);
+			}
+		    }
+		});
+		queuedCount++;
+	    } catch (RejectedExecutionException e) {
+		// The queue is full or the collection is closed.
+		break;
+	    }
+	}
+	return queuedCount;
     }
 
-    public void init(FileChannel bz2FileChannel, InputStream blockOffsetsInputStream, int uncompressedBlockSize) throws IOException {
-	this.bz2FileChannel = bz2FileChannel;
+    /**
+     * @param docId
+     * @return The index of the block the document starts in, or the block its
+     *         scan starts at for collections without a per document index.
+     *         -1 if it isn't in the collection.
+     */
+    private long getBlockIndexOfDocStart(long docId) {
+	if (docId < 0 || docId > blockOffsets.getLastDocId()) {
+	    return -1;
+	}
+	if (blockOffsets.hasDocStartOffsets()) {
+	    final long docStartOffset = blockOffsets.getDocStartOffset(docId);
+	    if (docStartOffset == -1) {
+		return -1;
+	    }
+	    return blockOffsets.getBlockIndexOfOffset(docStartOffset);
+	}
+	final long blockIndex = blockOffsets.getBlockIndex(docId);
+	return blockIndex < blockOffsets.getBlockCount() ? blockIndex : -1;
+    }
 
+    private static BlockOffsets loadBlockOffsets(InputStream blockOffsetsInputStream) throws IOException {
 	DataInputStream blockOffsetsDataInput = new DataInputStream(blockOffsetsInputStream);
 	try {
-	    blockOffsets = (BlockOffsets) BinIO.loadObject(blockOffsetsDataInput);
+	    return (BlockOffsets) BinIO.loadObject(blockOffsetsDataInput);
 	} catch (ClassNotFoundException e) {
 	    throw new RuntimeException("BinIO.loadObject() threw:" + e);
 	}
+    }
 
-	this.uncompressedBlockSize = uncompressedBlockSize;
-
-	blockCache = new BlockCache(new BlockCache.BlockReader() {
-	    @Override
-	    public int readBlock(long blockIndex, byte[] buffer) throws IOException {
-		return uncompressBlock(blockIndex, buffer);
+    /**
+     * Loads BlockOffsets written after the end of the compressed blocks by
+     * {@link BlockCompressedDocumentWriter#appendBlockOffsets(BlockOffsets)}.
+     * The last 8 bytes of the file are the byte offset the BlockOffsets start
+     * at.
+     * 
+     * @param fileChannel
+     * @return The appended BlockOffsets.
+     * @throws IOException
+     */
+    public static BlockOffsets loadAppendedBlockOffsets(FileChannel fileChannel) throws IOException {
+	final long fileSize = fileChannel.size();
+	ByteBuffer startBuffer = ByteBuffer.allocate(8);
+	while (startBuffer.hasRemaining()) {
+	    if (fileChannel.read(startBuffer, fileSize - 8 + startBuffer.position()) < 0) {
+		throw new IOException("Unexpected end of file reading the block offsets start.");
 	    }
-	}, blockOffsets.getBlockCount() - 1, uncompressedBlockSize, 1024);
+	}
+	final long blockOffsetsStart = startBuffer.getLong(0);
+	if (blockOffsetsStart < 0 || blockOffsetsStart > fileSize - 8) {
+	    throw new IOException("Invalid block offsets start " + blockOffsetsStart + " for a file of " + fileSize + " bytes.");
+	}
+	// Blocks are read with map() so moving the channel's position is safe.
+	return loadBlockOffsets(Channels.newInputStream(fileChannel.position(blockOffsetsStart)));
     }
 
     @Override
@@ -162,6 +358,17 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 	if (requiredDocId > blockOffsets.getLastDocId()) {
 	    return null;
 	}
+	if (blockOffsets.hasDocStartOffsets()) {
+	    final long docStartOffset = blockOffsets.getDocStartOffset(requiredDocId);
+	    if (docStartOffset == -1) {
+		return null;
+	    }
+	    final long blockIndex = blockOffsets.getBlockIndexOfOffset(docStartOffset);
+	    return blockCache.getInputStream(blockIndex, (int) (docStartOffset - blockOffsets.getBlockUncompressedStart(blockIndex)));
+	}
+
+	// Older collections without the per document index. Scan the block
+	// for the doc.
 	final long blockIndex = blockOffsets.getBlockIndex(requiredDocId);
 
 	if (blockIndex == -1 || blockIndex >= blockOffsets.getBlockCount()) {
@@ -169,18 +376,25 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 	}
 
 	int[] recordStartOffset = { -1 };
-	long currentDocId = getNextDocId(blockIndex, recordStartOffset);
-
-	if (currentDocId > requiredDocId) {
-	    // The first doc id in the block is bigger than the
-	    // requiredDocId
-	    LOGGER.warn("The first doc id(" + currentDocId + ") in the block(" + blockIndex + ") is bigger than the requiredDocId(" + requiredDocId
-		    + ").  This maybe an error in the bySubject.blockOffsets file.");
-	    return null;
-	}
+	long currentDocId;
+	// Leased for the scan so it isn't reused under it.
+	BlockCache.Block block = blockCache.acquire(blockIndex);
+	try {
+	    currentDocId = getNextDocId(block, recordStartOffset);
+
+	    if (currentDocId > requiredDocId) {
+		// The first doc id in the block is bigger than the
+		// requiredDocId
+		LOGGER.warn("The first doc id(" + currentDocId + ") in the block(" + blockIndex + ") is bigger than the requiredDocId(" + requiredDocId
+			+ ").  This maybe an error in the bySubject.blockOffsets file.");
+		return null;
+	    }
 
-	while (currentDocId != -1 && currentDocId < requiredDocId) {
-	    currentDocId = getNextDocId(blockIndex, recordStartOffset);
+	    while (currentDocId != -1 && currentDocId < requiredDocId) {
+		currentDocId = getNextDocId(block, recordStartOffset);
+	    }
+	} finally {
+	    blockCache.release(block);
 	}
 
 	if (currentDocId == requiredDocId) {
@@ -203,35 +417,21 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 
 	final long blockStartByteOffset = blockStartBitOffset / 8;
 	final int blockStartSkipBits = (int) (blockStartBitOffset % 8);
-	final long blockEndByteOffset = blockEndBitOffset / 8;
-
-	final MappedByteBuffer blockMappedByteBuffer = bz2FileChannel.map(MapMode.READ_ONLY, blockStartByteOffset,
-		(blockEndByteOffset - blockStartByteOffset) + 1);
-
-	final ByteBufferInputStream blockInputStream = new ByteBufferInputStream(blockMappedByteBuffer);
-	final BZip2BitInputStream blockBitInputStream = new BZip2BitInputStream(blockInputStream);
-	blockBitInputStream.readBits(blockStartSkipBits);
-
-	/* Read block-header or end-of-stream marker */
-	final int marker1 = blockBitInputStream.readBits(24);
-	final int marker2 = blockBitInputStream.readBits(24);
-
-	if (marker1 == BZip2Constants.BLOCK_HEADER_MARKER_1 && marker2 == BZip2Constants.BLOCK_HEADER_MARKER_2) {
-	    // System.err.println("Decompressing block " + blockIndex + " S:" +
-	    // blockStartBitOffset + " E:" + blockEndBitOffset);
-	    // System.err.flush();
-	    final BZip2BlockDecompressor blockDecompressor = new BZip2BlockDecompressor(blockBitInputStream, uncompressedBlockSize);
-	    return blockDecompressor.read(uncompressedBuffer, 0, uncompressedBlockSize);
-	} else if (marker1 == BZip2Constants.STREAM_END_MARKER_1 && marker2 == BZip2Constants.STREAM_END_MARKER_2) {
-	    throw new IllegalArgumentException("End of BZip2 marker at bit " + blockStartBitOffset);
-	} else {
-	    throw new IllegalStateException("Not a BZip2 block header at bit " + blockStartBitOffset);
+	final long blockEndByteOffset = Math.min(blockEndBitOffset / 8 + 1, compressedBytes.size());
+
+	final ByteBuffer compressedBlock = compressedBytes.get(blockStartByteOffset, (int) (blockEndByteOffset - blockStartByteOffset));
+	try {
+	    return codec.uncompressBlock(compressedBlock, blockStartSkipBits, uncompressedBuffer);
+	} catch (IllegalArgumentException e) {
+	    throw new IllegalArgumentException(e.getMessage() + " at bit " + blockStartBitOffset, e);
+	} catch (IllegalStateException e) {
+	    throw new IllegalStateException(e.getMessage() + " at bit " + blockStartBitOffset, e);
 	}
     }
 
     /**
-     * @param blockIndex
-     *            The index of the block we are looking for the next DocId in.
+     * @param block
+     *            The leased block we are looking for the next DocId in.
      * @param startAtByteIndex
      *            The current byte index in the block
      * @return The next docId. -1 if there are no more doc starts.
@@ -240,12 +440,11 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
      * @throws IOException
      *             On failing to read blocks.
      */
-    private long getNextDocId(long blockIndex, int[] startAtByteIndex) throws IllegalStateException, IOException {
-	BlockCache.Block block = blockCache.getBlock(blockIndex);
+    private long getNextDocId(BlockCache.Block block, int[] startAtByteIndex) throws IllegalStateException, IOException {
+	final long blockIndex = block.getIndex();
 
 	int recordDelimiterIndex = startAtByteIndex[0];
 
-	byte[] blockBytes = block.getBytes();
 	int blockLength = block.getLength();
 
 	if (blockIndex != 0 || recordDelimiterIndex != -1) { // First record in
@@ -254,7 +453,7 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 	    if (recordDelimiterIndex == -1) {
 		recordDelimiterIndex++;
 	    }
-	    while (recordDelimiterIndex < blockLength && blockBytes[recordDelimiterIndex] != BySubjectRecord.RECORD_DELIMITER) {
+	    while (recordDelimiterIndex < blockLength && block.get(recordDelimiterIndex) != BySubjectRecord.RECORD_DELIMITER) {
 		recordDelimiterIndex++;
 	    }
 	}
@@ -269,9 +468,10 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 
 	int docIdDigitIndex = recordDelimiterIndex + 1;
 	long currentDocId = 0;
-	while (docIdDigitIndex < blockLength && blockBytes[docIdDigitIndex] >= '0' && blockBytes[docIdDigitIndex] <= '9') {
+	byte b;
+	while (docIdDigitIndex < blockLength && (b = block.get(docIdDigitIndex)) >= '0' && b <= '9') {
 	    currentDocId *= 10;
-	    currentDocId += blockBytes[docIdDigitIndex] - '0';
+	    currentDocId += b - '0';
 	    docIdDigitIndex++;
 	}
 
@@ -279,26 +479,27 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 
 	if (docIdDigitIndex == blockLength) {
 	    // DocId spans blocks or last RECORD_DELIMITER
-	    block = blockCache.getBlock(blockIndex + 1);
-	    if (block == null) {
+	    BlockCache.Block nextBlock = blockCache.acquire(blockIndex + 1);
+	    if (nextBlock == null) {
 		// Last RECORD_DELIMITER.
 		return -1;
 	    }
-	    blockBytes = block.getBytes();
-	    int nextBlockLength = block.getLength();
-	    docIdDigitIndex = 0;
-
-	    while (docIdDigitIndex < nextBlockLength && blockBytes[docIdDigitIndex] >= '0' && blockBytes[docIdDigitIndex] <= '9') {
-		currentDocId *= 10;
-		currentDocId += blockBytes[docIdDigitIndex] - '0';
-		docIdDigitIndex++;
+	    try {
+		int nextBlockLength = nextBlock.getLength();
+		docIdDigitIndex = 0;
+
+		while (docIdDigitIndex < nextBlockLength && (b = nextBlock.get(docIdDigitIndex)) >= '0' && b <= '9') {
+		    currentDocId *= 10;
+		    currentDocId += b - '0';
+		    docIdDigitIndex++;
+		}
+		docIdLength += docIdDigitIndex;
+		checkFieldDelimiter(nextBlock, docIdDigitIndex, currentDocId);
+	    } finally {
+		blockCache.release(nextBlock);
 	    }
-	    docIdLength += docIdDigitIndex;
-	}
-
-	if (blockBytes[docIdDigitIndex] != BySubjectRecord.FIELD_DELIMITER) {
-	    throw new IllegalStateException("Expecting field delimiter but found byte>" + blockBytes[docIdDigitIndex] + "<. Record started with "
-		    + new String(blockBytes, recordDelimiterIndex + 1, docIdDigitIndex));
+	} else {
+	    checkFieldDelimiter(block, docIdDigitIndex, currentDocId);
 	}
 
 	if (docIdLength == 0) {
@@ -310,18 +511,29 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 	return currentDocId;
     }
 
+    private static void checkFieldDelimiter(BlockCache.Block block, int byteIndex, long docId) throws IllegalStateException {
+	if (block.get(byteIndex) != BySubjectRecord.FIELD_DELIMITER) {
+	    throw new IllegalStateException("Expecting field delimiter but found byte>" + block.get(byteIndex) + "<. Record started with " + docId
+		    + " in block " + block);
+	}
+    }
+
     @Override
     public void close() throws IOException {
 	super.close();
-	bz2FileChannel.close();
-	if (bz2InputStream != null) {
-	    bz2InputStream.close();
+	if (prefetchExecutor != null) {
+	    prefetchExecutor.shutdownNow();
+	}
+	compressedBytes.close();
+	compressedFileChannel.close();
+	if (compressedInputStream != null) {
+	    compressedInputStream.close();
 	}
     }
 
     public static void main(String[] args) throws IOException {
 	if (args.length < 1) {
-	    System.err.println("Args are: <full path to collection bz2 file> [docId>]");
+	    System.err.println("Args are: <full path to collection compressed file> [docId>]");
 	    return;
 	}
 	String collectionBase = args[0];
@@ -333,25 +545,32 @@ public class BlockCompressedDocumentCollection extends AbstractDocumentCollectio
 	    collectionName = collectionName.substring(0, collectionNamePostfixStart);
 	}
 
-	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection(collectionName, null, 10);
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection(collectionName, null, 64l * 1024 * 1024);
 	collection.filename(collectionBase);
 
-	if (args.length >= 2) {
-	    // dump docs.
-	    for (int i = 1; i < args.length; i++) {
-		long docId = Long.parseLong(args[i]);
-		long time = System.currentTimeMillis();
-		InputStream docStream = collection.stream(docId);
-		time = System.currentTimeMillis() - time;
-		System.out.println(time + " milliseconds.");
-		IOUtils.copy(docStream, System.out);
-		System.out.println();
+	try {
+	    if (args.length >= 2) {
+		// dump docs.
+		for (int i = 1; i < args.length; i++) {
+		    long docId = Long.parseLong(args[i]);
+		    long time = System.currentTimeMillis();
+		    InputStream docStream = collection.stream(docId);
+		    try {
+			time = System.currentTimeMillis() - time;
+			System.out.println(time + " milliseconds.");
+			IOUtils.copy(docStream, System.out);
+			System.out.println();
+		    } finally {
+			docStream.close();
+		    }
+		}
+	    } else {
+		// print offsets and size.
+
+		collection.blockOffsets.printTo(System.out);
 	    }
-	} else {
-	    // print offsets and size.
-
-	    collection.blockOffsets.printTo(System.out);
+	} finally {
+	    collection.close();
 	}
-	collection.close();
     }
 }
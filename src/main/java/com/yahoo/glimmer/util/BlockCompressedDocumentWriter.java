@@ -0,0 +1,173 @@
+package com.yahoo.glimmer.util;
+
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes RECORD_DELIMITER separated documents to a BlockOutputStream and builds
+ * the BlockOffsets for them.
+ *
+ * The bit offsets of the block starts can arrive after the documents in them
+ * have been written. The first doc ids are collected by block index as the
+ * documents are written and matched to the bit offsets in finish().
+ *
+ * The offset of each document in the uncompressed stream is also recorded so
+ * that readers can go straight to a document without scanning its block.
+ *
+ * @author tep
+ */
+public class BlockCompressedDocumentWriter implements Closeable {
+    private final OutputStream outputStream;
+    private final BlockOutputStream blockOutputStream;
+
+    private final LongArrayList blockStartBitOffsets = new LongArrayList();
+    private final LongArrayList blockFirstDocIds = new LongArrayList();
+    private final LongArrayList blockUncompressedStarts = new LongArrayList();
+    private final BlockOffsets.Builder blockOffsetsBuilder = new BlockOffsets.Builder();
+    private long uncompressedBytesWritten;
+    private long blocksEndBitOffset = -1;
+    private long totalBitsWritten = -1;
+    private long blocksStartedCount;
+    private boolean lastBlockHasFirstDocId;
+    private long lastFirstDocId;
+    private long docCount;
+
+    public BlockCompressedDocumentWriter(BlockCodec codec, OutputStream outputStream, int threadCount) throws IOException {
+	this.outputStream = outputStream;
+	blockOutputStream = codec.createOutputStream(outputStream, threadCount, new BlockOutputStream.Callback() {
+	    @Override
+	    public void blockStart(long blockStartBitOffset) {
+		blockStartBitOffsets.add(blockStartBitOffset);
+	    }
+
+	    @Override
+	    public void finish(long blocksEndBitOffset, long totalBitsWritten) {
+		BlockCompressedDocumentWriter.this.blocksEndBitOffset = blocksEndBitOffset;
+		BlockCompressedDocumentWriter.this.totalBitsWritten = totalBitsWritten;
+	    }
+	});
+    }
+
+    /**
+     * Writes a document. Documents must be written in doc id order.
+     *
+     * @param docId
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void write(long docId, byte[] bytes, int offset, int length) throws IOException {
+	updateBlockFirstDocIds();
+	if (!lastBlockHasFirstDocId) {
+	    blockFirstDocIds.add(docId);
+	    lastBlockHasFirstDocId = true;
+	    lastFirstDocId = docId;
+	}
+
+	if (docCount > 0) {
+	    blockOutputStream.write(BySubjectRecord.RECORD_DELIMITER);
+	    uncompressedBytesWritten++;
+	}
+	blockOffsetsBuilder.addDocStart(docId, uncompressedBytesWritten);
+	if (length > 0) {
+	    // Writing the first byte on its own finds the block the document
+	    // starts in.
+	    blockOutputStream.write(bytes[offset]);
+	    updateBlockUncompressedStarts();
+	    blockOutputStream.write(bytes, offset + 1, length - 1);
+	    uncompressedBytesWritten += length;
+	}
+	// Lets the stream write out blocks as they are filled.
+	blockOutputStream.flush();
+	docCount++;
+    }
+
+    /**
+     * Writes the last RECORD_DELIMITER and the end of the compressed stream.
+     * The underlying stream isn't closed.
+     *
+     * @param lastDocId
+     * @return The BlockOffsets of the documents written.
+     * @throws IOException
+     */
+    public BlockOffsets finish(long lastDocId) throws IOException {
+	blockOutputStream.write(BySubjectRecord.RECORD_DELIMITER);
+	updateBlockFirstDocIds();
+	updateBlockUncompressedStarts();
+	blockOutputStream.finish();
+
+	// Blocks that only contain the end of the last document, or the last
+	// RECORD_DELIMITER if there are no documents.
+	while (blockFirstDocIds.size() < blockStartBitOffsets.size()) {
+	    blockFirstDocIds.add(lastFirstDocId);
+	}
+
+	for (int i = 0; i < blockStartBitOffsets.size(); i++) {
+	    blockOffsetsBuilder.setBlockStart(blockStartBitOffsets.getLong(i), blockFirstDocIds.getLong(i), blockUncompressedStarts.getLong(i));
+	}
+	blockOffsetsBuilder.close(blocksEndBitOffset, totalBitsWritten);
+	return blockOffsetsBuilder.build(docCount, lastDocId);
+    }
+
+    /**
+     * Appends the given BlockOffsets and its start offset after the end of the
+     * compressed stream. Call after finish().
+     *
+     * @see BlockCompressedDocumentCollection#loadAppendedBlockOffsets
+     * @param blockOffsets
+     * @throws IOException
+     */
+    public void appendBlockOffsets(BlockOffsets blockOffsets) throws IOException {
+	if (totalBitsWritten == -1) {
+	    throw new IllegalStateException("finish() wasn't called!");
+	}
+	FastByteArrayOutputStream serialized = new FastByteArrayOutputStream();
+	BinIO.storeObject(blockOffsets, serialized);
+
+	DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+	dataOutputStream.write(serialized.array, 0, serialized.length);
+	dataOutputStream.writeLong(totalBitsWritten / 8);
+	dataOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+	blockOutputStream.close();
+    }
+
+    /**
+     * Blocks started since the last call that didn't get a document starting
+     * in them are given the first doc id of the previous block, as the start
+     * of the document they contain is at or before that block.
+     */
+    private void updateBlockFirstDocIds() {
+	long currentBlockIndex = blockOutputStream.getCurrentBlockIndex();
+	while (blocksStartedCount <= currentBlockIndex) {
+	    if (blocksStartedCount > 0 && !lastBlockHasFirstDocId) {
+		blockFirstDocIds.add(lastFirstDocId);
+	    }
+	    lastBlockHasFirstDocId = false;
+	    blocksStartedCount++;
+	}
+    }
+
+    /**
+     * Blocks started since the last call, other than the current block, have
+     * no document starting in them. They are given the uncompressed start of
+     * the current block.
+     */
+    private void updateBlockUncompressedStarts() {
+	long currentBlockIndex = blockOutputStream.getCurrentBlockIndex();
+	long currentBlockUncompressedStart = blockOutputStream.getCurrentBlockUncompressedStart();
+	while (blockUncompressedStarts.size() <= currentBlockIndex) {
+	    blockUncompressedStarts.add(currentBlockUncompressedStart);
+	}
+    }
+}
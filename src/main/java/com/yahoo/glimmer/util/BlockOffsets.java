@@ -1,9 +1,12 @@
 package com.yahoo.glimmer.util;
 
+import it.unimi.dsi.fastutil.ints.IntBigArrayBigList;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
 import it.unimi.dsi.fastutil.longs.LongBigArrayBigList;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 import it.unimi.dsi.fastutil.longs.LongIterable;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
 
 import java.io.IOException;
@@ -22,18 +25,70 @@ public class BlockOffsets implements Serializable {
     private final long docCount;
     private final long lastDocId;
     private final long fileSizeInBits;
+    // Where the last block ends. This is 0 when loaded from .blockOffsets
+    // files saved before it was added, which were always BZip2 so the blocks
+    // end before the BZip2 footer.
+    private final long blocksEndBitOffset;
+    // The per document index. The docIds in the collection and the offsets of
+    // their starts in the uncompressed collection. The offset of the start of
+    // each block in the uncompressed collection finds the block and the offset
+    // within the block. These are null if not given or when loaded from
+    // .blockOffsets files saved before they were added.
+    private final LongBigList docIds;
+    private final LongBigList docStartOffsets;
+    private final LongBigList blockUncompressedStarts;
 
     public BlockOffsets(LongIterable firstDocIds, LongIterable blockStartBitOffsets, long docCount, long lastDocId, long fileSizeInBits) {
+	this(firstDocIds, blockStartBitOffsets, docCount, lastDocId, fileSizeInBits - BZIP2_FOOTER_LENGTH, fileSizeInBits);
+    }
+
+    public BlockOffsets(LongIterable firstDocIds, LongIterable blockStartBitOffsets, long docCount, long lastDocId, long blocksEndBitOffset,
+	    long fileSizeInBits) {
+	this(firstDocIds, blockStartBitOffsets, null, null, null, docCount, lastDocId, blocksEndBitOffset, fileSizeInBits);
+    }
+
+    /**
+     * @param firstDocIds
+     * @param blockStartBitOffsets
+     * @param blockUncompressedStarts
+     *            Can be null if docIds and docStartOffsets are.
+     * @param docIds
+     *            Can be null.
+     * @param docStartOffsets
+     *            Can be null if docIds is.
+     * @param docCount
+     * @param lastDocId
+     * @param blocksEndBitOffset
+     * @param fileSizeInBits
+     */
+    public BlockOffsets(LongIterable firstDocIds, LongIterable blockStartBitOffsets, LongIterable blockUncompressedStarts, LongIterable docIds,
+	    LongIterable docStartOffsets, long docCount, long lastDocId, long blocksEndBitOffset, long fileSizeInBits) {
 	this.firstDocIds = new EliasFanoMonotoneLongBigList(firstDocIds);
 	this.blockStartBitOffsets = new EliasFanoMonotoneLongBigList(blockStartBitOffsets);
 	if (this.firstDocIds.size64() != this.blockStartBitOffsets.size64()) {
 	    throw new IllegalArgumentException("Number of block starts differs from number of first doc ids.");
 	}
+	if (docIds != null) {
+	    this.blockUncompressedStarts = new EliasFanoMonotoneLongBigList(blockUncompressedStarts);
+	    this.docIds = new EliasFanoMonotoneLongBigList(docIds);
+	    this.docStartOffsets = new EliasFanoMonotoneLongBigList(docStartOffsets);
+	    if (this.blockUncompressedStarts.size64() != this.blockStartBitOffsets.size64()) {
+		throw new IllegalArgumentException("Number of block uncompressed starts differs from number of block starts.");
+	    }
+	    if (this.docIds.size64() != this.docStartOffsets.size64()) {
+		throw new IllegalArgumentException("Number of doc start offsets differs from number of doc ids.");
+	    }
+	} else {
+	    this.blockUncompressedStarts = null;
+	    this.docIds = null;
+	    this.docStartOffsets = null;
+	}
 	if (docCount - 1 > lastDocId) {
 	    throw new IllegalArgumentException("docCount(" + docCount + ") - 1 is greater than the lastDocId(" + lastDocId + ")");
 	}
 	this.docCount = docCount;
 	this.lastDocId = lastDocId;
+	this.blocksEndBitOffset = blocksEndBitOffset;
 	this.fileSizeInBits = fileSizeInBits;
     }
 
@@ -41,7 +96,7 @@ public class BlockOffsets implements Serializable {
 	if (index < blockStartBitOffsets.size()) {
 	    return blockStartBitOffsets.getLong(index);
 	} else if (index == blockStartBitOffsets.size()) {
-	    return fileSizeInBits - BZIP2_FOOTER_LENGTH;
+	    return blocksEndBitOffset != 0 ? blocksEndBitOffset : fileSizeInBits - BZIP2_FOOTER_LENGTH;
 	}
 	throw new IndexOutOfBoundsException("index (" + index + ") > block count(" + getBlockCount() + ")");
     }
@@ -65,6 +120,50 @@ public class BlockOffsets implements Serializable {
 	return index;
     }
 
+    /**
+     * @return true if getDocStartOffset() and getBlockIndexOfOffset() can be
+     *         used.
+     */
+    public boolean hasDocStartOffsets() {
+	return docIds != null;
+    }
+
+    /**
+     * @param docId
+     * @return The offset in the uncompressed collection of the start of the
+     *         document or -1 if the document isn't in the collection.
+     */
+    public long getDocStartOffset(long docId) {
+	long index = longBigListBinarySearch(docIds, docId);
+	if (index < 0) {
+	    return -1;
+	}
+	return docStartOffsets.getLong(index);
+    }
+
+    /**
+     * @param uncompressedOffset
+     *            An offset in the uncompressed collection of a document start.
+     * @return The index of the block that the offset is in.
+     */
+    public long getBlockIndexOfOffset(long uncompressedOffset) {
+	long index = longBigListBinarySearch(blockUncompressedStarts, uncompressedOffset);
+	if (index < 0) {
+	    return -index - 2;
+	}
+	// Blocks that no document starts in can have the same uncompressed
+	// start as the following block.
+	final long lastIndex = blockUncompressedStarts.size64() - 1;
+	while (index < lastIndex && blockUncompressedStarts.getLong(index + 1) == uncompressedOffset) {
+	    index++;
+	}
+	return index;
+    }
+
+    public long getBlockUncompressedStart(long blockIndex) {
+	return blockUncompressedStarts.getLong(blockIndex);
+    }
+
     public long getLastDocId() {
 	return lastDocId;
     }
@@ -106,6 +205,7 @@ public class BlockOffsets implements Serializable {
 	ps.println("Last doc ID:" + lastDocId);
 	ps.println("Block count:" + getBlockCount());
 	ps.println("Bz2 file size (bits):" + fileSizeInBits);
+	ps.println("Doc start offsets:" + (hasDocStartOffsets() ? docIds.size64() : "none"));
 	ps.println("BlockIndex         FirstDoc       BlockStart");
 	for (long i = 0; i < firstDocIds.size64(); i++) {
 	    ps.printf("%10d %16d %16d\n", i, firstDocIds.get(i), blockStartBitOffsets.get(i));
@@ -119,14 +219,79 @@ public class BlockOffsets implements Serializable {
     public static class Builder {
 	private final LongBigArrayBigList firstDocIds = new LongBigArrayBigList();
 	private final LongBigArrayBigList blockStartBitOffsets = new LongBigArrayBigList();
-	private long totalBits;
+	private final LongBigArrayBigList blockUncompressedStarts = new LongBigArrayBigList();
+	// There can be many more docs than blocks so only the differences to
+	// the previous doc are kept until build().
+	private final IntBigArrayBigList docIdDeltas = new IntBigArrayBigList();
+	private final IntBigArrayBigList docStartOffsetDeltas = new IntBigArrayBigList();
+	// Set once block uncompressed starts or doc starts are given, so a
+	// collection with no docs still gets an (empty) per document index.
+	private boolean docStartsTracked;
+	private long firstDocStartDocId;
+	private long firstDocStartOffset;
+	private long lastDocStartDocId;
+	private long lastDocStartOffset;
+	private long blocksEndBits = -1;
+	private long totalBits = -1;
 
 	public void setBlockStart(long blockStartBitOffset, long docId) {
 	    blockStartBitOffsets.add(blockStartBitOffset);
 	    firstDocIds.add(docId);
 	}
 
+	/**
+	 * @param blockStartBitOffset
+	 * @param docId
+	 * @param blockUncompressedStart
+	 *            The offset of the start of the block in the uncompressed
+	 *            collection. Blocks that no document starts in can be given
+	 *            the uncompressed start of the following block.
+	 */
+	public void setBlockStart(long blockStartBitOffset, long docId, long blockUncompressedStart) {
+	    setBlockStart(blockStartBitOffset, docId);
+	    blockUncompressedStarts.add(blockUncompressedStart);
+	    docStartsTracked = true;
+	}
+
+	/**
+	 * Adds a document to the per document index. Documents must be added in
+	 * docId order.
+	 * 
+	 * @param docId
+	 * @param docStartOffset
+	 *            The offset of the start of the document in the uncompressed
+	 *            collection.
+	 */
+	public void addDocStart(long docId, long docStartOffset) {
+	    if (docIdDeltas.size64() == 0) {
+		firstDocStartDocId = lastDocStartDocId = docId;
+		firstDocStartOffset = lastDocStartOffset = docStartOffset;
+	    }
+	    long docIdDelta = docId - lastDocStartDocId;
+	    long docStartOffsetDelta = docStartOffset - lastDocStartOffset;
+	    if (docIdDeltas.size64() > 0 && docIdDelta <= 0) {
+		throw new IllegalArgumentException("docId(" + docId + ") is not greater than the last docId(" + lastDocStartDocId + ")");
+	    }
+	    if (docIdDelta > Integer.MAX_VALUE || docStartOffsetDelta < 0 || docStartOffsetDelta > Integer.MAX_VALUE) {
+		throw new IllegalArgumentException("docId(" + docId + ") or docStartOffset(" + docStartOffset + ") is too far from the previous.");
+	    }
+	    docIdDeltas.add((int) docIdDelta);
+	    docStartOffsetDeltas.add((int) docStartOffsetDelta);
+	    docStartsTracked = true;
+	    lastDocStartDocId = docId;
+	    lastDocStartOffset = docStartOffset;
+	}
+
+	/**
+	 * @param totalBits
+	 *            The size of a BZip2 file.
+	 */
 	public void close(long totalBits) {
+	    close(totalBits - BZIP2_FOOTER_LENGTH, totalBits);
+	}
+
+	public void close(long blocksEndBits, long totalBits) {
+	    this.blocksEndBits = blocksEndBits;
 	    this.totalBits = totalBits;
 	}
 
@@ -134,7 +299,35 @@ public class BlockOffsets implements Serializable {
 	    if (totalBits == -1) {
 		throw new IllegalStateException("close() wasn't called!");
 	    }
-	    return new BlockOffsets(firstDocIds, blockStartBitOffsets, docCount, lastDocId, totalBits);
+	    if (docStartsTracked && blockUncompressedStarts.size64() == blockStartBitOffsets.size64()) {
+		return new BlockOffsets(firstDocIds, blockStartBitOffsets, blockUncompressedStarts, sumOfDeltas(firstDocStartDocId, docIdDeltas),
+			sumOfDeltas(firstDocStartOffset, docStartOffsetDeltas),
+			docCount, lastDocId, blocksEndBits, totalBits);
+	    }
+	    return new BlockOffsets(firstDocIds, blockStartBitOffsets, docCount, lastDocId, blocksEndBits, totalBits);
+	}
+
+	private static LongIterable sumOfDeltas(final long first, final IntBigArrayBigList deltas) {
+	    return new LongIterable() {
+		@Override
+		public LongIterator iterator() {
+		    return new AbstractLongIterator() {
+			private long index;
+			private long sum = first;
+
+			@Override
+			public boolean hasNext() {
+			    return index < deltas.size64();
+			}
+
+			@Override
+			public long nextLong() {
+			    sum += deltas.getInt(index++);
+			    return sum;
+			}
+		    };
+		}
+	    };
 	}
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package com.yahoo.glimmer.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that compresses what is written to it in blocks.
+ * 
+ * The block start offsets given to the Callback are in bits from the start of
+ * the underlying stream. They are given in block order but can be given after
+ * bytes of later blocks have been written. Use getCurrentBlockIndex() to find
+ * which block the last written byte went into.
+ * 
+ * @author tep
+ */
+public abstract class BlockOutputStream extends OutputStream {
+    public interface Callback {
+	/**
+	 * Called once per block in block order.
+	 * 
+	 * @param blockStartBitOffset
+	 */
+	public void blockStart(long blockStartBitOffset);
+
+	/**
+	 * Called by finish() which is called by close().
+	 * 
+	 * @param blocksEndBitOffset
+	 *            The bit offset of the end of the last block.
+	 * @param totalBitsWritten
+	 */
+	public void finish(long blocksEndBitOffset, long totalBitsWritten);
+    }
+
+    /**
+     * @return The index of the block that the last byte written went into.
+     *         Block indexes start at 0.
+     */
+    public abstract long getCurrentBlockIndex();
+
+    /**
+     * @return The number of uncompressed bytes written before the block that
+     *         getCurrentBlockIndex() refers to.
+     */
+    public abstract long getCurrentBlockUncompressedStart();
+
+    /**
+     * Compresses and writes out any unwritten data and the end of the stream
+     * without closing the underlying stream.
+     * 
+     * @throws IOException
+     */
+    public abstract void finish() throws IOException;
+}
@@ -11,19 +11,39 @@ package com.yahoo.glimmer.util;
  *  See accompanying LICENSE file.
  */
 
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 
+/**
+ * A subject and its relations. Records are written either as text, with
+ * FIELD_DELIMITER separated fields, or in the binary format read by
+ * {@link BySubjectRecordReader}. The readFrom() methods read either.
+ * 
+ * The subject of a BNode is written with its N-Triples BNODE_PREFIX, which no
+ * resource starts with, so that the tuples can be written back out.
+ */
 public class BySubjectRecord {
     private static final Charset CHARSET = Charset.forName("UTF-8");
     public static final char RECORD_DELIMITER = '\n';
     public static final char FIELD_DELIMITER = '\t';
+    /**
+     * The first byte of a binary record. It can't start a text record, and
+     * isn't valid anywhere in UTF-8.
+     */
+    public static final byte BINARY_MAGIC = (byte) 0xFE;
+    public static final byte BINARY_VERSION = 1;
+    public static final String BNODE_PREFIX = "_:";
     private static final int MAX_RELATIONS = 10000;
 
     private long id;
@@ -37,9 +57,12 @@ public class BySubjectRecord {
      */
     private long previousId = -1;
     private String subject;
+    private boolean bNode;
     private final ArrayList<String> relations = new ArrayList<String>();
 
     private transient StringBuilder sb;
+    private transient BySubjectRecordReader binaryReader;
+    private transient FastByteArrayOutputStream buffer;
 
     public static class BySubjectRecordParseException extends Exception {
 	private static final long serialVersionUID = 421747997614595011L;
@@ -53,11 +76,23 @@ public class BySubjectRecord {
 	}
     }
 
+    /**
+     * Reads a text or binary record from the UTF-8 bytes between start and
+     * end.
+     */
     public void readFrom(final byte[] bytes, final int start, final int end) throws BySubjectRecordException {
-	readFrom(bytes, start, end, CHARSET);
+	if (BySubjectRecordReader.isBinary(bytes, start, end - start)) {
+	    readBinaryFrom(bytes, start, end - start);
+	} else {
+	    readTextFrom(bytes, start, end);
+	}
     }
 
     public void readFrom(final byte[] bytes, final int start, final int end, final Charset charset) throws BySubjectRecordException {
+	if (CHARSET.equals(charset)) {
+	    readFrom(bytes, start, end);
+	    return;
+	}
 	ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes, start, end);
 	try {
 	    readFrom(new InputStreamReader(inputStream, charset));
@@ -67,6 +102,196 @@ public class BySubjectRecord {
 	}
     }
 
+    /**
+     * Reads one text or binary record from the stream. Reading stops at the
+     * end of the record, so the stream can be positioned anywhere after it.
+     * 
+     * @param inputStream
+     * @throws IOException
+     * @throws BySubjectRecordException
+     *             on invalid input.
+     */
+    public void readFrom(InputStream inputStream) throws IOException, BySubjectRecordException {
+	if (buffer == null) {
+	    buffer = new FastByteArrayOutputStream(4096);
+	}
+	if (readRecordBytes(inputStream, buffer)) {
+	    readBinaryFrom(buffer.array, 0, buffer.length);
+	} else {
+	    readTextFrom(buffer.array, 0, buffer.length);
+	}
+    }
+
+    /**
+     * Reads the bytes of one text or binary record from the stream into the
+     * buffer, which is reset first. The RECORD_DELIMITER ending a text record
+     * isn't included. Reading stops at the end of the record.
+     * 
+     * @param inputStream
+     * @param buffer
+     * @return true if the record is binary.
+     * @throws IOException
+     * @throws BySubjectRecordException
+     *             on a bad binary record length.
+     */
+    public static boolean readRecordBytes(InputStream inputStream, FastByteArrayOutputStream buffer) throws IOException, BySubjectRecordException {
+	buffer.reset();
+	int b = inputStream.read();
+	if (b == (BINARY_MAGIC & 0xFF)) {
+	    // The magic, version and record length.
+	    buffer.write(b);
+	    if ((b = inputStream.read()) != -1) {
+		buffer.write(b);
+	    }
+	    long recordLength = 0;
+	    int shift = 0;
+	    while ((b = inputStream.read()) != -1) {
+		buffer.write(b);
+		if (shift < 64) {
+		    recordLength |= (long) (b & 0x7F) << shift;
+		}
+		shift += 7;
+		if ((b & 0x80) == 0) {
+		    break;
+		}
+	    }
+	    if (recordLength < 0 || recordLength > Integer.MAX_VALUE - buffer.length) {
+		throw new BySubjectRecordException("Bad binary record length:" + recordLength);
+	    }
+	    // A truncated record is found by the reader.
+	    buffer.array = ByteArrays.grow(buffer.array, buffer.length + (int) recordLength);
+	    int bytesToRead = (int) recordLength;
+	    while (bytesToRead > 0 && (b = inputStream.read(buffer.array, buffer.length, bytesToRead)) != -1) {
+		buffer.length += b;
+		bytesToRead -= b;
+	    }
+	    return true;
+	}
+	while (b != -1 && b != RECORD_DELIMITER) {
+	    buffer.write(b);
+	    b = inputStream.read();
+	}
+	return false;
+    }
+
+    private void readBinaryFrom(final byte[] bytes, final int offset, final int length) throws BySubjectRecordException {
+	if (binaryReader == null) {
+	    binaryReader = new BySubjectRecordReader();
+	}
+	binaryReader.reset(bytes, offset, length);
+	id = binaryReader.getId();
+	previousId = binaryReader.getPreviousId();
+	subject = binaryReader.getString(binaryReader.getSubjectOffset(), binaryReader.getSubjectLength());
+	bNode = binaryReader.isBNode();
+	relations.clear();
+	while (binaryReader.nextRelation()) {
+	    relations.add(binaryReader.getRelation());
+	}
+    }
+
+    /**
+     * Parses a text record from UTF-8 bytes without decoding the delimiters
+     * and ids, which are ASCII.
+     */
+    private void readTextFrom(final byte[] bytes, final int start, final int end) throws BySubjectRecordException {
+	relations.clear();
+	// Only FIELD_DELIMITER terminated relations are read.
+	int fieldStart = readTextHeaderFrom(bytes, start, end);
+	int fieldEnd = textFieldEnd(bytes, fieldStart, end);
+	while (fieldEnd < end && bytes[fieldEnd] == FIELD_DELIMITER) {
+	    if (fieldEnd > fieldStart) {
+		relations.add(new String(bytes, fieldStart, fieldEnd - fieldStart, CHARSET));
+	    }
+	    fieldStart = fieldEnd + 1;
+	    fieldEnd = textFieldEnd(bytes, fieldStart, end);
+	}
+    }
+
+    /**
+     * Reads the id, previousId and subject of a text record from its UTF-8
+     * bytes. The relations aren't read or changed.
+     * 
+     * @param bytes
+     * @param start
+     * @param end
+     * @return The start of the first relation, or end if there are none.
+     * @throws BySubjectRecordException
+     *             on invalid input.
+     */
+    public int readTextHeaderFrom(final byte[] bytes, final int start, final int end) throws BySubjectRecordException {
+	int fieldStart = start;
+	int fieldEnd = textFieldEnd(bytes, fieldStart, end);
+	try {
+	    id = parseLong(bytes, fieldStart, fieldEnd);
+	} catch (NumberFormatException e) {
+	    throw new BySubjectRecordException("Reading id", e);
+	}
+	if (id < 0) {
+	    throw new BySubjectRecordException("Negative doc ID:" + id);
+	}
+
+	fieldStart = nextTextFieldStart(bytes, fieldEnd, end);
+	fieldEnd = textFieldEnd(bytes, fieldStart, end);
+	try {
+	    previousId = parseLong(bytes, fieldStart, fieldEnd);
+	} catch (NumberFormatException e) {
+	    throw new BySubjectRecordException("Reading previousId", e);
+	}
+	if (previousId < -1) {
+	    throw new BySubjectRecordException("Negative doc previousId:" + previousId);
+	}
+	if (previousId >= id) {
+	    throw new BySubjectRecordException("Id:" + id + " is not bigger than previousId:" + previousId);
+	}
+
+	fieldStart = nextTextFieldStart(bytes, fieldEnd, end);
+	fieldEnd = textFieldEnd(bytes, fieldStart, end);
+	setSubjectN3(new String(bytes, fieldStart, fieldEnd - fieldStart, CHARSET));
+
+	return nextTextFieldStart(bytes, fieldEnd, end);
+    }
+
+    /**
+     * @return The index of the delimiter ending the field starting at
+     *         fieldStart, or end.
+     */
+    private static int textFieldEnd(final byte[] bytes, int fieldStart, final int end) {
+	while (fieldStart < end && bytes[fieldStart] != FIELD_DELIMITER && bytes[fieldStart] != RECORD_DELIMITER) {
+	    fieldStart++;
+	}
+	return fieldStart;
+    }
+
+    /**
+     * @return The start of the field after the one ending at fieldEnd, or end
+     *         if it was the last field of the record.
+     */
+    private static int nextTextFieldStart(final byte[] bytes, final int fieldEnd, final int end) {
+	if (fieldEnd < end && bytes[fieldEnd] == FIELD_DELIMITER) {
+	    return fieldEnd + 1;
+	}
+	return end;
+    }
+
+    private static long parseLong(final byte[] bytes, final int start, final int end) throws NumberFormatException {
+	boolean negative = start < end && bytes[start] == '-';
+	int i = negative ? start + 1 : start;
+	if (i == end || end - i > 18) {
+	    // Empty, or long enough to overflow. Long.parseLong() throws or
+	    // gets it right.
+	    return Long.parseLong(new String(bytes, start, end - start, CHARSET));
+	}
+	long value = 0;
+	for (; i < end; i++) {
+	    int digit = bytes[i] - '0';
+	    if (digit < 0 || digit > 9) {
+		throw new NumberFormatException("For input string: \"" + new String(bytes, start, end - start, CHARSET) + "\"");
+	    }
+	    value = value * 10 + digit;
+	}
+	return negative ? -value : value;
+    }
+
     /**
      * 
      * @param reader
@@ -108,7 +333,7 @@ public class BySubjectRecord {
 	}
 
 	readField(reader, sb);
-	subject = sb.toString();
+	setSubjectN3(sb.toString());
 
 	relations.clear();
 	while (readField(reader, sb)) {
@@ -160,8 +385,8 @@ public class BySubjectRecord {
     }
 
     public void setPreviousId(long previousId) {
-	if (previousId < 0) {
-	    throw new IllegalArgumentException("setPreviousId() given negative value:" + id);
+	if (previousId < -1) {
+	    throw new IllegalArgumentException("setPreviousId() given value less than -1:" + previousId);
 	}
 	this.previousId = previousId;
     }
@@ -173,6 +398,32 @@ public class BySubjectRecord {
     public void setSubject(String subject) {
 	this.subject = subject;
     }
+
+    /**
+     * @return true if the subject is a BNode. Its id is the subject.
+     */
+    public boolean isBNode() {
+	return bNode;
+    }
+
+    public void setBNode(boolean bNode) {
+	this.bNode = bNode;
+    }
+
+    /**
+     * @return The subject as written, with the BNODE_PREFIX if it is a BNode.
+     */
+    private String getSubjectN3() {
+	if (subject == null) {
+	    return "";
+	}
+	return bNode ? BNODE_PREFIX + subject : subject;
+    }
+
+    private void setSubjectN3(String subjectN3) {
+	bNode = subjectN3.startsWith(BNODE_PREFIX);
+	subject = bNode ? subjectN3.substring(BNODE_PREFIX.length()) : subjectN3;
+    }
     
     public String getRelation(int index) {
 	return relations.get(index);
@@ -264,9 +515,7 @@ public class BySubjectRecord {
 	writer.write(FIELD_DELIMITER);
 	writer.write(Long.toString(previousId));
 	writer.write(FIELD_DELIMITER);
-	if (subject != null) {
-	    writer.write(subject);
-	}
+	writer.write(getSubjectN3());
 	writer.write(FIELD_DELIMITER);
 	for (String relation : relations) {
 	    writer.write(relation);
@@ -274,6 +523,156 @@ public class BySubjectRecord {
 	}
     }
 
+    /**
+     * Writes the record in the binary format read by
+     * {@link BySubjectRecordReader}. Binary records aren't RECORD_DELIMITER
+     * terminated and may contain RECORD_DELIMITER bytes, so they can only be
+     * stored where they are found by offset.
+     * 
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeBinaryTo(OutputStream outputStream) throws IOException {
+	if (buffer == null) {
+	    buffer = new FastByteArrayOutputStream(4096);
+	}
+	buffer.reset();
+	writeVarLong(buffer, id);
+	writeVarLong(buffer, previousId + 1);
+	byte[] subjectBytes = getSubjectN3().getBytes(CHARSET);
+	writeBinaryString(buffer, subjectBytes, 0, subjectBytes.length);
+	writeVarLong(buffer, relations.size());
+	int[] termBounds = new int[6];
+	for (String relation : relations) {
+	    byte[] relationBytes = relation.getBytes(CHARSET);
+	    if (splitRelation(relationBytes, termBounds)) {
+		for (int i = 0; i < termBounds.length; i += 2) {
+		    writeBinaryString(buffer, relationBytes, termBounds[i], termBounds[i + 1] - termBounds[i]);
+		}
+	    } else {
+		// Kept whole as the predicate.
+		writeBinaryString(buffer, relationBytes, 0, relationBytes.length);
+		writeVarLong(buffer, 0);
+		writeVarLong(buffer, 0);
+	    }
+	}
+
+	outputStream.write(BINARY_MAGIC);
+	outputStream.write(BINARY_VERSION);
+	writeVarLong(outputStream, buffer.length);
+	outputStream.write(buffer.array, 0, buffer.length);
+    }
+
+    private static void writeBinaryString(OutputStream outputStream, byte[] bytes, int offset, int length) throws IOException {
+	writeVarLong(outputStream, length);
+	outputStream.write(bytes, offset, length);
+    }
+
+    private static void writeVarLong(OutputStream outputStream, long value) throws IOException {
+	while ((value & ~0x7FL) != 0) {
+	    outputStream.write((int) (value & 0x7F) | 0x80);
+	    value >>>= 7;
+	}
+	outputStream.write((int) value);
+    }
+
+    /**
+     * Finds the predicate, object and context of a '&lt;p&gt; o [c] .'
+     * relation. The delimiters are ASCII so the UTF-8 bytes can be split
+     * without decoding.
+     * 
+     * @param bytes
+     * @param termBounds
+     *            Set to the start and end of the predicate, object and
+     *            context. The context is empty if there isn't one.
+     * @return false if the relation isn't of that form.
+     */
+    static boolean splitRelation(byte[] bytes, int[] termBounds) {
+	int end = bytes.length;
+	int position = 0;
+	for (int term = 0; term < 3; term++) {
+	    position = skipWhitespace(bytes, position, end);
+	    if (term == 2 && (position == end || bytes[position] == '.')) {
+		// No context.
+		termBounds[4] = termBounds[5] = position;
+		break;
+	    }
+	    if (position == end) {
+		return false;
+	    }
+	    termBounds[term * 2] = position;
+	    position = termEnd(bytes, position, end);
+	    if (position == -1) {
+		return false;
+	    }
+	    termBounds[term * 2 + 1] = position;
+	}
+	if (bytes[termBounds[0]] != '<') {
+	    return false;
+	}
+	// Only a '.' and whitespace can follow.
+	position = skipWhitespace(bytes, position, end);
+	if (position < end && bytes[position] == '.') {
+	    position = skipWhitespace(bytes, position + 1, end);
+	}
+	return position == end;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int position, int end) {
+	while (position < end && (bytes[position] == ' ' || bytes[position] == '\t')) {
+	    position++;
+	}
+	return position;
+    }
+
+    /**
+     * @return The end of the N-Triples term starting at start, or -1.
+     */
+    private static int termEnd(byte[] bytes, int start, int end) {
+	int position = start;
+	switch (bytes[start]) {
+	case '<':
+	    return closingIndex(bytes, start, end, '>');
+	case '"':
+	    position++;
+	    while (position < end && bytes[position] != '"') {
+		if (bytes[position] == '\\') {
+		    position++;
+		}
+		position++;
+	    }
+	    if (position >= end) {
+		return -1;
+	    }
+	    position++;
+	    if (position + 2 < end && bytes[position] == '^' && bytes[position + 1] == '^' && bytes[position + 2] == '<') {
+		return closingIndex(bytes, position + 2, end, '>');
+	    }
+	    if (position == end || (bytes[position] != '@' && bytes[position] != '^')) {
+		// A plain literal.
+		return position;
+	    }
+	    // The language tag or an unbracketed datatype.
+	    break;
+	default:
+	    // Blank nodes and anything else up to whitespace.
+	    break;
+	}
+	while (position < end && bytes[position] != ' ' && bytes[position] != '\t') {
+	    position++;
+	}
+	return position;
+    }
+
+    private static int closingIndex(byte[] bytes, int start, int end, char closing) {
+	for (int position = start + 1; position < end; position++) {
+	    if (bytes[position] == closing) {
+		return position + 1;
+	    }
+	}
+	return -1;
+    }
+
     @Override
     public String toString() {
 	StringWriter stringWriter = new StringWriter(4096);
@@ -290,7 +689,7 @@ public class BySubjectRecord {
 	if (object instanceof BySubjectRecord) {
 	    BySubjectRecord that = (BySubjectRecord) object;
 	    return id == that.id && previousId == that.previousId && (subject == null ? that.subject == null : subject.equals(that.subject))
-		    && relations.equals(that.relations);
+		    && bNode == that.bNode && relations.equals(that.relations);
 	}
 	return false;
     }
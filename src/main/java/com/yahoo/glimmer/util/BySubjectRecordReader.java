@@ -0,0 +1,277 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+
+/**
+ * Reads records written with {@link BySubjectRecord#writeBinaryTo} in place.
+ *
+ * The reader doesn't copy or decode anything. The subject and the predicate,
+ * object and context of the current relation are given as offsets and lengths
+ * of UTF-8 bytes in {@link #getBytes()}. One reader can be reset and reused
+ * for any number of records.
+ *
+ * The binary format is:
+ *
+ * <pre>
+ * BINARY_MAGIC BINARY_VERSION varint(length of the rest of the record)
+ * varint(id) varint(previousId + 1)
+ * varint(subject length) subject
+ * varint(relation count)
+ * (varint(predicate length) predicate varint(object length) object varint(context length) context)*
+ * </pre>
+ *
+ * Strings are UTF-8 and varints are unsigned LEB128. Predicates, objects and
+ * contexts are in their N-Triples form, as is the subject of a BNode. The
+ * subject's offset and length don't include the BNODE_PREFIX. A relation that
+ * couldn't be split has its whole text as the predicate and an empty object.
+ *
+ * @author tep
+ */
+public class BySubjectRecordReader {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private int position;
+    private int recordEnd;
+    // Used for ByteBuffers without an accessible array.
+    private byte[] copyBuffer;
+
+    private long id;
+    private long previousId;
+    private int subjectOffset;
+    private int subjectLength;
+    private boolean bNode;
+    private int relationsCount;
+    private int relationsRead;
+
+    private int predicateOffset;
+    private int predicateLength;
+    private int objectOffset;
+    private int objectLength;
+    private int contextOffset;
+    private int contextLength;
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return true if the bytes start with a binary record.
+     */
+    public static boolean isBinary(byte[] bytes, int offset, int length) {
+	return length > 0 && bytes[offset] == BySubjectRecord.BINARY_MAGIC;
+    }
+
+    /**
+     * Starts reading the record at the buffer's position. The buffer's
+     * position isn't changed.
+     *
+     * @param buffer
+     * @throws BySubjectRecordException
+     *             if the buffer doesn't start with a valid binary record.
+     */
+    public void reset(ByteBuffer buffer) throws BySubjectRecordException {
+	if (buffer.hasArray()) {
+	    reset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	} else {
+	    if (copyBuffer == null || copyBuffer.length < buffer.remaining()) {
+		copyBuffer = new byte[buffer.remaining()];
+	    }
+	    int length = buffer.remaining();
+	    buffer.duplicate().get(copyBuffer, 0, length);
+	    reset(copyBuffer, 0, length);
+	}
+    }
+
+    /**
+     * Starts reading the record at offset. Bytes after the end of the record
+     * are ignored.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws BySubjectRecordException
+     *             if the bytes don't start with a valid binary record.
+     */
+    public void reset(byte[] bytes, int offset, int length) throws BySubjectRecordException {
+	if (!isBinary(bytes, offset, length)) {
+	    throw new BySubjectRecordException("Not a binary record.");
+	}
+	if (length < 2 || bytes[offset + 1] != BySubjectRecord.BINARY_VERSION) {
+	    throw new BySubjectRecordException("Unsupported binary record version:" + (length < 2 ? "none" : bytes[offset + 1]));
+	}
+	this.bytes = bytes;
+	position = offset + 2;
+	recordEnd = offset + length;
+
+	int recordLength = readLength();
+	recordEnd = position + recordLength;
+
+	id = readVarLong();
+	previousId = readVarLong() - 1;
+	if (previousId >= id) {
+	    throw new BySubjectRecordException("Id:" + id + " is not bigger than previousId:" + previousId);
+	}
+
+	subjectLength = readLength();
+	subjectOffset = position;
+	position += subjectLength;
+	bNode = subjectLength >= 2 && bytes[subjectOffset] == '_' && bytes[subjectOffset + 1] == ':';
+	if (bNode) {
+	    subjectOffset += 2;
+	    subjectLength -= 2;
+	}
+
+	relationsCount = readLength();
+	relationsRead = 0;
+	predicateOffset = predicateLength = objectOffset = objectLength = contextOffset = contextLength = 0;
+    }
+
+    /**
+     * Moves to the next relation.
+     *
+     * @return false if there are no more relations.
+     * @throws BySubjectRecordException
+     *             on a truncated record.
+     */
+    public boolean nextRelation() throws BySubjectRecordException {
+	if (relationsRead == relationsCount) {
+	    return false;
+	}
+	predicateLength = readLength();
+	predicateOffset = position;
+	position += predicateLength;
+	objectLength = readLength();
+	objectOffset = position;
+	position += objectLength;
+	contextLength = readLength();
+	contextOffset = position;
+	position += contextLength;
+	relationsRead++;
+	return true;
+    }
+
+    private int readLength() throws BySubjectRecordException {
+	long length = readVarLong();
+	if (length > recordEnd - position) {
+	    throw new BySubjectRecordException("Truncated binary record. Length " + length + " at " + position + " is past the end of the record.");
+	}
+	return (int) length;
+    }
+
+    private long readVarLong() throws BySubjectRecordException {
+	long value = 0;
+	for (int shift = 0; shift < 64; shift += 7) {
+	    if (position >= recordEnd) {
+		throw new BySubjectRecordException("Truncated binary record.");
+	    }
+	    byte b = bytes[position++];
+	    value |= (long) (b & 0x7F) << shift;
+	    if (b >= 0) {
+		return value;
+	    }
+	}
+	throw new BySubjectRecordException("Malformed varint at " + position);
+    }
+
+    /**
+     * @return The array the offsets are in.
+     */
+    public byte[] getBytes() {
+	return bytes;
+    }
+
+    /**
+     * @return The offset in {@link #getBytes()} after the end of the record.
+     */
+    public int getRecordEnd() {
+	return recordEnd;
+    }
+
+    public long getId() {
+	return id;
+    }
+
+    public long getPreviousId() {
+	return previousId;
+    }
+
+    public int getSubjectOffset() {
+	return subjectOffset;
+    }
+
+    public int getSubjectLength() {
+	return subjectLength;
+    }
+
+    public boolean isBNode() {
+	return bNode;
+    }
+
+    public int getRelationsCount() {
+	return relationsCount;
+    }
+
+    public int getPredicateOffset() {
+	return predicateOffset;
+    }
+
+    public int getPredicateLength() {
+	return predicateLength;
+    }
+
+    public int getObjectOffset() {
+	return objectOffset;
+    }
+
+    public int getObjectLength() {
+	return objectLength;
+    }
+
+    public int getContextOffset() {
+	return contextOffset;
+    }
+
+    public int getContextLength() {
+	return contextLength;
+    }
+
+    /**
+     * Decodes a UTF-8 string from {@link #getBytes()}.
+     *
+     * @param offset
+     * @param length
+     * @return The string.
+     */
+    public String getString(int offset, int length) {
+	return new String(bytes, offset, length, CHARSET);
+    }
+
+    /**
+     * @return The current relation as N-Triples text, as in the text format.
+     */
+    public String getRelation() {
+	if (objectLength == 0) {
+	    return getString(predicateOffset, predicateLength);
+	}
+	StringBuilder sb = new StringBuilder(predicateLength + objectLength + contextLength + 4);
+	sb.append(getString(predicateOffset, predicateLength)).append(' ').append(getString(objectOffset, objectLength));
+	if (contextLength > 0) {
+	    sb.append(' ').append(getString(contextOffset, contextLength));
+	}
+	return sb.append(" .").toString();
+    }
+}
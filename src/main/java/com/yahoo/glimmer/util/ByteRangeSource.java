@@ -0,0 +1,30 @@
+package com.yahoo.glimmer.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Gives read access to ranges of a file's bytes. Used to get the compressed
+ * blocks of a BlockCompressedDocumentCollection.
+ *
+ * Implementations should be thread safe.
+ *
+ * @author tep
+ */
+public interface ByteRangeSource extends Closeable {
+    /**
+     * @return The number of bytes in the source.
+     */
+    public long size();
+
+    /**
+     * @param position
+     * @param length
+     * @return A buffer of the length bytes starting at position, with the
+     *         first byte at position 0. It's only valid until the calling
+     *         thread next calls get().
+     * @throws IOException
+     */
+    public ByteBuffer get(long position, int length) throws IOException;
+}
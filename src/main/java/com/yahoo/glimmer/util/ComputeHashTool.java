@@ -14,7 +14,9 @@ package com.yahoo.glimmer.util;
 import it.unimi.dsi.big.util.LongBigListSignedStringMap;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongBigArrayBigList;
 import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
 import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.io.SafelyCloseable;
@@ -22,8 +24,10 @@ import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.sux4j.mph.AbstractHashFunction;
 import it.unimi.dsi.sux4j.mph.HollowTrieMonotoneMinimalPerfectHashFunction;
 
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -33,18 +37,26 @@ import java.io.Reader;
 import java.io.SequenceInputStream;
 import java.nio.charset.Charset;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -67,10 +79,15 @@ public class ComputeHashTool extends Configured implements Tool {
     private static final String WRITE_INFO_ARG = "info";
     private static final String NUMBER_OF_ELEMENTS_ARG = "numElements";
     private static final String FILE_ENCODING_ARG = "encoding";
+    private static final String SHARDS_ARG = "shards";
+    private static final String THREADS_ARG = "threads";
+    private static final String COMPACT_SIGNATURES_ARG = "compactSignatures";
     public static final FsPermission ALL_PERMISSIONS = new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL);
     private static final String DOT_UNSIGNED = ".map";
     private static final String DOT_SIGNED = ".smap";
+    public static final String DOT_COMPACT_SIGNED = ".smap32";
     private static final String DOT_MAPINFO = ".mapinfo";
+    private static final String DOT_SHARDS = ".shards";
 
     @Override
     public int run(String[] args) throws Exception {
@@ -82,6 +99,12 @@ public class ComputeHashTool extends Configured implements Tool {
 				"Sign the hash with a hash width of w bits."),
 		new FlaggedOption(FILE_ENCODING_ARG, ForNameStringParser.getParser(Charset.class), "UTF-8", JSAP.NOT_REQUIRED, FILE_ENCODING_ARG.charAt(0), FILE_ENCODING_ARG,
 			"Set the input file encoding(default is UTF-8)."),
+		new FlaggedOption(SHARDS_ARG, JSAP.INTEGER_PARSER, "1", JSAP.NOT_REQUIRED, 'S', SHARDS_ARG,
+			"Split the sorted input into about this many ranges and build the hash of each in parallel. The input must be uncompressed."),
+		new FlaggedOption(THREADS_ARG, JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 't',
+			THREADS_ARG, "The number of shards to build at once."),
+		new Switch(COMPACT_SIGNATURES_ARG, 'c', COMPACT_SIGNATURES_ARG, "Also write the low 32 bits of the signatures to a " + DOT_COMPACT_SIGNED
+			+ " file, see MappedSignedStringMap."),
 		new UnflaggedOption(SRC_FILES_ARG, JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, JSAP.GREEDY,
 			"The filenames (or HDFS dirs if building hashes) to work with.") });
 
@@ -120,13 +143,33 @@ public class ComputeHashTool extends Configured implements Tool {
 	FileSystem fs = FileSystem.get(job);
 	for (String srcFilename : srcFilenames) {
 	    LOGGER.info("Building hash of " + srcFilename);
-	    buildHash(fs, srcFilename, numElements, generateUnsigned, generateSigned, srcFileCharset, jsapResult.getBoolean(WRITE_INFO_ARG, false));
+	    buildHash(fs, srcFilename, numElements, generateUnsigned, generateSigned, srcFileCharset, jsapResult.getBoolean(WRITE_INFO_ARG, false),
+		    jsapResult.getInt(SHARDS_ARG), jsapResult.getInt(THREADS_ARG));
+	    if (generateSigned && jsapResult.getBoolean(COMPACT_SIGNATURES_ARG, false)) {
+		writeCompactSignatures(fs, srcFilename);
+	    }
 	}
 	return 0;
     }
 
     public long buildHash(FileSystem fs, String srcFilename, Long numElements, boolean generateUnsigned, boolean generateSigned, final Charset charset, boolean writeInfoFile)
 	    throws IOException, ClassNotFoundException {
+	return buildHash(fs, srcFilename, numElements, generateUnsigned, generateSigned, charset, writeInfoFile, 1, 1);
+    }
+
+    /**
+     * @param shardCount
+     *            If more than one the sorted input is split into about this
+     *            many ranges of lines and their hashes and signatures are
+     *            built in parallel. See {@link ShardedMonotoneHashFunction}.
+     * @param threads
+     *            The number of shards built at once.
+     */
+    public long buildHash(FileSystem fs, String srcFilename, Long numElements, boolean generateUnsigned, boolean generateSigned, final Charset charset,
+	    boolean writeInfoFile, int shardCount, int threads) throws IOException, ClassNotFoundException {
+	if (shardCount > 1) {
+	    return buildShardedHash(fs, srcFilename, generateUnsigned, generateSigned, charset, writeInfoFile, shardCount, threads);
+	}
 	final MapReducePartInputStreamEnumeration inputStreamEnumeration;
 	try {
 	    inputStreamEnumeration = new MapReducePartInputStreamEnumeration(fs, new Path(srcFilename));
@@ -145,7 +188,7 @@ public class ComputeHashTool extends Configured implements Tool {
 	String destFilename = inputStreamEnumeration.removeCompressionSuffixIfAny(srcFilename);
 	Path unsigendPath = new Path(destFilename + DOT_UNSIGNED);
 
-	HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> unsignedHash;
+	AbstractHashFunction<CharSequence> unsignedHash;
 	if (generateUnsigned) {
 //	    if (numElements != null) {
 //		LOGGER.info("\tBuilding unsigned hash with given number of elements:" + numElements);
@@ -162,7 +205,7 @@ public class ComputeHashTool extends Configured implements Tool {
 	    writeMapToFile(unsignedHash, fs, unsigendPath);
 	} else {
 	    LOGGER.info("\tLoading unsigned hash from " + unsigendPath.toString());
-	    unsignedHash = (HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>)readMpHashFromFile(fs, unsigendPath);
+	    unsignedHash = readMpHashFromFile(fs, unsigendPath);
 	}
 
 	if (generateSigned) {
@@ -183,26 +226,325 @@ public class ComputeHashTool extends Configured implements Tool {
 	}
 
 	if (writeInfoFile) {
-	    Path infoPath = new Path(destFilename + DOT_MAPINFO);
-	    FSDataOutputStream infoStream = fs.create(infoPath, true);// overwrite
-	    fs.setPermission(infoPath, ALL_PERMISSIONS);
-	    OutputStreamWriter infoWriter = new OutputStreamWriter(infoStream);
-	    infoWriter.write("size\t");
-	    infoWriter.write(Long.toString(unsignedHash.size64()));
-	    infoWriter.write("\n");
-	    infoWriter.write("unsignedBits\t");
-	    infoWriter.write(Long.toString((unsignedHash).numBits()));
-	    infoWriter.write("\n");
-	    if (generateSigned) {
-		infoWriter.write("signedWidth\t64\n");
-	    }
-	    infoWriter.close();
-	    infoStream.close();
+	    writeInfoFile(fs, destFilename, unsignedHash, generateSigned);
 	}
 
 	return unsignedHash.size64();
     }
 
+    /**
+     * Writes the low 32 bits of the signatures in the .smap file of the given
+     * file to its .smap32 file.
+     */
+    public static long writeCompactSignatures(FileSystem fs, String srcFilename) throws IOException {
+	Path signedPath = new Path(srcFilename + DOT_SIGNED);
+	Path compactSignedPath = new Path(srcFilename + DOT_COMPACT_SIGNED);
+	InputStream signedInputStream = fs.open(signedPath);
+	OutputStream compactSignedOutputStream = null;
+	try {
+	    compactSignedOutputStream = createOutputStream(fs, compactSignedPath);
+	    long count = MappedSignedStringMap.compact(signedInputStream, compactSignedOutputStream);
+	    LOGGER.info("\tSaved " + count + " compact signatures as " + compactSignedPath.toString());
+	    return count;
+	} finally {
+	    signedInputStream.close();
+	    if (compactSignedOutputStream != null) {
+		compactSignedOutputStream.close();
+	    }
+	}
+    }
+
+    private static void writeInfoFile(FileSystem fs, String destFilename, AbstractHashFunction<CharSequence> unsignedHash, boolean generateSigned)
+	    throws IOException {
+	Path infoPath = new Path(destFilename + DOT_MAPINFO);
+	FSDataOutputStream infoStream = fs.create(infoPath, true);// overwrite
+	fs.setPermission(infoPath, ALL_PERMISSIONS);
+	OutputStreamWriter infoWriter = new OutputStreamWriter(infoStream);
+	infoWriter.write("size\t");
+	infoWriter.write(Long.toString(unsignedHash.size64()));
+	infoWriter.write("\n");
+	infoWriter.write("unsignedBits\t");
+	long numBits = -1;
+	if (unsignedHash instanceof HollowTrieMonotoneMinimalPerfectHashFunction) {
+	    numBits = ((HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>) unsignedHash).numBits();
+	} else if (unsignedHash instanceof ShardedMonotoneHashFunction) {
+	    numBits = ((ShardedMonotoneHashFunction) unsignedHash).numBits();
+	}
+	infoWriter.write(Long.toString(numBits));
+	infoWriter.write("\n");
+	if (generateSigned) {
+	    infoWriter.write("signedWidth\t64\n");
+	}
+	infoWriter.close();
+	infoStream.close();
+    }
+
+    /**
+     * Splits the uncompressed, sorted input into ranges of lines of about the
+     * same number of bytes. A hash of each range and its signatures are built
+     * in parallel. The hashes are saved as one
+     * {@link ShardedMonotoneHashFunction} and the signatures are concatenated
+     * in range order, so the files are used as those built from the whole
+     * input.
+     */
+    private long buildShardedHash(final FileSystem fs, String srcFilename, final boolean generateUnsigned, boolean generateSigned, final Charset charset,
+	    boolean writeInfoFile, int shardCount, int threads) throws IOException, ClassNotFoundException {
+	MapReducePartInputStreamEnumeration inputStreamEnumeration = new MapReducePartInputStreamEnumeration(fs, new Path(srcFilename));
+	if (inputStreamEnumeration.isCompressed()) {
+	    throw new IllegalArgumentException("Can't split compressed input " + srcFilename + " into shards.");
+	}
+	List<LineRange> ranges = splitIntoRanges(inputStreamEnumeration.getPartFileStatuses(), shardCount);
+	LOGGER.info("\tBuilding the hashes of " + ranges.size() + " shards with " + threads + " threads...");
+
+	final Path shardsPath = new Path(srcFilename + DOT_SHARDS);
+	List<Callable<Shard>> tasks = new ArrayList<Callable<Shard>>(ranges.size());
+	for (int i = 0; i < ranges.size(); i++) {
+	    final LineRange range = ranges.get(i);
+	    final Path signaturesPath = generateSigned ? new Path(shardsPath, i + DOT_SIGNED) : null;
+	    tasks.add(new Callable<Shard>() {
+		@Override
+		public Shard call() throws Exception {
+		    return buildShard(fs, range, charset, generateUnsigned, signaturesPath);
+		}
+	    });
+	}
+
+	List<Shard> shards = new ArrayList<Shard>(ranges.size());
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	try {
+	    for (Future<Shard> future : pool.invokeAll(tasks)) {
+		shards.add(future.get());
+	    }
+	} catch (InterruptedException e) {
+	    throw new IOException(e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException("Failed to build a shard's hash.", e.getCause());
+	} finally {
+	    pool.shutdown();
+	}
+
+	long size = 0;
+	List<String> firstKeys = new ArrayList<String>(shards.size());
+	List<AbstractHashFunction<CharSequence>> shardHashes = new ArrayList<AbstractHashFunction<CharSequence>>(shards.size());
+	for (Shard shard : shards) {
+	    // A range can be empty if a line is longer than it.
+	    if (shard.size > 0) {
+		size += shard.size;
+		firstKeys.add(shard.firstKey);
+		shardHashes.add(shard.hash);
+	    }
+	}
+	if (size == 0) {
+	    throw new IllegalArgumentException("No lines in " + srcFilename);
+	}
+
+	Path unsignedPath = new Path(srcFilename + DOT_UNSIGNED);
+	AbstractHashFunction<CharSequence> unsignedHash;
+	if (generateUnsigned) {
+	    unsignedHash = new ShardedMonotoneHashFunction(firstKeys, shardHashes);
+	    LOGGER.info("\tSaving unsigned hash of " + shardHashes.size() + " shards as " + unsignedPath.toString());
+	    writeMapToFile(unsignedHash, fs, unsignedPath);
+	} else {
+	    LOGGER.info("\tLoading unsigned hash from " + unsignedPath.toString());
+	    unsignedHash = readMpHashFromFile(fs, unsignedPath);
+	    if (unsignedHash.size64() != size) {
+		throw new IllegalArgumentException("The unsigned hash " + unsignedPath + " has " + unsignedHash.size64() + " keys but " + srcFilename + " has "
+			+ size + " lines.");
+	    }
+	}
+
+	if (generateSigned) {
+	    Path signedPath = new Path(srcFilename + DOT_SIGNED);
+	    OutputStream signedOutputStream = createOutputStream(fs, signedPath);
+	    try {
+		for (int i = 0; i < shards.size(); i++) {
+		    if (shards.get(i).size > 0) {
+			InputStream shardInputStream = fs.open(new Path(shardsPath, i + DOT_SIGNED));
+			try {
+			    IOUtils.copyBytes(shardInputStream, signedOutputStream, 64 * 1024, false);
+			} finally {
+			    shardInputStream.close();
+			}
+		    }
+		}
+	    } finally {
+		signedOutputStream.close();
+	    }
+	    LOGGER.info("\tSaved signed hash as " + signedPath.toString());
+	}
+	fs.delete(shardsPath, true);
+
+	if (writeInfoFile) {
+	    writeInfoFile(fs, srcFilename, unsignedHash, generateSigned);
+	}
+	return size;
+    }
+
+    private static List<LineRange> splitIntoRanges(FileStatus[] partStatuses, int shardCount) {
+	long totalLength = 0;
+	for (FileStatus partStatus : partStatuses) {
+	    totalLength += partStatus.getLen();
+	}
+	long rangeLength = Math.max(1, (totalLength + shardCount - 1) / shardCount);
+	List<LineRange> ranges = new ArrayList<LineRange>(shardCount + partStatuses.length);
+	for (FileStatus partStatus : partStatuses) {
+	    for (long start = 0; start < partStatus.getLen(); start += rangeLength) {
+		ranges.add(new LineRange(partStatus.getPath(), start, Math.min(partStatus.getLen(), start + rangeLength)));
+	    }
+	}
+	return ranges;
+    }
+
+    private static Shard buildShard(final FileSystem fs, final LineRange range, final Charset charset, boolean buildUnsigned, Path signaturesPath)
+	    throws IOException {
+	LineReaderCollection lines = new LineReaderCollection(new LineReaderCollection.ReaderFactory() {
+	    @Override
+	    public Reader newReader() {
+		try {
+		    return new InputStreamReader(range.open(fs), charset);
+		} catch (IOException e) {
+		    throw new RuntimeException("Failed to open " + range, e);
+		}
+	    }
+	});
+
+	Shard shard = new Shard();
+	shard.size = lines.size64();
+	if (shard.size == 0) {
+	    return shard;
+	}
+	LineReaderCollection.LineReaderIterator firstLine = lines.iterator();
+	shard.firstKey = firstLine.next().toString();
+	firstLine.close();
+
+	// A hollow trie of one key can't be serialized and isn't needed.
+	if (buildUnsigned && shard.size > 1) {
+	    shard.hash = new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(lines, TransformationStrategies.prefixFreeUtf32());
+	}
+	if (signaturesPath != null) {
+	    DataOutputStream signaturesOutputStream = new DataOutputStream(new FastBufferedOutputStream(fs.create(signaturesPath, true)));
+	    try {
+		LongBigListSignedStringMap.sign(lines.iterator(), signaturesOutputStream, null);
+	    } finally {
+		signaturesOutputStream.close();
+	    }
+	}
+	LOGGER.info("\tBuilt shard " + range + " with " + shard.size + " keys.");
+	return shard;
+    }
+
+    private static class Shard {
+	private long size;
+	private String firstKey;
+	private AbstractHashFunction<CharSequence> hash;
+    }
+
+    /**
+     * The lines of a file that start in the byte range [start, end).
+     */
+    private static class LineRange {
+	private final Path path;
+	private final long start;
+	private final long end;
+
+	public LineRange(Path path, long start, long end) {
+	    this.path = path;
+	    this.start = start;
+	    this.end = end;
+	}
+
+	public InputStream open(FileSystem fs) throws IOException {
+	    FSDataInputStream inputStream = fs.open(path);
+	    if (start == 0) {
+		return new LineRangeInputStream(new FastBufferedInputStream(inputStream), 0, end, false);
+	    }
+	    // The line before the range ends at start - 1 or after.
+	    inputStream.seek(start - 1);
+	    return new LineRangeInputStream(new FastBufferedInputStream(inputStream), start - 1, end, true);
+	}
+
+	@Override
+	public String toString() {
+	    return path + "[" + start + "," + end + ")";
+	}
+    }
+
+    /**
+     * Reads from the position given up to the end of the line that contains
+     * the end position, having skipped the line at the position if asked to.
+     */
+    private static class LineRangeInputStream extends InputStream {
+	private final InputStream in;
+	private final long end;
+	private long position;
+	private boolean atLineStart = true;
+	private boolean done;
+
+	public LineRangeInputStream(InputStream in, long position, long end, boolean skipFirstLine) throws IOException {
+	    this.in = in;
+	    this.position = position;
+	    this.end = end;
+	    if (skipFirstLine) {
+		int b;
+		while ((b = in.read()) != -1) {
+		    this.position++;
+		    if (b == '\n') {
+			return;
+		    }
+		}
+		done = true;
+	    }
+	}
+
+	@Override
+	public int read() throws IOException {
+	    if (done || (position >= end && atLineStart)) {
+		done = true;
+		return -1;
+	    }
+	    int b = in.read();
+	    if (b == -1) {
+		done = true;
+		return -1;
+	    }
+	    position++;
+	    atLineStart = b == '\n';
+	    return b;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+	    if (length == 0) {
+		return 0;
+	    }
+	    if (done || position >= end) {
+		// Finish the line that contains the end.
+		int b = read();
+		if (b == -1) {
+		    return -1;
+		}
+		bytes[offset] = (byte) b;
+		return 1;
+	    }
+	    int read = in.read(bytes, offset, (int) Math.min(length, end - position));
+	    if (read <= 0) {
+		done = true;
+		return -1;
+	    }
+	    position += read;
+	    atLineStart = bytes[offset + read - 1] == '\n';
+	    return read;
+	}
+
+	@Override
+	public void close() throws IOException {
+	    in.close();
+	}
+    }
+
     private static OutputStream createOutputStream(FileSystem fs, Path path) throws IOException {
 	FSDataOutputStream outStream = fs.create(path, true);// overwrite;
 	fs.setPermission(path, ALL_PERMISSIONS);
@@ -249,6 +591,34 @@ public class ComputeHashTool extends Configured implements Tool {
 	}
     }
 
+    /**
+     * Loads an unsigned hash and the signatures written by
+     * {@link #buildHash}. Unlike the unsigned hash on its own, the returned
+     * map gives null for keys that weren't in the source file.
+     * 
+     * @param fs
+     * @param unsignedPath
+     *            The .map file.
+     * @param signedPath
+     *            The .smap file.
+     * @return The signed map.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static LongBigListSignedStringMap loadSignedHash(FileSystem fs, Path unsignedPath, Path signedPath) throws IOException, ClassNotFoundException {
+	AbstractHashFunction<CharSequence> unsignedHash = readMpHashFromFile(fs, unsignedPath);
+	LongBigArrayBigList signatures = new LongBigArrayBigList(unsignedHash.size64());
+	DataInputStream signaturesInputStream = new DataInputStream(new FastBufferedInputStream(fs.open(signedPath)));
+	try {
+	    for (long i = unsignedHash.size64(); i-- != 0;) {
+		signatures.add(signaturesInputStream.readLong());
+	    }
+	} finally {
+	    signaturesInputStream.close();
+	}
+	return new LongBigListSignedStringMap(unsignedHash, signatures);
+    }
+
     public static void main(String[] args) throws Exception {
 	int ret = ToolRunner.run(new ComputeHashTool(), args);
 	System.exit(ret);
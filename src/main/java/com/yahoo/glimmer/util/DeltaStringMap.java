@@ -0,0 +1,79 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+
+/**
+ * Maps the resources of a delta build to their ids after those of the main
+ * build and all other resources to their main build ids. The delta's function
+ * is looked up first and must be signed, as most keys aren't in it. The main
+ * function needn't be signed if every key looked up is in one or the other.
+ *
+ * @author tep
+ */
+public class DeltaStringMap extends AbstractObject2LongFunction<CharSequence> implements Size64 {
+    private static final long serialVersionUID = -2383613512208950735L;
+
+    private final Object2LongFunction<? extends CharSequence> deltaFunction;
+    private final long offset;
+    private final Object2LongFunction<? extends CharSequence> mainFunction;
+
+    /**
+     * @param deltaFunction
+     *            The signed function of the delta's resources.
+     * @param offset
+     *            The id of the delta's first resource, the number of the main
+     *            build's.
+     * @param mainFunction
+     *            The function of the main build's resources.
+     */
+    public DeltaStringMap(Object2LongFunction<? extends CharSequence> deltaFunction, long offset, Object2LongFunction<? extends CharSequence> mainFunction) {
+	this.deltaFunction = deltaFunction;
+	this.offset = offset;
+	this.mainFunction = mainFunction;
+	defRetValue = -1;
+    }
+
+    @Override
+    public long getLong(Object o) {
+	if (deltaFunction.containsKey(o)) {
+	    return offset + deltaFunction.getLong(o);
+	}
+	return mainFunction.containsKey(o) ? mainFunction.getLong(o) : defRetValue;
+    }
+
+    @Override
+    public Long get(Object o) {
+	if (deltaFunction.containsKey(o)) {
+	    return Long.valueOf(offset + deltaFunction.getLong(o));
+	}
+	return mainFunction.get(o);
+    }
+
+    @Override
+    public boolean containsKey(Object o) {
+	return deltaFunction.containsKey(o) || mainFunction.containsKey(o);
+    }
+
+    @Override
+    public int size() {
+	return (int) Math.min(size64(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long size64() {
+	return offset + (deltaFunction instanceof Size64 ? ((Size64) deltaFunction).size64() : deltaFunction.size());
+    }
+}
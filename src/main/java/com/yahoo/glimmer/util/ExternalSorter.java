@@ -0,0 +1,353 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+
+/**
+ * Sorts serialized key/value pairs by their keys with a RawComparator, as the
+ * map side sort and the reduce side merge of a MapReduce job do, but in one
+ * process.
+ *
+ * Each writing thread gets its own {@link Buffer}. A full buffer is sorted
+ * and spilled to a run file in the spill dir. {@link #merge()} merges the runs
+ * into a single sorted {@link RawKeyValueIterator}, first merging runs into
+ * bigger runs if there are more than the merge factor.
+ *
+ * A run file is a sequence of vint(key length) vint(value length) key value.
+ *
+ * @author tep
+ */
+public class ExternalSorter implements Closeable {
+    public static final int DEFAULT_MERGE_FACTOR = 100;
+    private static final int RUN_IO_BUFFER_SIZE = 64 * 1024;
+
+    private final RawComparator<?> comparator;
+    private final File spillDir;
+    private final int bufferSize;
+    private final int mergeFactor;
+    // Accessed by the writing threads.
+    private final List<File> runFiles = new ArrayList<File>();
+
+    /**
+     * @param comparator
+     *            Compares the serialized keys.
+     * @param spillDir
+     *            Where the run files are written. Must exist.
+     * @param bufferSize
+     *            The number of bytes of serialized pairs each buffer holds
+     *            before being spilled.
+     */
+    public ExternalSorter(RawComparator<?> comparator, File spillDir, int bufferSize) {
+	this(comparator, spillDir, bufferSize, DEFAULT_MERGE_FACTOR);
+    }
+
+    public ExternalSorter(RawComparator<?> comparator, File spillDir, int bufferSize, int mergeFactor) {
+	if (mergeFactor < 2) {
+	    throw new IllegalArgumentException("Merge factor must be 2 or more.");
+	}
+	this.comparator = comparator;
+	this.spillDir = spillDir;
+	this.bufferSize = bufferSize;
+	this.mergeFactor = mergeFactor;
+    }
+
+    /**
+     * @return A new buffer. Buffers aren't thread safe, use one per thread.
+     */
+    public Buffer newBuffer() {
+	return new Buffer();
+    }
+
+    /**
+     * @return The number of runs spilled so far.
+     */
+    public int getRunCount() {
+	synchronized (runFiles) {
+	    return runFiles.size();
+	}
+    }
+
+    /**
+     * Merges all the runs. All buffers must have been closed.
+     *
+     * @return The pairs in key order. The key and value buffers are only
+     *         valid until next() is called again.
+     * @throws IOException
+     */
+    public RawKeyValueIterator merge() throws IOException {
+	synchronized (runFiles) {
+	    while (runFiles.size() > mergeFactor) {
+		List<File> toMerge = new ArrayList<File>(runFiles.subList(0, mergeFactor));
+		runFiles.subList(0, mergeFactor).clear();
+
+		File runFile = newRunFile();
+		MergeIterator iterator = new MergeIterator(toMerge);
+		DataOutputStream runOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), RUN_IO_BUFFER_SIZE));
+		try {
+		    while (iterator.next()) {
+			DataInputBuffer key = iterator.getKey();
+			DataInputBuffer value = iterator.getValue();
+			writePair(runOutputStream, key.getData(), key.getPosition(), key.getLength() - key.getPosition(), value.getData(), value.getPosition(),
+				value.getLength() - value.getPosition());
+		    }
+		} finally {
+		    runOutputStream.close();
+		    iterator.close();
+		}
+		for (File merged : toMerge) {
+		    merged.delete();
+		}
+		runFiles.add(runFile);
+	    }
+	    return new MergeIterator(new ArrayList<File>(runFiles));
+	}
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public void close() throws IOException {
+	synchronized (runFiles) {
+	    for (File runFile : runFiles) {
+		runFile.delete();
+	    }
+	    runFiles.clear();
+	}
+    }
+
+    private File newRunFile() throws IOException {
+	return File.createTempFile("run", ".spill", spillDir);
+    }
+
+    private static void writePair(DataOutputStream out, byte[] keyBytes, int keyOffset, int keyLength, byte[] valueBytes, int valueOffset, int valueLength)
+	    throws IOException {
+	WritableUtils.writeVInt(out, keyLength);
+	WritableUtils.writeVInt(out, valueLength);
+	out.write(keyBytes, keyOffset, keyLength);
+	out.write(valueBytes, valueOffset, valueLength);
+    }
+
+    /**
+     * Collects the pairs written by one thread.
+     */
+    public class Buffer implements IndexedSortable, Closeable {
+	private final DataOutputBuffer data = new DataOutputBuffer(bufferSize + bufferSize / 8);
+	// Per pair, the start of its key in data, its key length and its value
+	// length. The value follows the key.
+	private int[] starts = new int[1024];
+	private int[] keyLengths = new int[1024];
+	private int[] valueLengths = new int[1024];
+	// The sorted order of the pairs.
+	private int[] order = new int[1024];
+	private int count;
+
+	private Buffer() {
+	}
+
+	public void add(Writable key, Writable value) throws IOException {
+	    if (count == starts.length) {
+		starts = IntArrays.grow(starts, count + 1);
+		keyLengths = IntArrays.grow(keyLengths, count + 1);
+		valueLengths = IntArrays.grow(valueLengths, count + 1);
+		order = IntArrays.grow(order, count + 1);
+	    }
+	    int start = data.getLength();
+	    key.write(data);
+	    int valueStart = data.getLength();
+	    value.write(data);
+	    starts[count] = start;
+	    keyLengths[count] = valueStart - start;
+	    valueLengths[count] = data.getLength() - valueStart;
+	    order[count] = count;
+	    count++;
+
+	    if (data.getLength() >= bufferSize) {
+		spill();
+	    }
+	}
+
+	private void spill() throws IOException {
+	    if (count == 0) {
+		return;
+	    }
+	    new QuickSort().sort(this, 0, count);
+
+	    File runFile = newRunFile();
+	    DataOutputStream runOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), RUN_IO_BUFFER_SIZE));
+	    try {
+		byte[] bytes = data.getData();
+		for (int i = 0; i < count; i++) {
+		    int pair = order[i];
+		    writePair(runOutputStream, bytes, starts[pair], keyLengths[pair], bytes, starts[pair] + keyLengths[pair], valueLengths[pair]);
+		}
+	    } finally {
+		runOutputStream.close();
+	    }
+	    synchronized (runFiles) {
+		runFiles.add(runFile);
+	    }
+	    data.reset();
+	    count = 0;
+	}
+
+	@Override
+	public int compare(int i, int j) {
+	    int pairI = order[i];
+	    int pairJ = order[j];
+	    byte[] bytes = data.getData();
+	    return comparator.compare(bytes, starts[pairI], keyLengths[pairI], bytes, starts[pairJ], keyLengths[pairJ]);
+	}
+
+	@Override
+	public void swap(int i, int j) {
+	    int t = order[i];
+	    order[i] = order[j];
+	    order[j] = t;
+	}
+
+	/**
+	 * Spills what is left in the buffer.
+	 */
+	@Override
+	public void close() throws IOException {
+	    spill();
+	}
+    }
+
+    private static class Run {
+	private final DataInputStream inputStream;
+	private byte[] key = new byte[256];
+	private int keyLength;
+	private byte[] value = new byte[256];
+	private int valueLength;
+
+	public Run(File file) throws IOException {
+	    inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_IO_BUFFER_SIZE));
+	}
+
+	public boolean next() throws IOException {
+	    try {
+		keyLength = WritableUtils.readVInt(inputStream);
+	    } catch (EOFException e) {
+		return false;
+	    }
+	    valueLength = WritableUtils.readVInt(inputStream);
+	    if (key.length < keyLength) {
+		key = new byte[Math.max(keyLength, key.length * 2)];
+	    }
+	    if (value.length < valueLength) {
+		value = new byte[Math.max(valueLength, value.length * 2)];
+	    }
+	    inputStream.readFully(key, 0, keyLength);
+	    inputStream.readFully(value, 0, valueLength);
+	    return true;
+	}
+
+	public void close() throws IOException {
+	    inputStream.close();
+	}
+    }
+
+    private class MergeIterator implements RawKeyValueIterator {
+	private final List<Run> runs = new ArrayList<Run>();
+	private final PriorityQueue<Run> queue;
+	private final DataInputBuffer key = new DataInputBuffer();
+	private final DataInputBuffer value = new DataInputBuffer();
+	private final Progress progress = new Progress();
+	private Run current;
+
+	public MergeIterator(List<File> runFiles) throws IOException {
+	    queue = new PriorityQueue<Run>(Math.max(1, runFiles.size()), new Comparator<Run>() {
+		@Override
+		public int compare(Run r1, Run r2) {
+		    return comparator.compare(r1.key, 0, r1.keyLength, r2.key, 0, r2.keyLength);
+		}
+	    });
+	    try {
+		for (File runFile : runFiles) {
+		    Run run = new Run(runFile);
+		    runs.add(run);
+		    if (run.next()) {
+			queue.add(run);
+		    }
+		}
+	    } catch (IOException e) {
+		close();
+		throw e;
+	    }
+	}
+
+	@Override
+	public DataInputBuffer getKey() throws IOException {
+	    return key;
+	}
+
+	@Override
+	public DataInputBuffer getValue() throws IOException {
+	    return value;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+	    if (current != null && current.next()) {
+		queue.add(current);
+	    }
+	    current = queue.poll();
+	    if (current == null) {
+		progress.complete();
+		return false;
+	    }
+	    key.reset(current.key, 0, current.keyLength);
+	    value.reset(current.value, 0, current.valueLength);
+	    return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+	    for (Run run : runs) {
+		run.close();
+	    }
+	}
+
+	@Override
+	public Progress getProgress() {
+	    return progress;
+	}
+    }
+}
@@ -0,0 +1,319 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+/**
+ * A read only list of strings, such as the sorted 'all' resources by id, that
+ * is memory mapped from a file of front coded blocks.
+ *
+ * Each block holds up to blockSize strings as UTF-8. The first string of a
+ * block is written whole and the others as the number of leading bytes they
+ * share with the string before, then the rest of their bytes, both lengths as
+ * VInts. After the blocks come the offsets of the blocks as longs, then the
+ * number of strings as a long, the block size as an int and the offset of the
+ * block offsets as a long.
+ *
+ * Getting a string decodes at most a block from the mapping into a buffer of
+ * the calling thread, so gets from any number of threads don't lock.
+ *
+ * @author tep
+ */
+public class FrontCodedStringStore {
+    public static final String DOT_STORE = ".fcs";
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int TRAILER_LENGTH = Long.SIZE / 8 + Integer.SIZE / 8 + Long.SIZE / 8;
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1l << CHUNK_SHIFT) - 1;
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+    private final int blockSize;
+    private final long blockOffsetsOffset;
+
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+	@Override
+	protected byte[] initialValue() {
+	    return new byte[256];
+	}
+    };
+
+    public FrontCodedStringStore(File file) throws IOException {
+	long length = file.length();
+	if (length < TRAILER_LENGTH) {
+	    throw new IllegalArgumentException(file + " is too short to be a front coded string store.");
+	}
+	chunks = new ByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+	RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+	try {
+	    // The mappings stay valid after the channel is closed.
+	    FileChannel channel = randomAccessFile.getChannel();
+	    for (int i = 0; i < chunks.length; i++) {
+		long position = (long) i << CHUNK_SHIFT;
+		chunks[i] = channel.map(MapMode.READ_ONLY, position, Math.min(length - position, 1l << CHUNK_SHIFT));
+	    }
+	} finally {
+	    randomAccessFile.close();
+	}
+
+	long trailerOffset = length - TRAILER_LENGTH;
+	size = readLong(trailerOffset);
+	blockSize = readInt(trailerOffset + Long.SIZE / 8);
+	blockOffsetsOffset = readLong(trailerOffset + Long.SIZE / 8 + Integer.SIZE / 8);
+	long blockCount = (size + blockSize - 1) / blockSize;
+	if (blockSize < 1 || blockOffsetsOffset + blockCount * Long.SIZE / 8 != trailerOffset) {
+	    throw new IllegalArgumentException(file + " isn't a front coded string store.");
+	}
+    }
+
+    public long size64() {
+	return size;
+    }
+
+    /**
+     * @param index
+     * @return The string at the index or null if the index is out of range.
+     */
+    public String get(long index) {
+	if (index < 0 || index >= size) {
+	    return null;
+	}
+	long position = readLong(blockOffsetsOffset + (index / blockSize) * (Long.SIZE / 8));
+	byte[] buffer = buffers.get();
+	int length = 0;
+	for (int i = (int) (index % blockSize); i >= 0; i--) {
+	    // The prefix length then the suffix length as VInts.
+	    int prefixLength = 0;
+	    int shift = 0;
+	    byte b;
+	    do {
+		b = readByte(position++);
+		prefixLength |= (b & 0x7F) << shift;
+		shift += 7;
+	    } while (b < 0);
+	    int suffixLength = 0;
+	    shift = 0;
+	    do {
+		b = readByte(position++);
+		suffixLength |= (b & 0x7F) << shift;
+		shift += 7;
+	    } while (b < 0);
+
+	    length = prefixLength + suffixLength;
+	    if (buffer.length < length) {
+		byte[] newBuffer = new byte[Math.max(length, buffer.length * 2)];
+		System.arraycopy(buffer, 0, newBuffer, 0, prefixLength);
+		buffer = newBuffer;
+		buffers.set(buffer);
+	    }
+	    readBytes(position, buffer, prefixLength, suffixLength);
+	    position += suffixLength;
+	}
+	return new String(buffer, 0, length, UTF8);
+    }
+
+    private byte readByte(long position) {
+	return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & CHUNK_MASK));
+    }
+
+    private void readBytes(long position, byte[] bytes, int offset, int length) {
+	while (length > 0) {
+	    // A duplicate so that the shared buffer's position isn't changed.
+	    ByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)].duplicate();
+	    int chunkOffset = (int) (position & CHUNK_MASK);
+	    int read = Math.min(length, chunk.limit() - chunkOffset);
+	    chunk.position(chunkOffset);
+	    chunk.get(bytes, offset, read);
+	    position += read;
+	    offset += read;
+	    length -= read;
+	}
+    }
+
+    private long readLong(long position) {
+	ByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+	int chunkOffset = (int) (position & CHUNK_MASK);
+	if (chunkOffset + Long.SIZE / 8 <= chunk.limit()) {
+	    return chunk.getLong(chunkOffset);
+	}
+	long value = 0;
+	for (int i = 0; i < Long.SIZE / 8; i++) {
+	    value = (value << 8) | (readByte(position + i) & 0xFF);
+	}
+	return value;
+    }
+
+    private int readInt(long position) {
+	int value = 0;
+	for (int i = 0; i < Integer.SIZE / 8; i++) {
+	    value = (value << 8) | (readByte(position + i) & 0xFF);
+	}
+	return value;
+    }
+
+    /**
+     * Writes the lines of the UTF-8 input as a front coded string store.
+     *
+     * @return The number of lines written.
+     */
+    public static long build(InputStream linesInputStream, OutputStream storeOutputStream, int blockSize) throws IOException {
+	FastBufferedInputStream in = new FastBufferedInputStream(linesInputStream);
+	Writer writer = new Writer(storeOutputStream, blockSize);
+	byte[] line = new byte[1024];
+	int length;
+	while ((length = in.readLine(line, FastBufferedInputStream.ALL_TERMINATORS)) != -1) {
+	    // Lines longer than the array are read in pieces.
+	    while (length == line.length) {
+		byte[] newLine = new byte[line.length * 2];
+		System.arraycopy(line, 0, newLine, 0, length);
+		line = newLine;
+		int read = in.readLine(line, length, line.length - length, FastBufferedInputStream.ALL_TERMINATORS);
+		if (read == -1) {
+		    break;
+		}
+		length += read;
+	    }
+	    writer.add(line, length);
+	}
+	in.close();
+	writer.close();
+	return writer.size;
+    }
+
+    /**
+     * Writes strings given in order as a front coded string store.
+     */
+    public static class Writer {
+	private final DataOutputStream out;
+	private final int blockSize;
+	private final LongArrayList blockOffsets = new LongArrayList();
+	private byte[] previous = new byte[256];
+	private int previousLength;
+	private long written;
+	private long size;
+
+	public Writer(OutputStream outputStream, int blockSize) {
+	    if (blockSize < 1) {
+		throw new IllegalArgumentException("The block size must be positive.");
+	    }
+	    out = new DataOutputStream(new FastBufferedOutputStream(outputStream));
+	    this.blockSize = blockSize;
+	}
+
+	public void add(CharSequence string) throws IOException {
+	    byte[] bytes = string.toString().getBytes(UTF8);
+	    add(bytes, bytes.length);
+	}
+
+	/**
+	 * @param bytes
+	 *            The UTF-8 bytes of the string from 0.
+	 * @param length
+	 */
+	public void add(byte[] bytes, int length) throws IOException {
+	    int prefixLength = 0;
+	    if (size % blockSize == 0) {
+		blockOffsets.add(written);
+	    } else {
+		int maxPrefixLength = Math.min(length, previousLength);
+		while (prefixLength < maxPrefixLength && bytes[prefixLength] == previous[prefixLength]) {
+		    prefixLength++;
+		}
+	    }
+	    writeVInt(prefixLength);
+	    writeVInt(length - prefixLength);
+	    out.write(bytes, prefixLength, length - prefixLength);
+	    written += length - prefixLength;
+
+	    if (previous.length < length) {
+		previous = new byte[Math.max(length, previous.length * 2)];
+	    }
+	    System.arraycopy(bytes, 0, previous, 0, length);
+	    previousLength = length;
+	    size++;
+	}
+
+	private void writeVInt(int value) throws IOException {
+	    while ((value & ~0x7F) != 0) {
+		out.writeByte((value & 0x7F) | 0x80);
+		written++;
+		value >>>= 7;
+	    }
+	    out.writeByte(value);
+	    written++;
+	}
+
+	/**
+	 * Writes the block offsets and the trailer. Closes the stream.
+	 */
+	public void close() throws IOException {
+	    long blockOffsetsOffset = written;
+	    for (int i = 0; i < blockOffsets.size(); i++) {
+		out.writeLong(blockOffsets.getLong(i));
+	    }
+	    out.writeLong(size);
+	    out.writeInt(blockSize);
+	    out.writeLong(blockOffsetsOffset);
+	    out.close();
+	}
+
+	public long size64() {
+	    return size;
+	}
+    }
+
+    private static final String BLOCK_SIZE_ARG = "blockSize";
+    private static final String LINES_ARG = "lines";
+    private static final String STORE_ARG = "store";
+
+    public static void main(String[] args) throws JSAPException, IOException {
+	SimpleJSAP jsap = new SimpleJSAP(FrontCodedStringStore.class.getName(), "Builds a front coded string store of the lines of a local UTF-8 file.",
+		new Parameter[] {
+			new FlaggedOption(BLOCK_SIZE_ARG, JSAP.INTEGER_PARSER, Integer.toString(DEFAULT_BLOCK_SIZE), JSAP.NOT_REQUIRED, 'b', BLOCK_SIZE_ARG,
+				"The number of strings in each front coded block."),
+			new UnflaggedOption(LINES_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The lines file, such as all.txt."),
+			new UnflaggedOption(STORE_ARG, JSAP.STRING_PARSER, JSAP.REQUIRED, "The store file to write, such as all" + DOT_STORE + "."), });
+	JSAPResult jsapResult = jsap.parse(args);
+	if (jsap.messagePrinted()) {
+	    System.exit(1);
+	}
+	long size = build(new FileInputStream(jsapResult.getString(LINES_ARG)), new FileOutputStream(jsapResult.getString(STORE_ARG)),
+		jsapResult.getInt(BLOCK_SIZE_ARG));
+	System.out.println("Wrote " + size + " strings to " + jsapResult.getString(STORE_ARG));
+    }
+}
@@ -0,0 +1,148 @@
+package com.yahoo.glimmer.util;
+
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.parser.NxParser;
+
+/**
+ * The label of each subject that has one, by doc id. Written next to the
+ * bySubject collection by the PrepTool so that labels can be read without
+ * uncompressing and parsing whole bySubject records.
+ *
+ * The labels are stored as a {@link BlockCompressedDocumentCollection} of LZ4
+ * blocks, one RECORD_DELIMITER terminated UTF-8 label per doc. Subjects without
+ * a label aren't in it.
+ *
+ * @author tep
+ */
+public class LabelStore implements Closeable {
+    public static final String NAME = "labels";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final BlockCompressedDocumentCollection collection;
+
+    /**
+     * @param directory
+     *            The directory with the labels file.
+     * @param cacheSizeInBytes
+     *            The size of the cache of uncompressed blocks.
+     * @throws IOException
+     */
+    public LabelStore(File directory, long cacheSizeInBytes) throws IOException {
+	collection = new BlockCompressedDocumentCollection(NAME, null, cacheSizeInBytes, true, 0);
+	collection.filename(new File(directory, NAME).getAbsolutePath());
+    }
+
+    /**
+     * @param directory
+     * @return true if the directory has a labels file.
+     */
+    public static boolean exists(File directory) {
+	return new File(directory, NAME + BlockCodecs.LZ4.getFileExtension()).exists();
+    }
+
+    /**
+     * @param docId
+     * @return The label of the subject with the given doc id or null.
+     * @throws IOException
+     */
+    public String getLabel(long docId) throws IOException {
+	InputStream labelInputStream = collection.stream(docId);
+	try {
+	    FastByteArrayOutputStream labelBytes = new FastByteArrayOutputStream(64);
+	    int b;
+	    while ((b = labelInputStream.read()) != -1 && b != BySubjectRecord.RECORD_DELIMITER) {
+		labelBytes.write(b);
+	    }
+	    if (labelBytes.length == 0) {
+		return null;
+	    }
+	    return new String(labelBytes.array, 0, labelBytes.length, UTF8);
+	} finally {
+	    labelInputStream.close();
+	}
+    }
+
+    @Override
+    public void close() throws IOException {
+	collection.close();
+    }
+
+    /**
+     * @param predicate
+     * @return true if the objects of the predicate are labels of the subject.
+     */
+    public static boolean isLabelPredicate(String predicate) {
+	// TODO. Consider ...name too.
+	return predicate.endsWith("label") || predicate.endsWith("name");
+    }
+
+    /**
+     * @param record
+     * @return The object of the record's last label relation, or null if it
+     *         hasn't one.
+     */
+    public static String findLabel(BySubjectRecord record) {
+	String label = null;
+	for (String relation : record.getRelations()) {
+	    // Only relations with a label predicate are parsed.
+	    int predicateEnd = relation.indexOf('>');
+	    if (!relation.startsWith("<") || predicateEnd == -1 || !isLabelPredicate(relation.substring(1, predicateEnd))) {
+		continue;
+	    }
+	    Node[] predicateObjectContext;
+	    try {
+		predicateObjectContext = NxParser.parseNodes(relation);
+	    } catch (Exception e) {
+		throw new RuntimeException("Error parsing tuple: " + relation);
+	    }
+	    label = predicateObjectContext[1].toString().trim();
+	}
+	return label;
+    }
+
+    /**
+     * Writes the labels of records given in doc id order.
+     */
+    public static class Writer {
+	private final BlockCompressedDocumentWriter writer;
+
+	public Writer(OutputStream outputStream) throws IOException {
+	    writer = new BlockCompressedDocumentWriter(BlockCodecs.LZ4, outputStream, 1);
+	}
+
+	/**
+	 * Writes the record's label if it has one.
+	 *
+	 * @param record
+	 * @throws IOException
+	 */
+	public void write(BySubjectRecord record) throws IOException {
+	    String label = findLabel(record);
+	    if (label != null && !label.isEmpty()) {
+		// Labels are delimited by RECORD_DELIMITER.
+		byte[] labelBytes = label.replace(BySubjectRecord.RECORD_DELIMITER, ' ').getBytes(UTF8);
+		writer.write(record.getId(), labelBytes, 0, labelBytes.length);
+	    }
+	}
+
+	/**
+	 * Writes the end of the labels and the index. Closes the stream.
+	 *
+	 * @param lastDocId
+	 * @throws IOException
+	 */
+	public void close(long lastDocId) throws IOException {
+	    writer.appendBlockOffsets(writer.finish(lastDocId));
+	    writer.close();
+	}
+    }
+}
@@ -0,0 +1,242 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a Mapper and a Reducer written for Hadoop's new API in this process,
+ * without a job tracker or task JVMs.
+ *
+ * The map tasks, one per input split of a {@link TextInputFormat}, are run on
+ * a ForkJoinPool. Each task has its own Mapper instance and writes to its own
+ * {@link ExternalSorter.Buffer}. The sorted runs are then merged and given to
+ * a single Reducer. Each task counts in its own {@link Counters}, which are
+ * added to the counters of all the tasks when the task is done.
+ *
+ * @author tep
+ */
+public class LocalMapReduce {
+    private final static Logger LOGGER = Logger.getLogger(LocalMapReduce.class);
+    private static final String JOB_TRACKER_ID = "local";
+
+    private final Configuration conf;
+    private final ForkJoinPool pool;
+    private final File spillDir;
+    private final int sortBufferSize;
+    private final Counters counters = new Counters();
+
+    /**
+     * @param conf
+     *            The configuration given to the tasks.
+     * @param pool
+     *            Runs the map tasks.
+     * @param spillDir
+     *            Where the map output is spilled to.
+     * @param sortBufferSize
+     *            The size in bytes of each map task's sort buffer.
+     */
+    public LocalMapReduce(Configuration conf, ForkJoinPool pool, File spillDir, int sortBufferSize) {
+	this.conf = conf;
+	this.pool = pool;
+	this.spillDir = spillDir;
+	this.sortBufferSize = sortBufferSize;
+    }
+
+    /**
+     * Runs a map task per split of the input.
+     *
+     * @param mapperClass
+     * @param input
+     *            A file or a dir of files.
+     * @param sortComparator
+     *            Compares the serialized map output keys.
+     * @return The sorted map output. Close it when done with it.
+     * @throws IOException
+     */
+    public ExternalSorter map(final Class<? extends Mapper<LongWritable, Text, ?, ?>> mapperClass, Path input, RawComparator<?> sortComparator)
+	    throws IOException {
+	Job job = Job.getInstance(conf);
+	FileInputFormat.setInputPaths(job, input);
+	List<InputSplit> splits = new TextInputFormat().getSplits(job);
+	LOGGER.info("Mapping " + splits.size() + " splits of " + input + " with " + mapperClass.getSimpleName());
+
+	final ExternalSorter sorter = new ExternalSorter(sortComparator, spillDir, sortBufferSize);
+	List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(splits.size());
+	for (int i = 0; i < splits.size(); i++) {
+	    final InputSplit split = splits.get(i);
+	    final TaskAttemptID taskAttemptId = new TaskAttemptID(JOB_TRACKER_ID, 0, TaskType.MAP, i, 0);
+	    tasks.add(new Callable<Void>() {
+		@Override
+		public Void call() throws Exception {
+		    runMapTask(mapperClass, taskAttemptId, split, sorter.newBuffer());
+		    return null;
+		}
+	    });
+	}
+
+	try {
+	    for (Future<Void> future : pool.invokeAll(tasks)) {
+		future.get();
+	    }
+	} catch (InterruptedException e) {
+	    sorter.close();
+	    throw new IOException(e);
+	} catch (ExecutionException e) {
+	    sorter.close();
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException("Map task failed.", e.getCause());
+	}
+	LOGGER.info("Map output of " + mapperClass.getSimpleName() + " is in " + sorter.getRunCount() + " runs.");
+	return sorter;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void runMapTask(Class<? extends Mapper<LongWritable, Text, ?, ?>> mapperClass, TaskAttemptID taskAttemptId, InputSplit split,
+	    final ExternalSorter.Buffer buffer) throws IOException, InterruptedException {
+	Mapper mapper = ReflectionUtils.newInstance(mapperClass, conf);
+	LineRecordReader reader = new LineRecordReader();
+	reader.initialize(split, new TaskAttemptContextImpl(conf, taskAttemptId));
+	RecordWriter<Writable, Writable> writer = new RecordWriter<Writable, Writable>() {
+	    @Override
+	    public void write(Writable key, Writable value) throws IOException {
+		buffer.add(key, value);
+	    }
+
+	    @Override
+	    public void close(TaskAttemptContext context) {
+	    }
+	};
+	try {
+	    LocalStatusReporter reporter = new LocalStatusReporter();
+	    MapContextImpl mapContext = new MapContextImpl(conf, taskAttemptId, reader, writer, null, reporter, split);
+	    mapper.run(new WrappedMapper().getMapContext(mapContext));
+	    counters.incrAllCounters(reporter.taskCounters);
+	} finally {
+	    reader.close();
+	    buffer.close();
+	}
+    }
+
+    /**
+     * Runs a single reduce task over all of the map output. The writer is
+     * closed when the reducer is done. The sorter isn't.
+     *
+     * @param sorter
+     *            The map output.
+     * @param reducerClass
+     * @param keyClass
+     *            The map output key class.
+     * @param valueClass
+     *            The map output value class.
+     * @param groupingComparator
+     *            Compares the serialized keys to group them.
+     * @param writer
+     *            Where the reducer writes to.
+     * @throws IOException
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public <K, V> void reduce(ExternalSorter sorter, Class<? extends Reducer<K, V, ?, ?>> reducerClass, Class<K> keyClass, Class<V> valueClass,
+	    RawComparator<K> groupingComparator, RecordWriter<?, ?> writer) throws IOException {
+	TaskAttemptID taskAttemptId = new TaskAttemptID(JOB_TRACKER_ID, 0, TaskType.REDUCE, 0, 0);
+	Reducer reducer = ReflectionUtils.newInstance(reducerClass, conf);
+	RawKeyValueIterator input = sorter.merge();
+	try {
+	    LocalStatusReporter reporter = new LocalStatusReporter();
+	    ReduceContextImpl reduceContext = new ReduceContextImpl(conf, taskAttemptId, input, reporter.getCounter(TaskCounter.REDUCE_INPUT_GROUPS),
+		    reporter.getCounter(TaskCounter.REDUCE_INPUT_RECORDS), writer, null, reporter, groupingComparator, keyClass, valueClass);
+	    reducer.run(new WrappedReducer().getReducerContext(reduceContext));
+	    writer.close(new TaskAttemptContextImpl(conf, taskAttemptId));
+	    counters.incrAllCounters(reporter.taskCounters);
+	} catch (InterruptedException e) {
+	    throw new IOException(e);
+	} finally {
+	    input.close();
+	}
+    }
+
+    /**
+     * @return The counters of all the tasks run.
+     */
+    public Counters getCounters() {
+	return counters;
+    }
+
+    /**
+     * The status of one task. Its counters are only used by the task's thread.
+     */
+    private static class LocalStatusReporter extends StatusReporter {
+	private final Counters taskCounters = new Counters();
+
+	@Override
+	public Counter getCounter(Enum<?> name) {
+	    return taskCounters.findCounter(name);
+	}
+
+	@Override
+	public Counter getCounter(String group, String name) {
+	    return taskCounters.findCounter(group, name);
+	}
+
+	@Override
+	public void progress() {
+	}
+
+	@Override
+	public float getProgress() {
+	    return 0;
+	}
+
+	@Override
+	public void setStatus(String status) {
+	}
+    }
+}
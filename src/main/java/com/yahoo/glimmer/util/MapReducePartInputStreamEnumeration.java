@@ -79,6 +79,14 @@ public class MapReducePartInputStreamEnumeration implements Enumeration<InputStr
 	partFileStatusesIndex = 0;
     }
 
+    public FileStatus[] getPartFileStatuses() {
+	return partFileStatuses;
+    }
+
+    public boolean isCompressed() {
+	return codecIfAny != null;
+    }
+
     public String removeCompressionSuffixIfAny(String filename) {
 	if (codecIfAny != null) {
 	    return CompressionCodecFactory.removeSuffix(filename, codecIfAny.getDefaultExtension());
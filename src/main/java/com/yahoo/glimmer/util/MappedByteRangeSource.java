@@ -0,0 +1,87 @@
+package com.yahoo.glimmer.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A ByteRangeSource that maps the whole file once, as consecutive segments of
+ * up to 1GB as a single MappedByteBuffer can't be bigger than 2GB. Ranges
+ * within a segment are slices of it. The rare range that crosses a segment
+ * boundary is copied to a heap buffer.
+ *
+ * @author tep
+ */
+public class MappedByteRangeSource implements ByteRangeSource {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final long size;
+    private final int segmentSize;
+    private MappedByteBuffer[] segments;
+
+    public MappedByteRangeSource(FileChannel fileChannel) throws IOException {
+	this(fileChannel, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedByteRangeSource(FileChannel fileChannel, int segmentSize) throws IOException {
+	if (segmentSize <= 0) {
+	    throw new IllegalArgumentException("segmentSize(" + segmentSize + ") should be positive.");
+	}
+	this.size = fileChannel.size();
+	this.segmentSize = segmentSize;
+
+	long segmentCount = (size + segmentSize - 1) / segmentSize;
+	segments = new MappedByteBuffer[(int) segmentCount];
+	for (int i = 0; i < segmentCount; i++) {
+	    long segmentStart = (long) i * segmentSize;
+	    segments[i] = fileChannel.map(MapMode.READ_ONLY, segmentStart, Math.min(segmentSize, size - segmentStart));
+	}
+    }
+
+    @Override
+    public long size() {
+	return size;
+    }
+
+    @Override
+    public ByteBuffer get(long position, int length) throws IOException {
+	if (position < 0 || length < 0 || position + length > size) {
+	    throw new IndexOutOfBoundsException("Range " + position + " + " + length + " is outside 0 to " + size);
+	}
+	MappedByteBuffer[] segments = this.segments;
+	if (segments == null) {
+	    throw new IOException("Closed.");
+	}
+
+	int segmentIndex = (int) (position / segmentSize);
+	int offset = (int) (position % segmentSize);
+	if (length == 0 || offset + length <= segments[segmentIndex].capacity()) {
+	    // Each caller gets its own view of the shared segment.
+	    ByteBuffer view = segments[segmentIndex].duplicate();
+	    view.position(offset);
+	    view.limit(offset + length);
+	    return view.slice();
+	}
+
+	ByteBuffer copy = ByteBuffer.allocate(length);
+	while (copy.hasRemaining()) {
+	    ByteBuffer view = segments[segmentIndex++].duplicate();
+	    view.position(offset);
+	    view.limit(Math.min(view.capacity(), offset + copy.remaining()));
+	    copy.put(view);
+	    offset = 0;
+	}
+	copy.flip();
+	return copy;
+    }
+
+    /**
+     * The mappings are released when the segments are garbage collected.
+     */
+    @Override
+    public void close() {
+	segments = null;
+    }
+}
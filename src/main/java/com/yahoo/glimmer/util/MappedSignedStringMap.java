@@ -0,0 +1,169 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.big.util.LongBigListSignedStringMap;
+import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A signed string map that, like {@link LongBigListSignedStringMap} given a
+ * filename, checks memory mapped signatures. Unlike it the signatures can also
+ * be 32 bits wide and the values are checked against the function's size64()
+ * rather than its int size().
+ *
+ * The signatures are those written by
+ * {@link LongBigListSignedStringMap#sign(java.util.Iterator, java.io.DataOutput, it.unimi.dsi.logging.ProgressLogger)}
+ * , 64 bits each. They can also be compacted to their low 32 bits with
+ * {@link #compact(InputStream, OutputStream)}, halving the file. The width is
+ * taken from the length of the file. With 32 bits about one in 4 billion of
+ * the strings that aren't keys is mapped to a value instead of the default
+ * return value.
+ *
+ * @author tep
+ */
+public class MappedSignedStringMap extends AbstractObject2LongFunction<CharSequence> implements Size64 {
+    /** Mapped chunks are 1GB, a multiple of both widths. */
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1l << CHUNK_SHIFT) - 1;
+
+    private final Object2LongFunction<? extends CharSequence> function;
+    private final long size;
+    private final int widthInBytes;
+    private final ByteBuffer[] chunks;
+
+    public MappedSignedStringMap(Object2LongFunction<? extends CharSequence> function, File signaturesFile) throws IOException {
+	this.function = function;
+	size = function instanceof Size64 ? ((Size64) function).size64() : function.size();
+	long length = signaturesFile.length();
+	if (length == size * Long.SIZE / 8) {
+	    widthInBytes = Long.SIZE / 8;
+	} else if (length == size * Integer.SIZE / 8) {
+	    widthInBytes = Integer.SIZE / 8;
+	} else {
+	    throw new IllegalArgumentException("The " + length + " bytes of " + signaturesFile + " aren't 64 or 32 bit signatures of " + size + " keys.");
+	}
+
+	chunks = new ByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT)];
+	RandomAccessFile randomAccessFile = new RandomAccessFile(signaturesFile, "r");
+	try {
+	    // The mappings stay valid after the channel is closed.
+	    FileChannel channel = randomAccessFile.getChannel();
+	    for (int i = 0; i < chunks.length; i++) {
+		long position = (long) i << CHUNK_SHIFT;
+		chunks[i] = channel.map(MapMode.READ_ONLY, position, Math.min(length - position, 1l << CHUNK_SHIFT));
+	    }
+	} finally {
+	    randomAccessFile.close();
+	}
+	defRetValue = -1;
+    }
+
+    /**
+     * The signature of {@link LongBigListSignedStringMap}.
+     */
+    public static long signature(CharSequence s) {
+	long h = 42;
+	for (int i = s.length(); i-- != 0;) {
+	    h ^= (h << 5) + s.charAt(i) + (h >>> 2);
+	}
+	return h;
+    }
+
+    private boolean checkSignature(CharSequence s, long index) {
+	if (index < 0 || index >= size) {
+	    return false;
+	}
+	long position = index * widthInBytes;
+	ByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+	int offset = (int) (position & CHUNK_MASK);
+	if (widthInBytes == Integer.SIZE / 8) {
+	    return chunk.getInt(offset) == (int) signature(s);
+	}
+	return chunk.getLong(offset) == signature(s);
+    }
+
+    @Override
+    public long getLong(Object o) {
+	CharSequence s = (CharSequence) o;
+	long index = function.getLong(s);
+	return checkSignature(s, index) ? index : defRetValue;
+    }
+
+    @Override
+    public Long get(Object o) {
+	CharSequence s = (CharSequence) o;
+	long index = function.getLong(s);
+	return checkSignature(s, index) ? Long.valueOf(index) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object o) {
+	CharSequence s = (CharSequence) o;
+	return checkSignature(s, function.getLong(s));
+    }
+
+    @Override
+    public int size() {
+	return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long size64() {
+	return size;
+    }
+
+    /**
+     * @return The width of the signatures in bits, 64 or 32.
+     */
+    public int getWidth() {
+	return widthInBytes * 8;
+    }
+
+    /**
+     * Writes the low 32 bits of each of the 64 bit signatures read.
+     *
+     * @return The number of signatures written.
+     */
+    public static long compact(InputStream signaturesInputStream, OutputStream compactOutputStream) throws IOException {
+	DataInputStream in = new DataInputStream(new FastBufferedInputStream(signaturesInputStream));
+	DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(compactOutputStream));
+	long count = 0;
+	while (true) {
+	    long signature;
+	    try {
+		signature = in.readLong();
+	    } catch (EOFException e) {
+		break;
+	    }
+	    out.writeInt((int) signature);
+	    count++;
+	}
+	out.flush();
+	return count;
+    }
+}
@@ -0,0 +1,68 @@
+package com.yahoo.glimmer.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ByteRangeSource that reads ranges with positional reads(pread) into a heap
+ * buffer per thread, for when the file shouldn't be memory mapped.
+ *
+ * @author tep
+ */
+public class PositionalReadByteRangeSource implements ByteRangeSource {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel fileChannel;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+	@Override
+	protected ByteBuffer initialValue() {
+	    return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	}
+    };
+
+    /**
+     * @param fileChannel
+     *            Isn't closed by close().
+     */
+    public PositionalReadByteRangeSource(FileChannel fileChannel) {
+	this.fileChannel = fileChannel;
+    }
+
+    @Override
+    public long size() {
+	try {
+	    return fileChannel.size();
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    @Override
+    public ByteBuffer get(long position, int length) throws IOException {
+	if (position < 0 || length < 0) {
+	    throw new IndexOutOfBoundsException("Range " + position + " + " + length);
+	}
+	ByteBuffer buffer = buffers.get();
+	if (buffer.capacity() < length) {
+	    buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+	    buffers.set(buffer);
+	}
+	buffer.clear();
+	buffer.limit(length);
+	// Doesn't move the channel's position so threads can share it.
+	while (buffer.hasRemaining()) {
+	    int bytesRead = fileChannel.read(buffer, position + buffer.position());
+	    if (bytesRead == -1) {
+		throw new EOFException("Range " + position + " + " + length + " is past the end of the file.");
+	    }
+	}
+	buffer.flip();
+	return buffer;
+    }
+
+    @Override
+    public void close() {
+    }
+}
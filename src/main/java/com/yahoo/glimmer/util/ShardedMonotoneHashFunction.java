@@ -0,0 +1,140 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.Size64;
+import it.unimi.dsi.sux4j.mph.AbstractHashFunction;
+import it.unimi.dsi.sux4j.mph.HollowTrieMonotoneMinimalPerfectHashFunction;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A monotone minimal perfect hash over a sorted list of keys that was split
+ * into contiguous ranges(shards), with a monotone hash built for each shard.
+ *
+ * The first level finds a key's shard by a binary search of the shards' first
+ * keys and the second adds the rank of the key in its shard to the number of
+ * keys in the shards before it. So a key's value is its rank in the whole
+ * list, as from a single monotone hash over the list.
+ *
+ * As with other minimal perfect hashes the value of a key that isn't in the
+ * list is undefined, although it is always -1 or within the list.
+ *
+ * @author tep
+ */
+public class ShardedMonotoneHashFunction extends AbstractHashFunction<CharSequence> implements Serializable, Size64 {
+    private static final long serialVersionUID = 5184094315281263470L;
+
+    private final String[] firstKeys;
+    private final AbstractHashFunction<CharSequence>[] shards;
+    /** The rank of each shard's first key, and the number of keys last. */
+    private final long[] offsets;
+
+    /**
+     * @param firstKeys
+     *            The first key of each shard, in the order of the keys.
+     * @param shards
+     *            The monotone hash of each shard, or null for a shard with
+     *            only its first key.
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedMonotoneHashFunction(List<String> firstKeys, List<? extends AbstractHashFunction<CharSequence>> shards) {
+	if (firstKeys.size() != shards.size() || shards.isEmpty()) {
+	    throw new IllegalArgumentException("Need a first key for each of one or more shards.");
+	}
+	this.firstKeys = firstKeys.toArray(new String[firstKeys.size()]);
+	this.shards = shards.toArray(new AbstractHashFunction[shards.size()]);
+	offsets = new long[shards.size() + 1];
+	for (int i = 0; i < shards.size(); i++) {
+	    if (i > 0 && compare(this.firstKeys[i - 1], this.firstKeys[i]) >= 0) {
+		throw new IllegalArgumentException("The shards' first keys aren't in order at shard " + i + ":" + this.firstKeys[i]);
+	    }
+	    offsets[i + 1] = offsets[i] + (this.shards[i] == null ? 1 : this.shards[i].size64());
+	}
+    }
+
+    @Override
+    public long getLong(Object o) {
+	CharSequence key = (CharSequence) o;
+	int shard = shardOf(key);
+	if (shards[shard] == null) {
+	    return offsets[shard];
+	}
+	long rank = shards[shard].getLong(key);
+	if (rank < 0 || rank >= offsets[shard + 1] - offsets[shard]) {
+	    return defRetValue;
+	}
+	return offsets[shard] + rank;
+    }
+
+    /**
+     * @return The index of the last shard whose first key isn't after the
+     *         given key, or 0.
+     */
+    private int shardOf(CharSequence key) {
+	int low = 1;
+	int high = firstKeys.length - 1;
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+	    if (compare(firstKeys[mid], key) <= 0) {
+		low = mid + 1;
+	    } else {
+		high = mid - 1;
+	    }
+	}
+	return low - 1;
+    }
+
+    @Override
+    public long size64() {
+	return offsets[offsets.length - 1];
+    }
+
+    public int getShardCount() {
+	return shards.length;
+    }
+
+    /**
+     * @return An estimate of the size in bits of the function.
+     */
+    public long numBits() {
+	long bits = Long.SIZE * (long) offsets.length;
+	for (int i = 0; i < shards.length; i++) {
+	    bits += Character.SIZE * (long) firstKeys[i].length();
+	    if (shards[i] instanceof HollowTrieMonotoneMinimalPerfectHashFunction) {
+		bits += ((HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>) shards[i]).numBits();
+	    }
+	}
+	return bits;
+    }
+
+    /**
+     * Compares by Unicode code points, which is the order of the UTF-8 bytes
+     * of sorted Hadoop Text keys and of the prefix free UTF-32 transformation
+     * the shards' hashes are built with.
+     */
+    public static int compare(CharSequence s1, CharSequence s2) {
+	int length1 = s1.length();
+	int length2 = s2.length();
+	int i = 0;
+	while (i < length1 && i < length2) {
+	    int c1 = Character.codePointAt(s1, i);
+	    int c2 = Character.codePointAt(s2, i);
+	    if (c1 != c2) {
+		return c1 < c2 ? -1 : 1;
+	    }
+	    i += Character.charCount(c1);
+	}
+	return length1 - i == 0 ? (length2 - i == 0 ? 0 : -1) : 1;
+    }
+}
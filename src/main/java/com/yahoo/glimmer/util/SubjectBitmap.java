@@ -0,0 +1,171 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.bits.LongArrayBitVector;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.sux4j.bits.Rank9;
+import it.unimi.dsi.sux4j.bits.SimpleSelect;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Which doc ids are subjects, that is have a bySubject record. Written next to
+ * the bySubject collection by the PrepTool so that a resource can be checked
+ * to be a subject without reading its doc from the collection.
+ *
+ * The file is the bits of a {@link LongArrayBitVector} as longs followed by
+ * the number of docs as a long. It's loaded onto the heap, one bit per doc,
+ * with {@link Rank9} and {@link SimpleSelect} indexes.
+ *
+ * @author tep
+ */
+public class SubjectBitmap {
+    public static final String NAME = "subjects.bitmap";
+
+    private final LongArrayBitVector bits;
+    private final Rank9 rank;
+    private final SimpleSelect select;
+
+    /**
+     * @param directory
+     *            The directory with the subjects bitmap file.
+     * @throws IOException
+     */
+    public SubjectBitmap(File directory) throws IOException {
+	File file = new File(directory, NAME);
+	long wordCount = file.length() / (Long.SIZE / 8) - 1;
+	if (wordCount < 0 || wordCount > Integer.MAX_VALUE) {
+	    throw new IOException(file + " isn't a subjects bitmap.");
+	}
+	long[] words = new long[(int) wordCount];
+	DataInputStream in = new DataInputStream(new FastBufferedInputStream(new FileInputStream(file)));
+	long docCount;
+	try {
+	    for (int i = 0; i < words.length; i++) {
+		words[i] = in.readLong();
+	    }
+	    docCount = in.readLong();
+	} finally {
+	    in.close();
+	}
+	if (docCount > wordCount * Long.SIZE || docCount <= (wordCount - 1) * Long.SIZE) {
+	    throw new IOException(file + " has " + wordCount + " words of bits for " + docCount + " docs.");
+	}
+	bits = LongArrayBitVector.wrap(words, docCount);
+	rank = new Rank9(bits);
+	select = new SimpleSelect(bits);
+    }
+
+    /**
+     * @param directory
+     * @return true if the directory has a subjects bitmap file.
+     */
+    public static boolean exists(File directory) {
+	return new File(directory, NAME).exists();
+    }
+
+    /**
+     * @param docId
+     * @return true if the doc has a bySubject record.
+     */
+    public boolean isSubject(long docId) {
+	return docId >= 0 && docId < bits.length() && bits.getBoolean(docId);
+    }
+
+    /**
+     * @param docId
+     * @return The number of subjects with smaller doc ids.
+     */
+    public long rank(long docId) {
+	return rank.rank(Math.min(docId, bits.length()));
+    }
+
+    /**
+     * @param rank
+     * @return The doc id of the subject with the given rank or -1.
+     */
+    public long select(long rank) {
+	if (rank < 0 || rank >= getSubjectCount()) {
+	    return -1;
+	}
+	return select.select(rank);
+    }
+
+    public long getSubjectCount() {
+	return rank.count();
+    }
+
+    public long getDocCount() {
+	return bits.length();
+    }
+
+    /**
+     * Writes the bitmap of subjects given in doc id order.
+     */
+    public static class Writer {
+	private final DataOutputStream out;
+	private long word;
+	private long wordIndex;
+	private long lastDocId = -1;
+
+	public Writer(OutputStream outputStream) {
+	    out = new DataOutputStream(new FastBufferedOutputStream(outputStream));
+	}
+
+	/**
+	 * @param docId
+	 *            Greater than the last doc id set.
+	 * @throws IOException
+	 */
+	public void set(long docId) throws IOException {
+	    if (docId <= lastDocId) {
+		throw new IllegalArgumentException("Doc id " + docId + " isn't after the last doc id " + lastDocId);
+	    }
+	    long docWordIndex = docId / Long.SIZE;
+	    while (wordIndex < docWordIndex) {
+		out.writeLong(word);
+		word = 0;
+		wordIndex++;
+	    }
+	    word |= 1l << (docId % Long.SIZE);
+	    lastDocId = docId;
+	}
+
+	/**
+	 * Writes the rest of the bits and the number of docs. Closes the
+	 * stream.
+	 *
+	 * @param docCount
+	 *            The number of docs, which is raised to one more than the
+	 *            last doc id set if it's less.
+	 * @throws IOException
+	 */
+	public void close(long docCount) throws IOException {
+	    docCount = Math.max(docCount, lastDocId + 1);
+	    long wordCount = (docCount + Long.SIZE - 1) / Long.SIZE;
+	    while (wordIndex < wordCount) {
+		out.writeLong(word);
+		word = 0;
+		wordIndex++;
+	    }
+	    out.writeLong(docCount);
+	    out.close();
+	}
+    }
+}
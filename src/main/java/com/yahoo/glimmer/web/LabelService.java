@@ -0,0 +1,157 @@
+package com.yahoo.glimmer.web;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.LabelStore;
+
+/**
+ * Looks up the subject ids of objects and the labels of subjects of an
+ * RDFIndex, and caches both in concurrent size bounded caches.
+ *
+ * Labels are looked up a page at a time. They are read from the index's
+ * LabelStore if it has one. Otherwise the uncached subjects are read from the
+ * collection in doc id order, which is the order of the collection, so each
+ * collection block is uncompressed once per page.
+ *
+ * @author tep
+ */
+public class LabelService {
+    private final static Logger LOGGER = Logger.getLogger(LabelService.class);
+
+    private final RDFIndex index;
+    // Optional as the caches can't hold nulls.
+    private final Cache<String, Optional<Long>> subjectIdCache;
+    private final Cache<Long, Optional<String>> labelCache;
+
+    /**
+     * @param index
+     * @param maxCacheSize
+     *            The maximum number of entries in each of the caches.
+     */
+    public LabelService(RDFIndex index, long maxCacheSize) {
+	this.index = index;
+	subjectIdCache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).recordStats().build();
+	labelCache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).recordStats().build();
+    }
+
+    /**
+     * @param object
+     * @return The id of the subject that is the same resource as the object.
+     *         null if there isn't one.
+     * @throws IOException
+     */
+    public Long getSubjectId(String object) throws IOException {
+	Optional<Long> subjectId = subjectIdCache.getIfPresent(object);
+	if (subjectId == null) {
+	    subjectId = Optional.fromNullable(index.getSubjectId(object));
+	    subjectIdCache.put(object, subjectId);
+	}
+	return subjectId.orNull();
+    }
+
+    /**
+     * @param subjectIds
+     * @return A map of subject ids to labels. Subjects without a label aren't
+     *         in it.
+     * @throws IOException
+     */
+    public Long2ObjectMap<String> getLabels(LongCollection subjectIds) throws IOException {
+	Long2ObjectOpenHashMap<String> labels = new Long2ObjectOpenHashMap<String>(subjectIds.size());
+	LongArrayList uncachedSubjectIds = new LongArrayList();
+	for (LongIterator i = subjectIds.iterator(); i.hasNext();) {
+	    long subjectId = i.nextLong();
+	    Optional<String> label = labelCache.getIfPresent(subjectId);
+	    if (label == null) {
+		uncachedSubjectIds.add(subjectId);
+	    } else if (label.isPresent()) {
+		labels.put(subjectId, label.get());
+	    }
+	}
+
+	if (!uncachedSubjectIds.isEmpty()) {
+	    long[] docIds = uncachedSubjectIds.toLongArray();
+	    Arrays.sort(docIds);
+	    LabelStore labelStore = index.getLabelStore();
+	    if (labelStore == null) {
+		index.prefetchDocuments(docIds);
+	    }
+	    for (long docId : docIds) {
+		String label = labelStore != null ? index.getLabel(docId) : readLabel(docId);
+		labelCache.put(docId, Optional.fromNullable(label));
+		if (label != null) {
+		    labels.put(docId, label);
+		}
+	    }
+	}
+	return labels;
+    }
+
+    /**
+     * @param docId
+     * @return The object of the subject's last label relation, or null.
+     * @throws IOException
+     */
+    private String readLabel(long docId) throws IOException {
+	InputStream docInputStream;
+	try {
+	    docInputStream = index.getDocumentInputStream(docId);
+	} catch (IOException e) {
+	    // TODO fix end of stream errors on BZip2.
+	    return null;
+	}
+
+	BySubjectRecord record = new BySubjectRecord();
+	try {
+	    record.readFrom(docInputStream);
+	} catch (BySubjectRecordException e) {
+	    LOGGER.warn("Failed to read doc with ID " + docId, e);
+	    return null;
+	} finally {
+	    docInputStream.close();
+	}
+
+	return LabelStore.findLabel(record);
+    }
+
+    /**
+     * @return The hit and miss counts of the object to subject id cache.
+     */
+    public CacheStats getSubjectIdCacheStats() {
+	return subjectIdCache.stats();
+    }
+
+    /**
+     * @return The hit and miss counts of the label cache.
+     */
+    public CacheStats getLabelCacheStats() {
+	return labelCache.stats();
+    }
+}
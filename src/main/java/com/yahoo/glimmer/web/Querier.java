@@ -16,62 +16,144 @@ import it.unimi.di.big.mg4j.query.SelectedInterval;
 import it.unimi.di.big.mg4j.query.nodes.Query;
 import it.unimi.di.big.mg4j.query.nodes.QueryBuilderVisitorException;
 import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.log4j.Logger;
-import org.semanticweb.yars.nx.Node;
-import org.semanticweb.yars.nx.parser.NxParser;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yahoo.glimmer.indexing.RelationCursor;
 import com.yahoo.glimmer.query.QueryLogger;
 import com.yahoo.glimmer.query.QueryLogger.QueryTimer;
 import com.yahoo.glimmer.query.RDFIndex;
 import com.yahoo.glimmer.util.BySubjectRecord;
 import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.LabelStore;
 import com.yahoo.glimmer.util.Util;
 
 /**
  * Wraps the details of doing a query against an RDFIndex.
  * 
+ * With an executor set the items of a result page are built in parallel, in
+ * the order of the results and within an optional deadline.
  */
 public class Querier {
     private final static Logger LOGGER = Logger.getLogger(Querier.class);
     private static final String DEFAULT_CONTEXT = "default:";
-    private static final int CACHE_SIZE = 10000;
+    private static final int DEFAULT_CACHE_SIZE = 100000;
 
-    private final Map<String, Long> objectsSubjectsIdCache;
-    private final Map<Long, String> objectLabelCache;
+    private final ConcurrentMap<RDFIndex, LabelService> labelServices = new ConcurrentHashMap<RDFIndex, LabelService>();
+    private long cacheSize = DEFAULT_CACHE_SIZE;
 
     private QueryLogger queryLogger = new QueryLogger();
+    // Null to build the result items on the request thread.
+    private ExecutorService executor;
+    private boolean ownExecutor;
+    private long deadlineMillis;
+
+    /**
+     * @param cacheSize
+     *            The maximum number of object subject ids and of labels cached
+     *            per index. Only applies to indexes not yet queried.
+     */
+    public void setCacheSize(long cacheSize) {
+	if (cacheSize < 0) {
+	    throw new IllegalArgumentException("cacheSize(" + cacheSize + ") should not be negative.");
+	}
+	this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @param index
+     * @return The label service with the subject id and label caches of the
+     *         index.
+     */
+    public LabelService getLabelService(RDFIndex index) {
+	LabelService labelService = labelServices.get(index);
+	if (labelService == null) {
+	    labelService = new LabelService(index, cacheSize);
+	    LabelService existing = labelServices.putIfAbsent(index, labelService);
+	    if (existing != null) {
+		labelService = existing;
+	    }
+	}
+	return labelService;
+    }
 
-    public Querier() {
-	LinkedHashMap<String, Long> idCache = new LinkedHashMap<String, Long>(CACHE_SIZE + 1, 1.1f, true) {
-	    private static final long serialVersionUID = -8171861525079261380L;
+    /**
+     * @param executor
+     *            Builds the items of a result page in parallel. Null to build
+     *            them one after the other on the calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+	shutdown();
+	this.executor = executor;
+	ownExecutor = false;
+    }
 
-	    protected boolean removeEldestEntry(java.util.Map.Entry<String, Long> eldest) {
-		return size() > CACHE_SIZE;
-	    };
-	};
-	objectsSubjectsIdCache = Collections.synchronizedMap(idCache);
+    /**
+     * Builds the items of a result page in parallel on a pool of threadCount
+     * daemon threads. 0 to build them one after the other on the calling
+     * thread.
+     * 
+     * @param threadCount
+     */
+    public void setThreadCount(int threadCount) {
+	if (threadCount < 0) {
+	    throw new IllegalArgumentException("threadCount(" + threadCount + ") should not be negative.");
+	}
+	shutdown();
+	if (threadCount > 0) {
+	    executor = Executors.newFixedThreadPool(threadCount,
+		    new ThreadFactoryBuilder().setDaemon(true).setNameFormat(Querier.class.getSimpleName() + "-%d").build());
+	    ownExecutor = true;
+	}
+    }
 
-	LinkedHashMap<Long, String> labelCache = new LinkedHashMap<Long, String>(CACHE_SIZE + 1, 1.1f, true) {
-	    private static final long serialVersionUID = -6916960713013021549L;
+    /**
+     * @param deadlineMillis
+     *            When building result items in parallel, the time after which
+     *            the items not yet built are left out of the result. 0 for no
+     *            deadline.
+     */
+    public void setDeadlineMillis(long deadlineMillis) {
+	if (deadlineMillis < 0) {
+	    throw new IllegalArgumentException("deadlineMillis(" + deadlineMillis + ") should not be negative.");
+	}
+	this.deadlineMillis = deadlineMillis;
+    }
 
-	    protected boolean removeEldestEntry(java.util.Map.Entry<Long, String> eldest) {
-		return size() > CACHE_SIZE;
-	    };
-	};
-	objectLabelCache = Collections.synchronizedMap(labelCache);
+    /**
+     * Stops the executor created by {@link #setThreadCount(int)}. Executors
+     * given to {@link #setExecutor(ExecutorService)} are left running.
+     */
+    public void shutdown() {
+	if (ownExecutor) {
+	    executor.shutdown();
+	}
+	executor = null;
+	ownExecutor = false;
     }
 
     public QueryResult doQuery(RDFIndex index, Query query, int startItem, int maxNumItems, boolean deref, Integer objectLengthLimit)
@@ -92,16 +174,26 @@ public class Querier {
 
 	ObjectArrayList<QueryResultItem> resultItems = new ObjectArrayList<QueryResultItem>();
 	if (!results.isEmpty()) {
+	    // Uncompress the blocks of the page in parallel while the first
+	    // results are built.
+	    long[] docIds = new long[results.size()];
 	    for (int i = 0; i < results.size(); i++) {
-		DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi = results.get(i);
-		LOGGER.debug("Intervals for item " + i);
-		LOGGER.debug("score " + dsi.score);
-		QueryResultItem item = createRdfResultItem(index, dsi.document, dsi.score, deref, objectLengthLimit);
-		if (item == null) {
-		    LOGGER.error("Document id " + dsi.document + " isn't in collection(or has null content).");
-		} else {
-		    resultItems.add(item);
+		docIds[i] = results.get(i).document;
+	    }
+	    index.prefetchDocuments(docIds);
+
+	    if (executor == null) {
+		for (int i = 0; i < results.size(); i++) {
+		    DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi = results.get(i);
+		    LOGGER.debug("Intervals for item " + i);
+		    LOGGER.debug("score " + dsi.score);
+		    addResultItem(resultItems, dsi.document, createRdfResultItem(index, dsi.document, dsi.score, objectLengthLimit));
 		}
+	    } else {
+		createRdfResultItemsInParallel(index, results, objectLengthLimit, resultItems);
+	    }
+	    if (deref) {
+		setObjectLabels(index, resultItems);
 	    }
 	}
 
@@ -110,10 +202,120 @@ public class Querier {
 	return result;
     }
 
+    /**
+     * Looks up the labels of the objects of all the items in one batch.
+     */
+    private void setObjectLabels(RDFIndex index, List<QueryResultItem> resultItems) throws IOException {
+	LongOpenHashSet subjectIds = new LongOpenHashSet();
+	for (QueryResultItem item : resultItems) {
+	    for (QueryResultItem.Relation relation : item.getRelations()) {
+		if (needsObjectLabel(relation)) {
+		    subjectIds.add(relation.getSubjectIdOfObject());
+		}
+	    }
+	}
+	if (subjectIds.isEmpty()) {
+	    return;
+	}
+
+	Long2ObjectMap<String> labels = getLabelService(index).getLabels(subjectIds);
+	for (QueryResultItem item : resultItems) {
+	    for (QueryResultItem.Relation relation : item.getRelations()) {
+		if (needsObjectLabel(relation)) {
+		    String label = labels.get(relation.getSubjectIdOfObject().longValue());
+		    // If the label is the same as the object we just use the
+		    // object.
+		    if (label != null && !label.equals(relation.getObject())) {
+			relation.setLabel(label);
+		    }
+		}
+	    }
+	}
+    }
+
+    private static boolean needsObjectLabel(QueryResultItem.Relation relation) {
+	// The objects of label relations are labels of the item itself.
+	return relation.getSubjectIdOfObject() != null && relation.getLabel() == null && !LabelStore.isLabelPredicate(relation.getPredicate());
+    }
+
+    private static void addResultItem(List<QueryResultItem> resultItems, long docId, QueryResultItem item) {
+	if (item == null) {
+	    LOGGER.error("Document id " + docId + " isn't in collection(or has null content).");
+	} else {
+	    resultItems.add(item);
+	}
+    }
+
+    /**
+     * Builds the result items on the executor. The items are added in the
+     * order of the results, which is by score. If the deadline passes, the
+     * items built by then are kept and the rest are left out.
+     */
+    private void createRdfResultItemsInParallel(final RDFIndex index, ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results,
+	    final Integer objectLengthLimit, List<QueryResultItem> resultItems) throws IOException {
+	long deadline = deadlineMillis > 0 ? System.currentTimeMillis() + deadlineMillis : Long.MAX_VALUE;
+
+	List<Future<QueryResultItem>> futures = new ArrayList<Future<QueryResultItem>>(results.size());
+	for (final DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>> dsi : results) {
+	    futures.add(executor.submit(new Callable<QueryResultItem>() {
+		@Override
+		public QueryResultItem call() throws Exception {
+		    return createRdfResultItem(index, dsi.document, dsi.score, objectLengthLimit);
+		}
+	    }));
+	}
+
+	int missedDeadlineCount = 0;
+	try {
+	    for (int i = 0; i < futures.size(); i++) {
+		long docId = results.get(i).document;
+		QueryResultItem item;
+		try {
+		    if (deadline == Long.MAX_VALUE) {
+			item = futures.get(i).get();
+		    } else {
+			item = futures.get(i).get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		    }
+		} catch (TimeoutException e) {
+		    // Later items that are already built are still returned.
+		    missedDeadlineCount++;
+		    continue;
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new IOException("Interrupted building result items.");
+		} catch (ExecutionException e) {
+		    Throwable cause = e.getCause();
+		    if (cause instanceof IOException) {
+			throw (IOException) cause;
+		    } else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		    } else if (cause instanceof Error) {
+			throw (Error) cause;
+		    }
+		    throw new RuntimeException(cause);
+		}
+		addResultItem(resultItems, docId, item);
+	    }
+	} finally {
+	    for (Future<QueryResultItem> future : futures) {
+		// Not interrupted as interrupting a thread reading a FileChannel
+		// closes the channel.
+		future.cancel(false);
+	    }
+	}
+	if (missedDeadlineCount > 0) {
+	    LOGGER.warn("Deadline of " + deadlineMillis + "ms passed building result items. Left out " + missedDeadlineCount + " of " + futures.size()
+		    + " items.");
+	}
+    }
+
     public QueryResult doQueryForDocId(RDFIndex index, long id, boolean deref, Integer objectLengthLimit) throws IOException {
 	QueryTimer timer = queryLogger.start();
 	timer.endSearch();
-	QueryResultItem resultItem = createRdfResultItem(index, id, 1.0d, deref, objectLengthLimit);
+	QueryResultItem resultItem = createRdfResultItem(index, id, 1.0d, objectLengthLimit);
+	if (resultItem != null && deref) {
+	    setObjectLabels(index, Collections.singletonList(resultItem));
+	}
 	queryLogger.endQuery(timer, "getDoc " + Long.toString(id), 1);
 
 	List<QueryResultItem> results;
@@ -125,7 +327,7 @@ public class Querier {
 	return new QueryResult("", null, results.size(), 0, 1, results, timer.getDuration(), timer.getSearchDuration());
     }
 
-    private QueryResultItem createRdfResultItem(RDFIndex index, long docId, double score, boolean lookupObjectLabels, Integer objectLengthLimit)
+    private QueryResultItem createRdfResultItem(RDFIndex index, long docId, double score, Integer objectLengthLimit)
 	    throws IOException {
 	InputStream docInputStream;
 	try {
@@ -135,37 +337,36 @@ public class Querier {
 	    return null;
 	}
 
-	BySubjectRecord record = new BySubjectRecord();
-
+	// The relations are decoded straight from the record's bytes. Only
+	// relations with escapes go through NxParser.
+	FastByteArrayOutputStream recordBytes = new FastByteArrayOutputStream(4096);
+	RelationCursor cursor = new RelationCursor();
 	try {
-	    record.readFrom(new InputStreamReader(docInputStream));
+	    BySubjectRecord.readRecordBytes(docInputStream, recordBytes);
+	    cursor.reset(recordBytes.array, 0, recordBytes.length);
 	} catch (BySubjectRecordException e) {
 	    LOGGER.warn("Failed to read doc with ID " + docId, e);
 	    return null;
 	    // throw new RuntimeException("Couldn't parse doc with id:" + docId);
+	} finally {
+	    // Lets the collection reuse the cached block.
+	    docInputStream.close();
 	}
 
-	if (docId != record.getId()) {
-	    LOGGER.error("Wanted doc id:" + docId + " but got doc id:" + record.getId());
+	if (docId != cursor.getId()) {
+	    LOGGER.error("Wanted doc id:" + docId + " but got doc id:" + cursor.getId());
 	}
 
 	QueryResultItem item = new QueryResultItem();
-	item.setSubjectId(record.getId());
-	item.setSubject(record.getSubject());
+	item.setSubjectId(cursor.getId());
+	item.setSubject(cursor.getSubject());
 	item.setScore(score);
 	
 	Map<String, MutableInt> predicateToAccumulatedOjectLengthMap = new HashMap<String, MutableInt>();
 
-	for (String relationString : record.getRelations()) {
-	    Node[] predicateObjectContext;
-	    try {
-		predicateObjectContext = NxParser.parseNodes(relationString);
-	    } catch (Exception e) {
-		throw new RuntimeException("Error parsing tuple: " + relationString);
-	    }
-
-	    String predicate = predicateObjectContext[0].toString();
-	    String object = predicateObjectContext[1].toString().trim();
+	while (cursor.next()) {
+	    String predicate = cursor.getPredicateString();
+	    String object = cursor.getObject().toString().trim();
 	    
 	    if (objectLengthLimit != null) {
 		MutableInt accumulatedOjectLength = predicateToAccumulatedOjectLengthMap.get(predicate);
@@ -184,59 +385,28 @@ public class Querier {
 	    }
 	    
 	    String context;
-	    if (predicateObjectContext.length > 2) {
-		context = predicateObjectContext[2].toString();
+	    if (cursor.hasContext()) {
+		context = cursor.getContext().toString();
 	    } else {
 		context = DEFAULT_CONTEXT;
 	    }
 	    
 	    boolean indexed = index.getIndexedPredicates().contains(Util.encodeFieldName(predicate));
 
-	    String label = null;
 	    // if predicate is an rdfs:label or woo:label, assign the object as
-	    // the
-	    // items label
-	    // TODO. Consider ...name too.
-	    if (predicate.endsWith("label") || predicate.endsWith("name")) {
+	    // the items label
+	    if (LabelStore.isLabelPredicate(predicate)) {
 		item.setLabel(object);
-		label = object;
 	    }
 
-	    Long subjectIdOfObject;
-
-	    if (objectsSubjectsIdCache.containsKey(object)) {
-		subjectIdOfObject = objectsSubjectsIdCache.get(object);
-	    } else {
-		subjectIdOfObject = index.getSubjectId(object);
-		objectsSubjectsIdCache.put(object, subjectIdOfObject);
-	    }
+	    // If the object is also a subject Resource/BNode this is that
+	    // subject's id. The labels of the objects are set after the page's
+	    // items are built.
+	    Long subjectIdOfObject = getLabelService(index).getSubjectId(object);
 
-	    if (label == null && subjectIdOfObject != null && lookupObjectLabels) {
-		if (objectLabelCache.containsKey(subjectIdOfObject)) {
-		    label = objectLabelCache.get(subjectIdOfObject);
-		} else {
-		    // If the object is also a subject Resource/BNode this
-		    // will return that subjects id which is the same as the
-		    // docId. Parse the subject doc that this object refers
-		    // too..
-		    QueryResultItem objectItem = createRdfResultItem(index, subjectIdOfObject, 0.0d, false, null);
-		    if (objectItem != null) {
-			label = objectItem.getLabel();
-		    }
-		    objectLabelCache.put(subjectIdOfObject, label);
-		}
-	    }
-	    
-	    // If the final label is the same as the object we just use the object.
-	    if (object.equals(label)) {
-		label = null;
-	    }
-
-	    item.addRelation(predicate, object, subjectIdOfObject, context, indexed, label);
+	    item.addRelation(predicate, object, subjectIdOfObject, context, indexed, null);
 	}
 
-	docInputStream.close();
-
 	return item;
     }
 }
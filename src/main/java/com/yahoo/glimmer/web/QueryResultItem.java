@@ -21,7 +21,8 @@ public class QueryResultItem {
 	private final Long subjectIdOfObject;
 	private final String context;
 	private final boolean indexed;
-	private final String label;
+	// Set after the item is built when labels are looked up for a page.
+	private String label;
 	
 	private Relation(String predicate, String object, Long subjectIdOfObject, String context, boolean indexed, String label) {
 	    this.predicate = predicate;
@@ -55,6 +56,10 @@ public class QueryResultItem {
 	public String getLabel() {
 	    return label;
 	}
+
+	void setLabel(String label) {
+	    this.label = label;
+	}
 	
 	@Override
 	public String toString() {
@@ -50,6 +50,13 @@ public class BZip2BitInputStream {
      * The number of bits currently buffered in {@link #bitBuffer}
      */
     private int bitCount;
+
+    /**
+     * The number of zero bits at the end of {@link #bitBuffer} that were added
+     * by {@link #peekBits(int)} after the end of the input stream. They can be
+     * peeked at but not read
+     */
+    private int paddingBitCount;
     
     private long totalBitsRead;
 
@@ -80,6 +87,9 @@ public class BZip2BitInputStream {
 	    this.bitBuffer = bitBuffer;
 	}
 
+	if (bitCount < this.paddingBitCount) {
+	    throw new BZip2Exception("Insufficient data");
+	}
 	this.bitCount = bitCount;
 	totalBitsRead++;
 	return ((bitBuffer & (1 << bitCount))) != 0;
@@ -114,6 +124,9 @@ public class BZip2BitInputStream {
 	    }
 	    
 	    totalBitsRead++;
+	    if (bitCount < this.paddingBitCount) {
+		throw new BZip2Exception("Insufficient data");
+	    }
 
 	    if (((bitBuffer & (1 << bitCount))) == 0) {
 		this.bitBuffer = bitBuffer;
@@ -156,6 +169,9 @@ public class BZip2BitInputStream {
 	}
 
 	bitCount -= count;
+	if (bitCount < this.paddingBitCount) {
+	    throw new BZip2Exception("Insufficient data");
+	}
 	this.bitCount = bitCount;
 	
 	totalBitsRead += count;
@@ -164,6 +180,64 @@ public class BZip2BitInputStream {
 
     }
 
+    /**
+     * Returns up to 24 bits from the wrapped input stream without reading
+     * them. If the end of the input stream is reached the missing bits are
+     * returned as zeros
+     * 
+     * @param count
+     *            The number of bits to peek at (maximum 24)
+     * @return The bits requested, right-aligned within the integer
+     * @throws IOException
+     *             if the wrapped input stream can't be read
+     */
+    public int peekBits(final int count) throws IOException {
+
+	int bitBuffer = this.bitBuffer;
+	int bitCount = this.bitCount;
+
+	if (bitCount < count) {
+	    while (bitCount < count) {
+		int byteRead = this.inputStream.read();
+
+		if (byteRead < 0) {
+		    byteRead = 0;
+		    this.paddingBitCount += 8;
+		}
+
+		bitBuffer = (bitBuffer << 8) | byteRead;
+		bitCount += 8;
+	    }
+
+	    this.bitBuffer = bitBuffer;
+	    this.bitCount = bitCount;
+	}
+
+	return (bitBuffer >>> (bitCount - count)) & ((1 << count) - 1);
+
+    }
+
+    /**
+     * Skips bits that have been returned by {@link #peekBits(int)}
+     * 
+     * @param count
+     *            The number of bits to skip. No more than were last peeked at
+     * @throws IOException
+     *             if the bits skipped go past the end of the input stream
+     */
+    public void skipBits(final int count) throws IOException {
+
+	final int bitCount = this.bitCount - count;
+
+	if (bitCount < this.paddingBitCount) {
+	    throw new BZip2Exception("Insufficient data");
+	}
+	this.bitCount = bitCount;
+
+	totalBitsRead += count;
+
+    }
+
     /**
      * Reads 32 bits of input as an integer
      * 
@@ -23,6 +23,7 @@
 package org.itadaki.bzip2;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /*
  * Block decoding consists of the following stages:
@@ -109,35 +110,30 @@ public class BZip2BlockDecompressor {
     /* Move To Front stage */
 
     /**
-     * Counts of each byte value within the {@link bwtTransformedArray} data.
-     * Collected at the Move To Front stage, consumed by the Inverse Burrows
-     * Wheeler Transform stage
+     * Counts of each byte value within the {@link #bwtMerged} data. Collected
+     * at the Move To Front stage, consumed by the Inverse Burrows Wheeler
+     * Transform stage
      */
     private final int[] bwtByteCounts = new int[256];
 
-    /**
-     * The Burrows-Wheeler Transform processed data. Read at the Move To Front
-     * stage, consumed by the Inverse Burrows Wheeler Transform stage
-     */
-    private byte[] bwtBlock;
-
     /* Inverse Burrows-Wheeler Transform stage */
 
     /**
-     * At each position contains the union of :- An output character (8 bits) A
-     * pointer from each position to its successor (24 bits, left shifted 8
-     * bits) As the pointer cannot exceed the maximum block size of 900k, 24
-     * bits is more than enough to hold it; Folding the character data into the
-     * spare bits while performing the inverse BWT, when both pieces of
-     * information are available, saves a large number of memory accesses in the
-     * final decoding stages.
+     * At each position contains the union of :- The Burrows-Wheeler Transform
+     * processed byte at that position (8 bits), written at the Move To Front
+     * stage. A pointer to the position of the next byte (24 bits, left shifted
+     * 8 bits), added in place by the Inverse Burrows Wheeler Transform stage.
+     * As the pointer cannot exceed the maximum block size of 900k, 24 bits is
+     * more than enough to hold it. Keeping both in the one array saves a
+     * separate byte array and a large number of memory accesses in the final
+     * decoding stages.
      */
-    private int[] bwtMergedPointers;
+    private int[] bwtMerged;
 
     /**
-     * The current merged pointer into the Burrow-Wheeler Transform array
+     * The position of the next byte to decode in {@link #bwtMerged}
      */
-    private int bwtCurrentMergedPointer;
+    private int bwtCurrentPosition;
 
     /**
      * The actual length in bytes of the current block at the Inverse Burrows
@@ -255,9 +251,9 @@ public class BZip2BlockDecompressor {
      */
     private void decodeHuffmanData(final BZip2HuffmanStageDecoder huffmanDecoder) throws IOException {
 
-	final byte[] bwtBlock = this.bwtBlock;
+	final int[] bwtMerged = this.bwtMerged;
 	final byte[] huffmanSymbolMap = this.huffmanSymbolMap;
-	final int streamBlockSize = this.bwtBlock.length;
+	final int streamBlockSize = this.bwtMerged.length;
 	final int huffmanEndOfBlockSymbol = this.huffmanEndOfBlockSymbol;
 	final int[] bwtByteCounts = this.bwtByteCounts;
 	final MoveToFront symbolMTF = new MoveToFront();
@@ -280,11 +276,10 @@ public class BZip2BlockDecompressor {
 		    if (bwtBlockLength + repeatCount > streamBlockSize) {
 			throw new BZip2Exception("BZip2 block exceeds declared block size");
 		    }
-		    final byte nextByte = huffmanSymbolMap[mtfValue];
-		    bwtByteCounts[nextByte & 0xff] += repeatCount;
-		    while (--repeatCount >= 0) {
-			bwtBlock[bwtBlockLength++] = nextByte;
-		    }
+		    final int nextByte = huffmanSymbolMap[mtfValue] & 0xff;
+		    bwtByteCounts[nextByte] += repeatCount;
+		    Arrays.fill(bwtMerged, bwtBlockLength, bwtBlockLength + repeatCount, nextByte);
+		    bwtBlockLength += repeatCount;
 
 		    repeatCount = 0;
 		    repeatIncrement = 1;
@@ -299,9 +294,9 @@ public class BZip2BlockDecompressor {
 
 		mtfValue = symbolMTF.indexToFront(nextSymbol - 1) & 0xff;
 
-		final byte nextByte = huffmanSymbolMap[mtfValue];
-		bwtByteCounts[nextByte & 0xff]++;
-		bwtBlock[bwtBlockLength++] = nextByte;
+		final int nextByte = huffmanSymbolMap[mtfValue] & 0xff;
+		bwtByteCounts[nextByte]++;
+		bwtMerged[bwtBlockLength++] = nextByte;
 
 	    }
 	}
@@ -320,8 +315,8 @@ public class BZip2BlockDecompressor {
      */
     private void initialiseInverseBWT(final int bwtStartPointer) throws IOException {
 
-	final byte[] bwtBlock = this.bwtBlock;
-	final int[] bwtMergedPointers = new int[this.bwtBlockLength];
+	final int[] bwtMerged = this.bwtMerged;
+	final int bwtBlockLength = this.bwtBlockLength;
 	final int[] characterBase = new int[256];
 
 	if ((bwtStartPointer < 0) || (bwtStartPointer >= this.bwtBlockLength)) {
@@ -334,20 +329,15 @@ public class BZip2BlockDecompressor {
 	    characterBase[i] += characterBase[i - 1];
 	}
 
-	// Merged-Array Inverse Burrows-Wheeler Transform
-	// Combining the output characters and forward pointers into a single
-	// array here, where we
-	// have already read both of the corresponding values, cuts down on
-	// memory accesses in the
-	// final walk through the array
-	for (int i = 0; i < this.bwtBlockLength; i++) {
-	    int value = bwtBlock[i] & 0xff;
-	    bwtMergedPointers[characterBase[value]++] = (i << 8) + value;
+	// In place Merged-Array Inverse Burrows-Wheeler Transform
+	// The pointer to each position is added to the upper bits of the
+	// position that precedes it in the output. The lower 8 bits, which the
+	// loop reads, are left unchanged
+	for (int i = 0; i < bwtBlockLength; i++) {
+	    bwtMerged[characterBase[bwtMerged[i] & 0xff]++] |= i << 8;
 	}
 
-	this.bwtBlock = null;
-	this.bwtMergedPointers = bwtMergedPointers;
-	this.bwtCurrentMergedPointer = bwtMergedPointers[bwtStartPointer];
+	this.bwtCurrentPosition = bwtMerged[bwtStartPointer] >>> 8;
 
     }
 
@@ -359,9 +349,9 @@ public class BZip2BlockDecompressor {
      */
     private int decodeNextBWTByte() {
 
-	int mergedPointer = this.bwtCurrentMergedPointer;
-	int nextDecodedByte = mergedPointer & 0xff;
-	this.bwtCurrentMergedPointer = this.bwtMergedPointers[mergedPointer >>> 8];
+	final int merged = this.bwtMerged[this.bwtCurrentPosition];
+	int nextDecodedByte = merged & 0xff;
+	this.bwtCurrentPosition = merged >>> 8;
 
 	if (this.blockRandomised) {
 	    if (--this.randomCount == 0) {
@@ -435,6 +425,82 @@ public class BZip2BlockDecompressor {
      */
     public int read(final byte[] destination, int offset, final int length) {
 
+	if (length == 0) {
+	    return 0;
+	}
+	if (this.blockRandomised) {
+	    return readByteAtATime(destination, offset, length);
+	}
+
+	// The state of read() in locals. Runs are copied out whole and there's
+	// no de-randomisation to check for
+	final int[] bwtMerged = this.bwtMerged;
+	final int bwtBlockLength = this.bwtBlockLength;
+	final CRC32 crc = this.crc;
+	int bwtCurrentPosition = this.bwtCurrentPosition;
+	int bwtBytesDecoded = this.bwtBytesDecoded;
+	int rleLastDecodedByte = this.rleLastDecodedByte;
+	int rleAccumulator = this.rleAccumulator;
+	int rleRepeat = this.rleRepeat;
+
+	final int start = offset;
+	final int end = offset + length;
+	while (offset < end) {
+
+	    if (rleRepeat > 0) {
+		final int count = Math.min(rleRepeat, end - offset);
+		Arrays.fill(destination, offset, offset + count, (byte) rleLastDecodedByte);
+		offset += count;
+		rleRepeat -= count;
+		continue;
+	    }
+
+	    if (bwtBytesDecoded == bwtBlockLength) {
+		break;
+	    }
+
+	    int merged = bwtMerged[bwtCurrentPosition];
+	    final int nextByte = merged & 0xff;
+	    bwtCurrentPosition = merged >>> 8;
+	    bwtBytesDecoded++;
+
+	    if (nextByte != rleLastDecodedByte) {
+		// New byte, restart accumulation
+		rleLastDecodedByte = nextByte;
+		rleAccumulator = 1;
+		crc.updateCRC(nextByte);
+		destination[offset++] = (byte) nextByte;
+	    } else if (++rleAccumulator == 4) {
+		// Accumulation complete, the next BWT byte is the repeat count
+		merged = bwtMerged[bwtCurrentPosition];
+		bwtCurrentPosition = merged >>> 8;
+		bwtBytesDecoded++;
+		rleRepeat = (merged & 0xff) + 1;
+		rleAccumulator = 0;
+		crc.updateCRC(nextByte, rleRepeat);
+	    } else {
+		crc.updateCRC(nextByte);
+		destination[offset++] = (byte) nextByte;
+	    }
+
+	}
+
+	this.bwtCurrentPosition = bwtCurrentPosition;
+	this.bwtBytesDecoded = bwtBytesDecoded;
+	this.rleLastDecodedByte = rleLastDecodedByte;
+	this.rleAccumulator = rleAccumulator;
+	this.rleRepeat = rleRepeat;
+
+	return (offset == start) ? -1 : offset - start;
+
+    }
+
+    /**
+     * {@link #read(byte[], int, int)} a byte at a time through {@link #read()}
+     * for randomised blocks
+     */
+    private int readByteAtATime(final byte[] destination, int offset, final int length) {
+
 	int i;
 	for (i = 0; i < length; i++, offset++) {
 	    int decoded = read();
@@ -476,7 +542,7 @@ public class BZip2BlockDecompressor {
     public BZip2BlockDecompressor(final BZip2BitInputStream bitInputStream, final int blockSize) throws IOException {
 
 	this.bitInputStream = bitInputStream;
-	this.bwtBlock = new byte[blockSize];
+	this.bwtMerged = new int[blockSize];
 
 	final int bwtStartPointer;
 
@@ -25,10 +25,18 @@ package org.itadaki.bzip2;
 import java.io.IOException;
 
 /**
- * A decoder for the BZip2 Huffman coding stage
+ * A decoder for the BZip2 Huffman coding stage. Codes of up to
+ * {@link #LOOKUP_BITS} bits, which are nearly all of the codes in practice,
+ * are decoded with a single table lookup. Longer codes are decoded a bit at a
+ * time
  */
 public class BZip2HuffmanStageDecoder {
 
+    /**
+     * The number of bits looked up at once in the decoding tables
+     */
+    static final int LOOKUP_BITS = 10;
+
     /**
      * The BZip2BitInputStream from which Huffman codes are read
      */
@@ -63,6 +71,14 @@ public class BZip2HuffmanStageDecoder {
      */
     private final int[][] codeSymbols = new int[BZip2Constants.HUFFMAN_MAXIMUM_TABLES][BZip2Constants.HUFFMAN_MAXIMUM_ALPHABET_SIZE];
 
+    /**
+     * A table for each Huffman table indexed by the next {@link #LOOKUP_BITS}
+     * bits of input. Each entry holds the decoded symbol shifted left 8 bits
+     * and the length of its code, or 0 if the code is longer than
+     * {@link #LOOKUP_BITS}
+     */
+    private final int[][] codeLookups = new int[BZip2Constants.HUFFMAN_MAXIMUM_TABLES][1 << LOOKUP_BITS];
+
     /**
      * The Huffman table for the current group
      */
@@ -74,10 +90,10 @@ public class BZip2HuffmanStageDecoder {
     private int groupIndex = -1;
 
     /**
-     * The byte position within the current group. A new group is selected every
-     * 50 decoded bytes
+     * The number of symbols left to decode in the current group. A new group
+     * is selected every 50 decoded symbols
      */
-    private int groupPosition = -1;
+    private int groupRemaining = 0;
 
     /**
      * Constructs Huffman decoding tables from lists of Canonical Huffman code
@@ -137,6 +153,29 @@ public class BZip2HuffmanStageDecoder {
 		}
 	    }
 
+	    // Populate the lookup table with every code that fits in it. The
+	    // entries for a code are all the values of LOOKUP_BITS bits that
+	    // start with it. Invalid code lengths are left to the bit at a time
+	    // decoding
+	    final int[] tableLookup = this.codeLookups[table];
+	    code = 0;
+	    lookupFill: for (int bitLength = minimumLength; bitLength > 0 && bitLength <= Math.min(maximumLength, LOOKUP_BITS); bitLength++) {
+		for (int symbol = 0; symbol < alphabetSize; symbol++) {
+		    if (codeLengths[symbol] == bitLength) {
+			if (code >= (1 << bitLength)) {
+			    break lookupFill;
+			}
+			final int shift = LOOKUP_BITS - bitLength;
+			final int entry = (symbol << 8) | bitLength;
+			for (int i = code << shift, end = (code + 1) << shift; i < end; i++) {
+			    tableLookup[i] = entry;
+			}
+			code++;
+		    }
+		}
+		code <<= 1;
+	    }
+
 	}
 
     }
@@ -153,7 +192,8 @@ public class BZip2HuffmanStageDecoder {
 	final BZip2BitInputStream bitInputStream = this.bitInputStream;
 
 	// Move to next group selector if required
-	if (((++this.groupPosition % BZip2Constants.HUFFMAN_GROUP_RUN_LENGTH) == 0)) {
+	if (--this.groupRemaining < 0) {
+	    this.groupRemaining = BZip2Constants.HUFFMAN_GROUP_RUN_LENGTH - 1;
 	    this.groupIndex++;
 	    if (this.groupIndex == this.selectors.length) {
 		throw new BZip2Exception("Error decoding BZip2 block");
@@ -162,6 +202,14 @@ public class BZip2HuffmanStageDecoder {
 	}
 
 	final int currentTable = this.currentTable;
+
+	// Most codes are found with one lookup
+	final int entry = this.codeLookups[currentTable][bitInputStream.peekBits(LOOKUP_BITS)];
+	if (entry != 0) {
+	    bitInputStream.skipBits(entry & 0xff);
+	    return entry >>> 8;
+	}
+
 	final int[] tableLimits = this.codeLimits[currentTable];
 	int codeLength = this.minimumLengths[currentTable];
 
@@ -0,0 +1,418 @@
+package org.itadaki.bzip2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p>
+ * An OutputStream wrapper that compresses BZip2 data using a pool of worker
+ * threads. The output is bit for bit the same as that of
+ * {@link BZip2OutputStream} for the same input and block size.
+ * </p>
+ *
+ * <p>
+ * Block boundaries depend only on the run-length encoded input so are decided
+ * on the writing thread. Each full block is then handed to a worker which does
+ * the Burrows Wheeler Transform, Move To Front and Huffman stages into its own
+ * buffer. Compressed blocks are appended to the output stream in order.
+ * </p>
+ *
+ * <p>
+ * The {@link BZip2OutputStream.Callback#blockStart(long)} bit offsets are
+ * exact but are given when a block is appended to the output, which can be
+ * after later bytes have been written. They are always given in block order
+ * and from the thread calling write(), flush(), finish() or close(). Use
+ * {@link #getCurrentBlockIndex()} to find which block the last written byte
+ * went into.
+ * </p>
+ *
+ * <p>
+ * Instances of this class are not threadsafe.
+ * </p>
+ */
+public class ParallelBZip2OutputStream extends OutputStream {
+
+    /**
+     * The stream to which compressed BZip2 data is written
+     */
+    private OutputStream outputStream;
+
+    /**
+     * An OutputStream wrapper that provides bit-level writes
+     */
+    private final BZip2BitOutputStream bitOutputStream;
+
+    /**
+     * (@code true} if the compressed stream has been finished, otherwise
+     * {@code false}
+     */
+    private boolean streamFinished = false;
+
+    /**
+     * The declared maximum block size of the stream (before final run-length
+     * decoding)
+     */
+    private final int streamBlockSize;
+
+    /**
+     * The merged CRC of all blocks written so far
+     */
+    private int streamCRC = 0;
+
+    /**
+     * The compressor for the block currently accepting input
+     */
+    private PendingBlock currentBlock;
+
+    /**
+     * The index of {@link #currentBlock} in the stream
+     */
+    private long currentBlockIndex = 0;
+
+    /**
+     * The number of uncompressed bytes written before {@link #currentBlock}
+     */
+    private long currentBlockUncompressedStart = 0;
+
+    /**
+     * The number of uncompressed bytes written
+     */
+    private long uncompressedByteCount = 0;
+
+    /**
+     * Blocks given to the workers and not yet written to the output in the
+     * order they must be written
+     */
+    private final LinkedList<Future<CompressedBlock>> compressingBlocks = new LinkedList<Future<CompressedBlock>>();
+
+    /**
+     * The maximum size of {@link #compressingBlocks} before write() waits for
+     * the oldest block to complete
+     */
+    private final int maxCompressingBlocks;
+
+    private final ExecutorService executor;
+
+    private final BZip2OutputStream.Callback callback;
+
+    /**
+     * A block that is accepting input and the buffer that its compressor will
+     * write to
+     */
+    private static class PendingBlock implements Callable<CompressedBlock> {
+	private final ByteArrayOutputStream compressedBytes;
+	private final BZip2BitOutputStream bitOutputStream;
+	private final BZip2BlockCompressor blockCompressor;
+
+	public PendingBlock(final int blockSize) {
+	    this.compressedBytes = new ByteArrayOutputStream(blockSize >> 2);
+	    this.bitOutputStream = new BZip2BitOutputStream(this.compressedBytes);
+	    this.blockCompressor = new BZip2BlockCompressor(this.bitOutputStream, blockSize);
+	}
+
+	@Override
+	public CompressedBlock call() throws IOException {
+	    this.blockCompressor.close();
+	    long bitCount = this.bitOutputStream.totalBitCount();
+	    this.bitOutputStream.flush();
+	    return new CompressedBlock(this.compressedBytes.toByteArray(), bitCount, this.blockCompressor.getCRC());
+	}
+    }
+
+    /**
+     * A compressed block. The last byte of data may only be partly used
+     */
+    private static class CompressedBlock {
+	private final byte[] data;
+	private final long bitCount;
+	private final int crc;
+
+	public CompressedBlock(final byte[] data, final long bitCount, final int crc) {
+	    this.data = data;
+	    this.bitCount = bitCount;
+	    this.crc = crc;
+	}
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(final int value) throws IOException {
+
+	checkWritable();
+
+	if (!this.currentBlock.blockCompressor.write(value & 0xff)) {
+	    closeBlock();
+	    initialiseNextBlock();
+	    this.currentBlock.blockCompressor.write(value & 0xff);
+	}
+	this.uncompressedByteCount++;
+
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(final byte[] data, int offset, int length) throws IOException {
+
+	checkWritable();
+
+	int bytesWritten;
+	while (length > 0) {
+	    bytesWritten = this.currentBlock.blockCompressor.write(data, offset, length);
+	    this.uncompressedByteCount += bytesWritten;
+	    if (bytesWritten < length) {
+		closeBlock();
+		initialiseNextBlock();
+	    }
+	    offset += bytesWritten;
+	    length -= bytesWritten;
+	}
+
+    }
+
+    /**
+     * Writes any blocks that the workers have finished compressing to the
+     * output stream. Doesn't wait for blocks still being compressed or
+     * compress the block currently accepting input
+     *
+     * @throws IOException
+     *             on any I/O error writing to the output stream
+     */
+    @Override
+    public void flush() throws IOException {
+
+	if (this.outputStream == null) {
+	    throw new BZip2Exception("Stream closed");
+	}
+
+	while (!this.compressingBlocks.isEmpty() && this.compressingBlocks.getFirst().isDone()) {
+	    writeNextCompressedBlock();
+	}
+
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+
+	if (this.outputStream != null) {
+	    try {
+		finish();
+		this.outputStream.close();
+	    } finally {
+		this.outputStream = null;
+		this.executor.shutdownNow();
+	    }
+	}
+
+    }
+
+    /**
+     * Compresses and writes out any as yet unwritten data, then writes the end
+     * of the BZip2 stream. The underlying OutputStream is not closed
+     *
+     * @throws IOException
+     *             on any I/O error writing to the output stream
+     */
+    public void finish() throws IOException {
+
+	if (!this.streamFinished) {
+	    this.streamFinished = true;
+	    try {
+		closeBlock();
+		while (!this.compressingBlocks.isEmpty()) {
+		    writeNextCompressedBlock();
+		}
+		this.bitOutputStream.writeBits(24, BZip2Constants.STREAM_END_MARKER_1);
+		this.bitOutputStream.writeBits(24, BZip2Constants.STREAM_END_MARKER_2);
+		this.bitOutputStream.writeInteger(this.streamCRC);
+		this.bitOutputStream.flush();
+		this.outputStream.flush();
+
+		if (this.callback != null) {
+		    this.callback.finish(this.bitOutputStream.totalBitCount());
+		}
+	    } finally {
+		this.currentBlock = null;
+	    }
+	}
+
+    }
+
+    /**
+     * @return The index of the block that the last byte written went into.
+     *         Block indexes start at 0 and are the same as the order of the
+     *         {@link BZip2OutputStream.Callback#blockStart(long)} calls
+     */
+    public long getCurrentBlockIndex() {
+	return this.currentBlockIndex;
+    }
+
+    /**
+     * @return The number of uncompressed bytes written before the block that
+     *         {@link #getCurrentBlockIndex()} refers to
+     */
+    public long getCurrentBlockUncompressedStart() {
+	return this.currentBlockUncompressedStart;
+    }
+
+    private void checkWritable() throws IOException {
+
+	if (this.outputStream == null) {
+	    throw new BZip2Exception("Stream closed");
+	}
+
+	if (this.streamFinished) {
+	    throw new BZip2Exception("Write beyond end of stream");
+	}
+
+    }
+
+    /**
+     * Initialises a new block for compression
+     */
+    private void initialiseNextBlock() {
+	this.currentBlock = new PendingBlock(this.streamBlockSize);
+	this.currentBlockIndex++;
+	this.currentBlockUncompressedStart = this.uncompressedByteCount;
+    }
+
+    /**
+     * Hands the block currently in progress to the workers. If no bytes have
+     * been written to the block, it is discarded. If there are already the
+     * maximum number of blocks being compressed, waits for the oldest and
+     * writes it out
+     *
+     * @throws IOException
+     *             on any I/O error writing to the output stream
+     */
+    private void closeBlock() throws IOException {
+
+	if (this.currentBlock.blockCompressor.isEmpty()) {
+	    return;
+	}
+
+	while (this.compressingBlocks.size() >= this.maxCompressingBlocks) {
+	    writeNextCompressedBlock();
+	}
+	this.compressingBlocks.add(this.executor.submit(this.currentBlock));
+	flush();
+
+    }
+
+    /**
+     * Waits for the oldest block given to the workers and appends its bits to
+     * the output stream
+     *
+     * @throws IOException
+     *             on any I/O error writing to the output stream or if the block
+     *             failed to compress
+     */
+    private void writeNextCompressedBlock() throws IOException {
+
+	final CompressedBlock compressedBlock;
+	try {
+	    compressedBlock = this.compressingBlocks.removeFirst().get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new BZip2Exception("Interrupted waiting for block compression");
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof IOException) {
+		throw (IOException) cause;
+	    }
+	    throw new RuntimeException(cause);
+	}
+
+	if (this.callback != null) {
+	    this.callback.blockStart(this.bitOutputStream.totalBitCount());
+	}
+
+	final BZip2BitOutputStream bitOutputStream = this.bitOutputStream;
+	final byte[] data = compressedBlock.data;
+	final int wholeBytes = (int) (compressedBlock.bitCount >>> 3);
+	int i = 0;
+	for (; i + 1 < wholeBytes; i += 2) {
+	    bitOutputStream.writeBits(16, ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff));
+	}
+	if (i < wholeBytes) {
+	    bitOutputStream.writeBits(8, data[i] & 0xff);
+	}
+	final int remainingBits = (int) (compressedBlock.bitCount & 7);
+	if (remainingBits > 0) {
+	    bitOutputStream.writeBits(remainingBits, (data[wholeBytes] & 0xff) >>> (8 - remainingBits));
+	}
+
+	this.streamCRC = ((this.streamCRC << 1) | (this.streamCRC >>> 31)) ^ compressedBlock.crc;
+
+    }
+
+    /**
+     * @param outputStream
+     *            The output stream to write to
+     * @param blockSizeMultiplier
+     *            The BZip2 block size as a multiple of 100,000 bytes (minimum
+     *            1, maximum 9)
+     * @param threadCount
+     *            The number of worker threads that compress blocks
+     * @param callback
+     *            Told of block starts and the total size of the stream. Can be
+     *            null
+     * @throws IOException
+     *             on any I/O error writing to the output stream
+     */
+    public ParallelBZip2OutputStream(final OutputStream outputStream, final int blockSizeMultiplier, final int threadCount,
+	    final BZip2OutputStream.Callback callback) throws IOException {
+
+	if (outputStream == null) {
+	    throw new IllegalArgumentException("Null output stream");
+	}
+
+	if ((blockSizeMultiplier < 1) || (blockSizeMultiplier > 9)) {
+	    throw new IllegalArgumentException("Invalid BZip2 block size" + blockSizeMultiplier);
+	}
+
+	if (threadCount < 1) {
+	    throw new IllegalArgumentException("Invalid thread count " + threadCount);
+	}
+
+	this.callback = callback;
+
+	this.streamBlockSize = blockSizeMultiplier * 100000;
+	this.outputStream = outputStream;
+	this.bitOutputStream = new BZip2BitOutputStream(this.outputStream);
+
+	// Enough blocks to keep the workers busy while the oldest is written.
+	this.maxCompressingBlocks = threadCount * 2;
+	this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder().setDaemon(true)
+		.setNameFormat(ParallelBZip2OutputStream.class.getSimpleName() + "-%d").build());
+
+	this.bitOutputStream.writeBits(16, BZip2Constants.STREAM_START_MARKER_1);
+	this.bitOutputStream.writeBits(8, BZip2Constants.STREAM_START_MARKER_2);
+	this.bitOutputStream.writeBits(8, '0' + blockSizeMultiplier);
+
+	this.currentBlock = new PendingBlock(this.streamBlockSize);
+
+    }
+
+}
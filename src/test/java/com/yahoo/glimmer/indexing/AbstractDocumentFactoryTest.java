@@ -11,7 +11,8 @@ package com.yahoo.glimmer.indexing;
  *  See accompanying LICENSE file.
  */
 
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.Hash.Strategy;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenCustomHashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Counters;
@@ -33,7 +34,20 @@ public class AbstractDocumentFactoryTest {
     protected TaskInputOutputContext<?, ?, ?, ?> taskContext;
     protected Configuration conf;
     protected Counters counters = new Counters();
-    protected Object2LongOpenHashMap<CharSequence> resourcesHash;
+    // Keyed by content, as the resource hash functions are, so that lookups
+    // with MutableStrings work.
+    protected Object2LongOpenCustomHashMap<CharSequence> resourcesHash;
+    private static final Strategy<CharSequence> CHAR_SEQUENCE_STRATEGY = new Strategy<CharSequence>() {
+	@Override
+	public int hashCode(CharSequence o) {
+	    return o == null ? 0 : o.toString().hashCode();
+	}
+
+	@Override
+	public boolean equals(CharSequence a, CharSequence b) {
+	    return a == null ? b == null : b != null && a.toString().equals(b.toString());
+	}
+    };
     
     protected void defineMocks(Mockery context) {
     }
@@ -54,7 +68,7 @@ public class AbstractDocumentFactoryTest {
 	context.setImposteriser(ClassImposteriser.INSTANCE);
 	taskContext = context.mock(TaskInputOutputContext.class, "taskContext");
 	conf = new Configuration();
-	resourcesHash = new Object2LongOpenHashMap<CharSequence>();
+	resourcesHash = new Object2LongOpenCustomHashMap<CharSequence>(CHAR_SEQUENCE_STRATEGY);
 	defineMocks(context);
 	
 	context.checking(defineExpectations());
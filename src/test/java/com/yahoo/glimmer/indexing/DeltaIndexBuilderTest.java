@@ -0,0 +1,123 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.web.QueryController;
+
+public class DeltaIndexBuilderTest {
+    static final String DELTA_TUPLES = "DeltaIndexBuilderTest.nq";
+    static final String DELETED_SUBJECTS = "DeltaIndexBuilderTest.deleted";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private RDFIndex index;
+    private long mainDocCount;
+
+    @Before
+    public void before() throws Exception {
+	File indexDir = new File(tempFolder.getRoot(), "index");
+	assertEquals(0, LocalIndexBuilderTest.buildIndex(tempFolder, LocalIndexBuilderTest.copyResource(tempFolder, LocalIndexBuilderTest.TUPLES), indexDir));
+	RDFIndex mainIndex = LocalIndexBuilderTest.openIndex(indexDir);
+	mainDocCount = mainIndex.getCollection().size();
+	mainIndex.destroy();
+
+	assertEquals(0, buildDelta(tempFolder, indexDir, new File(indexDir, "delta")));
+	index = LocalIndexBuilderTest.openIndex(indexDir);
+    }
+
+    @After
+    public void after() {
+	index.destroy();
+    }
+
+    @Test
+    public void queryTest() throws Exception {
+	// The apple isn't red any more and the banana is deleted.
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/fruit/cherry")), LocalIndexBuilderTest.querySubjects(index, "red"));
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/fruit/durian")), LocalIndexBuilderTest.querySubjects(index, "yellow"));
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/fruit/durian")), LocalIndexBuilderTest.querySubjects(index, "spiky"));
+    }
+
+    @Test
+    public void mergeTest() throws Exception {
+	// The apple is from the delta and the grocer from the main index.
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results = LocalIndexBuilderTest.query(index, "green");
+	assertEquals(2, results.size());
+	assertTrue(results.get(0).score >= results.get(1).score);
+	assertEquals(new HashSet<Long>(Arrays.asList(index.getSubjectId("http://example.org/fruit/apple"), index.getSubjectId("http://example.org/shop/grocer"))),
+		new HashSet<Long>(Arrays.asList(results.get(0).document, results.get(1).document)));
+    }
+
+    @Test
+    public void subjectTest() throws Exception {
+	assertNull(index.getSubjectId("http://example.org/fruit/banana"));
+
+	Long appleId = index.getSubjectId("http://example.org/fruit/apple");
+	assertTrue(appleId < mainDocCount);
+	assertEquals("Green Apple", index.getLabel(appleId));
+
+	Long durianId = index.getSubjectId("http://example.org/fruit/durian");
+	assertTrue(durianId >= mainDocCount);
+	assertEquals("http://example.org/fruit/durian", index.lookupResourceById(durianId));
+	assertEquals("Durian", index.getLabel(durianId));
+	assertEquals("http://example.org/fruit/durian", LocalIndexBuilderTest.readRecord(index, durianId).getSubject());
+
+	// A new object only resource isn't a subject.
+	assertNull(index.getSubjectId("http://example.org/fruit/jackfruit"));
+	assertEquals("Cherry", index.getLabel(index.getSubjectId("http://example.org/fruit/cherry")));
+
+	BySubjectRecord record = LocalIndexBuilderTest.readRecord(index, index.getSubjectId("address2"));
+	assertEquals("address2", record.getSubject());
+	assertTrue(record.isBNode());
+    }
+
+    @Test
+    public void resourceQueryTest() throws Exception {
+	// Objects of the main index found in the delta's docs and the other way.
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/shop/market")), LocalIndexBuilderTest.querySubjects(index,
+		QueryController.encodeResources(index, "{http://example.org/fruit/cherry}")));
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/shop/grocer")), LocalIndexBuilderTest.querySubjects(index,
+		QueryController.encodeResources(index, "{http://example.org/fruit/apple}")));
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/fruit/durian")), LocalIndexBuilderTest.querySubjects(index,
+		QueryController.encodeResources(index, "{http://example.org/fruit/jackfruit}")));
+    }
+
+    static int buildDelta(TemporaryFolder tempFolder, File indexDir, File output) throws Exception {
+	return ToolRunner.run(new Configuration(), new DeltaIndexBuilder(), new String[] { "-O", LocalIndexBuilderTest.ontologyPath(), "-t", "2", "-b",
+		"1", "-T", tempFolder.getRoot().getPath(), "-d", LocalIndexBuilderTest.copyResource(tempFolder, DELETED_SUBJECTS).getPath(), indexDir.getPath(),
+		LocalIndexBuilderTest.copyResource(tempFolder, DELTA_TUPLES).getPath(), output.getPath() });
+    }
+}
@@ -0,0 +1,91 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.web.QueryController;
+
+public class IndexCompactorTest {
+    private static final String[] QUERIES = { "red", "yellow", "green", "spiky", "purple" };
+    private static final String[] RESOURCES = { "http://example.org/fruit/apple", "http://example.org/fruit/cherry", "http://example.org/fruit/jackfruit" };
+    private static final String[] SUBJECTS = { "http://example.org/fruit/apple", "http://example.org/fruit/cherry", "http://example.org/fruit/durian",
+	    "http://example.org/shop/grocer", "http://example.org/shop/market", "address1", "address2" };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private RDFIndex withDelta;
+    private RDFIndex compacted;
+
+    @Before
+    public void before() throws Exception {
+	File indexDir = new File(tempFolder.getRoot(), "index");
+	assertEquals(0, LocalIndexBuilderTest.buildIndex(tempFolder, LocalIndexBuilderTest.copyResource(tempFolder, LocalIndexBuilderTest.TUPLES), indexDir));
+	File deltaDir = new File(indexDir, "delta");
+	assertEquals(0, DeltaIndexBuilderTest.buildDelta(tempFolder, indexDir, deltaDir));
+
+	File compactedDir = new File(tempFolder.getRoot(), "compacted");
+	assertEquals(0, ToolRunner.run(new Configuration(), new IndexCompactor(), new String[] { "-O", LocalIndexBuilderTest.ontologyPath(), "-t", "2",
+		"-b", "1", "-T", tempFolder.getRoot().getPath(), indexDir.getPath(), deltaDir.getPath(), compactedDir.getPath() }));
+	assertFalse(new File(compactedDir, "delta").exists());
+
+	withDelta = LocalIndexBuilderTest.openIndex(indexDir);
+	compacted = LocalIndexBuilderTest.openIndex(compactedDir);
+    }
+
+    @After
+    public void after() {
+	withDelta.destroy();
+	compacted.destroy();
+    }
+
+    @Test
+    public void queryTest() throws Exception {
+	for (String query : QUERIES) {
+	    assertEquals(query, LocalIndexBuilderTest.querySubjects(withDelta, query), LocalIndexBuilderTest.querySubjects(compacted, query));
+	}
+	for (String resource : RESOURCES) {
+	    String query = "{" + resource + "}";
+	    assertEquals(query, LocalIndexBuilderTest.querySubjects(withDelta, QueryController.encodeResources(withDelta, query)),
+		    LocalIndexBuilderTest.querySubjects(compacted, QueryController.encodeResources(compacted, query)));
+	}
+    }
+
+    @Test
+    public void subjectTest() throws Exception {
+	assertNull(compacted.getSubjectId("http://example.org/fruit/banana"));
+	for (String subject : SUBJECTS) {
+	    Long id = compacted.getSubjectId(subject);
+	    assertEquals(subject, withDelta.getLabel(withDelta.getSubjectId(subject)), compacted.getLabel(id));
+	    assertEquals(subject, LocalIndexBuilderTest.readRecord(withDelta, withDelta.getSubjectId(subject)).getRelationsCount(), LocalIndexBuilderTest
+		    .readRecord(compacted, id).getRelationsCount());
+	}
+	assertTrue(LocalIndexBuilderTest.readRecord(compacted, compacted.getSubjectId("address1")).isBNode());
+	assertTrue(LocalIndexBuilderTest.readRecord(compacted, compacted.getSubjectId("address2")).isBNode());
+	assertFalse(LocalIndexBuilderTest.readRecord(compacted, compacted.getSubjectId("http://example.org/fruit/durian")).isBNode());
+    }
+}
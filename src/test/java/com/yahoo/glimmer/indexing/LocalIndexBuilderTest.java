@@ -0,0 +1,167 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.query.Context;
+import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.util.BySubjectRecord;
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+
+public class LocalIndexBuilderTest {
+    static final String TUPLES = "LocalIndexBuilderTest.nq";
+    static final String CONTEXT = "LocalIndexBuilderTest.properties";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File indexDir;
+    private RDFIndex index;
+
+    @Before
+    public void before() throws Exception {
+	indexDir = new File(tempFolder.getRoot(), "index");
+	assertEquals(0, buildIndex(tempFolder, copyResource(tempFolder, TUPLES), indexDir));
+	index = openIndex(indexDir);
+    }
+
+    @After
+    public void after() {
+	index.destroy();
+    }
+
+    @Test
+    public void filesTest() {
+	for (String name : new String[] { "all.map", "all.smap", "all.fcs", "bySubject.bz2", "bySubject.blockOffsets", "labels.lz4", "subjects.bitmap",
+		"topPredicates", "horizontal", "vertical" }) {
+	    assertTrue(name, new File(indexDir, name).exists());
+	}
+	assertFalse(new File(indexDir, LocalIndexBuilder.PREP_DIR).exists());
+    }
+
+    @Test
+    public void queryTest() throws Exception {
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/fruit/apple", "http://example.org/fruit/cherry")), querySubjects(index, "red"));
+	assertEquals(new HashSet<String>(Arrays.asList("http://example.org/fruit/banana")), querySubjects(index, "yellow"));
+	assertEquals(new HashSet<String>(), querySubjects(index, "purple"));
+    }
+
+    @Test
+    public void subjectTest() throws IOException {
+	Long appleId = index.getSubjectId("http://example.org/fruit/apple");
+	assertEquals("http://example.org/fruit/apple", index.lookupResourceById(appleId));
+	assertTrue(index.isSubject(appleId));
+
+	// An object only resource isn't a subject.
+	assertNull(index.getSubjectId("http://schema.org/Product"));
+	assertNull(index.getSubjectId("http://example.org/fruit/durian"));
+
+	Long addressId = index.getSubjectId("address1");
+	assertTrue(index.isSubject(addressId));
+    }
+
+    @Test
+    public void labelTest() throws IOException {
+	assertEquals("Red Apple", index.getLabel(index.getSubjectId("http://example.org/fruit/apple")));
+	assertEquals("Green Grocer", index.getLabel(index.getSubjectId("http://example.org/shop/grocer")));
+	assertNull(index.getLabel(index.getSubjectId("address1")));
+    }
+
+    @Test
+    public void collectionTest() throws IOException {
+	BySubjectRecord record = readRecord(index, index.getSubjectId("http://example.org/shop/grocer"));
+	assertEquals("http://example.org/shop/grocer", record.getSubject());
+	Set<String> relations = new HashSet<String>();
+	for (String relation : record.getRelations()) {
+	    relations.add(relation);
+	}
+	assertEquals(5, relations.size());
+	assertTrue(relations.contains("<http://schema.org/makesOffer> <http://example.org/fruit/apple> <http://example.org/ctx> ."));
+	assertTrue(relations.contains("<http://schema.org/address> _:address1 <http://example.org/ctx> ."));
+    }
+
+    static File copyResource(TemporaryFolder tempFolder, String name) throws IOException, URISyntaxException {
+	File file = tempFolder.newFile(name);
+	Files.copy(new File(LocalIndexBuilderTest.class.getClassLoader().getResource(name).toURI()).toPath(), file.toPath(),
+		StandardCopyOption.REPLACE_EXISTING);
+	return file;
+    }
+
+    static String ontologyPath() throws URISyntaxException {
+	return new File(LocalIndexBuilderTest.class.getClassLoader().getResource("schemaDotOrg.owl").toURI()).getPath();
+    }
+
+    static int buildIndex(TemporaryFolder tempFolder, File input, File output) throws Exception {
+	return ToolRunner.run(new Configuration(), new LocalIndexBuilder(), new String[] { "-O", ontologyPath(), "-t", "2", "-b", "1", "-T",
+		tempFolder.getRoot().getPath(), input.getPath(), output.getPath() });
+    }
+
+    static RDFIndex openIndex(File indexDir) throws Exception {
+	Context context = new Context(CONTEXT);
+	context.setKbRootPath(indexDir);
+	return new RDFIndex(indexDir.getName(), context);
+    }
+
+    static ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> query(RDFIndex index, String query) throws Exception {
+	ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results = new ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>();
+	index.process(0, 10, results, index.getParser().parse(query));
+	return results;
+    }
+
+    static Set<String> querySubjects(RDFIndex index, String query) throws Exception {
+	Set<String> subjects = new HashSet<String>();
+	for (DocumentScoreInfo<?> dsi : query(index, query)) {
+	    subjects.add(readRecord(index, dsi.document).getSubject());
+	}
+	return subjects;
+    }
+
+    static BySubjectRecord readRecord(RDFIndex index, long docId) throws IOException {
+	InputStream inputStream = index.getDocumentInputStream(docId);
+	BySubjectRecord record = new BySubjectRecord();
+	try {
+	    record.readFrom(inputStream);
+	} catch (BySubjectRecordException e) {
+	    throw new IOException(e);
+	} finally {
+	    inputStream.close();
+	}
+	return record;
+    }
+}
@@ -0,0 +1,100 @@
+package com.yahoo.glimmer.indexing;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yahoo.glimmer.indexing.RelationCursor.NodeType;
+import com.yahoo.glimmer.util.BySubjectRecord;
+
+public class RelationCursorTest {
+    private static final String[] RELATIONS = { "<http://predicate/1> <http://object/1> <file:/tmp/source> .", "<http://predicate/2> _:BNode2 .",
+	    "<http://predicate/3> \"object 3\"@en <http://context/1> .", "<http://predicate/4> \"4\"^^<http://www.w3.org/2001/XMLSchema#int> .",
+	    "<http://predicate/5> \"grüße 東京 😀\" .", "<http://predicate/6> \"escaped \\\"quote\\\"\" .", "not a relation",
+	    "<http://predicate/7> <http://object/7> ." };
+
+    private BySubjectRecord record;
+    private RelationCursor cursor;
+
+    @Before
+    public void before() {
+	record = new BySubjectRecord();
+	record.setId(33);
+	record.setPreviousId(22);
+	record.setSubject("http://subject/");
+	for (String relation : RELATIONS) {
+	    record.addRelation(relation);
+	}
+	cursor = new RelationCursor();
+    }
+
+    private void assertRelation(String predicate, String object, NodeType objectType, String context) {
+	assertTrue(cursor.next());
+	assertEquals(predicate, cursor.getPredicate().toString());
+	assertEquals(predicate, cursor.getPredicateString());
+	assertEquals(object, cursor.getObject().toString());
+	assertEquals(objectType, cursor.getObjectType());
+	assertEquals(context != null, cursor.hasContext());
+	if (context != null) {
+	    assertEquals(context, cursor.getContext().toString());
+	    assertEquals(NodeType.RESOURCE, cursor.getContextType());
+	}
+    }
+
+    private void assertRelations() {
+	assertEquals(33, cursor.getId());
+	assertEquals("http://subject/", cursor.getSubject());
+	assertRelation("http://predicate/1", "http://object/1", NodeType.RESOURCE, "file:/tmp/source");
+	assertRelation("http://predicate/2", "BNode2", NodeType.BNODE, null);
+	assertRelation("http://predicate/3", "object 3", NodeType.LITERAL, "http://context/1");
+	assertRelation("http://predicate/4", "4", NodeType.LITERAL, null);
+	assertRelation("http://predicate/5", "grüße 東京 😀", NodeType.LITERAL, null);
+	// Parsed by NxParser.
+	assertRelation("http://predicate/6", "escaped \"quote\"", NodeType.LITERAL, null);
+	// "not a relation" is skipped.
+	assertRelation("http://predicate/7", "http://object/7", NodeType.RESOURCE, null);
+	assertFalse(cursor.next());
+	assertEquals(7, cursor.getRelationCount());
+	assertEquals(1, cursor.getSkippedCount());
+    }
+
+    @Test
+    public void textTest() throws Exception {
+	byte[] bytes = (record.toString() + BySubjectRecord.RECORD_DELIMITER).getBytes("UTF-8");
+	cursor.reset(bytes, 0, bytes.length);
+	assertRelations();
+
+	// Reused.
+	bytes = "34\t33\thttp://subject/2\t<http://predicate/1> \"one\" .\t<http://predicate/2> \"two\" .".getBytes("UTF-8");
+	cursor.reset(bytes, 0, bytes.length);
+	assertEquals(34, cursor.getId());
+	assertRelation("http://predicate/1", "one", NodeType.LITERAL, null);
+	// Not FIELD_DELIMITER terminated.
+	assertFalse(cursor.next());
+    }
+
+    @Test
+    public void binaryTest() throws Exception {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	record.writeBinaryTo(out);
+	byte[] bytes = out.toByteArray();
+	cursor.reset(bytes, 0, bytes.length);
+	assertRelations();
+    }
+}
@@ -0,0 +1,59 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import java.util.Arrays;
+
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yahoo.glimmer.indexing.generator.TermValue.Type;
+
+public class AlignmentIndexCombinerTest {
+    private Mockery context;
+    private Reducer<TermKey, TermValue, TermKey, TermValue>.Context combinerContext;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void before() {
+	context = new Mockery();
+	context.setImposteriser(ClassImposteriser.INSTANCE);
+	combinerContext = context.mock(Context.class, "combinerContext");
+    }
+
+    @Test
+    public void combineTest() throws Exception {
+	final TermValue indexIdValue = new TermValue(Type.INDEX_ID, 2);
+	final TermKey alignmentKey = new TermKey("term1", DocumentMapper.ALIGNMENT_INDEX, indexIdValue);
+	final TermValue postings = new TermValue(Type.POSTINGS, 5, new int[] { 1, 4 }, 2);
+	final TermKey postingsKey = new TermKey("term1", 2, postings);
+
+	context.checking(new Expectations() {
+	    {
+		one(combinerContext).write(with(new TermKeyMatcher(DocumentMapper.ALIGNMENT_INDEX, "term1", Type.INDEX_ID, 2)), with(indexIdValue));
+		one(combinerContext).write(with(postingsKey), with(postings));
+	    }
+	});
+
+	AlignmentIndexCombiner combiner = new AlignmentIndexCombiner();
+	combiner.reduce(alignmentKey, Arrays.asList(indexIdValue, new TermValue(Type.INDEX_ID, 2), new TermValue(Type.INDEX_ID, 2)), combinerContext);
+	// Other values are passed through.
+	combiner.reduce(postingsKey, Arrays.asList(postings), combinerContext);
+
+	context.assertIsSatisfied();
+    }
+}
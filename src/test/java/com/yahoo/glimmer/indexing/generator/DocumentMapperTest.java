@@ -127,10 +127,10 @@ public class DocumentMapperTest {
 	    
 	    allowing(doc).content(0);
 	    will(returnValue(new DelimitedWordReader("subject field value".toCharArray(), DELIMITER)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(0, "subject", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(0, "field", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(0, "value", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "subject", 10, 0)), with(new TermValueMatcher(10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "field", 10, 1)), with(new TermValueMatcher(10, 1)));
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "value", 10, 2)), with(new TermValueMatcher(10, 2)));
 	    // The doc size.
 	    one(mapperContext).write(with(new TermKeyMatcher(0, "", Type.DOC_SIZE, 10, 3)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 3)));
 	    // Occurrence counts and last positions.
@@ -140,11 +140,10 @@ public class DocumentMapperTest {
 	    
 	    allowing(doc).content(1);
 	    will(returnValue(new DelimitedWordReader("subjectText field value value".toCharArray(), DELIMITER)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "subjectText", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "field", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "value", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "value", Type.OCCURRENCE, 10, 3)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 3)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(1, "subjectText", 10, 0)), with(new TermValueMatcher(10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(1, "field", 10, 1)), with(new TermValueMatcher(10, 1)));
+	    one(mapperContext).write(with(new TermKeyMatcher(1, "value", 10, 2, 3)), with(new TermValueMatcher(10, 2, 3)));
 	    // The doc size.
 	    one(mapperContext).write(with(new TermKeyMatcher(1, "", Type.DOC_SIZE, 10, 4)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 4)));
 	    // Occurrence counts and last positions.
@@ -154,10 +153,10 @@ public class DocumentMapperTest {
 	    
 	    allowing(doc).content(2);
 	    will(returnValue(new DelimitedWordReader("o1 o2 o3".toCharArray(), DELIMITER)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "o1", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "o2", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "o3", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "o1", 10, 0)), with(new TermValueMatcher(10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "o2", 10, 1)), with(new TermValueMatcher(10, 1)));
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "o3", 10, 2)), with(new TermValueMatcher(10, 2)));
 	    // The doc size.
 	    one(mapperContext).write(with(new TermKeyMatcher(2, "", Type.DOC_SIZE, 10, 3)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 3)));
 	    // Occurrence counts and last positions.
@@ -167,10 +166,9 @@ public class DocumentMapperTest {
 	
 	    allowing(doc).content(3);
 	    will(returnValue(new DelimitedWordReader("p1 p2 p2".toCharArray(), DELIMITER)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(3, "p1", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(3, "p2", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(3, "p2", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(3, "p1", 10, 0)), with(new TermValueMatcher(10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(3, "p2", 10, 1, 2)), with(new TermValueMatcher(10, 1, 2)));
 	    // The doc size.
 	    one(mapperContext).write(with(new TermKeyMatcher(3, "", Type.DOC_SIZE, 10, 3)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 3)));
 	    // Occurrence counts and last positions.
@@ -179,10 +177,8 @@ public class DocumentMapperTest {
 	    
 	    allowing(doc).content(4);
 	    will(returnValue(new DelimitedWordReader("c1 c1 c1".toCharArray(), DELIMITER)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(4, "c1", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(4, "c1", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(4, "c1", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(4, "c1", 10, 0, 1, 2)), with(new TermValueMatcher(10, 0, 1, 2)));
 	    // The doc size.
 	    one(mapperContext).write(with(new TermKeyMatcher(4, "", Type.DOC_SIZE, 10, 3)), with(new TermValueMatcher(Type.DOC_SIZE, 10, 3)));
 	    // Occurrence counts and last positions.
@@ -236,32 +232,28 @@ public class DocumentMapperTest {
 	    one(mapperContext).write(with(new TermKeyMatcher(0, "a", Type.TERM_STATS, 1, 0)), with(new TermValueMatcher(Type.TERM_STATS, 1, 0)));
 	    one(mapperContext).write(with(new TermKeyMatcher(0, "literal", Type.TERM_STATS, 1, 1)), with(new TermValueMatcher(Type.TERM_STATS, 1, 1)));
 	    one(mapperContext).write(with(new TermKeyMatcher(0, "b", Type.TERM_STATS, 1, 2)), with(new TermValueMatcher(Type.TERM_STATS, 1, 2)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(0, "a", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(0, "literal", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(0, "b", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "a", 10, 0)), with(new TermValueMatcher(10, 0)));
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "literal", 10, 1)), with(new TermValueMatcher(10, 1)));
+	    one(mapperContext).write(with(new TermKeyMatcher(0, "b", 10, 2)), with(new TermValueMatcher(10, 2)));
 	    
 	    allowing(doc).content(1);
 	    will(returnValue(new DelimitedWordReader("X Y X".toCharArray(), DELIMITER)));
 	    // Occurrence counts and last positions.
 	    one(mapperContext).write(with(new TermKeyMatcher(1, "X", Type.TERM_STATS, 2, 2)), with(new TermValueMatcher(Type.TERM_STATS, 2, 2)));
 	    one(mapperContext).write(with(new TermKeyMatcher(1, "Y", Type.TERM_STATS, 1, 1)), with(new TermValueMatcher(Type.TERM_STATS, 1, 1)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "X", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "Y", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(1, "X", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(1, "X", 10, 0, 2)), with(new TermValueMatcher(10, 0, 2)));
+	    one(mapperContext).write(with(new TermKeyMatcher(1, "Y", 10, 1)), with(new TermValueMatcher(10, 1)));
 	    
 	    allowing(doc).content(2);
 	    will(returnValue(new DelimitedWordReader("Y Y Z Z Z".toCharArray(), DELIMITER)));
 	    // Occurrence counts and last positions.
 	    one(mapperContext).write(with(new TermKeyMatcher(2, "Y", Type.TERM_STATS, 2, 1)), with(new TermValueMatcher(Type.TERM_STATS, 2, 1)));
 	    one(mapperContext).write(with(new TermKeyMatcher(2, "Z", Type.TERM_STATS, 3, 4)), with(new TermValueMatcher(Type.TERM_STATS, 3, 4)));
-	    // The occurrences
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "Y", Type.OCCURRENCE, 10, 0)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 0)));
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "Y", Type.OCCURRENCE, 10, 1)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 1)));
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "Z", Type.OCCURRENCE, 10, 2)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 2)));
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "Z", Type.OCCURRENCE, 10, 3)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 3)));
-	    one(mapperContext).write(with(new TermKeyMatcher(2, "Z", Type.OCCURRENCE, 10, 4)), with(new TermValueMatcher(Type.OCCURRENCE, 10, 4)));
+	    // The postings
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "Y", 10, 0, 1)), with(new TermValueMatcher(10, 0, 1)));
+	    one(mapperContext).write(with(new TermKeyMatcher(2, "Z", 10, 2, 3, 4)), with(new TermValueMatcher(10, 2, 3, 4)));
 	    
 	    // The ALIGNMENT_INDEX is created for Vertical indexes only. It's just a map between terms and the index they occur in.
 	    one(mapperContext).write(with(new TermKeyMatcher(DocumentMapper.ALIGNMENT_INDEX, "a", Type.INDEX_ID, 0)), with(new TermValueMatcher(Type.INDEX_ID, 0)));
@@ -298,6 +290,9 @@ public class DocumentMapperTest {
 	public TermValueMatcher(Type type, int v1, int v2) {
 	    occurrence = new TermValue(type, v1, v2);
 	}
+	public TermValueMatcher(long docId, int... positions) {
+	    occurrence = new TermValue(Type.POSTINGS, docId, positions, positions.length);
+	}
 	
 	@Override
 	public boolean matches(Object object) {
@@ -0,0 +1,237 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.yahoo.glimmer.indexing.generator.TermValue.Type;
+
+/**
+ * JMH benchmarks of sorting and comparing serialized TermKeys as the map side
+ * sort does, with the compact layout of TermKey and with the fixed layout it
+ * replaced. The fixed layout was the value as int type, long v1 and int v2,
+ * then the index as an int, then the term.
+ * 
+ * Run with main() from the test classpath. main() also prints the serialized
+ * sizes of the keys in both layouts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TermKeyComparatorBenchmark {
+    private static final int KEY_COUNT = 100000;
+
+    private SerializedKeys fixedKeys;
+    private SerializedKeys compactKeys;
+
+    /**
+     * Keys like those written by the DocumentMapper. A TERM_STATS and a
+     * POSTINGS key for each term, field and doc.
+     */
+    static TermKey[] createKeys(int count, long seed) {
+	Random random = new Random(seed);
+	String[] terms = new String[5000];
+	for (int i = 0; i < terms.length; i++) {
+	    terms[i] = i % 3 == 0 ? "@" + random.nextInt(10000000) : "term" + Integer.toString(random.nextInt(1000000), 36);
+	}
+	TermKey[] keys = new TermKey[count];
+	for (int i = 0; i < count; i += 2) {
+	    // Skewed towards the first terms, as natural language is.
+	    String term = terms[(int) (terms.length * Math.pow(random.nextDouble(), 3))];
+	    int index = random.nextInt(10);
+	    int positionCount = 1 + random.nextInt(3);
+	    int lastPosition = random.nextInt(40);
+	    keys[i] = new TermKey(term, index, new TermValue(Type.TERM_STATS, positionCount, lastPosition));
+	    if (i + 1 < count) {
+		keys[i + 1] = new TermKey(term, index, new TermValue(Type.POSTINGS, random.nextInt(10000000), new int[positionCount], positionCount));
+	    }
+	}
+	return keys;
+    }
+
+    private static void writeFixedLayout(TermKey key, DataOutputStream out) throws IOException {
+	TermValue value = key.getValue();
+	out.writeInt(value.getType().ordinal());
+	out.writeLong(value.getV1());
+	out.writeInt(value.getV2());
+	out.writeInt(key.getIndex());
+	Text.writeString(out, key.getTerm());
+    }
+
+    @Setup
+    public void setup() throws IOException {
+	TermKey[] keys = createKeys(KEY_COUNT, 1234);
+	fixedKeys = new SerializedKeys(keys, true, new FixedLayoutComparator());
+	compactKeys = new SerializedKeys(keys, false, new TermKey.Comparator());
+    }
+
+    @Benchmark
+    public int sortFixedLayout() {
+	return fixedKeys.sort();
+    }
+
+    @Benchmark
+    public int sortCompactLayout() {
+	return compactKeys.sort();
+    }
+
+    @Benchmark
+    public int compareFixedLayout() {
+	return fixedKeys.compareAdjacent();
+    }
+
+    @Benchmark
+    public int compareCompactLayout() {
+	return compactKeys.compareAdjacent();
+    }
+
+    /**
+     * The keys serialized one after the other in one buffer, as in the map
+     * output buffer, and sorted through an index.
+     */
+    private static class SerializedKeys implements IndexedSortable {
+	private final byte[] buffer;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final int[] order;
+	private final RawComparator<?> comparator;
+
+	SerializedKeys(TermKey[] keys, boolean fixedLayout, RawComparator<?> comparator) throws IOException {
+	    FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+	    DataOutputStream out = new DataOutputStream(bytes);
+	    offsets = new int[keys.length];
+	    lengths = new int[keys.length];
+	    for (int i = 0; i < keys.length; i++) {
+		offsets[i] = out.size();
+		if (fixedLayout) {
+		    writeFixedLayout(keys[i], out);
+		} else {
+		    keys[i].write(out);
+		}
+		lengths[i] = out.size() - offsets[i];
+	    }
+	    out.flush();
+	    buffer = bytes.array;
+	    order = new int[keys.length];
+	    this.comparator = comparator;
+	}
+
+	int size() {
+	    return offsets[offsets.length - 1] + lengths[lengths.length - 1];
+	}
+
+	int sort() {
+	    for (int i = 0; i < order.length; i++) {
+		order[i] = i;
+	    }
+	    new QuickSort().sort(this, 0, order.length);
+	    return order[0];
+	}
+
+	int compareAdjacent() {
+	    int sum = 0;
+	    for (int i = 1; i < offsets.length; i++) {
+		sum += comparator.compare(buffer, offsets[i - 1], lengths[i - 1], buffer, offsets[i], lengths[i]);
+	    }
+	    return sum;
+	}
+
+	@Override
+	public int compare(int i, int j) {
+	    int a = order[i];
+	    int b = order[j];
+	    return comparator.compare(buffer, offsets[a], lengths[a], buffer, offsets[b], lengths[b]);
+	}
+
+	@Override
+	public void swap(int i, int j) {
+	    int t = order[i];
+	    order[i] = order[j];
+	    order[j] = t;
+	}
+    }
+
+    /**
+     * TermKey.Comparator for the fixed layout.
+     */
+    private static class FixedLayoutComparator extends WritableComparator {
+	private static final int TYPE_BYTE_OFFSET = 0;
+	private static final int V1_BYTE_OFFSET = Integer.SIZE / 8;
+	private static final int V2_BYTE_OFFSET = V1_BYTE_OFFSET + Long.SIZE / 8;
+	private static final int INDEX_BYTE_OFFSET = V2_BYTE_OFFSET + Integer.SIZE / 8;
+	private static final int TERM_BYTE_OFFSET = INDEX_BYTE_OFFSET + Integer.SIZE / 8;
+
+	FixedLayoutComparator() {
+	    super(TermKey.class);
+	}
+
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+	    int index1 = readInt(b1, s1 + INDEX_BYTE_OFFSET);
+	    int index2 = readInt(b2, s2 + INDEX_BYTE_OFFSET);
+	    int d = index1 - index2;
+	    if (d == 0) {
+		int length1 = WritableUtils.decodeVIntSize(b1[s1 + TERM_BYTE_OFFSET]);
+		int length2 = WritableUtils.decodeVIntSize(b2[s2 + TERM_BYTE_OFFSET]);
+		d = compareBytes(b1, s1 + TERM_BYTE_OFFSET + length1, l1 - TERM_BYTE_OFFSET - length1, b2, s2 + TERM_BYTE_OFFSET + length2, l2
+			- TERM_BYTE_OFFSET - length2);
+		if (d == 0) {
+		    d = readInt(b1, s1 + TYPE_BYTE_OFFSET) - readInt(b2, s2 + TYPE_BYTE_OFFSET);
+		    if (d == 0) {
+			long dl = readLong(b1, s1 + V1_BYTE_OFFSET) - readLong(b2, s2 + V1_BYTE_OFFSET);
+			if (dl != 0) {
+			    d = dl > 0 ? 1 : -1;
+			} else {
+			    d = readInt(b1, s1 + V2_BYTE_OFFSET) - readInt(b2, s2 + V2_BYTE_OFFSET);
+			}
+		    }
+		}
+	    }
+	    return d;
+	}
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+	TermKeyComparatorBenchmark benchmark = new TermKeyComparatorBenchmark();
+	benchmark.setup();
+	System.out.println("Serialized bytes of " + KEY_COUNT + " keys. Fixed layout:" + benchmark.fixedKeys.size() + " compact layout:"
+		+ benchmark.compactKeys.size());
+	new Runner(new OptionsBuilder().include(TermKeyComparatorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -13,6 +13,7 @@ package com.yahoo.glimmer.indexing.generator;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
@@ -72,6 +73,22 @@ public class TermKeyTest {
 	assertTrue(compare(new TermKey("", 4, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey("a", 4, new TermValue(Type.OCCURRENCE, 6, 67))) < 0);
     }
     
+    @Test
+    public void variableLengthComparatorTest() throws IOException {
+	comparator = new TermKey.Comparator();
+	// The alignment index is -1.
+	assertTrue(compare(new TermKey("term1", DocumentMapper.ALIGNMENT_INDEX, new TermValue(Type.INDEX_ID, 6)), new TermKey("term1", 0, new TermValue(Type.TERM_STATS, 6, 67))) < 0);
+	assertTrue(compare(new TermKey("term1", 200, new TermValue(Type.TERM_STATS, 6, 67)), new TermKey("term1", 100, new TermValue(Type.TERM_STATS, 6, 67))) > 0);
+	// Values with different encoded lengths.
+	assertTrue(compare(new TermKey("term1", 4, new TermValue(Type.OCCURRENCE, 6, 300)), new TermKey("term1", 4, new TermValue(Type.OCCURRENCE, 6, 2))) > 0);
+	assertTrue(compare(new TermKey("term1", 4, new TermValue(Type.OCCURRENCE, 1l << 40, 2)), new TermKey("term1", 4, new TermValue(Type.OCCURRENCE, 130, 2))) > 0);
+	// A term that is a prefix of the other.
+	assertTrue(compare(new TermKey("term", 4, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey("term1", 4, new TermValue(Type.TERM_STATS, 6, 67))) < 0);
+	String longTerm = new String(new char[200]).replace('\0', 'x');
+	assertTrue(compare(new TermKey(longTerm, 4, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey(longTerm + "x", 4, new TermValue(Type.TERM_STATS, 6, 67))) < 0);
+	assertEquals(0, compare(new TermKey(longTerm, 4, new TermValue(Type.OCCURRENCE, 6, 67)), new TermKey(longTerm, 4, new TermValue(Type.OCCURRENCE, 6, 67))));
+    }
+    
     @Test
     public void groupTest() throws IOException {
 	comparator = new TermKey.FirstGroupingComparator();
@@ -125,6 +142,31 @@ public class TermKeyTest {
 	assertEquals(key1, key2);
     }
     
+    @Test
+    public void writeReadPostingsTest() throws IOException {
+	TermValue value = new TermValue(Type.POSTINGS, 6, new int[] {3, 10, 67}, 3);
+	TermKey key1 = new TermKey("term1", 4, value);
+	
+	byteArrayOutputStream.reset();
+	key1.write(dataOutput);
+	// The positions are only written with the value.
+	assertEquals(1 + 1 + 5 + 1 + 1 + 1, byteArrayOutputStream.size());
+	value.write(dataOutput);
+	
+	DataInput dataInput = new DataInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+	TermKey key2 = new TermKey();
+	key2.readFields(dataInput);
+	assertEquals(key1, key2);
+	assertNull(key2.getValue().getPositions());
+	
+	TermValue value2 = new TermValue();
+	value2.readFields(dataInput);
+	assertEquals(value, value2);
+	assertEquals(3, value2.getV2());
+	assertEquals(10, value2.getPositions()[1]);
+	assertEquals(67, value2.getPositions()[2]);
+    }
+    
     @Test
     public void firstPartitionerTest() {
 	// The hashCode of "node178qbtfd0x20663837" is Integer.MIN_VALUE
@@ -0,0 +1,135 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import it.unimi.di.big.mg4j.index.BitStreamIndexWriter;
+import it.unimi.di.big.mg4j.index.CompressionFlags;
+import it.unimi.di.big.mg4j.index.CompressionFlags.Coding;
+import it.unimi.di.big.mg4j.index.CompressionFlags.Component;
+import it.unimi.di.big.mg4j.index.DiskBasedIndex;
+import it.unimi.di.big.mg4j.index.Index.PropertyKeys;
+import it.unimi.di.big.mg4j.io.IOFactory;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.util.Properties;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TermRangeConcatenatorTest {
+    private static final int DOCUMENTS = 20;
+    private static final String[] TERMS = { "a", "b", "c", "d", "e" };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void concatenateTest() throws IOException, ConfigurationException {
+	concatenateAndCompare(CompressionFlags.DEFAULT_STANDARD_INDEX);
+    }
+
+    @Test
+    public void noPositionsTest() throws IOException, ConfigurationException {
+	// Like the alignment index.
+	Map<Component, Coding> flags = CompressionFlags.valueOf(new String[] { "FREQUENCIES:GAMMA", "POINTERS:DELTA" }, null);
+	concatenateAndCompare(flags);
+	assertFalse(new File(tempFolder.getRoot(), "out" + DiskBasedIndex.POSITIONS_NUMBER_OF_BITS_EXTENSION).exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentDocumentsTest() throws IOException, ConfigurationException {
+	writeIndex("part0", CompressionFlags.DEFAULT_STANDARD_INDEX, 0, 2);
+	writeIndex("part1", CompressionFlags.DEFAULT_STANDARD_INDEX, 2, 5);
+	Properties properties = new Properties(basename("part1") + DiskBasedIndex.PROPERTIES_EXTENSION);
+	properties.setProperty(PropertyKeys.DOCUMENTS, DOCUMENTS + 1);
+	properties.save(basename("part1") + DiskBasedIndex.PROPERTIES_EXTENSION);
+
+	TermRangeConcatenator.concatenate(basename("out"), new String[] { basename("part0"), basename("part1") });
+    }
+
+    private void concatenateAndCompare(Map<Component, Coding> flags) throws IOException, ConfigurationException {
+	Properties full = writeIndex("full", flags, 0, TERMS.length);
+	// The middle range is empty.
+	writeIndex("part0", flags, 0, 2);
+	writeIndex("part1", flags, 2, 2);
+	writeIndex("part2", flags, 2, TERMS.length);
+
+	TermRangeConcatenator.concatenate(basename("out"), new String[] { basename("part0"), basename("part1"), basename("part2") });
+
+	for (String extension : new String[] { DiskBasedIndex.INDEX_EXTENSION, DiskBasedIndex.OFFSETS_EXTENSION, DiskBasedIndex.FREQUENCIES_EXTENSION,
+		DiskBasedIndex.OCCURRENCIES_EXTENSION, DiskBasedIndex.POSITIONS_NUMBER_OF_BITS_EXTENSION, DiskBasedIndex.SUMS_MAX_POSITION_EXTENSION,
+		DiskBasedIndex.TERMS_EXTENSION }) {
+	    File expected = new File(basename("full") + extension);
+	    File actual = new File(basename("out") + extension);
+	    assertEquals(extension, expected.exists(), actual.exists());
+	    if (expected.exists()) {
+		assertArrayEquals(extension, Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+	    }
+	}
+
+	Properties properties = new Properties(basename("out") + DiskBasedIndex.PROPERTIES_EXTENSION);
+	assertEquals(DOCUMENTS, properties.getLong(PropertyKeys.DOCUMENTS));
+	assertEquals(TERMS.length, properties.getLong(PropertyKeys.TERMS));
+	assertEquals(full.getLong(PropertyKeys.POSTINGS), properties.getLong(PropertyKeys.POSTINGS));
+	assertEquals(full.getLong(PropertyKeys.OCCURRENCES, 0), properties.getLong(PropertyKeys.OCCURRENCES, 0));
+	assertEquals(full.getInt(PropertyKeys.MAXCOUNT), properties.getInt(PropertyKeys.MAXCOUNT));
+    }
+
+    private String basename(String name) {
+	return new File(tempFolder.getRoot(), name).getPath();
+    }
+
+    /**
+     * Writes an index of the terms from firstTerm to lastTerm (exclusive).
+     * Term t is in every (t + 1)th doc with t + 1 positions.
+     */
+    private Properties writeIndex(String name, Map<Component, Coding> flags, int firstTerm, int lastTerm) throws IOException, ConfigurationException {
+	String basename = basename(name);
+	boolean hasPositions = flags.containsKey(Component.POSITIONS);
+	BitStreamIndexWriter writer = new BitStreamIndexWriter(IOFactory.FILESYSTEM_FACTORY, basename, DOCUMENTS, true, flags);
+	Writer termsWriter = new OutputStreamWriter(new FileOutputStream(basename + DiskBasedIndex.TERMS_EXTENSION), "UTF-8");
+	int[] positions = new int[TERMS.length];
+	for (int i = 0; i < positions.length; i++) {
+	    positions[i] = i * 3 + 1;
+	}
+	for (int t = firstTerm; t < lastTerm; t++) {
+	    termsWriter.write(TERMS[t] + "\n");
+	    writer.newInvertedList();
+	    writer.writeFrequency((DOCUMENTS + t) / (t + 1));
+	    for (int document = 0; document < DOCUMENTS; document += t + 1) {
+		OutputBitStream out = writer.newDocumentRecord();
+		writer.writeDocumentPointer(out, document);
+		if (hasPositions) {
+		    writer.writePositionCount(out, t + 1);
+		    writer.writeDocumentPositions(out, positions, 0, t + 1, -1);
+		}
+	    }
+	}
+	termsWriter.close();
+	Properties properties = writer.properties();
+	writer.close();
+	properties.save(basename + DiskBasedIndex.PROPERTIES_EXTENSION);
+	return properties;
+    }
+}
@@ -0,0 +1,100 @@
+package com.yahoo.glimmer.indexing.generator;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is 
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.yahoo.glimmer.indexing.generator.TermValue.Type;
+
+public class TermRangePartitionerTest {
+    private static final TermValue VALUE = new TermValue(Type.TERM_STATS, 1, 1);
+
+    private static int partition(TermRangePartitioner partitioner, String term, int index) {
+	return partitioner.getPartition(new TermKey(term, index, VALUE), VALUE, 3);
+    }
+
+    @Test
+    public void getPartitionTest() {
+	TermRangePartitioner partitioner = new TermRangePartitioner();
+	partitioner.setSplitPoints(new String[] { "g", "p" });
+
+	// DOC_SIZE values always go to the first reducer.
+	assertEquals(0, partition(partitioner, TermKey.DOC_SIZE_TERM, 2));
+	assertEquals(0, partition(partitioner, "@123", 0));
+	assertEquals(0, partition(partitioner, "fzzz", 0));
+	assertEquals(1, partition(partitioner, "g", 0));
+	assertEquals(1, partition(partitioner, "g", DocumentMapper.ALIGNMENT_INDEX));
+	assertEquals(1, partition(partitioner, "oak", 1));
+	assertEquals(2, partition(partitioner, "p", 1));
+	assertEquals(2, partition(partitioner, "zebra", 1));
+    }
+
+    @Test
+    public void codePointOrderTest() {
+	TermRangePartitioner partitioner = new TermRangePartitioner();
+	// U+FF61 is before U+1F600 by code point and in UTF-8, but after its
+	// surrogates in UTF-16.
+	partitioner.setSplitPoints(new String[] { "\uFF61", "\uFFFD" });
+	assertEquals(0, partition(partitioner, "\uFF60", 0));
+	assertEquals(1, partition(partitioner, "\uFF61", 0));
+	assertEquals(2, partition(partitioner, "\uD83D\uDE00", 0));
+
+	List<String> terms = new ArrayList<String>(Arrays.asList("\uD83D\uDE00", "\uFF61", "a", "\uD83D\uDE00"));
+	assertArrayEquals(new String[] { "\uD83D\uDE00" }, TermRangePartitioner.chooseSplitPoints(terms, 2));
+	assertEquals(Arrays.asList("a", "\uFF61", "\uD83D\uDE00", "\uD83D\uDE00"), terms);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrongPartitionCountTest() {
+	TermRangePartitioner partitioner = new TermRangePartitioner();
+	partitioner.setSplitPoints(new String[] { "g" });
+	partition(partitioner, "a", 0);
+    }
+
+    @Test
+    public void chooseSplitPointsTest() {
+	List<String> terms = new ArrayList<String>(Arrays.asList("d", "a", "b", "c", "c", "c", "e", "f", "c"));
+	// Sorted: a b c c c c d e f
+	assertArrayEquals(new String[] { "c", "d" }, TermRangePartitioner.chooseSplitPoints(terms, 3));
+	assertArrayEquals(new String[] { "c", "c", "d" }, TermRangePartitioner.chooseSplitPoints(terms, 4));
+	assertArrayEquals(new String[0], TermRangePartitioner.chooseSplitPoints(terms, 1));
+    }
+
+    @Test
+    public void writeReadTest() throws IOException {
+	File file = File.createTempFile(TermRangePartitionerTest.class.getSimpleName(), ".termSplitPoints");
+	file.deleteOnExit();
+	Configuration conf = new Configuration();
+	FileSystem fs = FileSystem.getLocal(conf);
+	Path path = new Path(file.getAbsolutePath());
+	String[] splitPoints = { "@17", "caf\u00e9", "zz" };
+	TermRangePartitioner.writeSplitPoints(fs, path, splitPoints);
+
+	conf.set(TermRangePartitioner.SPLIT_POINTS_PATH, "file://" + file.getAbsolutePath());
+	TermRangePartitioner partitioner = new TermRangePartitioner();
+	partitioner.setConf(conf);
+	assertEquals(2, partitioner.getPartition(new TermKey("caf\u00e9", 0, VALUE), VALUE, 4));
+	assertArrayEquals(splitPoints, TermRangePartitioner.readSplitPoints(fs, path));
+    }
+}
@@ -186,6 +186,70 @@ public class TermReduceTest {
 	context.assertIsSatisfied();
     }
     
+    @Test
+    public void postingsTest() throws Exception {
+	context.checking(new Expectations() {{
+	    allowing(reducerContext).setStatus(with(any(String.class)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterTermValueMatcher("term1", 3, 6, 15 + 12 + 18)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterDocValueMatcher(3, 11, 15)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterDocValueMatcher(4, 12)));
+	    one(reducerContext).write(
+		    with(new IntWritable(0)),
+		    with(new IndexRecordWriterDocValueMatcher(7, 14, 17, 18)));
+	    
+	    one(reducerContext).write(
+		    with(new IntWritable(1)),
+		    with(new IndexRecordWriterTermValueMatcher("term2", 1, 1, 9)));
+	    one(reducerContext).write(
+		    with(new IntWritable(1)),
+		    with(new IndexRecordWriterDocValueMatcher(2, 9)));
+	}});
+	
+	TermReduce reducer = new TermReduce();
+	reducer.setup(reducerContext);
+	
+	TermKey key = new TermKey("term1", 0, null);
+	ArrayList<TermValue> values = new ArrayList<TermValue>();
+	values.add(new TermValue(Type.TERM_STATS, 2, 15));
+	values.add(new TermValue(Type.TERM_STATS, 1, 12));
+	values.add(new TermValue(Type.TERM_STATS, 3, 18));
+	values.add(new TermValue(Type.POSTINGS, 3, new int[] {11, 15}, 2));
+	values.add(new TermValue(Type.POSTINGS, 4, new int[] {12, 99}, 1));
+	values.add(new TermValue(Type.POSTINGS, 7, new int[] {14, 17, 18}, 3));
+	reducer.reduce(key, values, reducerContext);
+	
+	key = new TermKey("term2", 1, null);
+	values.clear();
+	values.add(new TermValue(Type.TERM_STATS, 1, 9));
+	values.add(new TermValue(Type.POSTINGS, 2, new int[] {9}, 1));
+	reducer.reduce(key, values, reducerContext);
+	
+	context.assertIsSatisfied();
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void duplicatePostingsTest() throws Exception {
+	context.checking(new Expectations() {{
+	    allowing(reducerContext).setStatus(with(any(String.class)));
+	    allowing(reducerContext).write(with(any(IntWritable.class)), with(any(IndexRecordWriterValue.class)));
+	}});
+	
+	TermReduce reducer = new TermReduce();
+	reducer.setup(reducerContext);
+	
+	ArrayList<TermValue> values = new ArrayList<TermValue>();
+	values.add(new TermValue(Type.TERM_STATS, 2, 15));
+	values.add(new TermValue(Type.POSTINGS, 3, new int[] {11}, 1));
+	values.add(new TermValue(Type.POSTINGS, 3, new int[] {15}, 1));
+	reducer.reduce(new TermKey("term1", 0, null), values, reducerContext);
+    }
+    
     private static class IndexRecordWriterTermValueMatcher extends BaseMatcher<IndexRecordWriterTermValue> {
 	private final IndexRecordWriterTermValue termValue;
 
@@ -12,7 +12,10 @@ package com.yahoo.glimmer.indexing.preprocessor;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -47,6 +50,8 @@ import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OutputCount;
 import com.yahoo.glimmer.util.BlockCompressedDocumentCollection;
 import com.yahoo.glimmer.util.BySubjectRecord;
 import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+import com.yahoo.glimmer.util.LabelStore;
+import com.yahoo.glimmer.util.SubjectBitmap;
 
 public class ResourceRecordWriterTest {
     private Mockery context;
@@ -57,6 +62,8 @@ public class ResourceRecordWriterTest {
     private FSDataOutputStream predicateOs;
     private FSDataOutputStream objectOs;
     private FSDataOutputStream contextOs;
+    private FSDataOutputStream labelsOs;
+    private FSDataOutputStream subjectBitmapOs;
     
     @Rule
     public TemporaryFolder tempFolder = new TemporaryFolder();
@@ -65,6 +72,8 @@ public class ResourceRecordWriterTest {
     @Before
     public void before() throws IOException {
 	tempDirPath = new Path(tempFolder.getRoot().getCanonicalPath());
+	labelsOs = new FSDataOutputStream(new FileOutputStream(new File(tempFolder.getRoot(), "labels.lz4")), null);
+	subjectBitmapOs = new FSDataOutputStream(new FileOutputStream(new File(tempFolder.getRoot(), "subjects.bitmap")), null);
 	
 	context = new Mockery();
 	context.setImposteriser(ClassImposteriser.INSTANCE);
@@ -91,6 +100,10 @@ public class ResourceRecordWriterTest {
 		will(returnValue(objectOs));
 		one(fs).create(with(new Path(tempDirPath, "contexts")), with(false));
 		will(returnValue(contextOs));
+		one(fs).create(with(new Path(tempDirPath, "labels.lz4")), with(false));
+		will(returnValue(labelsOs));
+		one(fs).create(with(new Path(tempDirPath, "subjects.bitmap")), with(false));
+		will(returnValue(subjectBitmapOs));
 		one(allOs).close();
 		one(subjectOs).close();
 		one(predicateOs).close();
@@ -177,6 +190,71 @@ public class ResourceRecordWriterTest {
 	bySubjectFileInputStream.close();
     }
     
+    @Test
+    public void docIdOffsetTest() throws IOException, InterruptedException, BySubjectRecordException {
+	ByteArrayOutputStream bySubjectBos = new ByteArrayOutputStream(1024);
+	FSDataOutputStream bySubjectOs = new FSDataOutputStream(bySubjectBos, null);
+	ByteArrayOutputStream bySubjectOffsetsBos = new ByteArrayOutputStream(1024);
+	FSDataOutputStream bySubjectOffsetsOs = new FSDataOutputStream(bySubjectOffsetsBos, null);
+
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.bz2")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOs));
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.blockOffsets")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOffsetsOs));
+
+	e.one(allOs).write(e.with(new ByteMatcher("http://a/key1\n", true)), e.with(0), e.with(14));
+	e.one(subjectOs).write(e.with(new ByteMatcher("http://a/key1\nhttp://a/key2\n", true)), e.with(0), e.with(28));
+	context.checking(e);
+
+	// key2's id is from another build's hash, as in delta builds. key1 is
+	// new and gets the first id after that build's docs.
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, tempDirPath, null);
+	writer.setDocIdOffset(100);
+
+	OutputCount outputCount = new OutputCount();
+	outputCount.output = OUTPUT.ALL;
+	outputCount.count = 0;
+	writer.write(new Text("http://a/key1"), outputCount);
+	BySubjectRecord record = new BySubjectRecord();
+	record.setId(100);
+	record.setSubject("http://a/key1");
+	record.addRelation("<http://predicate/> <http://Object1> .");
+	writer.write(new Text("http://a/key1"), record);
+	record = new BySubjectRecord();
+	record.setId(66);
+	record.setPreviousId(100);
+	record.setSubject("http://a/key2");
+	record.addRelation("<http://predicate/> <http://Object2> .");
+	writer.write(new Text("http://a/key2"), record);
+	writer.close(null);
+
+	context.assertIsSatisfied();
+
+	File bySubjectTempFile = tempFolder.newFile("bySubject.bz2");
+	FileOutputStream tempFileOutputStream = new FileOutputStream(bySubjectTempFile);
+	bySubjectBos.writeTo(tempFileOutputStream);
+	tempFileOutputStream.close();
+
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("foo", null, 10);
+	FileInputStream bySubjectFileInputStream = new FileInputStream(bySubjectTempFile);
+	collection.init(bySubjectFileInputStream.getChannel(), new ByteArrayInputStream(bySubjectOffsetsBos.toByteArray()), 100000);
+
+	assertEquals(101l, collection.size());
+	assertEquals(-1, collection.stream(65l).read());
+	assertEquals(-1, collection.stream(99l).read());
+	// The new record was written after the replacement.
+	record = new BySubjectRecord();
+	record.readFrom(collection.stream(66l));
+	assertEquals("http://a/key2", record.getSubject());
+	assertEquals(-1l, record.getPreviousId());
+	record.readFrom(collection.stream(100l));
+	assertEquals("http://a/key1", record.getSubject());
+	assertEquals(66l, record.getPreviousId());
+
+	collection.close();
+	bySubjectFileInputStream.close();
+    }
+
     @Test
     public void bySubjectsTest() throws IOException, InterruptedException, NoSuchAlgorithmException, BySubjectRecordException {
 	FSDataOutputStream bySubjectOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.bz2")), null);
@@ -314,6 +392,123 @@ public class ResourceRecordWriterTest {
 	collection.close();
     }
     
+    @Test
+    public void labelsTest() throws IOException, InterruptedException {
+	FSDataOutputStream bySubjectOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.bz2")), null);
+	FSDataOutputStream bySubjectOffsetsOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.blockOffsets")), null);
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.bz2")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOs));
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.blockOffsets")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOffsetsOs));
+	e.allowing(subjectOs).write(e.with(new ByteMatcher()), e.with(0), e.with(Expectations.any(Integer.class)));
+	e.allowing(allOs).write(e.with(new ByteMatcher()), e.with(0), e.with(Expectations.any(Integer.class)));
+	context.checking(e);
+
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, tempDirPath, null);
+	OutputCount outputCount = new OutputCount();
+	outputCount.output = OUTPUT.ALL;
+	BySubjectRecord record = new BySubjectRecord();
+	for (int id = 0; id < 4; id++) {
+	    writer.write(new Text("http://a/key" + id), outputCount);
+	    record.setId(id);
+	    record.setSubject("http://a/key" + id);
+	    record.clearRelations();
+	    record.addRelation("<http://predicate/> <http://Object> .");
+	    if (id % 2 == 0) {
+		record.addRelation("<http://www.w3.org/2000/01/rdf-schema#label> \"Key " + id + "\"@en .");
+		record.addRelation("<http://xmlns.com/foaf/0.1/name> \"Name " + id + "\" .");
+	    }
+	    writer.write(null, record);
+	    record.setPreviousId(id);
+	}
+	writer.close(null);
+	context.assertIsSatisfied();
+
+	LabelStore labelStore = new LabelStore(tempFolder.getRoot(), 1024 * 1024);
+	// The last label relation.
+	assertEquals("Name 0", labelStore.getLabel(0));
+	assertNull(labelStore.getLabel(1));
+	assertEquals("Name 2", labelStore.getLabel(2));
+	assertNull(labelStore.getLabel(3));
+	assertNull(labelStore.getLabel(4));
+	labelStore.close();
+    }
+
+    @Test
+    public void noLabelsTest() throws IOException, InterruptedException {
+	FSDataOutputStream bySubjectOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.bz2")), null);
+	FSDataOutputStream bySubjectOffsetsOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.blockOffsets")), null);
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.bz2")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOs));
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.blockOffsets")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOffsetsOs));
+	e.allowing(subjectOs).write(e.with(new ByteMatcher()), e.with(0), e.with(Expectations.any(Integer.class)));
+	e.allowing(allOs).write(e.with(new ByteMatcher()), e.with(0), e.with(Expectations.any(Integer.class)));
+	context.checking(e);
+
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, tempDirPath, null);
+	OutputCount outputCount = new OutputCount();
+	outputCount.output = OUTPUT.ALL;
+	BySubjectRecord record = new BySubjectRecord();
+	for (int id = 0; id < 3; id++) {
+	    writer.write(new Text("http://a/key" + id), outputCount);
+	    record.setId(id);
+	    record.setSubject("http://a/key" + id);
+	    record.clearRelations();
+	    record.addRelation("<http://predicate/> <http://Object> .");
+	    writer.write(null, record);
+	    record.setPreviousId(id);
+	}
+	writer.close(null);
+	context.assertIsSatisfied();
+
+	LabelStore labelStore = new LabelStore(tempFolder.getRoot(), 1024 * 1024);
+	for (int id = 0; id < 4; id++) {
+	    assertNull(labelStore.getLabel(id));
+	}
+	labelStore.close();
+    }
+
+    @Test
+    public void subjectBitmapTest() throws IOException, InterruptedException {
+	FSDataOutputStream bySubjectOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.bz2")), null);
+	FSDataOutputStream bySubjectOffsetsOs = new FSDataOutputStream(new FileOutputStream(new File(tempDirPath.toUri().getPath(), "bySubject.blockOffsets")), null);
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.bz2")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOs));
+	e.one(fs).create(e.with(new Path(tempDirPath, "bySubject.blockOffsets")), e.with(false));
+	e.will(Expectations.returnValue(bySubjectOffsetsOs));
+	e.allowing(subjectOs).write(e.with(new ByteMatcher()), e.with(0), e.with(Expectations.any(Integer.class)));
+	e.allowing(allOs).write(e.with(new ByteMatcher()), e.with(0), e.with(Expectations.any(Integer.class)));
+	context.checking(e);
+
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, tempDirPath, null);
+	OutputCount outputCount = new OutputCount();
+	outputCount.output = OUTPUT.ALL;
+	BySubjectRecord record = new BySubjectRecord();
+	for (int id = 0; id < 70; id++) {
+	    writer.write(new Text("http://a/key" + id), outputCount);
+	    // Only some resources are subjects.
+	    if (id % 3 == 1 || id == 69) {
+		record.setId(id);
+		record.setSubject("http://a/key" + id);
+		record.clearRelations();
+		record.addRelation("<http://predicate/> <http://Object> .");
+		writer.write(null, record);
+		record.setPreviousId(id);
+	    }
+	}
+	writer.close(null);
+	context.assertIsSatisfied();
+
+	SubjectBitmap subjectBitmap = new SubjectBitmap(tempFolder.getRoot());
+	assertEquals(70, subjectBitmap.getDocCount());
+	assertEquals(24, subjectBitmap.getSubjectCount());
+	for (int id = 0; id < 70; id++) {
+	    assertEquals(id % 3 == 1 || id == 69, subjectBitmap.isSubject(id));
+	}
+	assertFalse(subjectBitmap.isSubject(70));
+    }
+
     private static class ByteMatcher extends BaseMatcher<byte[]> {
 	private byte[] bytes;
 	private boolean ignoreTrailingBytes;
@@ -0,0 +1,142 @@
+package com.yahoo.glimmer.indexing.preprocessor;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.indexing.CompressionCodecHelper;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OUTPUT;
+import com.yahoo.glimmer.indexing.preprocessor.ResourceRecordWriter.OutputCount;
+import com.yahoo.glimmer.util.BySubjectRecord;
+
+public class ResourcesMergerTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    private Configuration conf;
+    private FileSystem fs;
+    private long[] partDocIds;
+
+    @Before
+    public void before() throws IOException {
+	conf = new Configuration();
+	conf.set("fs.default.name", "file:///");
+	fs = FileSystem.getLocal(conf);
+	partDocIds = new long[2];
+    }
+
+    @Test
+    public void mergeTest() throws IOException, InterruptedException {
+	// As two reducers would have written them. Each part's ids are its own.
+	Path part0 = new Path(tempFolder.getRoot().getCanonicalPath(), "part-r-00000");
+	ResourceRecordWriter writer = new ResourceRecordWriter(fs, part0, null, 1);
+	write(writer, 0, "http://a/1", 0, false, "<http://p/> \"one\" .");
+	write(writer, 0, "http://a/3", 2, true);
+	write(writer, 0, "http://a/4", 0, true, "<http://p/> <http://a/1> .", "<http://p/> \"four\" .");
+	writer.close(null);
+
+	Path part1 = new Path(tempFolder.getRoot().getCanonicalPath(), "part-r-00001");
+	writer = new ResourceRecordWriter(fs, part1, null, 1);
+	write(writer, 1, "http://a/0", 0, false, "<http://p/> \"zero\" .");
+	write(writer, 1, "http://a/2", 0, true);
+	write(writer, 1, "http://p/", 5, false);
+	writer.close(null);
+
+	Path merged = new Path(tempFolder.getRoot().getCanonicalPath(), "merged");
+	writer = new ResourceRecordWriter(fs, merged, null, 1);
+	assertEquals(6, ResourcesMerger.merge(conf, Arrays.asList(part0, part1), null, writer));
+
+	File mergedDir = new File(merged.toUri().getPath());
+	assertEquals(Arrays.asList("http://a/0", "http://a/1", "http://a/2", "http://a/3", "http://a/4", "http://p/"), lines(new File(mergedDir, "all")));
+	assertEquals(Arrays.asList("http://a/0", "http://a/1", "http://a/4"), lines(new File(mergedDir, "subjects")));
+	assertEquals(Arrays.asList("2\thttp://a/3", "5\thttp://p/"), lines(new File(mergedDir, "predicates")));
+	assertEquals(Arrays.asList("http://a/2", "http://a/3", "http://a/4"), lines(new File(mergedDir, "objects")));
+	assertEquals(0, lines(new File(mergedDir, "contexts")).size());
+
+	// The records' ids are the subjects' positions in the merged 'all'.
+	Path bySubjectPath = new Path(merged, "bySubject.bz2");
+	InputStream bySubjectInputStream = CompressionCodecHelper.wrapStream(conf, bySubjectPath, fs.open(bySubjectPath));
+	List<String> records = new ArrayList<String>();
+	for (String line : new String(readFully(bySubjectInputStream), UTF8).split("\n")) {
+	    if (!line.isEmpty()) {
+		records.add(line);
+	    }
+	}
+	assertEquals(3, records.size());
+	assertEquals("0\t-1\thttp://a/0\t<http://p/> \"zero\" .\t", records.get(0));
+	assertEquals("1\t0\thttp://a/1\t<http://p/> \"one\" .\t", records.get(1));
+	assertEquals("4\t1\thttp://a/4\t<http://p/> <http://a/1> .\t<http://p/> \"four\" .\t", records.get(2));
+    }
+
+    private void write(ResourceRecordWriter writer, int part, String key, int predicateCount, boolean object, String... relations) throws IOException,
+	    InterruptedException {
+	Text keyText = new Text(key);
+	OutputCount outputCount = new OutputCount();
+	outputCount.output = OUTPUT.ALL;
+	writer.write(keyText, outputCount);
+	if (relations.length > 0) {
+	    BySubjectRecord record = new BySubjectRecord();
+	    record.setId(partDocIds[part]);
+	    record.setSubject(key);
+	    for (String relation : relations) {
+		record.addRelation(relation);
+	    }
+	    writer.write(keyText, record);
+	}
+	if (predicateCount > 0) {
+	    outputCount.output = OUTPUT.PREDICATE;
+	    outputCount.count = predicateCount;
+	    writer.write(keyText, outputCount);
+	}
+	if (object) {
+	    outputCount.output = OUTPUT.OBJECT;
+	    outputCount.count = 1;
+	    writer.write(keyText, outputCount);
+	}
+	partDocIds[part]++;
+    }
+
+    private static List<String> lines(File file) throws IOException {
+	return Files.readAllLines(file.toPath(), UTF8);
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	byte[] buffer = new byte[4096];
+	int read;
+	while ((read = inputStream.read(buffer)) != -1) {
+	    bytes.write(buffer, 0, read);
+	}
+	inputStream.close();
+	return bytes.toByteArray();
+    }
+}
@@ -152,6 +152,7 @@ public class TuplesToResourcesMapperTest {
 	    one(mrContext).write(with(new TextMatcher("http://www.example.org/terms/place")), with(new TextMatcher("PREDICATE")));
 	    one(mrContext).write(with(new TextMatcher("NodeABC")), with(new TextMatcher("OBJECT")));
 	    one(mrContext).write(with(new TextMatcher("nodeXYZ")), with(new TextMatcher("<http://www.example.org/terms/place> _:NodeABC .")));
+	    one(mrContext).write(with(new TextMatcher("nodeXYZ")), with(new TextMatcher("BNODE")));
 	}});
 	TuplesToResourcesMapper mapper = new TuplesToResourcesMapper();
 	mapper.map(new LongWritable(5l), new Text(
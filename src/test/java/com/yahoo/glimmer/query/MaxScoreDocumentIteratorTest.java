@@ -0,0 +1,232 @@
+package com.yahoo.glimmer.query;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.index.IndexIterator;
+import it.unimi.di.big.mg4j.search.DocumentIterator;
+import it.unimi.di.big.mg4j.search.IntervalIterator;
+import it.unimi.di.big.mg4j.search.visitor.AbstractDocumentIteratorVisitor;
+import it.unimi.di.big.mg4j.search.visitor.DocumentIteratorVisitor;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceMap;
+import it.unimi.dsi.fastutil.objects.ReferenceArraySet;
+import it.unimi.dsi.fastutil.objects.ReferenceSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MaxScoreDocumentIteratorTest {
+    @Test
+    public void unionTest() throws IOException {
+	MaxScoreDocumentIterator iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { new ArrayDocumentIterator(1, 4, 7),
+		new ArrayDocumentIterator(2, 4, 9), new ArrayDocumentIterator(3) }, new double[] { 1, 1, 1 });
+	assertEquals(new LongArrayList(new long[] { 1, 2, 3, 4, 7, 9 }), documents(iterator));
+	assertFalse(iterator.mayHaveNext());
+    }
+
+    @Test
+    public void thresholdTest() throws IOException {
+	ArrayDocumentIterator a = new ArrayDocumentIterator(1, 2, 3, 4, 5, 6);
+	ArrayDocumentIterator b = new ArrayDocumentIterator(2, 5, 8);
+	ArrayDocumentIterator c = new ArrayDocumentIterator(5, 9);
+	MaxScoreDocumentIterator iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { c, a, b }, new double[] { 5, 1, 2 });
+	iterator.setThreshold(2.5);
+	assertEquals(2, iterator.getEssentialCount());
+	// 8 is only b's and a's, which can't make more than 3.
+	assertEquals(new LongArrayList(new long[] { 2, 5, 9 }), documents(iterator));
+	// Only a's docs up to 2 were read.
+	assertEquals(2, a.read);
+
+	a = new ArrayDocumentIterator(1, 2, 3, 4, 5, 6);
+	b = new ArrayDocumentIterator(2, 5, 8);
+	c = new ArrayDocumentIterator(5, 9);
+	iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { c, a, b }, new double[] { 5, 1, 2 });
+	iterator.setThreshold(5.5);
+	assertEquals(1, iterator.getEssentialCount());
+	assertEquals(new LongArrayList(new long[] { 5 }), documents(iterator));
+	// a was skipped straight to 5.
+	assertEquals(1, a.read);
+
+	iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { new ArrayDocumentIterator(1), new ArrayDocumentIterator(2) }, new double[] { 1,
+		2 });
+	iterator.setThreshold(3);
+	assertEquals(0, iterator.getEssentialCount());
+	assertEquals(DocumentIterator.END_OF_LIST, iterator.nextDocument());
+    }
+
+    @Test
+    public void raiseThresholdTest() throws IOException {
+	ArrayDocumentIterator a = new ArrayDocumentIterator(1, 2, 3, 4, 5, 6, 7);
+	ArrayDocumentIterator b = new ArrayDocumentIterator(3, 7);
+	MaxScoreDocumentIterator iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { a, b }, new double[] { 1, 4 });
+	assertEquals(1, iterator.nextDocument());
+	assertEquals(2, iterator.nextDocument());
+	iterator.setThreshold(1);
+	assertEquals(3, iterator.nextDocument());
+	assertEquals(7, iterator.nextDocument());
+	assertEquals(DocumentIterator.END_OF_LIST, iterator.nextDocument());
+    }
+
+    @Test
+    public void skipToTest() throws IOException {
+	MaxScoreDocumentIterator iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { new ArrayDocumentIterator(1, 4, 7),
+		new ArrayDocumentIterator(2, 4, 9) }, new double[] { 1, 1 });
+	assertEquals(4, iterator.skipTo(3));
+	assertEquals(4, iterator.skipTo(4));
+	assertEquals(7, iterator.nextDocument());
+	assertEquals(DocumentIterator.END_OF_LIST, iterator.skipTo(10));
+    }
+
+    @Test
+    public void truePathsTest() throws IOException {
+	ArrayDocumentIterator a = new ArrayDocumentIterator(1, 4);
+	ArrayDocumentIterator b = new ArrayDocumentIterator(2, 4);
+	ArrayDocumentIterator c = new ArrayDocumentIterator(4, 5);
+	MaxScoreDocumentIterator iterator = new MaxScoreDocumentIterator(new DocumentIterator[] { a, b, c }, new double[] { 1, 1, 1 });
+
+	assertEquals(2, iterator.skipTo(2));
+	iterator.acceptOnTruePaths(new AbstractDocumentIteratorVisitor() {
+	    @Override
+	    public Boolean visit(IndexIterator indexIterator) {
+		throw new UnsupportedOperationException();
+	    }
+	});
+	assertEquals(0, a.truePathVisits);
+	assertEquals(1, b.truePathVisits);
+	assertEquals(0, c.truePathVisits);
+
+	assertEquals(4, iterator.nextDocument());
+	iterator.acceptOnTruePaths(new AbstractDocumentIteratorVisitor() {
+	    @Override
+	    public Boolean visit(IndexIterator indexIterator) {
+		throw new UnsupportedOperationException();
+	    }
+	});
+	assertEquals(1, a.truePathVisits);
+	assertEquals(2, b.truePathVisits);
+	assertEquals(1, c.truePathVisits);
+    }
+
+    private static LongArrayList documents(DocumentIterator iterator) throws IOException {
+	LongArrayList documents = new LongArrayList();
+	long document;
+	while ((document = iterator.nextDocument()) != DocumentIterator.END_OF_LIST) {
+	    documents.add(document);
+	}
+	return documents;
+    }
+
+    /**
+     * Iterates over the given docs and counts the docs read and the visits on
+     * true paths.
+     */
+    private static class ArrayDocumentIterator implements DocumentIterator {
+	private final long[] documents;
+	private int index = -1;
+	private int read;
+	private int truePathVisits;
+
+	public ArrayDocumentIterator(long... documents) {
+	    this.documents = documents;
+	}
+
+	@Override
+	public long document() {
+	    if (index < 0) {
+		return -1;
+	    }
+	    return index < documents.length ? documents[index] : END_OF_LIST;
+	}
+
+	@Override
+	public long nextDocument() {
+	    if (index < documents.length) {
+		index++;
+	    }
+	    if (index < documents.length) {
+		read++;
+	    }
+	    return document();
+	}
+
+	@Override
+	public long skipTo(long n) {
+	    if (document() >= n) {
+		return document();
+	    }
+	    int i = Arrays.binarySearch(documents, n);
+	    index = i >= 0 ? i : -i - 1;
+	    if (index < documents.length) {
+		read++;
+	    }
+	    return document();
+	}
+
+	@Override
+	public boolean mayHaveNext() {
+	    return index < documents.length;
+	}
+
+	@Override
+	public ReferenceSet<Index> indices() {
+	    return new ReferenceArraySet<Index>();
+	}
+
+	@Override
+	public <T> T accept(DocumentIteratorVisitor<T> visitor) {
+	    throw new UnsupportedOperationException();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T acceptOnTruePaths(DocumentIteratorVisitor<T> visitor) {
+	    assertTrue(document() != -1 && document() != END_OF_LIST);
+	    truePathVisits++;
+	    return (T) Boolean.TRUE;
+	}
+
+	@Override
+	public double weight() {
+	    return 1;
+	}
+
+	@Override
+	public DocumentIterator weight(double weight) {
+	    return this;
+	}
+
+	@Override
+	public IntervalIterator intervalIterator() {
+	    throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public IntervalIterator intervalIterator(Index index) {
+	    throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Reference2ReferenceMap<Index, IntervalIterator> intervalIterators() {
+	    throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void dispose() {
+	}
+    }
+}
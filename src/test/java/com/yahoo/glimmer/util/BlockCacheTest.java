@@ -0,0 +1,274 @@
+package com.yahoo.glimmer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.cache.CacheStats;
+
+public class BlockCacheTest {
+    private static final int BLOCK_SIZE = 100;
+
+    private static class CountingBlockReader implements BlockCache.BlockReader {
+	private final AtomicInteger readCount = new AtomicInteger();
+	private final CountDownLatch readStarted = new CountDownLatch(1);
+	private final CountDownLatch releaseRead;
+
+	public CountingBlockReader(CountDownLatch releaseRead) {
+	    this.releaseRead = releaseRead;
+	}
+
+	@Override
+	public int readBlock(long blockIndex, byte[] buffer) throws IOException {
+	    readCount.incrementAndGet();
+	    readStarted.countDown();
+	    try {
+		releaseRead.await();
+	    } catch (InterruptedException e) {
+		throw new IOException(e);
+	    }
+	    // Block i is filled with i, the last byte of each block is shorter.
+	    Arrays.fill(buffer, 0, BLOCK_SIZE - 1, (byte) blockIndex);
+	    return BLOCK_SIZE - 1;
+	}
+    }
+
+    private static void touch(BlockCache cache, long blockIndex) throws IOException {
+	cache.release(cache.acquire(blockIndex));
+    }
+
+    @Test
+    public void lruTest() throws IOException {
+	CountingBlockReader reader = new CountingBlockReader(new CountDownLatch(0));
+	// 4 blocks in 2 stripes. Odd blocks share a stripe.
+	BlockCache cache = new BlockCache(reader, 9, BLOCK_SIZE, 4 * BLOCK_SIZE);
+
+	assertNull(cache.acquire(-1));
+	assertNull(cache.acquire(10));
+
+	BlockCache.Block block = cache.acquire(3);
+	assertEquals(3, block.getIndex());
+	assertEquals(BLOCK_SIZE - 1, block.getLength());
+	assertEquals(3, block.get(0));
+	cache.release(block);
+	touch(cache, 3);
+	touch(cache, 5);
+	touch(cache, 3);
+	// Evicts 5 as 3 was used more recently.
+	touch(cache, 7);
+	touch(cache, 3);
+	assertEquals(3, reader.readCount.get());
+
+	CacheStats stats = cache.stats();
+	assertEquals(3, stats.hitCount());
+	assertEquals(3, stats.missCount());
+	assertEquals(3, stats.loadSuccessCount());
+	assertEquals(1, stats.evictionCount());
+
+	touch(cache, 5);
+	assertEquals(4, reader.readCount.get());
+    }
+
+    @Test
+    public void inputStreamTest() throws IOException {
+	BlockCache cache = new BlockCache(new CountingBlockReader(new CountDownLatch(0)), 2, BLOCK_SIZE, 0);
+	InputStream inputStream = cache.getInputStream(1, 90);
+	for (int i = 90; i < BLOCK_SIZE - 1; i++) {
+	    assertEquals(1, inputStream.read());
+	}
+	for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+	    assertEquals(2, inputStream.read());
+	}
+	assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void bulkReadTest() throws IOException {
+	BlockCache cache = new BlockCache(new CountingBlockReader(new CountDownLatch(0)), 2, BLOCK_SIZE, 0);
+	InputStream inputStream = cache.getInputStream(0, 50);
+	byte[] bytes = new byte[300];
+	assertEquals(0, inputStream.read(bytes, 0, 0));
+	// Reads across blocks.
+	assertEquals(49 + 2 * (BLOCK_SIZE - 1), inputStream.read(bytes, 1, 299));
+	assertEquals(0, bytes[0]);
+	assertEquals(0, bytes[49]);
+	assertEquals(1, bytes[50]);
+	assertEquals(2, bytes[49 + 2 * (BLOCK_SIZE - 1)]);
+	assertEquals(-1, inputStream.read(bytes, 0, 10));
+	inputStream.close();
+    }
+
+    @Test
+    public void inputStreamLeaseTest() throws IOException {
+	CountingBlockReader reader = new CountingBlockReader(new CountDownLatch(0));
+	// 2 blocks in 1 stripe.
+	BlockCache cache = new BlockCache(reader, 9, BLOCK_SIZE, 2 * BLOCK_SIZE);
+	InputStream inputStream = cache.getInputStream(1, 10);
+	assertEquals(1, inputStream.read());
+
+	// The stream's lease keeps block 1 cached, so blocks 2 and 3 are
+	// evicted instead.
+	touch(cache, 2);
+	touch(cache, 3);
+	touch(cache, 4);
+	assertEquals(2, cache.stats().evictionCount());
+	touch(cache, 1);
+	assertEquals(4, reader.readCount.get());
+	for (int i = 11; i < BLOCK_SIZE - 1; i++) {
+	    assertEquals(1, inputStream.read());
+	}
+	// Moving on to block 2 releases block 1.
+	assertEquals(2, inputStream.read());
+	inputStream.close();
+	assertEquals(5, reader.readCount.get());
+    }
+
+    @Test
+    public void leasedBlockTest() throws IOException {
+	CountingBlockReader reader = new CountingBlockReader(new CountDownLatch(0));
+	// 2 blocks in 1 stripe.
+	BlockCache cache = new BlockCache(reader, 9, BLOCK_SIZE, 2 * BLOCK_SIZE);
+	BlockCache.Block block = cache.acquire(1);
+	BlockCache.Block sameBlock = cache.acquire(1);
+	assertSame(block, sameBlock);
+	cache.release(sameBlock);
+
+	// Block 1 is leased so it isn't evicted and its contents are unchanged.
+	touch(cache, 2);
+	touch(cache, 3);
+	touch(cache, 4);
+	assertEquals(1, block.getIndex());
+	assertEquals(1, block.get(0));
+	assertEquals(2, cache.stats().evictionCount());
+	touch(cache, 1);
+	assertEquals(4, reader.readCount.get());
+
+	// It stays cached when released.
+	cache.release(block);
+	assertEquals(1, block.getIndex());
+	try {
+	    cache.release(block);
+	    fail("Expected IllegalStateException");
+	} catch (IllegalStateException e) {
+	}
+
+	// All the blocks are free to be reused.
+	for (long i = 5; i < 10; i++) {
+	    block = cache.acquire(i);
+	    assertEquals(i, block.getIndex());
+	    assertEquals(i, block.get(BLOCK_SIZE - 2));
+	    cache.release(block);
+	}
+    }
+
+    @Test
+    public void allLeasedTest() throws IOException {
+	CountingBlockReader reader = new CountingBlockReader(new CountDownLatch(0));
+	// 2 blocks in 1 stripe.
+	BlockCache cache = new BlockCache(reader, 9, BLOCK_SIZE, 2 * BLOCK_SIZE);
+	BlockCache.Block block1 = cache.acquire(1);
+	BlockCache.Block block2 = cache.acquire(2);
+	// All the blocks are leased so the stripe goes over its size instead of
+	// evicting them.
+	BlockCache.Block block3 = cache.acquire(3);
+	assertEquals(0, cache.stats().evictionCount());
+	touch(cache, 1);
+	touch(cache, 2);
+	assertEquals(3, reader.readCount.get());
+
+	cache.release(block1);
+	cache.release(block2);
+	cache.release(block3);
+	// Shrinks back to 2 blocks by evicting the least recently used 3 and 1.
+	touch(cache, 4);
+	assertEquals(2, cache.stats().evictionCount());
+	touch(cache, 2);
+	assertEquals(4, reader.readCount.get());
+    }
+
+    @Test
+    public void releaseRecycledBlockTest() throws IOException {
+	// 4 blocks in 2 stripes.
+	BlockCache cache = new BlockCache(new CountingBlockReader(new CountDownLatch(0)), 9, BLOCK_SIZE, 4 * BLOCK_SIZE);
+	BlockCache.Block block = cache.acquire(1);
+	BlockCache.Block block3 = cache.acquire(3);
+	BlockCache.Block block5 = cache.acquire(5);
+	cache.release(block5);
+	cache.release(block);
+	// Block 1 is evicted to shrink the stripe back to its size.
+	touch(cache, 7);
+	assertEquals(-1, block.getIndex());
+	try {
+	    cache.release(block);
+	    fail("Expected IllegalStateException");
+	} catch (IllegalStateException e) {
+	}
+	cache.release(block3);
+    }
+
+    @Test
+    public void prefetchTest() throws IOException {
+	CountingBlockReader reader = new CountingBlockReader(new CountDownLatch(0));
+	BlockCache cache = new BlockCache(reader, 9, BLOCK_SIZE, 4 * BLOCK_SIZE);
+	assertEquals(4, cache.getMaxBlockCount());
+
+	cache.prefetch(-1);
+	cache.prefetch(10);
+	cache.prefetch(3);
+	assertEquals(1, reader.readCount.get());
+	// Already cached.
+	cache.prefetch(3);
+	assertEquals(1, reader.readCount.get());
+	assertEquals(0, cache.stats().hitCount());
+
+	touch(cache, 3);
+	assertEquals(1, reader.readCount.get());
+	assertEquals(1, cache.stats().hitCount());
+    }
+
+    @Test
+    public void singleFlightTest() throws Exception {
+	final CountDownLatch releaseRead = new CountDownLatch(1);
+	final CountingBlockReader reader = new CountingBlockReader(releaseRead);
+	final BlockCache cache = new BlockCache(reader, 9, BLOCK_SIZE, 100 * BLOCK_SIZE);
+
+	ExecutorService executor = Executors.newFixedThreadPool(8);
+	List<Future<BlockCache.Block>> futures = new ArrayList<Future<BlockCache.Block>>();
+	for (int i = 0; i < 8; i++) {
+	    futures.add(executor.submit(new Callable<BlockCache.Block>() {
+		@Override
+		public BlockCache.Block call() throws Exception {
+		    BlockCache.Block block = cache.acquire(4);
+		    cache.release(block);
+		    return block;
+		}
+	    }));
+	}
+	reader.readStarted.await();
+	// Give the other threads time to miss.
+	Thread.sleep(100);
+	releaseRead.countDown();
+
+	for (Future<BlockCache.Block> future : futures) {
+	    assertEquals(4, future.get().getIndex());
+	}
+	executor.shutdown();
+	assertEquals(1, reader.readCount.get());
+	assertEquals(1, cache.stats().loadCount());
+    }
+}
@@ -1,20 +1,38 @@
 package com.yahoo.glimmer.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.google.common.cache.CacheStats;
 import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
 
 public class BlockCompressedDocumentCollectionTest {
     private static final String COLLECTION_DIR = "/Users/tep/tmp";
+    private static final int STRESS_THREADS = 16;
+    private static final int STRESS_READS_PER_THREAD = 2000;
+    private static final long STRESS_LAST_ID = 3000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
 
     @Ignore
     @Test
@@ -41,4 +59,143 @@ public class BlockCompressedDocumentCollectionTest {
 	collection.close();
     }
 
+    private static String relation(long id, int index) {
+	return "<http://predicate/" + index + "> <http://object/" + id + "/" + index + "> .";
+    }
+
+    private static int relationCount(long id) {
+	// Some records span blocks.
+	return id % 97 == 0 ? 200 : (int) (id % 7);
+    }
+
+    private File writeStressCollection() throws IOException {
+	LZ4BlockCodec codec = new LZ4BlockCodec(1024);
+	File file = new File(tempFolder.getRoot(), "bySubject" + codec.getFileExtension());
+	BlockCompressedDocumentWriter writer = new BlockCompressedDocumentWriter(codec, new FileOutputStream(file), 1);
+	BySubjectRecord record = new BySubjectRecord();
+	long previousId = 0;
+	for (long id = 1; id <= STRESS_LAST_ID; id++) {
+	    if (id % 5 == 0) {
+		// Gaps.
+		continue;
+	    }
+	    record.setId(id);
+	    record.setPreviousId(previousId);
+	    record.setSubject("http://subject/" + id);
+	    record.clearRelations();
+	    for (int i = 0; i < relationCount(id); i++) {
+		record.addRelation(relation(id, i));
+	    }
+	    byte[] bytes = record.toString().getBytes("UTF-8");
+	    writer.write(id, bytes, 0, bytes.length);
+	    previousId = id;
+	}
+	writer.appendBlockOffsets(writer.finish(STRESS_LAST_ID));
+	writer.close();
+	return file;
+    }
+
+    /**
+     * Many threads streaming documents through a cache much smaller than the
+     * collection so that blocks are evicted and reused while other threads
+     * are reading them.
+     */
+    private static void assertConcurrentStreams(final BlockCompressedDocumentCollection collection) throws Exception {
+	ExecutorService executor = Executors.newFixedThreadPool(STRESS_THREADS);
+	List<Future<Void>> futures = new ArrayList<Future<Void>>();
+	for (int t = 0; t < STRESS_THREADS; t++) {
+	    final Random random = new Random(t);
+	    futures.add(executor.submit(new Callable<Void>() {
+		@Override
+		public Void call() throws Exception {
+		    BySubjectRecord record = new BySubjectRecord();
+		    for (int r = 0; r < STRESS_READS_PER_THREAD; r++) {
+			long id = random.nextInt((int) STRESS_LAST_ID) + 1;
+			InputStream documentInputStream = collection.stream(id);
+			try {
+			    if (id % 5 == 0) {
+				assertEquals(-1, documentInputStream.read());
+				continue;
+			    }
+			    record.readFrom(new InputStreamReader(documentInputStream, "UTF-8"));
+			} finally {
+			    documentInputStream.close();
+			}
+			assertEquals(id, record.getId());
+			assertEquals("http://subject/" + id, record.getSubject());
+			assertEquals(relationCount(id), record.getRelationsCount());
+			for (int i = 0; i < relationCount(id); i++) {
+			    assertEquals(relation(id, i), record.getRelation(i));
+			}
+		    }
+		    return null;
+		}
+	    }));
+	}
+	for (Future<Void> future : futures) {
+	    // Rethrows assertion failures from the threads.
+	    future.get();
+	}
+	executor.shutdown();
+    }
+
+    @Test
+    public void concurrentStreamTest() throws Exception {
+	File file = writeStressCollection();
+	// 4 blocks in 2 stripes.
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", null, 4 * 1024);
+	collection.filename(file.getAbsolutePath());
+	assertConcurrentStreams(collection);
+	collection.close();
+    }
+
+    @Test
+    public void concurrentPositionalReadStreamTest() throws Exception {
+	File file = writeStressCollection();
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", null, 4 * 1024, false);
+	collection.filename(file.getAbsolutePath());
+	assertConcurrentStreams(collection);
+	collection.close();
+    }
+
+    @Test
+    public void prefetchTest() throws Exception {
+	File file = writeStressCollection();
+	// 16 blocks.
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", null, 16 * 1024, true, 2);
+	collection.filename(file.getAbsolutePath());
+
+	long[] docIds = new long[40];
+	for (int i = 0; i < docIds.length; i++) {
+	    docIds[i] = i * 3 + 1;
+	}
+	int prefetchedCount = collection.prefetch(docIds);
+	assertTrue(prefetchedCount > 1);
+	assertTrue(prefetchedCount <= 16);
+
+	long timeout = System.currentTimeMillis() + 10000;
+	while (collection.getCacheStats().loadSuccessCount() < prefetchedCount) {
+	    assertTrue("Timed out waiting for the prefetch.", System.currentTimeMillis() < timeout);
+	    Thread.sleep(10);
+	}
+	CacheStats prefetchedStats = collection.getCacheStats();
+	assertEquals(prefetchedCount, prefetchedStats.loadSuccessCount());
+
+	// The blocks the documents start in are cached.
+	for (long docId : docIds) {
+	    collection.stream(docId).close();
+	}
+	assertEquals(prefetchedStats.loadCount(), collection.getCacheStats().loadCount());
+	collection.close();
+    }
+
+    @Test
+    public void prefetchOffTest() throws Exception {
+	File file = writeStressCollection();
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", null, 16 * 1024, true, 0);
+	collection.filename(file.getAbsolutePath());
+	assertEquals(0, collection.prefetch(new long[] { 1, 2, 3 }));
+	assertEquals(0, collection.getCacheStats().loadCount());
+	collection.close();
+    }
 }
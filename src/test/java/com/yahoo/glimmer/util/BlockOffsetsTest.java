@@ -0,0 +1,64 @@
+package com.yahoo.glimmer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BlockOffsetsTest {
+    @Test
+    public void docStartOffsetsTest() throws IOException, ClassNotFoundException {
+	BlockOffsets.Builder builder = new BlockOffsets.Builder();
+	// Block 1 is all inside doc 12 so has the uncompressed start of block 2.
+	builder.setBlockStart(32, 10, 0);
+	builder.setBlockStart(1000, 12, 3000);
+	builder.setBlockStart(2000, 12, 3000);
+	builder.setBlockStart(3000, 20, 4500);
+	builder.addDocStart(10, 0);
+	builder.addDocStart(11, 700);
+	builder.addDocStart(12, 1200);
+	builder.addDocStart(15, 3000);
+	builder.addDocStart(20, 4600);
+	builder.close(3500, 3580);
+	BlockOffsets blockOffsets = builder.build(5, 20);
+
+	FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+	blockOffsets.save(bytes);
+	blockOffsets = (BlockOffsets) BinIO.loadObject(new FastByteArrayInputStream(bytes.array, 0, bytes.length));
+
+	assertTrue(blockOffsets.hasDocStartOffsets());
+	assertEquals(-1, blockOffsets.getDocStartOffset(9));
+	assertEquals(0, blockOffsets.getDocStartOffset(10));
+	assertEquals(700, blockOffsets.getDocStartOffset(11));
+	assertEquals(-1, blockOffsets.getDocStartOffset(13));
+	assertEquals(3000, blockOffsets.getDocStartOffset(15));
+	assertEquals(4600, blockOffsets.getDocStartOffset(20));
+	assertEquals(-1, blockOffsets.getDocStartOffset(21));
+
+	assertEquals(0, blockOffsets.getBlockIndexOfOffset(0));
+	assertEquals(0, blockOffsets.getBlockIndexOfOffset(1200));
+	assertEquals(2, blockOffsets.getBlockIndexOfOffset(3000));
+	assertEquals(3, blockOffsets.getBlockIndexOfOffset(4600));
+	assertEquals(4500, blockOffsets.getBlockUncompressedStart(3));
+	assertEquals(3500, blockOffsets.getBlockStartBitOffset(4));
+    }
+
+    @Test
+    public void withoutDocStartOffsetsTest() throws IOException {
+	BlockOffsets.Builder builder = new BlockOffsets.Builder();
+	builder.setBlockStart(32, 10);
+	builder.setBlockStart(1000, 12);
+	builder.close(2080);
+	BlockOffsets blockOffsets = builder.build(3, 20);
+
+	assertFalse(blockOffsets.hasDocStartOffsets());
+	assertEquals(1, blockOffsets.getBlockIndex(15));
+	assertEquals(2000, blockOffsets.getBlockStartBitOffset(2));
+    }
+}
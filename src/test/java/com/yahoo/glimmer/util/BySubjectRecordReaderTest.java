@@ -0,0 +1,108 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+
+public class BySubjectRecordReaderTest {
+    private byte[] bytes;
+    private BySubjectRecordReader reader;
+
+    @Before
+    public void before() throws IOException {
+	BySubjectRecord record = new BySubjectRecord();
+	record.setId(300);
+	record.setPreviousId(299);
+	record.setSubject("http://subject/");
+	record.addRelation("<http://predicate1> \"literal\"@en <http://context> .");
+	record.addRelation("<http://predicate2> <http://resource> .");
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	record.writeBinaryTo(out);
+	bytes = out.toByteArray();
+	reader = new BySubjectRecordReader();
+    }
+
+    private void assertRecord() throws BySubjectRecordException {
+	assertEquals(300, reader.getId());
+	assertEquals(299, reader.getPreviousId());
+	assertEquals("http://subject/", reader.getString(reader.getSubjectOffset(), reader.getSubjectLength()));
+	assertEquals(2, reader.getRelationsCount());
+
+	assertTrue(reader.nextRelation());
+	assertEquals("<http://predicate1>", reader.getString(reader.getPredicateOffset(), reader.getPredicateLength()));
+	assertEquals("\"literal\"@en", reader.getString(reader.getObjectOffset(), reader.getObjectLength()));
+	assertEquals("<http://context>", reader.getString(reader.getContextOffset(), reader.getContextLength()));
+	assertEquals("<http://predicate1> \"literal\"@en <http://context> .", reader.getRelation());
+
+	assertTrue(reader.nextRelation());
+	assertEquals("<http://predicate2>", reader.getString(reader.getPredicateOffset(), reader.getPredicateLength()));
+	assertEquals("<http://resource>", reader.getString(reader.getObjectOffset(), reader.getObjectLength()));
+	assertEquals(0, reader.getContextLength());
+
+	assertFalse(reader.nextRelation());
+    }
+
+    @Test
+    public void arrayTest() throws BySubjectRecordException {
+	byte[] buffer = new byte[bytes.length + 10];
+	System.arraycopy(bytes, 0, buffer, 5, bytes.length);
+	reader.reset(buffer, 5, buffer.length - 5);
+	// In place.
+	assertTrue(reader.getBytes() == buffer);
+	assertEquals(5 + bytes.length, reader.getRecordEnd());
+	assertRecord();
+
+	// Reused.
+	reader.reset(bytes, 0, bytes.length);
+	assertRecord();
+    }
+
+    @Test
+    public void byteBufferTest() throws BySubjectRecordException {
+	ByteBuffer heap = ByteBuffer.wrap(bytes);
+	reader.reset(heap);
+	assertTrue(reader.getBytes() == bytes);
+	assertRecord();
+
+	ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+	direct.position(3);
+	direct.put(bytes);
+	direct.position(3);
+	reader.reset(direct);
+	assertEquals(3, direct.position());
+	assertRecord();
+    }
+
+    @Test(expected = BySubjectRecordException.class)
+    public void textTest() throws Exception {
+	byte[] text = "6\t3\thttp://sbj/\t\n".getBytes("UTF-8");
+	assertFalse(BySubjectRecordReader.isBinary(text, 0, text.length));
+	reader.reset(text, 0, text.length);
+    }
+
+    @Test(expected = BySubjectRecordException.class)
+    public void versionTest() throws Exception {
+	bytes[1] = BySubjectRecord.BINARY_VERSION + 1;
+	reader.reset(bytes, 0, bytes.length);
+    }
+}
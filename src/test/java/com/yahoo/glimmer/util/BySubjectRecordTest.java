@@ -16,6 +16,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
@@ -267,6 +268,101 @@ public class BySubjectRecordTest {
 	assertFalse(relations.hasNext());
     }
 
+    @Test
+    public void textFromStreamTest() throws IOException, BySubjectRecordException {
+	ByteArrayInputStream inputStream = new ByteArrayInputStream((SUBJECT_DOC_1 + "\n6\t3\thttp://sbj/\t\n").getBytes("UTF-8"));
+	record.readFrom(inputStream);
+	assertEquals(ID_1, record.getId());
+	assertEquals(2, record.getRelationsCount());
+
+	// The stream is left at the next record.
+	record.readFrom(inputStream);
+	assertEquals(6, record.getId());
+	assertEquals("http://sbj/", record.getSubject());
+	assertFalse(record.hasRelations());
+    }
+
+    private byte[] writeBinary(BySubjectRecord record) throws IOException {
+	byteArrayOutputStream.reset();
+	record.writeBinaryTo(byteArrayOutputStream);
+	return byteArrayOutputStream.toByteArray();
+    }
+
+    @Test
+    public void binaryTest() throws IOException, BySubjectRecordException {
+	record.setId(ID_1);
+	record.setPreviousId(PREVIOUS_ID_1);
+	record.setSubject(SUBJECT_1);
+	record.addRelation(RELATION_1_1);
+	record.addRelation(RELATION_1_2);
+	record.addRelation("<http://predicate3> \"ta\\\"b\\tle\"@en <http://context> .");
+	record.addRelation("<http://predicate4> \"12\"^^<http://www.w3.org/2001/XMLSchema#int> .");
+	record.addRelation("<http://predicate5> _:bnode1 <http://context> .");
+	record.addRelation("<http://predicate6> \"\u00fcber\" .");
+	// Not a relation. Kept as it is.
+	record.addRelation("not a relation");
+	byte[] bytes = writeBinary(record);
+	assertEquals(BySubjectRecord.BINARY_MAGIC, bytes[0]);
+
+	BySubjectRecord read = new BySubjectRecord();
+	read.readFrom(bytes, 0, bytes.length);
+	assertEquals(record, read);
+
+	// From the middle of a buffer with a record after it.
+	byte[] buffer = new byte[bytes.length + 20 + SUBJECT_DOC_1.length()];
+	System.arraycopy(bytes, 0, buffer, 20, bytes.length);
+	System.arraycopy(SUBJECT_DOC_1.getBytes("UTF-8"), 0, buffer, 20 + bytes.length, SUBJECT_DOC_1.length());
+	read = new BySubjectRecord();
+	read.readFrom(buffer, 20, buffer.length);
+	assertEquals(record, read);
+
+	read = new BySubjectRecord();
+	ByteArrayInputStream inputStream = new ByteArrayInputStream(buffer, 20, buffer.length - 20);
+	read.readFrom(inputStream);
+	assertEquals(record, read);
+	read.readFrom(inputStream);
+	assertEquals(ID_1, read.getId());
+	assertEquals(RELATION_1_2, read.getRelation(1));
+    }
+
+    @Test
+    public void binaryFirstRecordTest() throws IOException, BySubjectRecordException {
+	record.setId(4);
+	byte[] bytes = writeBinary(record);
+	BySubjectRecord read = new BySubjectRecord();
+	read.readFrom(bytes, 0, bytes.length);
+	assertEquals(4, read.getId());
+	assertEquals(-1, read.getPreviousId());
+	assertEquals("", read.getSubject());
+	assertFalse(read.hasRelations());
+    }
+
+    @Test
+    public void truncatedBinaryTest() throws IOException {
+	record.setId(ID_1);
+	record.setSubject(SUBJECT_1);
+	record.addRelation(RELATION_1_1);
+	byte[] bytes = writeBinary(record);
+
+	for (int length = 1; length < bytes.length; length++) {
+	    boolean thrown = false;
+	    try {
+		new BySubjectRecord().readFrom(bytes, 0, length);
+	    } catch (BySubjectRecordException e) {
+		thrown = true;
+	    }
+	    assertTrue("length " + length, thrown);
+
+	    thrown = false;
+	    try {
+		new BySubjectRecord().readFrom(new ByteArrayInputStream(bytes, 0, length));
+	    } catch (BySubjectRecordException e) {
+		thrown = true;
+	    }
+	    assertTrue("stream length " + length, thrown);
+	}
+    }
+
     @Test
     public void relationsReaderTest() throws IOException {
 	String expecdedRelationsString = RELATION_1_1 + '\t' + RELATION_1_2 + '\t' + RELATION_1_1 + '\t' + RELATION_1_2 + '\t';
@@ -0,0 +1,82 @@
+package com.yahoo.glimmer.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ByteRangeSourceTest {
+    private static final int FILE_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    private FileInputStream fileInputStream;
+
+    @Before
+    public void before() throws IOException {
+	File file = tempFolder.newFile("bytes");
+	FileOutputStream out = new FileOutputStream(file);
+	for (int i = 0; i < FILE_SIZE; i++) {
+	    out.write(i);
+	}
+	out.close();
+	fileInputStream = new FileInputStream(file);
+    }
+
+    @After
+    public void after() throws IOException {
+	fileInputStream.close();
+    }
+
+    private static void assertRange(ByteRangeSource source, long position, int length) throws IOException {
+	ByteBuffer buffer = source.get(position, length);
+	assertEquals(0, buffer.position());
+	assertEquals(length, buffer.remaining());
+	for (int i = 0; i < length; i++) {
+	    assertEquals((byte) (position + i), buffer.get(i));
+	}
+    }
+
+    private static void assertRanges(ByteRangeSource source) throws IOException {
+	assertEquals(FILE_SIZE, source.size());
+	assertRange(source, 0, 0);
+	assertRange(source, 0, 10);
+	assertRange(source, 250, 50);
+	assertRange(source, 990, 10);
+	assertRange(source, 0, FILE_SIZE);
+    }
+
+    @Test
+    public void mappedTest() throws IOException {
+	MappedByteRangeSource source = new MappedByteRangeSource(fileInputStream.getChannel(), 300);
+	assertRanges(source);
+	// Crosses segment boundaries.
+	assertRange(source, 290, 20);
+	assertRange(source, 299, 302);
+	assertRange(source, 300, 300);
+	source.close();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void mappedOutOfRangeTest() throws IOException {
+	new MappedByteRangeSource(fileInputStream.getChannel(), 300).get(990, 11);
+    }
+
+    @Test
+    public void positionalReadTest() throws IOException {
+	PositionalReadByteRangeSource source = new PositionalReadByteRangeSource(fileInputStream.getChannel());
+	assertRanges(source);
+	// The channel's position isn't moved.
+	assertEquals(0, fileInputStream.getChannel().position());
+	source.close();
+    }
+}
@@ -0,0 +1,103 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalSorterTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File spillDir;
+
+    @Before
+    public void before() throws IOException {
+	spillDir = tempFolder.newFolder("spill");
+    }
+
+    @Test
+    public void emptyTest() throws IOException {
+	ExternalSorter sorter = new ExternalSorter(new Text.Comparator(), spillDir, 1024);
+	sorter.newBuffer().close();
+	assertEquals(0, sorter.getRunCount());
+
+	RawKeyValueIterator iterator = sorter.merge();
+	assertFalse(iterator.next());
+	iterator.close();
+	sorter.close();
+    }
+
+    @Test
+    public void sortTest() throws IOException {
+	// Small buffers and merge factor so that there are many runs and they
+	// are merged in more than one pass.
+	ExternalSorter sorter = new ExternalSorter(new Text.Comparator(), spillDir, 256, 3);
+	List<ExternalSorter.Buffer> buffers = new ArrayList<ExternalSorter.Buffer>();
+	for (int i = 0; i < 3; i++) {
+	    buffers.add(sorter.newBuffer());
+	}
+
+	Random random = new Random(7);
+	List<String> expectedKeys = new ArrayList<String>();
+	Text key = new Text();
+	IntWritable value = new IntWritable();
+	for (int i = 0; i < 3000; i++) {
+	    String keyString = "key" + random.nextInt(1000);
+	    expectedKeys.add(keyString);
+	    key.set(keyString);
+	    value.set(i);
+	    buffers.get(i % buffers.size()).add(key, value);
+	}
+	for (ExternalSorter.Buffer buffer : buffers) {
+	    buffer.close();
+	}
+	assertTrue(sorter.getRunCount() > 3);
+	Collections.sort(expectedKeys);
+
+	RawKeyValueIterator iterator = sorter.merge();
+	// Merged down to no more than the merge factor runs.
+	assertTrue(spillDir.list().length <= 3);
+	boolean[] seenValues = new boolean[3000];
+	for (String expectedKey : expectedKeys) {
+	    assertTrue(iterator.next());
+	    DataInputBuffer keyBuffer = iterator.getKey();
+	    key.readFields(keyBuffer);
+	    assertEquals(expectedKey, key.toString());
+	    value.readFields(iterator.getValue());
+	    assertFalse(seenValues[value.get()]);
+	    seenValues[value.get()] = true;
+	}
+	assertFalse(iterator.next());
+	iterator.close();
+
+	sorter.close();
+	assertEquals(0, spillDir.list().length);
+    }
+}
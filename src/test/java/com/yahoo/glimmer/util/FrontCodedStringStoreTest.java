@@ -0,0 +1,142 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrontCodedStringStoreTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    private List<String> strings;
+
+    @Before
+    public void before() {
+	strings = new ArrayList<String>();
+	for (int i = 0; i < 1000; i++) {
+	    strings.add("http://example.org/resource/" + Integer.toString(i * 7919, 36));
+	}
+	strings.add("");
+	strings.add("http://example.org/ünïcödé/😀");
+	StringBuilder longString = new StringBuilder("http://example.org/long/");
+	while (longString.length() < 3000) {
+	    longString.append("abcdefghij");
+	}
+	strings.add(longString.toString());
+	strings.add(longString.toString() + "/more");
+	Collections.sort(strings);
+    }
+
+    @Test
+    public void writerTest() throws IOException {
+	for (int blockSize : new int[] { 1, 3, 16, 5000 }) {
+	    File file = tempFolder.newFile("writer" + blockSize + FrontCodedStringStore.DOT_STORE);
+	    FrontCodedStringStore.Writer writer = new FrontCodedStringStore.Writer(new FileOutputStream(file), blockSize);
+	    for (String string : strings) {
+		writer.add(string);
+	    }
+	    writer.close();
+	    assertStrings(new FrontCodedStringStore(file));
+	}
+    }
+
+    @Test
+    public void buildTest() throws IOException {
+	StringBuilder lines = new StringBuilder();
+	for (String string : strings) {
+	    lines.append(string).append('\n');
+	}
+	File file = tempFolder.newFile("all" + FrontCodedStringStore.DOT_STORE);
+	assertEquals(strings.size(),
+		FrontCodedStringStore.build(new ByteArrayInputStream(lines.toString().getBytes(UTF8)), new FileOutputStream(file), 16));
+	assertStrings(new FrontCodedStringStore(file));
+    }
+
+    @Test
+    public void emptyTest() throws IOException {
+	File file = tempFolder.newFile("empty" + FrontCodedStringStore.DOT_STORE);
+	new FrontCodedStringStore.Writer(new FileOutputStream(file), 16).close();
+	FrontCodedStringStore store = new FrontCodedStringStore(file);
+	assertEquals(0, store.size64());
+	assertNull(store.get(0));
+    }
+
+    @Test
+    public void concurrentGetTest() throws Exception {
+	File file = tempFolder.newFile("concurrent" + FrontCodedStringStore.DOT_STORE);
+	FrontCodedStringStore.Writer writer = new FrontCodedStringStore.Writer(new FileOutputStream(file), 16);
+	for (String string : strings) {
+	    writer.add(string);
+	}
+	writer.close();
+	final FrontCodedStringStore store = new FrontCodedStringStore(file);
+
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	try {
+	    List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+	    for (int t = 0; t < 4; t++) {
+		final int offset = t * 97;
+		futures.add(executor.submit(new Callable<Integer>() {
+		    @Override
+		    public Integer call() {
+			int mismatches = 0;
+			for (int n = 0; n < 20000; n++) {
+			    int i = (offset + n * 31) % strings.size();
+			    if (!strings.get(i).equals(store.get(i))) {
+				mismatches++;
+			    }
+			}
+			return mismatches;
+		    }
+		}));
+	    }
+	    for (Future<Integer> future : futures) {
+		assertEquals(Integer.valueOf(0), future.get());
+	    }
+	} finally {
+	    executor.shutdown();
+	}
+    }
+
+    private void assertStrings(FrontCodedStringStore store) {
+	assertEquals(strings.size(), store.size64());
+	for (int i = 0; i < strings.size(); i++) {
+	    assertEquals(strings.get(i), store.get(i));
+	}
+	// And backwards, so blocks aren't only read in order.
+	for (int i = strings.size(); i-- != 0;) {
+	    assertEquals(strings.get(i), store.get(i));
+	}
+	assertNull(store.get(-1));
+	assertNull(store.get(strings.size()));
+    }
+}
@@ -0,0 +1,154 @@
+package com.yahoo.glimmer.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yahoo.glimmer.util.BySubjectRecord.BySubjectRecordException;
+
+public class LZ4BlockCodecTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static void assertRoundTrip(byte[] bytes) throws IOException {
+	byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(bytes.length)];
+	int compressedLength = LZ4BlockCodec.compress(bytes, bytes.length, compressed, 0, new int[1 << 14]);
+
+	byte[] uncompressed = new byte[bytes.length];
+	int uncompressedLength = LZ4BlockCodec.uncompress(ByteBuffer.wrap(compressed), 0, compressedLength, uncompressed);
+	assertEquals(bytes.length, uncompressedLength);
+	assertArrayEquals(bytes, uncompressed);
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+	assertRoundTrip(new byte[0]);
+	assertRoundTrip("short".getBytes());
+	assertRoundTrip("<http://a/b> <http://a/c> <http://a/d> .\n<http://a/b> <http://a/c> <http://a/e> .\n".getBytes());
+
+	byte[] zeros = new byte[100000];
+	assertRoundTrip(zeros);
+
+	Random random = new Random(1234);
+	byte[] randomBytes = new byte[100000];
+	random.nextBytes(randomBytes);
+	assertRoundTrip(randomBytes);
+
+	// Long literal runs mixed with long and overlapping matches.
+	byte[] mixed = new byte[100000];
+	for (int i = 0; i < mixed.length;) {
+	    int run = random.nextInt(1000);
+	    if (random.nextBoolean()) {
+		byte b = (byte) random.nextInt();
+		for (; run > 0 && i < mixed.length; run--) {
+		    mixed[i++] = b;
+		}
+	    } else if (i > 1000 && random.nextBoolean()) {
+		int from = i - random.nextInt(1000) - 1;
+		for (; run > 0 && i < mixed.length; run--) {
+		    mixed[i++] = mixed[from++];
+		}
+	    } else {
+		for (; run > 0 && i < mixed.length; run--) {
+		    mixed[i++] = (byte) random.nextInt();
+		}
+	    }
+	}
+	assertRoundTrip(mixed);
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptBlockTest() throws IOException {
+	byte[] bytes = new byte[1000];
+	Arrays.fill(bytes, (byte) 'a');
+	byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(bytes.length)];
+	int compressedLength = LZ4BlockCodec.compress(bytes, bytes.length, compressed, 0, new int[1 << 14]);
+	// Too small a buffer.
+	LZ4BlockCodec.uncompress(ByteBuffer.wrap(compressed), 0, compressedLength, new byte[100]);
+    }
+
+    @Test
+    public void headerTest() throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	BlockCodecs.LZ4.createOutputStream(bytes, 1, new BlockOutputStream.Callback() {
+	    @Override
+	    public void blockStart(long blockStartBitOffset) {
+	    }
+
+	    @Override
+	    public void finish(long blocksEndBitOffset, long totalBitsWritten) {
+	    }
+	}).finish();
+	assertEquals(64 * 1024, BlockCodecs.LZ4.readHeader(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void collectionTest() throws IOException, BySubjectRecordException {
+	LZ4BlockCodec codec = new LZ4BlockCodec(4096);
+	File file = new File(tempFolder.getRoot(), "bySubject" + codec.getFileExtension());
+	BlockCompressedDocumentWriter writer = new BlockCompressedDocumentWriter(codec, new FileOutputStream(file), 1);
+
+	BySubjectRecord record = new BySubjectRecord();
+	Random random = new Random(4321);
+	long lastId = 0;
+	for (long id = 10; id < 5000; id += random.nextInt(5) + 1) {
+	    record.setId(id);
+	    record.setPreviousId(lastId);
+	    record.setSubject("http://subject/" + id);
+	    record.clearRelations();
+	    // Some records span blocks.
+	    int relationCount = id % 100 == 0 ? 500 : random.nextInt(5);
+	    for (int i = 0; i < relationCount; i++) {
+		record.addRelation("<http://predicate/" + random.nextInt(10) + "> <http://object/" + random.nextInt() + "> .");
+	    }
+	    byte[] bytes = record.toString().getBytes("UTF-8");
+	    writer.write(id, bytes, 0, bytes.length);
+	    lastId = id;
+	}
+	BlockOffsets blockOffsets = writer.finish(lastId);
+	writer.appendBlockOffsets(blockOffsets);
+	writer.close();
+
+	BlockCompressedDocumentCollection collection = new BlockCompressedDocumentCollection("bySubject", null, 10);
+	collection.filename(file.getAbsolutePath());
+	assertEquals(lastId, collection.size());
+
+	assertEquals(-1, collection.stream(9).read());
+	assertEquals(-1, collection.stream(lastId + 1).read());
+
+	random = new Random(4321);
+	long previousId = 0;
+	for (long id = 10; id < 5000; id += random.nextInt(5) + 1) {
+	    if (id > previousId + 1) {
+		assertEquals(-1, collection.stream(id - 1).read());
+	    }
+	    InputStream documentInputStream = collection.stream(id);
+	    record.readFrom(new InputStreamReader(documentInputStream, "UTF-8"));
+	    assertEquals(id, record.getId());
+	    assertEquals(previousId, record.getPreviousId());
+	    assertEquals("http://subject/" + id, record.getSubject());
+	    int relationCount = id % 100 == 0 ? 500 : random.nextInt(5);
+	    assertEquals(relationCount, record.getRelationsCount());
+	    for (int i = 0; i < relationCount; i++) {
+		random.nextInt();
+		random.nextInt();
+	    }
+	    previousId = id;
+	}
+	collection.close();
+    }
+}
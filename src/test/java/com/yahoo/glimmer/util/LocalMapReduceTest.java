@@ -0,0 +1,112 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.serializer.WritableSerialization;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalMapReduceTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    public static class WordMapper extends Mapper<LongWritable, Text, Text, IntWritable> {
+	private final Text word = new Text();
+	private final IntWritable one = new IntWritable(1);
+
+	@Override
+	protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+	    for (String wordString : value.toString().split(" ")) {
+		word.set(wordString);
+		context.write(word, one);
+		context.getCounter("test", "words").increment(1);
+	    }
+	}
+    }
+
+    public static class CountReducer extends Reducer<Text, IntWritable, Text, IntWritable> {
+	private final IntWritable count = new IntWritable();
+
+	@Override
+	protected void reduce(Text key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+	    int sum = 0;
+	    for (IntWritable value : values) {
+		sum += value.get();
+	    }
+	    count.set(sum);
+	    context.write(key, count);
+	}
+    }
+
+    @Test
+    public void wordCountTest() throws IOException {
+	File inputDir = tempFolder.newFolder("input");
+	// Two files so that there are two map tasks.
+	for (int i = 0; i < 2; i++) {
+	    Writer writer = new OutputStreamWriter(new FileOutputStream(new File(inputDir, "part-m-0000" + i)), "UTF-8");
+	    for (int j = 0; j < 500; j++) {
+		writer.write("b a c\nc b c\n");
+	    }
+	    writer.close();
+	}
+
+	Configuration conf = new Configuration();
+	conf.setStrings("io.serializations", WritableSerialization.class.getName());
+	ForkJoinPool pool = new ForkJoinPool(2);
+	LocalMapReduce localMapReduce = new LocalMapReduce(conf, pool, tempFolder.newFolder("spill"), 1024);
+
+	ExternalSorter sorter = localMapReduce.map(WordMapper.class, new Path(inputDir.toURI()), new Text.Comparator());
+
+	final List<String> output = new ArrayList<String>();
+	RecordWriter<Text, IntWritable> writer = new RecordWriter<Text, IntWritable>() {
+	    @Override
+	    public void write(Text key, IntWritable value) {
+		output.add(key + ":" + value);
+	    }
+
+	    @Override
+	    public void close(TaskAttemptContext context) {
+		output.add("closed");
+	    }
+	};
+	localMapReduce.reduce(sorter, CountReducer.class, Text.class, IntWritable.class, new Text.Comparator(), writer);
+	sorter.close();
+	pool.shutdown();
+
+	assertEquals("[a:1000, b:2000, c:3000, closed]", output.toString());
+	assertEquals(3, localMapReduce.getCounters().findCounter(TaskCounter.REDUCE_INPUT_GROUPS).getValue());
+	// Counted by both map tasks.
+	assertEquals(6000, localMapReduce.getCounters().findCounter("test", "words").getValue());
+    }
+}
@@ -0,0 +1,166 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import it.unimi.dsi.big.util.LongBigListSignedStringMap;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.sux4j.mph.HollowTrieMonotoneMinimalPerfectHashFunction;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of looking up resources, half of them not keys, in the 'all'
+ * resources signed map with dsiutils' LongBigListSignedStringMap, which maps
+ * the 64 bit signatures, and with MappedSignedStringMap mapping the 64 bit and
+ * the compacted 32 bit signatures.
+ * 
+ * Run with main() from the test classpath. main() also prints the heap used by
+ * each map's signatures and the size of the mapped files, which is the most
+ * they can add to the resident memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class MappedSignedStringMapBenchmark {
+    private static final int KEY_COUNT = 1000000;
+    private static final int LOOKUP_COUNT = 1024;
+
+    private File dir;
+    private File signaturesFile;
+    private File compactSignaturesFile;
+    private HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> hash;
+    private LongBigListSignedStringMap dsiutilsMap;
+    private MappedSignedStringMap mappedMap;
+    private MappedSignedStringMap compactMappedMap;
+    private String[] lookups;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+	Random random = new Random(1234);
+	List<String> keys = new ArrayList<String>(KEY_COUNT);
+	for (int i = 0; i < KEY_COUNT; i++) {
+	    keys.add("http://example.org/resource/" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + i);
+	}
+	Collections.sort(keys);
+	hash = new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(keys, TransformationStrategies.prefixFreeUtf16());
+
+	dir = File.createTempFile(MappedSignedStringMapBenchmark.class.getSimpleName(), "");
+	dir.delete();
+	dir.mkdir();
+	signaturesFile = new File(dir, "all.smap");
+	DataOutputStream signaturesOutputStream = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(signaturesFile)));
+	LongBigListSignedStringMap.sign(keys.iterator(), signaturesOutputStream, null);
+	signaturesOutputStream.close();
+	compactSignaturesFile = new File(dir, "all.smap32");
+	FileOutputStream compactOutputStream = new FileOutputStream(compactSignaturesFile);
+	MappedSignedStringMap.compact(new FileInputStream(signaturesFile), compactOutputStream);
+	compactOutputStream.close();
+
+	dsiutilsMap = new LongBigListSignedStringMap(hash, signaturesFile.getPath());
+	mappedMap = new MappedSignedStringMap(hash, signaturesFile);
+	compactMappedMap = new MappedSignedStringMap(hash, compactSignaturesFile);
+
+	lookups = new String[LOOKUP_COUNT];
+	for (int i = 0; i < LOOKUP_COUNT; i++) {
+	    String key = keys.get(random.nextInt(KEY_COUNT));
+	    lookups[i] = i % 2 == 0 ? key : key + "/missing";
+	}
+    }
+
+    @TearDown
+    public void tearDown() {
+	signaturesFile.delete();
+	compactSignaturesFile.delete();
+	dir.delete();
+    }
+
+    private String nextLookup() {
+	next = (next + 1) & (LOOKUP_COUNT - 1);
+	return lookups[next];
+    }
+
+    @Benchmark
+    public long dsiutilsLookup() {
+	return dsiutilsMap.getLong(nextLookup());
+    }
+
+    @Benchmark
+    public long mappedLookup() {
+	return mappedMap.getLong(nextLookup());
+    }
+
+    @Benchmark
+    public long compactMappedLookup() {
+	return compactMappedMap.getLong(nextLookup());
+    }
+
+    private static long usedHeap() {
+	Runtime runtime = Runtime.getRuntime();
+	for (int i = 0; i < 3; i++) {
+	    System.gc();
+	}
+	return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+	MappedSignedStringMapBenchmark benchmark = new MappedSignedStringMapBenchmark();
+	benchmark.setup();
+	benchmark.dsiutilsMap = null;
+	benchmark.mappedMap = null;
+	benchmark.compactMappedMap = null;
+
+	long before = usedHeap();
+	benchmark.dsiutilsMap = new LongBigListSignedStringMap(benchmark.hash, benchmark.signaturesFile.getPath());
+	long dsiutilsMapBytes = usedHeap() - before;
+	before = usedHeap();
+	benchmark.mappedMap = new MappedSignedStringMap(benchmark.hash, benchmark.signaturesFile);
+	long mappedMapBytes = usedHeap() - before;
+	before = usedHeap();
+	benchmark.compactMappedMap = new MappedSignedStringMap(benchmark.hash, benchmark.compactSignaturesFile);
+	long compactMappedMapBytes = usedHeap() - before;
+	System.out.println("Heap bytes used by the signatures of " + KEY_COUNT + " keys. dsiutils:" + dsiutilsMapBytes + " mapped 64 bit:" + mappedMapBytes
+		+ " mapped 32 bit:" + compactMappedMapBytes);
+	System.out.println("Mapped file bytes. 64 bit:" + benchmark.signaturesFile.length() + " 32 bit:" + benchmark.compactSignaturesFile.length());
+	benchmark.tearDown();
+
+	new Runner(new OptionsBuilder().include(MappedSignedStringMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
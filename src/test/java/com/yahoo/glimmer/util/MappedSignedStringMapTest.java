@@ -0,0 +1,102 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.big.util.LongBigListSignedStringMap;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.sux4j.mph.HollowTrieMonotoneMinimalPerfectHashFunction;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedSignedStringMapTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    private List<String> keys;
+    private HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence> hash;
+    private File signaturesFile;
+
+    @Before
+    public void before() throws IOException {
+	keys = new ArrayList<String>();
+	for (int i = 0; i < 2000; i++) {
+	    keys.add("http://example.org/" + Integer.toString(i * 104729, 36));
+	}
+	Collections.sort(keys);
+	hash = new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(keys, TransformationStrategies.prefixFreeUtf16());
+
+	signaturesFile = tempFolder.newFile("all.smap");
+	DataOutputStream signaturesOutputStream = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(signaturesFile)));
+	LongBigListSignedStringMap.sign(keys.iterator(), signaturesOutputStream, null);
+	signaturesOutputStream.close();
+    }
+
+    @Test
+    public void sameAsDsiutilsMapTest() throws IOException {
+	LongBigListSignedStringMap dsiutilsMap = new LongBigListSignedStringMap(hash, signaturesFile.getPath());
+	MappedSignedStringMap mappedMap = new MappedSignedStringMap(hash, signaturesFile);
+	assertEquals(64, mappedMap.getWidth());
+	assertEquals(keys.size(), mappedMap.size64());
+
+	for (int i = 0; i < keys.size(); i++) {
+	    String key = keys.get(i);
+	    assertEquals(i, mappedMap.getLong(key));
+	    assertEquals(Long.valueOf(i), mappedMap.get(key));
+	    assertTrue(mappedMap.containsKey(key));
+	    assertEquals(dsiutilsMap.getLong(key), mappedMap.getLong(key));
+
+	    String notAKey = key + "x";
+	    assertEquals(dsiutilsMap.getLong(notAKey), mappedMap.getLong(notAKey));
+	    assertEquals(-1, mappedMap.getLong(notAKey));
+	    assertNull(mappedMap.get(notAKey));
+	    assertFalse(mappedMap.containsKey(notAKey));
+	}
+    }
+
+    @Test
+    public void compactTest() throws IOException {
+	File compactFile = tempFolder.newFile("all.smap32");
+	FileOutputStream compactOutputStream = new FileOutputStream(compactFile);
+	assertEquals(keys.size(), MappedSignedStringMap.compact(new FileInputStream(signaturesFile), compactOutputStream));
+	compactOutputStream.close();
+	assertEquals(signaturesFile.length() / 2, compactFile.length());
+
+	MappedSignedStringMap mappedMap = new MappedSignedStringMap(hash, compactFile);
+	assertEquals(32, mappedMap.getWidth());
+	for (int i = 0; i < keys.size(); i++) {
+	    assertEquals(i, mappedMap.getLong(keys.get(i)));
+	    assertEquals(-1, mappedMap.getLong(keys.get(i) + "x"));
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongSizeTest() throws IOException {
+	new MappedSignedStringMap(new HollowTrieMonotoneMinimalPerfectHashFunction<CharSequence>(keys.subList(0, 10), TransformationStrategies.prefixFreeUtf16()),
+		signaturesFile);
+    }
+}
@@ -0,0 +1,130 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedMonotoneHashFunctionTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+    private FileSystem fs;
+    private List<String> keys;
+
+    @Before
+    public void before() throws IOException {
+	Configuration conf = new Configuration();
+	conf.set("fs.default.name", "file:///");
+	fs = FileSystem.getLocal(conf);
+
+	keys = new ArrayList<String>();
+	for (int i = 0; i < 1000; i++) {
+	    keys.add("http://example.org/" + Integer.toString(i * 7919, 36));
+	}
+	// Keys that only sort the same by code point.
+	keys.add("http://example.org/😀");
+	keys.add("http://example.org/ﬁ");
+	keys.add("http://example.org/a😀b");
+	Collections.sort(keys, new Comparator<String>() {
+	    @Override
+	    public int compare(String s1, String s2) {
+		return ShardedMonotoneHashFunction.compare(s1, s2);
+	    }
+	});
+    }
+
+    @Test
+    public void compareTest() {
+	assertTrue(ShardedMonotoneHashFunction.compare("a", "b") < 0);
+	assertTrue(ShardedMonotoneHashFunction.compare("ab", "a") > 0);
+	assertEquals(0, ShardedMonotoneHashFunction.compare("ab", "ab"));
+	// A surrogate pair is after a char in the BMP above the surrogates.
+	assertTrue(ShardedMonotoneHashFunction.compare("ﬁ", "😀") < 0);
+	assertTrue("ﬁ".compareTo("😀") > 0);
+    }
+
+    @Test
+    public void shardedBuildTest() throws IOException, ClassNotFoundException {
+	String wholeFilename = writeKeys("whole");
+	String shardedFilename = writeKeys("sharded");
+
+	ComputeHashTool computeHashTool = new ComputeHashTool();
+	assertEquals(keys.size(), computeHashTool.buildHash(fs, wholeFilename, null, true, true, UTF8, false));
+	assertEquals(keys.size(), computeHashTool.buildHash(fs, shardedFilename, null, true, true, UTF8, true, 7, 3));
+	assertFalse(new File(shardedFilename + ".shards").exists());
+
+	ShardedMonotoneHashFunction unsigned = (ShardedMonotoneHashFunction) BinIO.loadObject(shardedFilename + ".map");
+	assertTrue(unsigned.getShardCount() > 1);
+	for (int i = 0; i < keys.size(); i++) {
+	    assertEquals(keys.get(i), i, unsigned.getLong(keys.get(i)));
+	}
+
+	// The signatures are those of the whole input, so the signed map works
+	// the same.
+	assertArrayEquals(Files.readAllBytes(new File(wholeFilename + ".smap").toPath()), Files.readAllBytes(new File(shardedFilename + ".smap").toPath()));
+	Object2LongFunction<CharSequence> signed = ComputeHashTool.loadSignedHash(fs, new Path(shardedFilename + ".map"), new Path(shardedFilename + ".smap"));
+	for (int i = 0; i < keys.size(); i++) {
+	    assertEquals(i, signed.getLong(keys.get(i)));
+	}
+	assertEquals(-1, signed.getLong("http://example.org/notAKey"));
+
+	List<String> info = Files.readAllLines(new File(shardedFilename + ".mapinfo").toPath(), UTF8);
+	assertEquals("size\t" + keys.size(), info.get(0));
+    }
+
+    @Test
+    public void moreShardsThanLinesTest() throws IOException, ClassNotFoundException {
+	keys = keys.subList(0, 3);
+	String filename = writeKeys("few");
+	assertEquals(3, new ComputeHashTool().buildHash(fs, filename, null, true, false, UTF8, false, 200, 2));
+	ShardedMonotoneHashFunction unsigned = (ShardedMonotoneHashFunction) BinIO.loadObject(filename + ".map");
+	for (int i = 0; i < keys.size(); i++) {
+	    assertEquals(i, unsigned.getLong(keys.get(i)));
+	}
+    }
+
+    private String writeKeys(String name) throws IOException {
+	File file = new File(tempFolder.getRoot(), name);
+	Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), UTF8);
+	for (String key : keys) {
+	    writer.write(key);
+	    writer.write('\n');
+	}
+	writer.close();
+	return file.getCanonicalPath();
+    }
+}
@@ -0,0 +1,75 @@
+package com.yahoo.glimmer.util;
+
+/*
+ * Copyright (c) 2012 Yahoo! Inc. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software distributed under the License is
+ *  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and limitations under the License.
+ *  See accompanying LICENSE file.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SubjectBitmapTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void rankSelectTest() throws IOException {
+	long[] subjects = { 0, 5, 63, 64, 65, 200, 1000 };
+	SubjectBitmap.Writer writer = new SubjectBitmap.Writer(new FileOutputStream(new File(tempFolder.getRoot(), SubjectBitmap.NAME)));
+	for (long subject : subjects) {
+	    writer.set(subject);
+	}
+	writer.close(1001);
+
+	assertTrue(SubjectBitmap.exists(tempFolder.getRoot()));
+	SubjectBitmap bitmap = new SubjectBitmap(tempFolder.getRoot());
+	assertEquals(1001, bitmap.getDocCount());
+	assertEquals(subjects.length, bitmap.getSubjectCount());
+	int rank = 0;
+	for (long docId = 0; docId < 1001; docId++) {
+	    boolean isSubject = rank < subjects.length && subjects[rank] == docId;
+	    assertEquals(isSubject, bitmap.isSubject(docId));
+	    assertEquals(rank, bitmap.rank(docId));
+	    if (isSubject) {
+		assertEquals(docId, bitmap.select(rank));
+		rank++;
+	    }
+	}
+	assertFalse(bitmap.isSubject(-1));
+	assertFalse(bitmap.isSubject(1001));
+	assertEquals(subjects.length, bitmap.rank(5000));
+	assertEquals(-1, bitmap.select(subjects.length));
+    }
+
+    @Test
+    public void noSubjectsTest() throws IOException {
+	SubjectBitmap.Writer writer = new SubjectBitmap.Writer(new FileOutputStream(new File(tempFolder.getRoot(), SubjectBitmap.NAME)));
+	writer.close(130);
+	SubjectBitmap bitmap = new SubjectBitmap(tempFolder.getRoot());
+	assertEquals(130, bitmap.getDocCount());
+	assertEquals(0, bitmap.getSubjectCount());
+	assertFalse(bitmap.isSubject(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfOrderTest() throws IOException {
+	SubjectBitmap.Writer writer = new SubjectBitmap.Writer(new FileOutputStream(new File(tempFolder.getRoot(), SubjectBitmap.NAME)));
+	writer.set(10);
+	writer.set(3);
+    }
+}
@@ -0,0 +1,251 @@
+package com.yahoo.glimmer.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import it.unimi.di.big.mg4j.index.Index;
+import it.unimi.di.big.mg4j.query.SelectedInterval;
+import it.unimi.di.big.mg4j.query.nodes.Query;
+import it.unimi.di.big.mg4j.query.nodes.Term;
+import it.unimi.di.big.mg4j.search.score.DocumentScoreInfo;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hamcrest.Description;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.cache.CacheStats;
+import com.yahoo.glimmer.query.RDFIndex;
+import com.yahoo.glimmer.util.BySubjectRecord;
+
+public class QuerierTest {
+    private static final long[] DOC_IDS = { 7, 3, 5, 1 };
+
+    private Mockery context;
+    private RDFIndex index;
+    // One thread as the mocks aren't thread safe.
+    private ExecutorService executor;
+    private Querier querier;
+
+    @Before
+    public void before() throws Exception {
+	context = new Mockery();
+	context.setImposteriser(ClassImposteriser.INSTANCE);
+	index = context.mock(RDFIndex.class);
+	executor = Executors.newSingleThreadExecutor();
+	querier = new Querier();
+
+	context.checking(new Expectations() {
+	    {
+		allowing(index).process(with(0), with(10), with(any(ObjectArrayList.class)), with(any(Query[].class)));
+		will(new Action() {
+		    @Override
+		    public void describeTo(Description description) {
+			description.appendText("adds the results");
+		    }
+
+		    @SuppressWarnings("unchecked")
+		    @Override
+		    public Object invoke(Invocation invocation) throws Throwable {
+			ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>> results = (ObjectArrayList<DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>>) invocation
+				.getParameter(2);
+			for (int i = 0; i < DOC_IDS.length; i++) {
+			    results.add(new DocumentScoreInfo<Reference2ObjectMap<Index, SelectedInterval[]>>(DOC_IDS[i], 10 - i));
+			}
+			return DOC_IDS.length;
+		    }
+		});
+		allowing(index).prefetchDocuments(with(any(long[].class)));
+	    }
+	});
+    }
+
+    @After
+    public void after() {
+	executor.shutdown();
+	querier.shutdown();
+    }
+
+    private void allowingDocument(final long docId, final long sleepMillis, final String... relations) throws IOException {
+	context.checking(new Expectations() {
+	    {
+		allowing(index).getDocumentInputStream(docId);
+		will(document(docId, sleepMillis, relations));
+	    }
+	});
+    }
+
+    private static Action document(final long docId, final long sleepMillis, final String... relations) {
+	return document(docId, sleepMillis, false, relations);
+    }
+
+    private static Action document(final long docId, final long sleepMillis, final boolean binary, final String... relations) {
+	return new Action() {
+	    @Override
+	    public void describeTo(Description description) {
+		description.appendText("returns doc " + docId);
+	    }
+
+	    @Override
+	    public Object invoke(Invocation invocation) throws Throwable {
+		Thread.sleep(sleepMillis);
+		BySubjectRecord record = new BySubjectRecord();
+		record.setId(docId);
+		record.setSubject("http://subject/" + docId);
+		for (String relation : relations) {
+		    record.addRelation(relation);
+		}
+		if (binary) {
+		    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		    record.writeBinaryTo(bytes);
+		    return new ByteArrayInputStream(bytes.toByteArray());
+		}
+		return new ByteArrayInputStream(record.toString().getBytes("UTF-8"));
+	    }
+	};
+    }
+
+    private static void assertResultItems(QueryResult result, long... expectedDocIds) {
+	List<QueryResultItem> items = result.getResultItems();
+	assertEquals(expectedDocIds.length, items.size());
+	for (int i = 0; i < expectedDocIds.length; i++) {
+	    assertEquals(expectedDocIds[i], items.get(i).getSubjectId());
+	    assertEquals("http://subject/" + expectedDocIds[i], items.get(i).getSubject());
+	}
+    }
+
+    @Test
+    public void serialTest() throws Exception {
+	for (long docId : DOC_IDS) {
+	    allowingDocument(docId, 0);
+	}
+	assertResultItems(querier.doQuery(index, new Term("a"), 0, 10, false, null), DOC_IDS);
+	context.assertIsSatisfied();
+    }
+
+    @Test
+    public void executorTest() throws Exception {
+	// Slow items don't change the order.
+	allowingDocument(7, 50);
+	allowingDocument(3, 0);
+	allowingDocument(5, 20);
+	allowingDocument(1, 0);
+	querier.setExecutor(executor);
+	assertResultItems(querier.doQuery(index, new Term("a"), 0, 10, false, null), DOC_IDS);
+	context.assertIsSatisfied();
+    }
+
+    @Test
+    public void deadlineTest() throws Exception {
+	allowingDocument(7, 0);
+	allowingDocument(3, 0);
+	allowingDocument(5, 2000);
+	allowingDocument(1, 0);
+	querier.setExecutor(executor);
+	querier.setDeadlineMillis(500);
+	// 1 is queued behind 5 so isn't built by the deadline either.
+	assertResultItems(querier.doQuery(index, new Term("a"), 0, 10, false, null), 7, 3);
+    }
+
+    @Test
+    public void derefTest() throws Exception {
+	allowingDocument(7, 0, "<http://predicate/knows> <http://subject/11> .");
+	allowingDocument(3, 0, "<http://predicate/knows> <http://subject/9> .");
+	allowingDocument(5, 0, "<http://predicate/knows> <http://subject/11> .", "<http://predicate/label> \"Five\" .");
+	allowingDocument(1, 0);
+	context.checking(new Expectations() {
+	    {
+		allowing(index).getIndexedPredicates();
+		will(returnValue(Collections.emptySet()));
+		allowing(index).getLabelStore();
+		will(returnValue(null));
+		allowing(index).getSubjectId(with(any(String.class)));
+		will(new Action() {
+		    @Override
+		    public void describeTo(Description description) {
+			description.appendText("returns the id of subject URIs");
+		    }
+
+		    @Override
+		    public Object invoke(Invocation invocation) throws Throwable {
+			String object = (String) invocation.getParameter(0);
+			return object.startsWith("http://subject/") ? Long.valueOf(object.substring(15)) : null;
+		    }
+		});
+		// Read once for the page and then cached.
+		one(index).getDocumentInputStream(11);
+		will(document(11, 0, "<http://www.w3.org/2000/01/rdf-schema#label> \"Eleven\" ."));
+		one(index).getDocumentInputStream(9);
+		will(document(9, 0));
+	    }
+	});
+
+	for (int i = 0; i < 2; i++) {
+	    List<QueryResultItem> items = querier.doQuery(index, new Term("a"), 0, 10, true, null).getResultItems();
+	    assertEquals(4, items.size());
+	    assertEquals("Eleven", items.get(0).getRelations().get(0).getLabel());
+	    assertNull(items.get(1).getRelations().get(0).getLabel());
+	    assertEquals("Eleven", items.get(2).getRelations().get(0).getLabel());
+	    assertEquals("Five", items.get(2).getLabel());
+	    assertNull(items.get(2).getRelations().get(1).getLabel());
+	}
+	context.assertIsSatisfied();
+
+	CacheStats labelStats = querier.getLabelService(index).getLabelCacheStats();
+	assertEquals(2, labelStats.missCount());
+	assertEquals(2, labelStats.hitCount());
+    }
+
+    @Test
+    public void binaryTest() throws Exception {
+	final String[] relations = { "<http://predicate/knows> <http://subject/11> <http://context/> .",
+		"<http://predicate/label> \"Seven \\\"7\\\"\"@en .", "<http://predicate/knows> _:b1 ." };
+	context.checking(new Expectations() {
+	    {
+		allowing(index).getDocumentInputStream(7);
+		will(document(7, 0, true, relations));
+		allowing(index).getDocumentInputStream(3);
+		will(document(3, 0, false, relations));
+		allowing(index).getIndexedPredicates();
+		will(returnValue(Collections.singleton("predicate_knows")));
+		allowing(index).getLabelStore();
+		will(returnValue(null));
+		allowing(index).getSubjectId(with(any(String.class)));
+		will(returnValue(null));
+	    }
+	});
+	allowingDocument(5, 0);
+	allowingDocument(1, 0);
+
+	List<QueryResultItem> items = querier.doQuery(index, new Term("a"), 0, 10, false, null).getResultItems();
+	assertEquals(7, items.get(0).getSubjectId());
+	assertEquals(3, items.get(1).getSubjectId());
+	// The binary and text records are rendered the same.
+	for (QueryResultItem item : new QueryResultItem[] { items.get(0), items.get(1) }) {
+	    List<QueryResultItem.Relation> itemRelations = item.getRelations();
+	    assertEquals(3, itemRelations.size());
+	    assertEquals("http://predicate/knows", itemRelations.get(0).getPredicate());
+	    assertEquals("http://subject/11", itemRelations.get(0).getObject());
+	    assertEquals("http://context/", itemRelations.get(0).getContext());
+	    assertEquals("Seven \"7\"", itemRelations.get(1).getObject());
+	    assertEquals("default:", itemRelations.get(1).getContext());
+	    assertEquals("Seven \"7\"", item.getLabel());
+	    assertEquals("b1", itemRelations.get(2).getObject());
+	}
+	context.assertIsSatisfied();
+    }
+}
@@ -0,0 +1,142 @@
+package org.itadaki.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.yahoo.glimmer.util.BZip2BlockCodec;
+import com.yahoo.glimmer.util.BySubjectRecord;
+
+/**
+ * JMH benchmarks of decompressing a full size BZip2 block of bySubject
+ * records, as the collection does for each cache miss.
+ *
+ * Run with main() from the test classpath. To compare with another version of
+ * the decompressor, run it against a build of that version.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BZip2BlockDecompressorBenchmark {
+
+    private static final int BLOCK_SIZE = 900000;
+    // The stream header is 'BZh9'.
+    private static final int STREAM_HEADER_LENGTH = 4;
+
+    private final BZip2BlockCodec codec = new BZip2BlockCodec(9);
+    private byte[] uncompressed;
+    private ByteBuffer compressedBlock;
+    private byte[] uncompressedBuffer;
+
+    /**
+     * Records like those written by the PrepTool for RDF data, with numeric
+     * ids, a subject URI and predicate/object/context relations.
+     */
+    static byte[] createBySubjectRecords(int length, long seed) throws IOException {
+	Random random = new Random(seed);
+	BySubjectRecord record = new BySubjectRecord();
+	StringBuilder records = new StringBuilder(length + 10000);
+	long id = 1000;
+	while (records.length() < length) {
+	    record.setPreviousId(id);
+	    id += random.nextInt(3) + 1;
+	    record.setId(id);
+	    record.setSubject("http://dbpedia.org/resource/Subject_" + random.nextInt(1000000));
+	    record.clearRelations();
+	    int relationCount = random.nextInt(15);
+	    for (int i = 0; i < relationCount; i++) {
+		String object;
+		if (random.nextBoolean()) {
+		    object = "<http://dbpedia.org/resource/Object_" + random.nextInt(100000) + ">";
+		} else {
+		    object = "\"Literal value " + random.nextInt(10000) + "\"@en";
+		}
+		record.addRelation("<http://dbpedia.org/ontology/property" + random.nextInt(50) + "> " + object + " <http://dbpedia.org/context> .");
+	    }
+	    records.append(record.toString()).append(BySubjectRecord.RECORD_DELIMITER);
+	}
+	return records.substring(0, length).getBytes("UTF-8");
+    }
+
+    @Setup
+    public void setup() throws IOException {
+	// Just under a block so that the stream has one block.
+	uncompressed = createBySubjectRecords(BLOCK_SIZE - 10000, 1234);
+	ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+	BZip2OutputStream outputStream = new BZip2OutputStream(compressed, 9);
+	outputStream.write(uncompressed);
+	outputStream.close();
+	byte[] compressedBytes = compressed.toByteArray();
+	compressedBlock = ByteBuffer.wrap(compressedBytes, STREAM_HEADER_LENGTH, compressedBytes.length - STREAM_HEADER_LENGTH).slice();
+	uncompressedBuffer = new byte[BLOCK_SIZE];
+    }
+
+    private BZip2BlockDecompressor createDecompressor() throws IOException {
+	byte[] block = new byte[compressedBlock.remaining()];
+	compressedBlock.duplicate().get(block);
+	BZip2BitInputStream bitInputStream = new BZip2BitInputStream(new ByteArrayInputStream(block));
+	// The block header marker.
+	bitInputStream.readBits(24);
+	bitInputStream.readBits(24);
+	return new BZip2BlockDecompressor(bitInputStream, BLOCK_SIZE);
+    }
+
+    /**
+     * The collection's path. Huffman decoding through to the bulk read.
+     */
+    @Benchmark
+    public int uncompressBlock() throws IOException {
+	int length = codec.uncompressBlock(compressedBlock.duplicate(), 0, uncompressedBuffer);
+	if (length != uncompressed.length) {
+	    throw new IllegalStateException("Uncompressed " + length + " bytes, expected " + uncompressed.length);
+	}
+	return length;
+    }
+
+    /**
+     * Only the stages done when the decompressor is created. Huffman decoding,
+     * the Move To Front transform and the inverse BWT setup.
+     */
+    @Benchmark
+    public Object huffmanStage() throws IOException {
+	return createDecompressor();
+    }
+
+    /**
+     * The whole block read a byte at a time through read().
+     */
+    @Benchmark
+    public int readByteAtATime() throws IOException {
+	BZip2BlockDecompressor decompressor = createDecompressor();
+	int checksum = 0;
+	int b;
+	while ((b = decompressor.read()) != -1) {
+	    checksum += b;
+	}
+	return checksum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+	new Runner(new OptionsBuilder().include(BZip2BlockDecompressorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -244,4 +244,53 @@ public class TestBZip2BitInputStream {
 
     }
 
+    // Peek
+
+    /**
+     * Test peeking at bits then skipping some of them
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testPeekAndSkip() throws IOException {
+
+	byte[] testData = { 0x12, 0x34, 0x56 };
+	BZip2BitInputStream inputStream = new BZip2BitInputStream(new ByteArrayInputStream(testData));
+
+	assertEquals(0x123, inputStream.peekBits(12));
+	assertEquals(0x123, inputStream.peekBits(12));
+	inputStream.skipBits(4);
+	assertEquals(0x234, inputStream.peekBits(12));
+	inputStream.skipBits(8);
+	assertEquals(0x456, inputStream.readBits(12));
+	assertEquals(24, inputStream.totalBitsRead());
+
+    }
+
+    /**
+     * Test peeking past the end of the stream
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testPeekEndOfStream() throws IOException {
+
+	byte[] testData = { (byte) 0xff };
+	BZip2BitInputStream inputStream = new BZip2BitInputStream(new ByteArrayInputStream(testData));
+
+	assertEquals(0xff00, inputStream.peekBits(16));
+	inputStream.skipBits(8);
+	try {
+	    inputStream.skipBits(1);
+	    fail();
+	} catch (IOException e) {
+	}
+	try {
+	    inputStream.readBits(1);
+	    fail();
+	} catch (IOException e) {
+	}
+
+    }
+
 }
@@ -1,5 +1,7 @@
 package org.itadaki.bzip2;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -66,4 +68,39 @@ public class TestBZip2HuffmanStageDecoder {
 
     }
 
+    /**
+     * Tests decoding codes both shorter and longer than the lookup table
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testShortAndLongCodes() throws Exception {
+
+	// Symbol n < 14 has a code of n ones then a zero, symbol 14 is 14 ones
+	byte[][] tableCodeLengths = { { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 14 } };
+	byte[] selectors = new byte[1];
+	int[] symbols = { 0, 14, 3, 13, 9, 10, 11, 1, 12, 2, 0, 0, 14 };
+
+	ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+	BZip2BitOutputStream bitOutputStream = new BZip2BitOutputStream(outputStream);
+	for (int symbol : symbols) {
+	    int ones = Math.min(symbol, 14);
+	    for (int i = 0; i < ones; i++) {
+		bitOutputStream.writeBoolean(true);
+	    }
+	    if (symbol < 14) {
+		bitOutputStream.writeBoolean(false);
+	    }
+	}
+	bitOutputStream.flush();
+
+	BZip2BitInputStream bitInputStream = new BZip2BitInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+	BZip2HuffmanStageDecoder decoder = new BZip2HuffmanStageDecoder(bitInputStream, tableCodeLengths[0].length, tableCodeLengths, selectors);
+
+	for (int symbol : symbols) {
+	    assertEquals(symbol, decoder.nextSymbol());
+	}
+
+    }
+
 }
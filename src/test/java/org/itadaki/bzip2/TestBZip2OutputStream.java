@@ -671,6 +671,47 @@ public class TestBZip2OutputStream {
 	input.close();
     }
 
+    /**
+     * @throws IOException
+     */
+    @Test
+    public void testRunsReadInPieces() throws IOException {
+
+	byte[] testData = new byte[200000];
+
+	// Create test block of runs of all lengths mixed with random bytes
+	Random random = new Random(1234);
+	for (int i = 0; i < testData.length;) {
+	    int runLength = random.nextBoolean() ? random.nextInt(300) : 1;
+	    byte value = (byte) random.nextInt(4);
+	    for (; runLength > 0 && i < testData.length; runLength--) {
+		testData[i++] = value;
+	    }
+	}
+
+	// Compress
+	ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+	BZip2OutputStream output = new BZip2OutputStream(byteOutput, 1);
+	output.write(testData);
+	output.close();
+
+	// Decompress in pieces that end part way through runs
+	ByteArrayInputStream byteInput = new ByteArrayInputStream(byteOutput.toByteArray());
+	BZip2InputStream input = new BZip2InputStream(byteInput, false);
+	byte[] decodedTestData = new byte[testData.length];
+	int offset = 0;
+	while (offset < decodedTestData.length) {
+	    int bytesRead = input.read(decodedTestData, offset, Math.min(random.nextInt(100) + 1, decodedTestData.length - offset));
+	    assertTrue(bytesRead > 0);
+	    offset += bytesRead;
+	}
+
+	// Compare
+	assertArrayEquals(testData, decodedTestData);
+	assertEquals(-1, input.read());
+	input.close();
+    }
+
     /**
      * @throws IOException
      */
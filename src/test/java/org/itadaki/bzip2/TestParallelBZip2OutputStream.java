@@ -0,0 +1,140 @@
+package org.itadaki.bzip2;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests ParallelBZip2OutputStream
+ */
+public class TestParallelBZip2OutputStream {
+
+    private static class RecordingCallback implements BZip2OutputStream.Callback {
+	private final List<Long> blockStarts = new ArrayList<Long>();
+	private long totalBitsWritten = -1;
+
+	@Override
+	public void blockStart(long blockStartBitOffset) {
+	    blockStarts.add(blockStartBitOffset);
+	}
+
+	@Override
+	public void finish(long totalBitsWritten) {
+	    this.totalBitsWritten = totalBitsWritten;
+	}
+    }
+
+    private static byte[] createTestData(int length) {
+	// Text like data with runs, so that RLE[1] and the Huffman stages have
+	// some work to do and the compressed blocks aren't byte aligned.
+	Random random = new Random(0x5eed);
+	byte[] testData = new byte[length];
+	for (int i = 0; i < length;) {
+	    byte b = (byte) ('a' + random.nextInt(20));
+	    int run = random.nextInt(50) == 0 ? random.nextInt(300) : 1;
+	    while (run-- > 0 && i < length) {
+		testData[i++] = b;
+	    }
+	}
+	return testData;
+    }
+
+    /**
+     * @throws IOException
+     */
+    @Test
+    public void testEmpty() throws IOException {
+
+	ByteArrayOutputStream serialOutput = new ByteArrayOutputStream();
+	BZip2OutputStream output = new BZip2OutputStream(serialOutput, 1);
+	output.close();
+
+	ByteArrayOutputStream parallelOutput = new ByteArrayOutputStream();
+	RecordingCallback callback = new RecordingCallback();
+	ParallelBZip2OutputStream parallel = new ParallelBZip2OutputStream(parallelOutput, 1, 2, callback);
+	parallel.close();
+
+	assertArrayEquals(serialOutput.toByteArray(), parallelOutput.toByteArray());
+	assertTrue(callback.blockStarts.isEmpty());
+	assertEquals(serialOutput.size() * 8l, callback.totalBitsWritten);
+
+	BZip2InputStream input = new BZip2InputStream(new ByteArrayInputStream(parallelOutput.toByteArray()), false);
+	assertEquals(-1, input.read());
+	input.close();
+    }
+
+    /**
+     * The compressed bytes and the block start offsets should be the same as
+     * BZip2OutputStream's
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testMultipleBlocks() throws IOException {
+
+	byte[] testData = createTestData(1234567);
+
+	ByteArrayOutputStream serialOutput = new ByteArrayOutputStream();
+	RecordingCallback serialCallback = new RecordingCallback();
+	BZip2OutputStream output = new BZip2OutputStream(serialOutput, 1, serialCallback);
+	output.write(testData);
+	output.close();
+
+	ByteArrayOutputStream parallelOutput = new ByteArrayOutputStream();
+	RecordingCallback parallelCallback = new RecordingCallback();
+	ParallelBZip2OutputStream parallel = new ParallelBZip2OutputStream(parallelOutput, 1, 3, parallelCallback);
+	// Mix of single byte and array writes.
+	int offset = 0;
+	while (offset < testData.length) {
+	    if (offset % 7 == 0) {
+		parallel.write(testData[offset++]);
+	    } else {
+		int length = Math.min(testData.length - offset, 4099);
+		parallel.write(testData, offset, length);
+		offset += length;
+		parallel.flush();
+	    }
+	}
+	assertTrue(parallel.getCurrentBlockIndex() > 2);
+	parallel.close();
+
+	assertArrayEquals(serialOutput.toByteArray(), parallelOutput.toByteArray());
+	assertEquals(serialCallback.totalBitsWritten, parallelCallback.totalBitsWritten);
+	assertEquals(serialCallback.blockStarts, parallelCallback.blockStarts);
+	assertEquals(parallel.getCurrentBlockIndex() + 1, parallelCallback.blockStarts.size());
+
+	ByteArrayInputStream byteInput = new ByteArrayInputStream(parallelOutput.toByteArray());
+	BZip2InputStream input = new BZip2InputStream(byteInput, false);
+	byte[] decodedTestData = new byte[testData.length];
+	int read = 0;
+	while (read < decodedTestData.length) {
+	    read += input.read(decodedTestData, read, decodedTestData.length - read);
+	}
+	assertArrayEquals(testData, decodedTestData);
+	assertEquals(-1, input.read());
+	input.close();
+    }
+
+    /**
+     * @throws IOException
+     */
+    @Test(expected = BZip2Exception.class)
+    public void testWriteAfterFinish() throws IOException {
+
+	ParallelBZip2OutputStream parallel = new ParallelBZip2OutputStream(new ByteArrayOutputStream(), 1, 1, null);
+	parallel.write('A');
+	parallel.finish();
+	try {
+	    parallel.write('B');
+	} finally {
+	    parallel.close();
+	}
+    }
+}